@@ -0,0 +1,112 @@
+package classification;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import mklab.JGNN.adhoc.ModelBuilder;
+import mklab.JGNN.adhoc.ModelTraining;
+import mklab.JGNN.adhoc.distributed.RingAllReduce;
+import mklab.JGNN.adhoc.train.SampleClassification;
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.Slice;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.matrix.DenseMatrix;
+import mklab.JGNN.nn.Model;
+import mklab.JGNN.nn.initializers.XavierNormal;
+import mklab.JGNN.nn.loss.Accuracy;
+import mklab.JGNN.nn.loss.CategoricalCrossEntropy;
+import mklab.JGNN.nn.optimizers.Adam;
+
+/**
+ * Demonstrates data-parallel training of a two-layer perceptron on synthetic
+ * data by several worker processes on the local host. Without arguments, this
+ * launches the workers as new Java processes with the same classpath. Each
+ * worker trains on its own part of the training samples, and gradients are
+ * summed across workers with a ring all-reduce before each update. The
+ * compute and communication time of each step is printed by the first worker.
+ *
+ * @author Emmanouil Krasanakis
+ */
+public class DataParallel {
+	private static final int NUM_WORKERS = 3;
+	private static final int BASE_PORT = 47800;
+
+	public static void main(String[] args) throws Exception {
+		if (args.length == 0) {
+			List<Process> workers = new ArrayList<Process>();
+			for (int rank = 0; rank < NUM_WORKERS; rank++) {
+				String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+				workers.add(new ProcessBuilder(java, "--add-modules", "jdk.incubator.vector", "-cp",
+						System.getProperty("java.class.path"), DataParallel.class.getName(), "" + rank)
+						.inheritIO().start());
+			}
+			for (Process worker : workers)
+				worker.waitFor();
+			return;
+		}
+		int rank = Integer.parseInt(args[0]);
+
+		// all workers generate the same data
+		int numSamples = 20000;
+		int numFeatures = 64;
+		int numClasses = 8;
+		Random random = new Random(0);
+		Matrix centers = new DenseMatrix(numClasses, numFeatures);
+		for (long pos = 0; pos < centers.size(); pos++)
+			centers.put(pos, random.nextGaussian());
+		Matrix features = new DenseMatrix(numSamples, numFeatures).setDimensionName("samples", "features");
+		Matrix labels = new DenseMatrix(numSamples, numClasses).setDimensionName("samples", "classes");
+		for (int sample = 0; sample < numSamples; sample++) {
+			int label = random.nextInt(numClasses);
+			labels.put(sample, label, 1);
+			for (int feature = 0; feature < numFeatures; feature++)
+				features.put(sample, feature, centers.get(label, feature) + 3 * random.nextGaussian());
+		}
+		Slice samples = new Slice(Tensor.fromRange(0, numSamples)).shuffle(100);
+
+		ModelBuilder modelBuilder = new ModelBuilder()
+				.config("features", numFeatures)
+				.config("classes", numClasses)
+				.config("hidden", 64)
+				.var("x")
+				.operation("h = relu(x@matrix(features, hidden)+vector(hidden))")
+				.operation("yhat = softmax(h@matrix(hidden, classes)+vector(classes), dim: 'row')")
+				.out("yhat");
+
+		try (RingAllReduce allReduce = new RingAllReduce(rank, NUM_WORKERS, BASE_PORT).setVerbose(rank == 0)) {
+			ModelTraining trainer = new SampleClassification()
+					.setFeatures(features)
+					.setOutputs(labels)
+					.setTrainingSamples(allReduce.shard(samples.range(0, 0.8)))
+					.setValidationSamples(allReduce.shard(samples.range(0.8, 0.9)))
+					.setOptimizer(new Adam(0.01))
+					.setEpochs(30)
+					.setPatience(10)
+					.setAllReduce(allReduce)
+					.setLoss(new CategoricalCrossEntropy())
+					.setValidationLoss(new Accuracy());
+
+			long tic = System.currentTimeMillis();
+			Model model = modelBuilder.getModel()
+					.init(new XavierNormal())
+					.train(trainer);
+			long toc = System.currentTimeMillis();
+
+			if (rank == 0) {
+				double acc = 0;
+				for (Long sample : samples.range(0.9, 1)) {
+					Tensor output = model.predict(features.accessRow(sample).asRow()).get(0);
+					acc += output.argmax() == labels.accessRow(sample).argmax() ? 1 : 0;
+				}
+				System.out.println("Acc\t " + acc / samples.range(0.9, 1).size());
+				System.out.println("Time\t " + (toc - tic) / 1000.);
+				System.out.println("Compute\t " + allReduce.getComputeNanos() / 1.E9);
+				System.out.println("Comm\t " + allReduce.getCommunicationNanos() / 1.E9);
+				System.out.println("Sent\t " + allReduce.getBytesSent() + " bytes");
+			}
+		}
+	}
+
+}
@@ -0,0 +1,92 @@
+package classification;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import mklab.JGNN.adhoc.ModelBuilder;
+import mklab.JGNN.adhoc.ModelTraining;
+import mklab.JGNN.adhoc.train.SampleClassification;
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.Slice;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.matrix.DenseMatrix;
+import mklab.JGNN.nn.Model;
+import mklab.JGNN.nn.initializers.XavierNormal;
+import mklab.JGNN.nn.inputs.Parameter;
+import mklab.JGNN.nn.loss.CategoricalCrossEntropy;
+import mklab.JGNN.nn.optimizers.Adam;
+
+/**
+ * Compares the training time and accuracy of a two-layer perceptron on
+ * synthetic data when batches are trained Hogwild!-style by an increasing
+ * number of threads with lock-free optimizer updates. All runs start from the
+ * same parameters.
+ *
+ * @author Emmanouil Krasanakis
+ */
+public class Hogwild {
+
+	public static void main(String[] args) {
+		int numSamples = 20000;
+		int numFeatures = 64;
+		int numClasses = 8;
+		Random random = new Random(0);
+		Matrix centers = new DenseMatrix(numClasses, numFeatures);
+		for (long pos = 0; pos < centers.size(); pos++)
+			centers.put(pos, random.nextGaussian());
+		Matrix features = new DenseMatrix(numSamples, numFeatures).setDimensionName("samples", "features");
+		Matrix labels = new DenseMatrix(numSamples, numClasses).setDimensionName("samples", "classes");
+		for (int sample = 0; sample < numSamples; sample++) {
+			int label = random.nextInt(numClasses);
+			labels.put(sample, label, 1);
+			for (int feature = 0; feature < numFeatures; feature++)
+				features.put(sample, feature, centers.get(label, feature) + 3 * random.nextGaussian());
+		}
+
+		ModelBuilder modelBuilder = new ModelBuilder()
+				.config("features", numFeatures)
+				.config("classes", numClasses)
+				.config("hidden", 64)
+				.var("x")
+				.operation("h = relu(x@matrix(features, hidden)+vector(hidden))")
+				.operation("yhat = softmax(h@matrix(hidden, classes)+vector(classes), dim: 'row')")
+				.out("yhat");
+		List<Tensor> initialParameters = new ArrayList<Tensor>();
+		for (Parameter parameter : modelBuilder.getModel().init(new XavierNormal()).getParameters())
+			initialParameters.add(parameter.get().copy());
+
+		Slice samples = new Slice(Tensor.fromRange(0, numSamples)).shuffle(100);
+		System.out.println("Threads\tStaleness\tSec/epoch\tAcc");
+		for (int staleness : new int[] { 4, Integer.MAX_VALUE })
+			for (int threads : new int[] { 1, 2, 4, 8 }) {
+				Model model = modelBuilder.getModel();
+				for (int i = 0; i < initialParameters.size(); i++)
+					model.getParameters().get(i).set(initialParameters.get(i).copy());
+				int epochs = 20;
+				ModelTraining trainer = new SampleClassification()
+						.setFeatures(features)
+						.setOutputs(labels)
+						.setTrainingSamples(samples.range(0, 0.8))
+						.setValidationSamples(samples.range(0.8, 0.9))
+						.setOptimizer(new Adam(0.001).setLockFree(true))
+						.setEpochs(epochs)
+						.setNumBatches(200)
+						.setHogwild(threads, staleness)
+						.setValidationInterval(epochs)
+						.setLoss(new CategoricalCrossEntropy());
+				long tic = System.currentTimeMillis();
+				model.train(trainer);
+				long toc = System.currentTimeMillis();
+
+				double acc = 0;
+				for (Long sample : samples.range(0.9, 1)) {
+					Tensor output = model.predict(features.accessRow(sample).asRow()).get(0);
+					acc += output.argmax() == labels.accessRow(sample).argmax() ? 1 : 0;
+				}
+				System.out.println(threads + "\t" + (staleness == Integer.MAX_VALUE ? "inf" : staleness) + "\t\t"
+						+ (toc - tic) / 1000. / epochs + "\t\t" + acc / samples.range(0.9, 1).size());
+			}
+	}
+
+}
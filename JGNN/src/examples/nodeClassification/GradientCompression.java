@@ -0,0 +1,85 @@
+package nodeClassification;
+
+import mklab.JGNN.adhoc.Dataset;
+import mklab.JGNN.adhoc.ModelBuilder;
+import mklab.JGNN.adhoc.ModelTraining;
+import mklab.JGNN.adhoc.datasets.Cora;
+import mklab.JGNN.adhoc.parsers.FastBuilder;
+import mklab.JGNN.adhoc.train.SampleClassification;
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.Slice;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.empty.EmptyTensor;
+import mklab.JGNN.nn.Model;
+import mklab.JGNN.nn.initializers.XavierNormal;
+import mklab.JGNN.nn.loss.CategoricalCrossEntropy;
+import mklab.JGNN.nn.optimizers.Adam;
+import mklab.JGNN.nn.optimizers.BatchOptimizer;
+import mklab.JGNN.nn.optimizers.compression.BFloat16Codec;
+import mklab.JGNN.nn.optimizers.compression.Float16Codec;
+import mklab.JGNN.nn.optimizers.compression.GradientCodec;
+import mklab.JGNN.nn.optimizers.compression.SignCodec;
+import mklab.JGNN.nn.optimizers.compression.TopKCodec;
+
+/**
+ * Compares the convergence of the GCN architecture on Cora when gradients are
+ * compressed by different codecs before each update, with and without error
+ * feedback. Each codec's compression ratio is estimated for the 1433x64 weights
+ * of the first layer.
+ *
+ * @author Emmanouil Krasanakis
+ */
+public class GradientCompression {
+	public static void main(String[] args) throws Exception {
+		Dataset dataset = new Cora();
+		dataset.graph().setMainDiagonal(1).setToSymmetricNormalization();
+		long numSamples = dataset.samples().getSlice().size();
+		long numClasses = dataset.labels().getCols();
+		Slice nodes = dataset.samples().getSlice().shuffle(100);
+
+		GradientCodec[] codecs = { null, new Float16Codec(), new BFloat16Codec(), new TopKCodec(0.01),
+				new TopKCodec(0.01), new SignCodec(), new SignCodec() };
+		boolean[] errorFeedback = { false, false, false, false, true, false, true };
+		int weights = (int) dataset.features().getCols() * 64;
+		System.out.println("Codec\t\tFeedback\tRatio\tAcc\tTime");
+		for (int i = 0; i < codecs.length; i++) {
+			ModelBuilder modelBuilder = new FastBuilder(dataset.graph(), dataset.features())
+					.config("reg", 0.005)
+					.config("classes", numClasses)
+					.config("hidden", 64)
+					.function("gcnlayer", "(A,h){Adrop = dropout(A, 0.5); return Adrop@(h@matrix(?, hidden, reg))+vector(?);}")
+					.layer("h{l+1}=relu(gcnlayer(A, h{l}))")
+					.config("hidden", "classes")
+					.layer("h{l+1}=gcnlayer(A, h{l})")
+					.classify()
+					.autosize(new EmptyTensor(numSamples));
+			ModelTraining trainer = new SampleClassification()
+					.setFeatures(nodes.samplesAsFeatures())
+					.setOutputs(dataset.labels())
+					.setTrainingSamples(nodes.range(0, 0.6))
+					.setValidationSamples(nodes.range(0.6, 0.8))
+					.setOptimizer(new BatchOptimizer(new Adam(0.01)).setCompression(codecs[i], errorFeedback[i]))
+					.setEpochs(300)
+					.setPatience(100)
+					.setLoss(new CategoricalCrossEntropy());
+
+			long tic = System.currentTimeMillis();
+			Model model = modelBuilder.getModel()
+					.init(new XavierNormal())
+					.train(trainer);
+			long toc = System.currentTimeMillis();
+
+			Matrix output = model.predict(Tensor.fromRange(0, nodes.size()).asColumn()).get(0).cast(Matrix.class);
+			double acc = 0;
+			for (Long node : nodes.range(0.8, 1)) {
+				Matrix nodeLabels = dataset.labels().accessRow(node).asRow();
+				Tensor nodeOutput = output.accessRow(node).asRow();
+				acc += nodeOutput.argmax() == nodeLabels.argmax() ? 1 : 0;
+			}
+			double ratio = codecs[i] == null ? 1 : 8. * weights / codecs[i].getMaxEncodedBytes(weights);
+			String name = codecs[i] == null ? "none\t" : codecs[i].getClass().getSimpleName();
+			System.out.println(name + "\t" + errorFeedback[i] + "\t\t" + Math.round(ratio) + "x\t"
+					+ acc / nodes.range(0.8, 1).size() + "\t" + (toc - tic) / 1000.);
+		}
+	}
+}
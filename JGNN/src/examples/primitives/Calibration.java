@@ -0,0 +1,28 @@
+package primitives;
+
+import mklab.JGNN.core.util.Reductions;
+import mklab.JGNN.core.util.Thresholds;
+
+/**
+ * Demonstrates calibration of storage-format and kernel thresholds on the
+ * current machine and saves them to the default profile, from which they are
+ * loaded the next time JGNN runs on the same kind of machine.
+ * 
+ * @author Emmanouil Krasanakis
+ */
+public class Calibration {
+	public static void main(String[] args) throws Exception {
+		System.out.println("Initial vectorized size\t " + Thresholds.getVectorizedSize());
+		System.out.println("Initial sparse density\t " + Thresholds.getSparseDensity());
+		System.out.println("Initial parallel size\t " + Reductions.parallelThreshold);
+		long tic = System.currentTimeMillis();
+		Thresholds.calibrate();
+		long toc = System.currentTimeMillis();
+		System.out.println("Vectorized size\t " + Thresholds.getVectorizedSize());
+		System.out.println("Sparse density\t " + Thresholds.getSparseDensity());
+		System.out.println("Parallel size\t " + Reductions.parallelThreshold);
+		System.out.println("Time\t " + (toc - tic) / 1000.);
+		Thresholds.save(Thresholds.getProfile());
+		System.out.println("Saved to " + Thresholds.getProfile());
+	}
+}
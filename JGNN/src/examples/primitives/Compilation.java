@@ -0,0 +1,60 @@
+package primitives;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import mklab.JGNN.adhoc.ModelBuilder;
+import mklab.JGNN.adhoc.parsers.LayeredBuilder;
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.matrix.DenseMatrix;
+import mklab.JGNN.nn.CompiledModel;
+import mklab.JGNN.nn.Model;
+import mklab.JGNN.nn.initializers.XavierNormal;
+
+/**
+ * Demonstrates compilation of a model's forward pass into generated code. A
+ * small multilayer perceptron is compiled for a fixed batch size and the
+ * latency of its compiled predictions is compared to that of the original
+ * model. The compiled model is also saved and loaded back.
+ *
+ * @author Emmanouil Krasanakis
+ */
+public class Compilation {
+	public static void main(String[] args) throws Exception {
+		long batch = 256;
+		ModelBuilder builder = new LayeredBuilder().config("features", 32).config("hidden", 64)
+				.config("classes", 8).layer("h{l+1}=relu(h{l}@matrix(features, hidden)+vector(hidden))")
+				.layer("h{l+1}=relu(h{l}@matrix(hidden, hidden)+vector(hidden))")
+				.layer("h{l+1}=softmax(h{l}@matrix(hidden, classes)+vector(classes), dim: 'row')").out("h{l}")
+				.autosize(new DenseMatrix(batch, 32));
+		Model model = builder.getModel().init(new XavierNormal());
+		Matrix features = new DenseMatrix(batch, 32);
+		features.setToRandom();
+
+		CompiledModel compiled = model.compile(features);
+		System.out.println("Interpreted steps: " + compiled.isInterpreted());
+
+		for (int repeat = 0; repeat < 200; repeat++) {
+			model.predict(features);
+			compiled.predict(features);
+		}
+		long tic = System.nanoTime();
+		for (int repeat = 0; repeat < 1000; repeat++)
+			model.predict(features);
+		long toc = System.nanoTime();
+		System.out.println("Model predict\t " + (toc - tic) / 1000 / 1000 + " us per call");
+		tic = System.nanoTime();
+		for (int repeat = 0; repeat < 1000; repeat++)
+			compiled.predict(features);
+		toc = System.nanoTime();
+		System.out.println("Compiled predict " + (toc - tic) / 1000 / 1000 + " us per call");
+
+		Path path = Files.createTempFile("jgnn", ".compiled");
+		compiled.save(path);
+		CompiledModel loaded = CompiledModel.load(path);
+		Tensor expected = model.predict(features).get(0);
+		Tensor obtained = loaded.predict(features).get(0);
+		System.out.println("Max difference after loading " + expected.subtract(obtained).abs().max());
+	}
+}
@@ -0,0 +1,59 @@
+package primitives;
+
+import java.util.Random;
+
+import mklab.JGNN.adhoc.Graph;
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.Slice;
+import mklab.JGNN.core.matrix.DenseMatrix;
+
+/**
+ * Demonstrates node orderings that improve the memory locality of graph
+ * adjacency matrices. A graph of small communities is generated with randomly
+ * assigned node identifiers, and the bandwidth and average edge span of its
+ * adjacency matrix are reported together with the time needed to multiply it
+ * with a node feature matrix before and after each reordering.
+ *
+ * @author Emmanouil Krasanakis
+ */
+public class Reordering {
+	private static void report(String name, Graph graph, long[] order, Matrix features) {
+		if (order != null) {
+			graph = graph.permuted(order);
+			features = features.gatherRows(new Slice(order));
+		}
+		Graph adjacency = graph.symmetricNormalization();
+		adjacency.multiply(features);
+		long tic = System.currentTimeMillis();
+		for (int repeat = 0; repeat < 20; repeat++)
+			adjacency.multiply(features);
+		long toc = System.currentTimeMillis();
+		System.out.println(name + "\t bandwidth " + graph.getBandwidth() + "\t average span "
+				+ (int) graph.getAverageEdgeSpan() + "\t product time " + (toc - tic) / 20000.);
+	}
+
+	public static void main(String[] args) throws Exception {
+		int nodes = 200000;
+		int community = 50;
+		Random random = new Random(0);
+		Slice ids = new Slice(0, nodes).shuffle(0);
+		long[] from = new long[nodes * 8];
+		long[] to = new long[nodes * 8];
+		for (int edge = 0; edge < from.length; edge++) {
+			int node = random.nextInt(nodes);
+			int neighbor = random.nextDouble() < 0.9 ? node / community * community + random.nextInt(community)
+					: random.nextInt(nodes);
+			from[edge] = ids.get(node);
+			to[edge] = ids.get(neighbor);
+		}
+		Graph graph = new Graph(nodes, from, to).symmetrized();
+		Matrix features = new DenseMatrix(nodes, 32);
+		features.setToRandom();
+
+		report("Original", graph, null, features);
+		report("Degree", graph, graph.degreeOrder(), features);
+		report("BFS", graph, graph.breadthFirstOrder(), features);
+		report("RCM", graph, graph.reverseCuthillMcKeeOrder(), features);
+		report("Community", graph, graph.communityOrder(), features);
+	}
+}
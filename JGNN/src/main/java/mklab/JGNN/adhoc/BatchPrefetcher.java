@@ -0,0 +1,129 @@
+package mklab.JGNN.adhoc;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.IntFunction;
+
+import mklab.JGNN.core.ThreadPool;
+
+/**
+ * Produces the {@link BatchData} of training batches on background threads
+ * ahead of their consumption. At most a fixed number of batches are produced
+ * but not yet consumed, which bounds the memory of prefetched data. Batches are
+ * retrieved by their identifier, so that consumption order and the produced
+ * data do not depend on which producer thread prepared each batch. Producer
+ * threads are started with {@link ThreadPool#startThread(Runnable)} so that
+ * they have identifiers, and hence memory scopes, of their own.
+ *
+ * @author Emmanouil Krasanakis
+ * @see ModelTraining#setPrefetch(int, int)
+ */
+public class BatchPrefetcher {
+	private static final Runnable STOP = () -> {
+	};
+	private final int depth;
+	private final LinkedBlockingQueue<Runnable> tasks = new LinkedBlockingQueue<Runnable>();
+	private final Thread[] producers;
+	private FutureTask<List<BatchData>>[] batches;
+	private int submitted;
+
+	/**
+	 * Instantiates a prefetcher and starts its producer threads.
+	 *
+	 * @param depth   The maximum number of batches produced ahead of
+	 *                consumption.
+	 * @param threads The number of producer threads.
+	 */
+	public BatchPrefetcher(int depth, int threads) {
+		if (depth <= 0)
+			throw new IllegalArgumentException("Prefetch depth should be positive but given " + depth);
+		if (threads <= 0)
+			throw new IllegalArgumentException("The number of prefetch threads should be positive but given " + threads);
+		this.depth = depth;
+		producers = new Thread[threads];
+		for (int i = 0; i < threads; i++)
+			producers[i] = ThreadPool.getInstance().startThread(() -> {
+				try {
+					while (true) {
+						Runnable task = tasks.take();
+						if (task == STOP)
+							break;
+						task.run();
+					}
+				} catch (InterruptedException ex) {
+				}
+			});
+	}
+
+	/**
+	 * Starts producing the batches of a new epoch, discarding any batches of the
+	 * previous one that have not been consumed.
+	 *
+	 * @param producer   A function that creates the data of each batch
+	 *                   identifier. It may be called from multiple threads at
+	 *                   once.
+	 * @param numBatches The number of batches of the epoch.
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized void startEpoch(IntFunction<List<BatchData>> producer, int numBatches) {
+		if (batches != null)
+			for (FutureTask<List<BatchData>> batch : batches)
+				if (batch != null)
+					batch.cancel(false);
+		batches = (FutureTask<List<BatchData>>[]) new FutureTask<?>[numBatches];
+		for (int batch = 0; batch < numBatches; batch++) {
+			int batchId = batch;
+			batches[batch] = new FutureTask<List<BatchData>>(() -> producer.apply(batchId));
+		}
+		submitted = 0;
+		while (submitted < Math.min(depth, numBatches))
+			tasks.add(batches[submitted++]);
+	}
+
+	/**
+	 * Retrieves the data of a batch of the current epoch, waiting for them to be
+	 * produced if needed. This lets the producers start working on one more
+	 * batch. Each batch can be taken only once, as the prefetcher stops
+	 * referencing its data so that they can be garbage collected once consumed.
+	 *
+	 * @param batch The batch identifier.
+	 * @return A list of batch data, as created by the producer function.
+	 * @throws RuntimeException If the producer function threw an exception.
+	 * @throws IllegalArgumentException If the batch has already been taken.
+	 */
+	public List<BatchData> take(int batch) {
+		FutureTask<List<BatchData>> task;
+		synchronized (this) {
+			task = batches[batch];
+			if (task == null)
+				throw new IllegalArgumentException("Batch " + batch + " has already been taken");
+			// keep at most depth batches ahead of the ones taken so far
+			while (submitted < batches.length && submitted < batch + 1 + depth)
+				tasks.add(batches[submitted++]);
+			batches[batch] = null;
+		}
+		try {
+			return task.get();
+		} catch (InterruptedException ex) {
+			throw new RuntimeException(ex);
+		} catch (ExecutionException ex) {
+			if (ex.getCause() instanceof RuntimeException)
+				throw (RuntimeException) ex.getCause();
+			throw new RuntimeException(ex.getCause());
+		}
+	}
+
+	/**
+	 * Stops the producer threads after they conclude their current tasks.
+	 */
+	public synchronized void close() {
+		if (batches != null)
+			for (FutureTask<List<BatchData>> batch : batches)
+				if (batch != null)
+					batch.cancel(false);
+		for (int i = 0; i < producers.length; i++)
+			tasks.add(STOP);
+	}
+}
@@ -0,0 +1,433 @@
+package mklab.JGNN.adhoc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.util.Reductions;
+import mklab.JGNN.nn.Model;
+import mklab.JGNN.nn.Optimizer;
+import mklab.JGNN.nn.inputs.Parameter;
+import mklab.JGNN.nn.optimizers.Adam;
+import mklab.JGNN.nn.optimizers.BatchOptimizer;
+import mklab.JGNN.nn.optimizers.Regularization;
+
+/**
+ * Keeps snapshots of model parameters during {@link ModelTraining#train(Model)}.
+ * Parameters that achieve the best validation loss are copied to preallocated
+ * arrays, which are restored at the end of training. If a checkpoint path is
+ * provided, the current parameters, best parameters, {@link Adam} moments and
+ * training progress are also periodically copied to a second set of arrays,
+ * from which a background thread writes them to disk while training continues.
+ * If the previous write has not concluded by the next checkpoint, that
+ * checkpoint is postponed to the following epoch instead of waiting. Training
+ * resumes from an existing checkpoint file.
+ *
+ * @author Emmanouil Krasanakis
+ * @see ModelTraining#setCheckpointManager(CheckpointManager)
+ */
+public class CheckpointManager {
+	private static final int MAGIC = 0x4A474E4E;
+	private static final int VERSION = 1;
+
+	private final Path path;
+	private int interval = 1;
+	private boolean resume = true;
+	private ExecutorService writer;
+	private Future<?> pendingWrite;
+	private boolean postponed;
+
+	private List<Parameter> parameters;
+	private Adam adam;
+	private double[][] best;
+	private boolean hasBest;
+	private double[][] writeValues;
+	private double[][] writeBest;
+	private double[][] writeFirstMoments;
+	private double[][] writeSecondMoments;
+	private double[][] writeCorrections;
+
+	private int epoch = -1;
+	private double minLoss = Double.POSITIVE_INFINITY;
+	private int patience;
+
+	/**
+	 * Instantiates a checkpoint manager that only keeps the best parameters in
+	 * memory.
+	 */
+	public CheckpointManager() {
+		this(null);
+	}
+
+	/**
+	 * Instantiates a checkpoint manager that keeps the best parameters in memory
+	 * and writes checkpoints to a file after every epoch.
+	 *
+	 * @param path The checkpoint file. Writes go to a temporary file next to it,
+	 *             which then replaces it, so that the file always holds a complete
+	 *             checkpoint. Can be <code>null</code> to not write checkpoints.
+	 * @see #setInterval(int)
+	 */
+	public CheckpointManager(Path path) {
+		this.path = path;
+	}
+
+	/**
+	 * Sets the number of epochs between checkpoint writes.
+	 *
+	 * @param interval The number of epochs. Default is 1.
+	 * @return <code>this</code> checkpoint manager.
+	 */
+	public CheckpointManager setInterval(int interval) {
+		if (interval <= 0)
+			throw new IllegalArgumentException("Checkpoint interval should be positive but given " + interval);
+		this.interval = interval;
+		return this;
+	}
+
+	/**
+	 * Sets whether training should resume from the checkpoint file if it exists.
+	 *
+	 * @param resume A boolean value. Default is <code>true</code>.
+	 * @return <code>this</code> checkpoint manager.
+	 */
+	public CheckpointManager setResume(boolean resume) {
+		this.resume = resume;
+		return this;
+	}
+
+	/**
+	 * Retrieves the last completed epoch, as set by the latest call to
+	 * {@link #endEpoch(int, double, int)} or read from a checkpoint file.
+	 *
+	 * @return An <code>int</code> value that is -1 before the first epoch.
+	 */
+	public int getEpoch() {
+		return epoch;
+	}
+
+	/**
+	 * Retrieves the smallest validation loss found so far.
+	 *
+	 * @return A <code>double</code> value.
+	 */
+	public double getMinLoss() {
+		return minLoss;
+	}
+
+	/**
+	 * Retrieves the remaining patience of early stopping after the last completed
+	 * epoch.
+	 *
+	 * @return An <code>int</code> value.
+	 */
+	public int getPatience() {
+		return patience;
+	}
+
+	/**
+	 * Allocates snapshot memory for the parameters of a model and, if enabled,
+	 * loads the latest checkpoint into the model and optimizer.
+	 *
+	 * @param model     The model being trained.
+	 * @param optimizer The training optimizer. Moments are saved and loaded only
+	 *                  if this is an {@link Adam} instance, possibly wrapped by
+	 *                  {@link BatchOptimizer} or {@link Regularization}.
+	 * @param patience  The initial patience of early stopping.
+	 * @return <code>true</code> if training resumes from a checkpoint.
+	 */
+	public boolean start(Model model, Optimizer optimizer, int patience) {
+		parameters = model.getParameters();
+		adam = findAdam(optimizer);
+		best = allocate(false);
+		hasBest = false;
+		epoch = -1;
+		minLoss = Double.POSITIVE_INFINITY;
+		this.patience = patience;
+		postponed = false;
+		if (path == null)
+			return false;
+		writeValues = allocate(false);
+		writeBest = allocate(false);
+		writeFirstMoments = allocate(true);
+		writeSecondMoments = allocate(true);
+		writeCorrections = new double[parameters.size()][];
+		if (writer == null)
+			writer = Executors.newSingleThreadExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "JGNN checkpoint writer");
+				thread.setDaemon(true);
+				return thread;
+			});
+		return resume && Files.exists(path) && load();
+	}
+
+	/**
+	 * Copies the current parameters as the best ones. This does not allocate new
+	 * memory.
+	 *
+	 * @param loss The validation loss of the current parameters.
+	 */
+	public void improve(double loss) {
+		minLoss = loss;
+		for (int i = 0; i < best.length; i++)
+			copy(parameters.get(i).get(), best[i]);
+		hasBest = true;
+	}
+
+	/**
+	 * Copies snapshot values of parameters as the best ones, for example when
+	 * validation ran on a snapshot while training continued. This does not
+	 * allocate new memory.
+	 *
+	 * @param loss   The validation loss of the snapshot.
+	 * @param values The snapshot values, in the same order as the model's
+	 *               {@link Model#getParameters()}.
+	 */
+	public void improve(double loss, List<Tensor> values) {
+		minLoss = loss;
+		for (int i = 0; i < best.length; i++)
+			copy(values.get(i), best[i]);
+		hasBest = true;
+	}
+
+	/**
+	 * Marks the end of a training epoch and starts writing a checkpoint in the
+	 * background if one is due and no previous write is in progress.
+	 *
+	 * @param epoch    The epoch that concluded.
+	 * @param minLoss  The smallest validation loss found so far.
+	 * @param patience The remaining patience of early stopping.
+	 */
+	public void endEpoch(int epoch, double minLoss, int patience) {
+		this.epoch = epoch;
+		this.minLoss = minLoss;
+		this.patience = patience;
+		if (path == null || (!postponed && (epoch + 1) % interval != 0))
+			return;
+		if (pendingWrite != null && !pendingWrite.isDone()) {
+			postponed = true;
+			return;
+		}
+		postponed = false;
+		snapshot();
+		int savedEpoch = epoch;
+		double savedLoss = minLoss;
+		int savedPatience = patience;
+		boolean savedBest = hasBest;
+		pendingWrite = writer.submit(() -> write(savedEpoch, savedLoss, savedPatience, savedBest));
+	}
+
+	/**
+	 * Waits for pending checkpoint writes to conclude, writes any postponed
+	 * checkpoint, and then sets the best parameters found, if any, as the model's
+	 * parameter values.
+	 */
+	public void finish() {
+		if (pendingWrite != null) {
+			try {
+				pendingWrite.get();
+			} catch (Exception ex) {
+				System.err.println(ex.toString());
+			}
+			pendingWrite = null;
+		}
+		if (postponed) {
+			postponed = false;
+			snapshot();
+			write(epoch, minLoss, patience, hasBest);
+		}
+		if (hasBest)
+			for (int i = 0; i < best.length; i++)
+				copy(best[i], parameters.get(i).get());
+	}
+
+	private static Adam findAdam(Optimizer optimizer) {
+		while (true) {
+			if (optimizer instanceof Adam)
+				return (Adam) optimizer;
+			if (optimizer instanceof BatchOptimizer)
+				optimizer = ((BatchOptimizer) optimizer).getBaseOptimizer();
+			else if (optimizer instanceof Regularization)
+				optimizer = ((Regularization) optimizer).getBaseOptimizer();
+			else
+				return null;
+		}
+	}
+
+	private double[][] allocate(boolean lazy) {
+		double[][] ret = new double[parameters.size()][];
+		if (!lazy)
+			for (int i = 0; i < ret.length; i++)
+				ret[i] = new double[(int) parameters.get(i).get().size()];
+		return ret;
+	}
+
+	/**
+	 * Copies the values of a tensor to another one with the same size, using bulk
+	 * array copies for dense storage.
+	 */
+	static void copy(Tensor from, Tensor to) {
+		double[] values = Reductions.getDenseValues(from);
+		if (values != null)
+			copy(values, to);
+		else
+			for (long i = 0; i < from.size(); i++)
+				to.put(i, from.get(i));
+	}
+
+	private static void copy(Tensor from, double[] to) {
+		double[] values = Reductions.getDenseValues(from);
+		if (values != null)
+			System.arraycopy(values, 0, to, 0, to.length);
+		else
+			for (int i = 0; i < to.length; i++)
+				to[i] = from.get(i);
+	}
+
+	private static void copy(double[] from, Tensor to) {
+		double[] values = Reductions.getDenseValues(to);
+		if (values != null)
+			System.arraycopy(from, 0, values, 0, from.length);
+		else
+			for (int i = 0; i < from.length; i++)
+				to.put(i, from[i]);
+	}
+
+	private void snapshot() {
+		for (int i = 0; i < parameters.size(); i++) {
+			Tensor value = parameters.get(i).get();
+			copy(value, writeValues[i]);
+			if (hasBest)
+				System.arraycopy(best[i], 0, writeBest[i], 0, best[i].length);
+			Tensor[] state = adam == null ? null : adam.getState(value);
+			if (state == null) {
+				writeCorrections[i] = null;
+				continue;
+			}
+			if (writeFirstMoments[i] == null) {
+				writeFirstMoments[i] = new double[writeValues[i].length];
+				writeSecondMoments[i] = new double[writeValues[i].length];
+			}
+			copy(state[0], writeFirstMoments[i]);
+			copy(state[1], writeSecondMoments[i]);
+			writeCorrections[i] = new double[] { state[2].toDouble(), state[3].toDouble() };
+		}
+	}
+
+	private void write(int epoch, double minLoss, int patience, boolean hasBest) {
+		Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(epoch);
+			out.writeDouble(minLoss);
+			out.writeInt(patience);
+			out.writeInt(writeValues.length);
+			out.writeBoolean(hasBest);
+			for (int i = 0; i < writeValues.length; i++) {
+				out.writeInt(writeValues[i].length);
+				writeArray(out, writeValues[i]);
+				if (hasBest)
+					writeArray(out, writeBest[i]);
+				out.writeBoolean(writeCorrections[i] != null);
+				if (writeCorrections[i] != null) {
+					out.writeDouble(writeCorrections[i][0]);
+					out.writeDouble(writeCorrections[i][1]);
+					writeArray(out, writeFirstMoments[i]);
+					writeArray(out, writeSecondMoments[i]);
+				}
+			}
+		} catch (IOException ex) {
+			System.err.println(ex.toString());
+			return;
+		}
+		try {
+			Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException ex) {
+			System.err.println(ex.toString());
+		}
+	}
+
+	private boolean load() {
+		// the whole file is read into the idle write buffers and validated before
+		// anything is committed, so that corrupt or truncated checkpoints leave the
+		// model and optimizer untouched
+		int loadedEpoch;
+		double loadedLoss;
+		int loadedPatience;
+		boolean loadedBest;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new IllegalArgumentException("Not a supported checkpoint file: " + path);
+			loadedEpoch = in.readInt();
+			loadedLoss = in.readDouble();
+			loadedPatience = in.readInt();
+			if (in.readInt() != parameters.size())
+				throw new IllegalArgumentException("Checkpoint " + path + " does not match the number of model parameters");
+			loadedBest = in.readBoolean();
+			for (int i = 0; i < parameters.size(); i++) {
+				int size = in.readInt();
+				if (size != writeValues[i].length)
+					throw new IllegalArgumentException("Checkpoint " + path + " holds " + size
+							+ " elements for a parameter of size " + writeValues[i].length);
+				readArray(in, writeValues[i]);
+				if (loadedBest)
+					readArray(in, writeBest[i]);
+				writeCorrections[i] = null;
+				if (in.readBoolean()) {
+					writeCorrections[i] = new double[] { in.readDouble(), in.readDouble() };
+					if (writeFirstMoments[i] == null) {
+						writeFirstMoments[i] = new double[size];
+						writeSecondMoments[i] = new double[size];
+					}
+					readArray(in, writeFirstMoments[i]);
+					readArray(in, writeSecondMoments[i]);
+				}
+			}
+			if (in.read() != -1)
+				throw new IllegalArgumentException("Checkpoint " + path + " holds more data than the model parameters");
+		} catch (IOException ex) {
+			System.err.println(ex.toString());
+			return false;
+		}
+		for (int i = 0; i < parameters.size(); i++) {
+			Tensor value = parameters.get(i).get();
+			copy(writeValues[i], value);
+			if (loadedBest)
+				System.arraycopy(writeBest[i], 0, best[i], 0, best[i].length);
+			if (writeCorrections[i] != null && adam != null) {
+				Tensor firstMoment = value.zeroCopy();
+				Tensor secondMoment = value.zeroCopy();
+				copy(writeFirstMoments[i], firstMoment);
+				copy(writeSecondMoments[i], secondMoment);
+				adam.setState(value, firstMoment, secondMoment, writeCorrections[i][0], writeCorrections[i][1]);
+			}
+		}
+		epoch = loadedEpoch;
+		minLoss = loadedLoss;
+		patience = loadedPatience;
+		hasBest = loadedBest;
+		return true;
+	}
+
+	private static void writeArray(DataOutputStream out, double[] values) throws IOException {
+		for (double value : values)
+			out.writeDouble(value);
+	}
+
+	private static void readArray(DataInputStream in, double[] values) throws IOException {
+		for (int i = 0; i < values.length; i++)
+			values[i] = in.readDouble();
+	}
+}
@@ -10,7 +10,10 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
 import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.Slice;
 import mklab.JGNN.core.Tensor;
 import mklab.JGNN.core.matrix.SparseMatrix;
 import mklab.JGNN.core.matrix.WrapRows;
@@ -77,21 +80,49 @@ public class Dataset {
 	}
 
 	protected void loadGraph(String file) {
-		graph = new SparseMatrix(nodes.size(), nodes.size());
+		LongArrayList edgeSources = new LongArrayList();
+		LongArrayList edgeTargets = new LongArrayList();
 		try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
 			String line = reader.readLine();
 			while (line != null) {
 				String[] cols = line.split(",");
 				if (cols.length < 2)
 					continue;
-				long from = nodes.getId(cols[0]);
-				long to = nodes.getId(cols[1]);
-				graph.put(from, to, 1).put(to, from, 1);
+				edgeSources.add(nodes.getId(cols[0]));
+				edgeTargets.add(nodes.getId(cols[1]));
 				line = reader.readLine();
 			}
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
+		graph = new Graph(nodes.size(), edgeSources.toLongArray(), edgeTargets.toLongArray()).symmetrized()
+				.toMatrix();
+	}
+
+	/**
+	 * Reorders the dataset's samples so that the sample previously at position
+	 * <code>order[i]</code> moves to position i. Rows of {@link #features()} and
+	 * {@link #labels()}, and both rows and columns of {@link #graph()}, are
+	 * permuted consistently, and {@link #samples()} is updated so that sample
+	 * objects keep mapping to their data. Orderings that improve memory locality
+	 * can be obtained with {@link Graph} methods, for example per
+	 * <code>dataset.reorder(new Graph(dataset.graph()).reverseCuthillMcKeeOrder())</code>.
+	 * 
+	 * @param order An array where the i-th element is the previous position of the
+	 *              sample placed at position i. It should contain each position
+	 *              exactly once.
+	 * @return <code>this</code> dataset.
+	 * @see Graph#getBandwidth()
+	 */
+	public Dataset reorder(long[] order) {
+		nodes.permute(order);
+		Slice rows = new Slice(order);
+		features = features.gatherRows(rows);
+		labels = labels.gatherRows(rows);
+		if (graph != null)
+			graph = new Graph(graph).permuted(order).toMatrix().setDimensionName(graph.getRowName(),
+					graph.getColName());
+		return this;
 	}
 
 	/**
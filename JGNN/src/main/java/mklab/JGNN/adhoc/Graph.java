@@ -0,0 +1,849 @@
+package mklab.JGNN.adhoc;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.ThreadPool;
+import mklab.JGNN.core.matrix.DenseMatrix;
+import mklab.JGNN.core.matrix.SparseMatrix;
+import mklab.JGNN.core.tensor.DenseTensor;
+import mklab.JGNN.core.util.Reductions;
+
+/**
+ * Stores the adjacency matrix of a graph in compressed rows of primitive arrays
+ * and provides common preprocessing steps, such as computing node degrees,
+ * adding self-loops, symmetrizing edges, and normalizing edge weights. Edges
+ * of each row are sorted by destination node without duplicates. Steps are
+ * computed in parallel across rows with {@link ThreadPool#parallelFor} when the
+ * graph has at least {@link Reductions#parallelThreshold} edges.<br>
+ * Graphs are immutable, and each preprocessing step creates a new one that is
+ * cached, so that requesting the same step again retrieves the same instance.
+ * For example, the typical GCN adjacency matrix can be obtained per
+ * <code>new Graph(adjacency).addSelfLoops(1).symmetricNormalization().toMatrix()</code>.
+ * Graphs can also compute node orderings that improve the memory locality of
+ * their adjacency matrices, together with metrics of that locality.
+ *
+ * @author Emmanouil Krasanakis
+ * @see Dataset#graph()
+ */
+public class Graph {
+	private interface RowKernel {
+		void run(int from, int to);
+	}
+
+	private final int nodes;
+	private final int[] start;
+	private final int[] index;
+	private final double[] value;
+	private final Map<String, Object> cache = new ConcurrentHashMap<String, Object>();
+
+	private Graph(int nodes, int[] start, int[] index, double[] value) {
+		this.nodes = nodes;
+		this.start = start;
+		this.index = index;
+		this.value = value;
+	}
+
+	/**
+	 * Instantiates a graph from the non-zero elements of a square adjacency
+	 * matrix, where each element <code>(u,v)</code> is the weight of an edge from
+	 * node u to node v.
+	 *
+	 * @param adjacency The adjacency matrix.
+	 */
+	public Graph(Matrix adjacency) {
+		if (adjacency.getRows() != adjacency.getCols())
+			throw new IllegalArgumentException("Graphs require square adjacency matrices but found " + adjacency.describe());
+		nodes = checkNodes(adjacency.getRows());
+		start = new int[nodes + 1];
+		long count = 0;
+		for (Entry<Long, Long> entry : adjacency.getNonZeroEntries()) {
+			long row = entry.getKey();
+			start[(int) row + 1]++;
+			count++;
+		}
+		int[] index = new int[checkEdges(count)];
+		double[] value = new double[(int) count];
+		for (int node = 0; node < nodes; node++)
+			start[node + 1] += start[node];
+		int[] next = Arrays.copyOf(start, nodes);
+		for (Entry<Long, Long> entry : adjacency.getNonZeroEntries()) {
+			long row = entry.getKey();
+			long col = entry.getValue();
+			int pos = next[(int) row]++;
+			index[pos] = (int) col;
+			value[pos] = adjacency.get(row, col);
+		}
+		int edges = sortRows(nodes, start, index, value);
+		this.index = edges == index.length ? index : Arrays.copyOf(index, edges);
+		this.value = edges == value.length ? value : Arrays.copyOf(value, edges);
+	}
+
+	/**
+	 * Instantiates a graph with unit edge weights from lists of edges. Repeated
+	 * edges are kept only once.
+	 *
+	 * @param nodes The number of nodes.
+	 * @param from  The source node of each edge.
+	 * @param to    The destination node of each edge.
+	 * @see #Graph(long, long[], long[], double[])
+	 */
+	public Graph(long nodes, long[] from, long[] to) {
+		this(nodes, from, to, null);
+	}
+
+	/**
+	 * Instantiates a graph from lists of weighted edges. For repeated edges, only
+	 * the one with the largest weight is kept.
+	 *
+	 * @param nodes   The number of nodes.
+	 * @param from    The source node of each edge.
+	 * @param to      The destination node of each edge.
+	 * @param weights The weight of each edge, or <code>null</code> for unit
+	 *                weights.
+	 */
+	public Graph(long nodes, long[] from, long[] to, double[] weights) {
+		if (from.length != to.length || (weights != null && weights.length != from.length))
+			throw new IllegalArgumentException("Edge lists should have the same length");
+		this.nodes = checkNodes(nodes);
+		start = new int[this.nodes + 1];
+		for (int edge = 0; edge < from.length; edge++) {
+			if (from[edge] < 0 || from[edge] >= nodes || to[edge] < 0 || to[edge] >= nodes)
+				throw new IllegalArgumentException(
+						"Edge " + from[edge] + "," + to[edge] + " is out of bounds for " + nodes + " nodes");
+			start[(int) from[edge] + 1]++;
+		}
+		for (int node = 0; node < this.nodes; node++)
+			start[node + 1] += start[node];
+		int[] index = new int[checkEdges(from.length)];
+		double[] value = new double[from.length];
+		int[] next = Arrays.copyOf(start, this.nodes);
+		for (int edge = 0; edge < from.length; edge++) {
+			int pos = next[(int) from[edge]]++;
+			index[pos] = (int) to[edge];
+			value[pos] = weights == null ? 1 : weights[edge];
+		}
+		int edges = sortRows(this.nodes, start, index, value);
+		this.index = edges == index.length ? index : Arrays.copyOf(index, edges);
+		this.value = edges == value.length ? value : Arrays.copyOf(value, edges);
+	}
+
+	private static int checkNodes(long nodes) {
+		if (nodes < 0 || nodes > Integer.MAX_VALUE - 8)
+			throw new IllegalArgumentException("Unsupported number of graph nodes: " + nodes);
+		return (int) nodes;
+	}
+
+	private static int checkEdges(long edges) {
+		if (edges > Integer.MAX_VALUE - 8)
+			throw new IllegalArgumentException("Too many graph edges: " + edges);
+		return (int) edges;
+	}
+
+	private static void forRows(int nodes, long edges, RowKernel kernel) {
+		int threads = ThreadPool.getInstance().getMaxThreads();
+		if (edges < Reductions.parallelThreshold || threads <= 1 || nodes < 2) {
+			kernel.run(0, nodes);
+			return;
+		}
+		int chunks = Math.min(nodes, threads * 4);
+		ThreadPool.getInstance().parallelFor(chunks,
+				chunk -> kernel.run((int) ((long) chunk * nodes / chunks), (int) ((long) (chunk + 1) * nodes / chunks)));
+	}
+
+	/**
+	 * Sorts each row by column, merges repeated columns by keeping their maximum
+	 * value, and removes zero values. Rows are then moved so that they are
+	 * contiguous, and the remaining number of elements is returned.
+	 */
+	private static int sortRows(int nodes, int[] start, int[] index, double[] value) {
+		int[] lengths = new int[nodes];
+		forRows(nodes, index.length, (from, to) -> {
+			for (int row = from; row < to; row++) {
+				int rowStart = start[row];
+				int rowEnd = start[row + 1];
+				boolean sorted = true;
+				for (int pos = rowStart + 1; pos < rowEnd && sorted; pos++)
+					sorted = index[pos - 1] < index[pos];
+				long[] keys = null;
+				double[] values = null;
+				if (!sorted) {
+					keys = new long[rowEnd - rowStart];
+					for (int pos = rowStart; pos < rowEnd; pos++)
+						keys[pos - rowStart] = ((long) index[pos] << 32) | (pos - rowStart);
+					Arrays.sort(keys);
+					values = Arrays.copyOfRange(value, rowStart, rowEnd);
+				}
+				// compaction writes never overtake the reads of sorted rows
+				int length = 0;
+				for (int i = 0; i < rowEnd - rowStart; i++) {
+					int col = sorted ? index[rowStart + i] : (int) (keys[i] >>> 32);
+					double weight = sorted ? value[rowStart + i] : values[(int) keys[i]];
+					if (weight == 0)
+						continue;
+					if (length > 0 && index[rowStart + length - 1] == col)
+						value[rowStart + length - 1] = Math.max(value[rowStart + length - 1], weight);
+					else {
+						index[rowStart + length] = col;
+						value[rowStart + length] = weight;
+						length++;
+					}
+				}
+				lengths[row] = length;
+			}
+		});
+		int edges = 0;
+		for (int row = 0; row < nodes; row++) {
+			int rowStart = start[row];
+			if (edges != rowStart) {
+				System.arraycopy(index, rowStart, index, edges, lengths[row]);
+				System.arraycopy(value, rowStart, value, edges, lengths[row]);
+			}
+			start[row] = edges;
+			edges += lengths[row];
+		}
+		start[nodes] = edges;
+		return edges;
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> T cached(String key, Supplier<T> supplier) {
+		Object ret = cache.get(key);
+		if (ret == null) {
+			ret = supplier.get();
+			Object previous = cache.putIfAbsent(key, ret);
+			if (previous != null)
+				ret = previous;
+		}
+		return (T) ret;
+	}
+
+	/**
+	 * Retrieves the number of graph nodes.
+	 *
+	 * @return A non-negative number.
+	 */
+	public long getNumNodes() {
+		return nodes;
+	}
+
+	/**
+	 * Retrieves the number of graph edges, where edges in both directions are
+	 * counted twice.
+	 *
+	 * @return A non-negative number.
+	 */
+	public long getNumEdges() {
+		return index.length;
+	}
+
+	/**
+	 * Computes the sum of edge weights from each node.
+	 *
+	 * @return A {@link Tensor} with one element per node.
+	 * @see #getInDegrees()
+	 */
+	public Tensor getOutDegrees() {
+		return new DenseTensor(outDegrees());
+	}
+
+	/**
+	 * Computes the sum of edge weights to each node.
+	 *
+	 * @return A {@link Tensor} with one element per node.
+	 * @see #getOutDegrees()
+	 */
+	public Tensor getInDegrees() {
+		return new DenseTensor(inDegrees());
+	}
+
+	private double[] inDegrees() {
+		return cached("inDegrees", () -> {
+			double[] degrees = new double[nodes];
+			for (int pos = 0; pos < index.length; pos++)
+				degrees[index[pos]] += value[pos];
+			return degrees;
+		});
+	}
+
+	private double[] outDegrees() {
+		return cached("outDegrees", () -> {
+			double[] degrees = new double[nodes];
+			forRows(nodes, index.length, (from, to) -> {
+				for (int row = from; row < to; row++)
+					for (int pos = start[row]; pos < start[row + 1]; pos++)
+						degrees[row] += value[pos];
+			});
+			return degrees;
+		});
+	}
+
+	/**
+	 * Creates a graph whose edges are reversed.
+	 *
+	 * @return A {@link Graph}.
+	 */
+	public Graph transposed() {
+		return cached("transposed", () -> {
+			int[] tStart = new int[nodes + 1];
+			for (int pos = 0; pos < index.length; pos++)
+				tStart[index[pos] + 1]++;
+			for (int node = 0; node < nodes; node++)
+				tStart[node + 1] += tStart[node];
+			int[] tIndex = new int[index.length];
+			double[] tValue = new double[index.length];
+			int[] next = Arrays.copyOf(tStart, nodes);
+			// rows are visited in order, so transposed rows are also sorted
+			for (int row = 0; row < nodes; row++)
+				for (int pos = start[row]; pos < start[row + 1]; pos++) {
+					int tPos = next[index[pos]]++;
+					tIndex[tPos] = row;
+					tValue[tPos] = value[pos];
+				}
+			return new Graph(nodes, tStart, tIndex, tValue);
+		});
+	}
+
+	/**
+	 * Creates a graph where each edge also exists in the opposite direction. The
+	 * weight of edges that exist in both directions becomes the largest of the
+	 * two.
+	 *
+	 * @return A {@link Graph}.
+	 */
+	public Graph symmetrized() {
+		return cached("symmetrized", () -> {
+			Graph other = transposed();
+			int[] lengths = new int[nodes];
+			forRows(nodes, index.length, (from, to) -> {
+				for (int row = from; row < to; row++)
+					lengths[row] = merge(row, other, null, null, 0);
+			});
+			int[] sStart = new int[nodes + 1];
+			for (int row = 0; row < nodes; row++)
+				sStart[row + 1] = sStart[row] + lengths[row];
+			int[] sIndex = new int[checkEdges(sStart[nodes])];
+			double[] sValue = new double[sIndex.length];
+			forRows(nodes, index.length, (from, to) -> {
+				for (int row = from; row < to; row++)
+					merge(row, other, sIndex, sValue, sStart[row]);
+			});
+			return new Graph(nodes, sStart, sIndex, sValue);
+		});
+	}
+
+	/**
+	 * Merges a row with the same row of another graph while keeping maximum
+	 * values. If arrays to write into are null, only the merged length is
+	 * computed.
+	 */
+	private int merge(int row, Graph other, int[] outIndex, double[] outValue, int offset) {
+		int pos = start[row];
+		int end = start[row + 1];
+		int otherPos = other.start[row];
+		int otherEnd = other.start[row + 1];
+		int length = 0;
+		while (pos < end || otherPos < otherEnd) {
+			int col;
+			double weight;
+			if (otherPos >= otherEnd || (pos < end && index[pos] < other.index[otherPos])) {
+				col = index[pos];
+				weight = value[pos++];
+			} else if (pos >= end || other.index[otherPos] < index[pos]) {
+				col = other.index[otherPos];
+				weight = other.value[otherPos++];
+			} else {
+				col = index[pos];
+				weight = Math.max(value[pos++], other.value[otherPos++]);
+			}
+			if (outIndex != null) {
+				outIndex[offset + length] = col;
+				outValue[offset + length] = weight;
+			}
+			length++;
+		}
+		return length;
+	}
+
+	/**
+	 * Creates a graph where each node has a self-loop of the given weight, which
+	 * replaces the weight of previously existing self-loops.
+	 *
+	 * @param weight The weight of self-loops.
+	 * @return A {@link Graph}.
+	 */
+	public Graph addSelfLoops(double weight) {
+		return cached("selfLoops" + weight, () -> {
+			int[] lStart = new int[nodes + 1];
+			for (int row = 0; row < nodes; row++)
+				lStart[row + 1] = lStart[row] + (start[row + 1] - start[row])
+						+ (Arrays.binarySearch(index, start[row], start[row + 1], row) < 0 ? 1 : 0);
+			int[] lIndex = new int[checkEdges(lStart[nodes])];
+			double[] lValue = new double[lIndex.length];
+			forRows(nodes, index.length, (from, to) -> {
+				for (int row = from; row < to; row++) {
+					int out = lStart[row];
+					boolean added = false;
+					for (int pos = start[row]; pos < start[row + 1]; pos++) {
+						if (!added && index[pos] >= row) {
+							lIndex[out] = row;
+							lValue[out++] = weight;
+							added = true;
+							if (index[pos] == row)
+								continue;
+						}
+						lIndex[out] = index[pos];
+						lValue[out++] = value[pos];
+					}
+					if (!added) {
+						lIndex[out] = row;
+						lValue[out] = weight;
+					}
+				}
+			});
+			return new Graph(nodes, lStart, lIndex, lValue);
+		});
+	}
+
+	private Graph scaled(double[] rowScale, double[] colScale) {
+		double[] sValue = new double[value.length];
+		forRows(nodes, index.length, (from, to) -> {
+			for (int row = from; row < to; row++)
+				for (int pos = start[row]; pos < start[row + 1]; pos++)
+					sValue[pos] = value[pos] * (rowScale == null ? 1 : rowScale[row])
+							* (colScale == null ? 1 : colScale[index[pos]]);
+		});
+		return new Graph(nodes, start, index, sValue);
+	}
+
+	private static double[] inversePower(double[] degrees, double power) {
+		double[] ret = new double[degrees.length];
+		for (int i = 0; i < degrees.length; i++)
+			ret[i] = degrees[i] == 0 ? 0 : Math.pow(degrees[i], power);
+		return ret;
+	}
+
+	/**
+	 * Creates a graph whose edge weights are divided by the square roots of the
+	 * out-degree of their source and the in-degree of their destination. This is
+	 * equivalent to {@link Matrix#setToSymmetricNormalization()}.
+	 *
+	 * @return A {@link Graph}.
+	 */
+	public Graph symmetricNormalization() {
+		return cached("symmetricNormalization",
+				() -> scaled(inversePower(outDegrees(), -0.5), inversePower(inDegrees(), -0.5)));
+	}
+
+	/**
+	 * Creates a graph whose edge weights are divided by the out-degree of their
+	 * source, so that the weights of edges from each node sum to one.
+	 *
+	 * @return A {@link Graph}.
+	 */
+	public Graph randomWalkNormalization() {
+		return cached("randomWalkNormalization", () -> scaled(inversePower(outDegrees(), -1), null));
+	}
+
+	/**
+	 * Creates a graph whose edge weights are divided by the in-degree of their
+	 * destination. This is equivalent to
+	 * {@link Matrix#setToASymmetricNormalization()}.
+	 *
+	 * @return A {@link Graph}.
+	 */
+	public Graph asymmetricNormalization() {
+		return cached("asymmetricNormalization", () -> scaled(null, inversePower(inDegrees(), -1)));
+	}
+
+	/**
+	 * Creates a graph whose edge weights approximate personalized PageRank scores
+	 * <code>alpha*(I + (1-alpha)*A + (1-alpha)^2*A^2 + ... + (1-alpha)^hops*A^hops)</code>,
+	 * where A is this graph's adjacency matrix, which is typically normalized
+	 * beforehand. To keep scores sparse, only the greatest scores of each node are
+	 * kept after each hop.
+	 *
+	 * @param alpha The restart probability, in the range (0,1).
+	 * @param hops  The number of hops, at least 1.
+	 * @param topK  The maximum number of scores kept for each node, or 0 to keep
+	 *              all of them.
+	 * @return A {@link Graph}.
+	 * @see #symmetricNormalization()
+	 */
+	public Graph personalizedPageRank(double alpha, int hops, int topK) {
+		if (alpha <= 0 || alpha >= 1)
+			throw new IllegalArgumentException("The restart probability should be in the range (0,1) but given " + alpha);
+		if (hops < 1)
+			throw new IllegalArgumentException("At least one hop is needed but given " + hops);
+		if (topK < 0)
+			throw new IllegalArgumentException("The number of kept scores should be non-negative but given " + topK);
+		return cached("personalizedPageRank" + alpha + "," + hops + "," + topK, () -> {
+			int[][] rowIndex = new int[nodes][];
+			double[][] rowValue = new double[nodes][];
+			forRows(nodes, index.length, (from, to) -> {
+				for (int row = from; row < to; row++) {
+					Int2DoubleOpenHashMap score = new Int2DoubleOpenHashMap();
+					Int2DoubleOpenHashMap mass = new Int2DoubleOpenHashMap();
+					score.put(row, alpha);
+					mass.put(row, 1);
+					for (int hop = 1; hop <= hops; hop++) {
+						Int2DoubleOpenHashMap nextMass = new Int2DoubleOpenHashMap(mass.size() * 2);
+						for (Int2DoubleMap.Entry entry : mass.int2DoubleEntrySet()) {
+							int node = entry.getIntKey();
+							double nodeMass = (1 - alpha) * entry.getDoubleValue();
+							for (int pos = start[node]; pos < start[node + 1]; pos++)
+								nextMass.addTo(index[pos], nodeMass * value[pos]);
+						}
+						mass = prune(nextMass, topK);
+						for (Int2DoubleMap.Entry entry : mass.int2DoubleEntrySet())
+							score.addTo(entry.getIntKey(), alpha * entry.getDoubleValue());
+					}
+					score = prune(score, topK);
+					int[] scored = score.keySet().toIntArray();
+					Arrays.sort(scored);
+					rowIndex[row] = scored;
+					rowValue[row] = new double[scored.length];
+					for (int i = 0; i < scored.length; i++)
+						rowValue[row][i] = score.get(scored[i]);
+				}
+			});
+			int[] pStart = new int[nodes + 1];
+			for (int row = 0; row < nodes; row++)
+				pStart[row + 1] = pStart[row] + rowIndex[row].length;
+			int[] pIndex = new int[checkEdges(pStart[nodes])];
+			double[] pValue = new double[pIndex.length];
+			for (int row = 0; row < nodes; row++) {
+				System.arraycopy(rowIndex[row], 0, pIndex, pStart[row], rowIndex[row].length);
+				System.arraycopy(rowValue[row], 0, pValue, pStart[row], rowValue[row].length);
+			}
+			return new Graph(nodes, pStart, pIndex, pValue);
+		});
+	}
+
+	/**
+	 * Keeps only the non-zero values of greatest magnitude.
+	 */
+	private static Int2DoubleOpenHashMap prune(Int2DoubleOpenHashMap values, int topK) {
+		values.values().removeIf(value -> value == 0);
+		if (topK == 0 || values.size() <= topK)
+			return values;
+		double[] magnitudes = values.values().toDoubleArray();
+		for (int i = 0; i < magnitudes.length; i++)
+			magnitudes[i] = Math.abs(magnitudes[i]);
+		Arrays.sort(magnitudes);
+		double minimum = magnitudes[magnitudes.length - topK];
+		Int2DoubleOpenHashMap ret = new Int2DoubleOpenHashMap(topK);
+		for (Int2DoubleMap.Entry entry : values.int2DoubleEntrySet())
+			if (Math.abs(entry.getDoubleValue()) >= minimum && ret.size() < topK)
+				ret.put(entry.getIntKey(), entry.getDoubleValue());
+		return ret;
+	}
+
+	/**
+	 * Computes the largest difference between the identifiers of connected nodes,
+	 * that is the bandwidth of the adjacency matrix. Reorderings that reduce the
+	 * bandwidth keep the feature rows read by each node close in memory when
+	 * the adjacency matrix is multiplied with node features.
+	 *
+	 * @return A non-negative number.
+	 * @see #getAverageEdgeSpan()
+	 * @see #reverseCuthillMcKeeOrder()
+	 */
+	public long getBandwidth() {
+		long ret = 0;
+		for (int row = 0; row < nodes; row++)
+			if (start[row] != start[row + 1])
+				ret = Math.max(ret, Math.max(row - index[start[row]], index[start[row + 1] - 1] - row));
+		return ret;
+	}
+
+	/**
+	 * Computes the average difference between the identifiers of connected nodes.
+	 * This measures the locality of memory accesses that follow edges, even when
+	 * a few long edges make the {@link #getBandwidth()} large.
+	 *
+	 * @return A non-negative number.
+	 */
+	public double getAverageEdgeSpan() {
+		if (index.length == 0)
+			return 0;
+		double ret = 0;
+		for (int row = 0; row < nodes; row++)
+			for (int pos = start[row]; pos < start[row + 1]; pos++)
+				ret += Math.abs(index[pos] - row);
+		return ret / index.length;
+	}
+
+	/**
+	 * Computes the reverse Cuthill-McKee ordering of nodes, which visits each
+	 * connected component breadth-first starting from its node with the fewest
+	 * neighbors, visits the neighbors of each node in ascending number of their
+	 * own neighbors, and finally reverses the visiting order. This typically
+	 * reduces the bandwidth of adjacency matrices. Directed edges are treated as
+	 * undirected.
+	 *
+	 * @return An array where the i-th element is the node to be placed at
+	 *         position i.
+	 * @see #permuted(long[])
+	 * @see #degreeOrder()
+	 * @see #breadthFirstOrder()
+	 * @see #communityOrder()
+	 */
+	public long[] reverseCuthillMcKeeOrder() {
+		long[] ret = traverse(true);
+		for (int i = 0, j = ret.length - 1; i < j; i++, j--) {
+			long swap = ret[i];
+			ret[i] = ret[j];
+			ret[j] = swap;
+		}
+		return ret;
+	}
+
+	/**
+	 * Computes an ordering of nodes from the one with the most neighbors to the
+	 * one with the fewest, where ties keep the original order. This places the
+	 * rows of hub nodes, which are read most frequently, next to each other.
+	 * Directed edges are treated as undirected.
+	 *
+	 * @return An array where the i-th element is the node to be placed at
+	 *         position i.
+	 * @see #permuted(long[])
+	 */
+	public long[] degreeOrder() {
+		return byNeighbors(symmetrized());
+	}
+
+	private static long[] byNeighbors(Graph undirected) {
+		long[] keys = new long[undirected.nodes];
+		for (int node = 0; node < undirected.nodes; node++)
+			keys[node] = ((long) (undirected.start[node] - undirected.start[node + 1]) << 32) | node;
+		Arrays.sort(keys);
+		for (int node = 0; node < undirected.nodes; node++)
+			keys[node] = (int) keys[node];
+		return keys;
+	}
+
+	/**
+	 * Computes a breadth-first ordering of nodes, which starts from the first
+	 * node of each connected component and visits neighbors by identifier. Nodes
+	 * are placed next to their neighborhoods, so that tightly connected
+	 * communities occupy contiguous ranges. Directed edges are treated as
+	 * undirected.
+	 *
+	 * @return An array where the i-th element is the node to be placed at
+	 *         position i.
+	 * @see #permuted(long[])
+	 */
+	public long[] breadthFirstOrder() {
+		return traverse(false);
+	}
+
+	/**
+	 * Computes an ordering of nodes that places communities in contiguous ranges.
+	 * Communities are detected with label propagation, where each node
+	 * repeatedly adopts the community with the largest total edge weight among
+	 * its neighbors. Communities are then placed in the order in which their
+	 * first node appears, and nodes within each community keep their original
+	 * order. Directed edges are treated as undirected.
+	 *
+	 * @return An array where the i-th element is the node to be placed at
+	 *         position i.
+	 * @see #permuted(long[])
+	 */
+	public long[] communityOrder() {
+		Graph undirected = symmetrized();
+		int[] community = new int[nodes];
+		for (int node = 0; node < nodes; node++)
+			community[node] = node;
+		Int2DoubleOpenHashMap weights = new Int2DoubleOpenHashMap();
+		boolean changed = true;
+		for (int iteration = 0; iteration < 20 && changed; iteration++) {
+			changed = false;
+			for (int node = 0; node < nodes; node++) {
+				weights.clear();
+				for (int pos = undirected.start[node]; pos < undirected.start[node + 1]; pos++)
+					if (undirected.index[pos] != node)
+						weights.addTo(community[undirected.index[pos]], undirected.value[pos]);
+				int best = community[node];
+				double bestWeight = weights.get(best);
+				for (Int2DoubleMap.Entry entry : weights.int2DoubleEntrySet())
+					if (entry.getDoubleValue() > bestWeight
+							|| (entry.getDoubleValue() == bestWeight && entry.getIntKey() < best && best != community[node])) {
+						best = entry.getIntKey();
+						bestWeight = entry.getDoubleValue();
+					}
+				if (best != community[node]) {
+					community[node] = best;
+					changed = true;
+				}
+			}
+		}
+		int[] rank = new int[nodes];
+		Arrays.fill(rank, -1);
+		int ranked = 0;
+		long[] keys = new long[nodes];
+		for (int node = 0; node < nodes; node++) {
+			if (rank[community[node]] == -1)
+				rank[community[node]] = ranked++;
+			keys[node] = ((long) rank[community[node]] << 32) | node;
+		}
+		Arrays.sort(keys);
+		for (int node = 0; node < nodes; node++)
+			keys[node] = (int) keys[node];
+		return keys;
+	}
+
+	/**
+	 * Visits all nodes breadth-first. If neighbors are sorted by degree, each
+	 * component is visited from its node with the fewest neighbors.
+	 */
+	private long[] traverse(boolean byDegree) {
+		Graph undirected = symmetrized();
+		long[] order = new long[nodes];
+		boolean[] visited = new boolean[nodes];
+		long[] roots = byDegree ? byNeighbors(undirected) : null;
+		long[] neighbors = new long[0];
+		int visitedCount = 0;
+		for (int root = 0; root < nodes; root++) {
+			int node = byDegree ? (int) roots[nodes - 1 - root] : root;
+			if (visited[node])
+				continue;
+			visited[node] = true;
+			order[visitedCount++] = node;
+			// the visiting order is also the queue of nodes to expand
+			for (int head = visitedCount - 1; head < visitedCount; head++) {
+				int current = (int) order[head];
+				int count = 0;
+				for (int pos = undirected.start[current]; pos < undirected.start[current + 1]; pos++) {
+					int neighbor = undirected.index[pos];
+					if (visited[neighbor])
+						continue;
+					visited[neighbor] = true;
+					if (!byDegree) {
+						order[visitedCount++] = neighbor;
+						continue;
+					}
+					if (count == neighbors.length)
+						neighbors = Arrays.copyOf(neighbors, Math.max(16, count * 2));
+					neighbors[count++] = ((long) (undirected.start[neighbor + 1] - undirected.start[neighbor]) << 32)
+							| neighbor;
+				}
+				Arrays.sort(neighbors, 0, count);
+				for (int i = 0; i < count; i++)
+					order[visitedCount++] = (int) neighbors[i];
+			}
+		}
+		return order;
+	}
+
+	/**
+	 * Creates a graph whose nodes are renumbered so that node
+	 * <code>order[i]</code> of this graph becomes node i. Orderings can be
+	 * obtained with methods such as {@link #reverseCuthillMcKeeOrder()}, and the
+	 * same ordering should also be applied to node features, for example with
+	 * {@link Dataset#reorder(long[])}.
+	 *
+	 * @param order An array where the i-th element is the node to be placed at
+	 *              position i, which should contain each node exactly once.
+	 * @return A {@link Graph}.
+	 * @see #getBandwidth()
+	 */
+	public Graph permuted(long[] order) {
+		int[] position = positions(order, nodes);
+		int[] pStart = new int[nodes + 1];
+		for (int row = 0; row < nodes; row++)
+			pStart[row + 1] = pStart[row] + start[(int) order[row] + 1] - start[(int) order[row]];
+		int[] pIndex = new int[index.length];
+		double[] pValue = new double[index.length];
+		forRows(nodes, index.length, (from, to) -> {
+			for (int row = from; row < to; row++) {
+				int out = pStart[row];
+				for (int pos = start[(int) order[row]]; pos < start[(int) order[row] + 1]; pos++) {
+					pIndex[out] = position[index[pos]];
+					pValue[out++] = value[pos];
+				}
+			}
+		});
+		sortRows(nodes, pStart, pIndex, pValue);
+		return new Graph(nodes, pStart, pIndex, pValue);
+	}
+
+	/**
+	 * Inverts an ordering of nodes while checking that it contains each node
+	 * exactly once.
+	 */
+	private static int[] positions(long[] order, long nodes) {
+		if (order.length != nodes)
+			throw new IllegalArgumentException(
+					"An ordering of " + nodes + " nodes should have as many elements but found " + order.length);
+		int[] position = new int[order.length];
+		Arrays.fill(position, -1);
+		for (int i = 0; i < order.length; i++) {
+			if (order[i] < 0 || order[i] >= nodes || position[(int) order[i]] != -1)
+				throw new IllegalArgumentException("Node " + order[i] + " is out of bounds or repeated in the ordering");
+			position[(int) order[i]] = i;
+		}
+		return position;
+	}
+
+	/**
+	 * Multiplies the adjacency matrix with a matrix of node features, for example
+	 * to propagate features across edges. Edges are traversed row by row, so that
+	 * orderings that place neighbors close to each other also read nearby
+	 * features. This runs in parallel when the number of multiplications is at
+	 * least {@link Reductions#parallelThreshold}.
+	 *
+	 * @param features A matrix with one row per node.
+	 * @return A dense {@link Matrix} with the same dimensions as the features.
+	 * @see #toMatrix()
+	 */
+	public Matrix multiply(Matrix features) {
+		if (features.getRows() != nodes)
+			throw new IllegalArgumentException(
+					"Cannot multiply the adjacency matrix of " + nodes + " nodes with " + features.describe());
+		if ((long) nodes * features.getCols() > Integer.MAX_VALUE - 8)
+			throw new IllegalArgumentException("Too large features to multiply: " + features.describe());
+		int cols = (int) features.getCols();
+		Matrix ret = new DenseMatrix(nodes, cols);
+		double[] target = Reductions.getDenseValues(ret);
+		double[] source = Reductions.getDenseValues(features);
+		// both matrices are column-major, so each column is propagated separately
+		forRows(nodes, (long) index.length * cols, (from, to) -> {
+			for (int col = 0; col < cols; col++) {
+				int offset = col * nodes;
+				for (int row = from; row < to; row++) {
+					double sum = 0;
+					if (source != null)
+						for (int pos = start[row]; pos < start[row + 1]; pos++)
+							sum += value[pos] * source[offset + index[pos]];
+					else
+						for (int pos = start[row]; pos < start[row + 1]; pos++)
+							sum += value[pos] * features.get(index[pos], col);
+					target[offset + row] = sum;
+				}
+			}
+		});
+		return ret.setDimensionName(features.getRowName(), features.getColName());
+	}
+
+	/**
+	 * Creates a sparse adjacency matrix of the graph. Each call creates a new
+	 * matrix, which can be freely edited without affecting the graph.
+	 *
+	 * @return A {@link SparseMatrix}.
+	 */
+	public Matrix toMatrix() {
+		Matrix ret = new SparseMatrix(nodes, nodes);
+		for (int row = 0; row < nodes; row++)
+			for (int pos = start[row]; pos < start[row + 1]; pos++)
+				ret.put(row, index[pos], value[pos]);
+		return ret;
+	}
+}
@@ -1,22 +1,104 @@
 package mklab.JGNN.adhoc;
 
-import java.util.HashMap;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import mklab.JGNN.core.Slice;
-import mklab.JGNN.core.util.Range;
+import mklab.JGNN.core.ThreadPool;
+import mklab.JGNN.core.util.Reductions;
 
 /**
- * Converts back-and-forth between objects and unique ids.
+ * Converts back-and-forth between objects and unique ids. Identifiers are
+ * consecutive numbers starting from zero in the order in which objects are
+ * registered.<br>
+ * To support tens of millions of objects, the converter does not keep one map
+ * entry per object. Instead, <code>Long</code> and <code>Integer</code> objects
+ * are stored as primitive numbers and strings are stored as UTF-8 bytes in a
+ * shared pool, both in arrays indexed by identifier, and objects are found
+ * through an open-addressing table of identifiers. This takes roughly 16 bytes
+ * per object plus the bytes of strings. Other objects are kept as they are.
+ * Retrieving a string with {@link #get(long)} creates a new string that is
+ * equal to the registered one.<br>
+ * All methods can be called concurrently, and
+ * {@link #getOrCreateIds(List)} registers many objects at once. Converters of
+ * numbers and strings can be written to binary files with {@link #save(Path)}
+ * and memory-mapped back with {@link #load(Path)}.
  * 
  * @author Emmanouil Krasanakis
  */
 public class IdConverter {
-	protected HashMap<Object, Long> ids = new HashMap<Object, Long>();
-	protected HashMap<Long, Object> inverse = new HashMap<Long, Object>();
+	private static final byte OBJECT = 0;
+	private static final byte LONG = 1;
+	private static final byte INTEGER = 2;
+	private static final byte STRING = 3;
+	private static final int MAGIC = 0x4A474944;
+	private static final int MAX_SIZE = Integer.MAX_VALUE - 8;
+
+	/**
+	 * An object to look for, with its storage kind, numeric value or UTF-8 bytes,
+	 * and hash precomputed.
+	 */
+	private static class Key {
+		private final byte kind;
+		private final long value;
+		private final byte[] bytes;
+		private final Object object;
+		private final int hash;
+
+		private Key(Object object) {
+			if (object instanceof Long) {
+				kind = LONG;
+				value = (Long) object;
+				bytes = null;
+				this.object = null;
+				hash = mix(value);
+			} else if (object instanceof Integer) {
+				kind = INTEGER;
+				value = (Integer) object;
+				bytes = null;
+				this.object = null;
+				hash = mix(value);
+			} else if (object instanceof String && isWellFormed((String) object)) {
+				kind = STRING;
+				value = 0;
+				bytes = ((String) object).getBytes(StandardCharsets.UTF_8);
+				this.object = null;
+				hash = hashBytes(bytes, 0, bytes.length);
+			} else {
+				kind = OBJECT;
+				value = 0;
+				bytes = null;
+				this.object = object;
+				hash = mix(Objects.hashCode(object));
+			}
+		}
+	}
+
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	private int size = 0;
+	private byte[] kinds = new byte[16];
+	// numeric values, positions of strings in the pool, or positions in objects
+	private long[] keys = new long[16];
+	private byte[] pool = new byte[256];
+	private int poolSize = 0;
+	private ArrayList<Object> objects = new ArrayList<Object>();
+	// identifiers plus one, where zero denotes empty slots
+	private int[] slots = new int[32];
 	protected String nodeDimensionName;
 	protected String featureDimensionName;
-	private Slice idSlice = null;
+	private volatile Slice idSlice = null;
 
 	/**
 	 * Instantiates an empty converter to be filled with
@@ -30,10 +112,10 @@ public class IdConverter {
 	 * {@link #getOrCreateId(Object)} on.
 	 * 
 	 * @param objects A list of objects.
+	 * @see #getOrCreateIds(List)
 	 */
 	public IdConverter(List<?> objects) {
-		for (int i = 0; i < objects.size(); i++)
-			getOrCreateId(objects.get(i));
+		getOrCreateIds(objects);
 	}
 
 	/**
@@ -51,6 +133,169 @@ public class IdConverter {
 		return this;
 	}
 
+	private static int mix(long value) {
+		long h = value * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	private static int hashBytes(byte[] bytes, int from, int end) {
+		int h = 1;
+		for (int i = from; i < end; i++)
+			h = 31 * h + bytes[i];
+		return mix(h);
+	}
+
+	/**
+	 * Checks that a string has no unpaired surrogates, which would not survive
+	 * conversion to UTF-8.
+	 */
+	private static boolean isWellFormed(String string) {
+		for (int i = 0; i < string.length(); i++) {
+			char c = string.charAt(i);
+			if (Character.isHighSurrogate(c) && i + 1 < string.length()
+					&& Character.isLowSurrogate(string.charAt(i + 1)))
+				i++;
+			else if (Character.isSurrogate(c))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Finds where the bytes of a pooled string start, given the position of its
+	 * length in the pool.
+	 */
+	private int stringStart(int position) {
+		while (pool[position] < 0)
+			position++;
+		return position + 1;
+	}
+
+	private int stringLength(int position) {
+		int length = 0;
+		for (int shift = 0;; shift += 7) {
+			byte b = pool[position++];
+			length |= (b & 0x7F) << shift;
+			if (b >= 0)
+				return length;
+		}
+	}
+
+	private int hashOf(int id) {
+		switch (kinds[id]) {
+		case LONG:
+		case INTEGER:
+			return mix(keys[id]);
+		case STRING:
+			int from = stringStart((int) keys[id]);
+			return hashBytes(pool, from, from + stringLength((int) keys[id]));
+		default:
+			return mix(Objects.hashCode(objects.get((int) keys[id])));
+		}
+	}
+
+	private boolean matches(int id, Key key) {
+		if (kinds[id] != key.kind)
+			return false;
+		switch (key.kind) {
+		case LONG:
+		case INTEGER:
+			return keys[id] == key.value;
+		case STRING:
+			if (stringLength((int) keys[id]) != key.bytes.length)
+				return false;
+			int from = stringStart((int) keys[id]);
+			return Arrays.equals(pool, from, from + key.bytes.length, key.bytes, 0, key.bytes.length);
+		default:
+			return Objects.equals(objects.get((int) keys[id]), key.object);
+		}
+	}
+
+	/**
+	 * Finds the slot of the table that holds a key, or the empty slot where the
+	 * key would be placed. Should be called while holding a lock.
+	 */
+	private int find(Key key) {
+		int mask = slots.length - 1;
+		int pos = key.hash & mask;
+		while (slots[pos] != 0 && !matches(slots[pos] - 1, key))
+			pos = (pos + 1) & mask;
+		return pos;
+	}
+
+	/**
+	 * Makes room for the given total number of objects. Should be called while
+	 * holding the write lock.
+	 */
+	private void reserve(long capacity) {
+		if (capacity > MAX_SIZE)
+			throw new IllegalArgumentException("Too many identifiers: " + capacity);
+		if (capacity > kinds.length) {
+			int length = (int) Math.min(MAX_SIZE, Math.max(capacity, kinds.length * 2L));
+			kinds = Arrays.copyOf(kinds, length);
+			keys = Arrays.copyOf(keys, length);
+		}
+		// keep the table at most 3/4 full
+		if (capacity * 4 <= slots.length * 3L)
+			return;
+		long length = slots.length;
+		while (capacity * 4 > length * 3)
+			length *= 2;
+		if (length > 1 << 30)
+			throw new IllegalArgumentException("Too many identifiers: " + capacity);
+		slots = new int[(int) length];
+		int mask = slots.length - 1;
+		for (int id = 0; id < size; id++) {
+			int pos = hashOf(id) & mask;
+			while (slots[pos] != 0)
+				pos = (pos + 1) & mask;
+			slots[pos] = id + 1;
+		}
+	}
+
+	/**
+	 * Registers a key that was not found at the given slot. Should be called while
+	 * holding the write lock.
+	 */
+	private int insert(Key key, int pos) {
+		int id = size;
+		kinds[id] = key.kind;
+		if (key.kind == STRING) {
+			int needed = 5 + key.bytes.length;
+			if ((long) poolSize + needed > MAX_SIZE)
+				throw new IllegalArgumentException("Too many string bytes for identifiers");
+			if (poolSize + needed > pool.length)
+				pool = Arrays.copyOf(pool, (int) Math.min(MAX_SIZE, Math.max(poolSize + needed, pool.length * 2L)));
+			keys[id] = poolSize;
+			int length = key.bytes.length;
+			while (length >= 0x80) {
+				pool[poolSize++] = (byte) (length | 0x80);
+				length >>>= 7;
+			}
+			pool[poolSize++] = (byte) length;
+			System.arraycopy(key.bytes, 0, pool, poolSize, key.bytes.length);
+			poolSize += key.bytes.length;
+		} else if (key.kind == OBJECT) {
+			keys[id] = objects.size();
+			objects.add(key.object);
+		} else
+			keys[id] = key.value;
+		slots[pos] = id + 1;
+		size++;
+		idSlice = null;
+		return id;
+	}
+
+	private long lookup(Key key) {
+		lock.readLock().lock();
+		try {
+			int pos = find(key);
+			return slots[pos] == 0 ? -1 : slots[pos] - 1;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
 	/**
 	 * Retrieves an identifier for a given object, creating one if none exists.
 	 * 
@@ -58,13 +303,58 @@ public class IdConverter {
 	 * @return A <code>long</code> identifier.
 	 * @see #getId(Object)
 	 * @see #get(long)
+	 * @see #getOrCreateIds(List)
 	 */
 	public long getOrCreateId(Object object) {
-		Long ret = ids.get(object);
-		if (ret == null) {
-			ids.put(object, ret = (long) ids.size());
-			inverse.put(ret, object);
-			idSlice = null;
+		Key key = new Key(object);
+		long ret = lookup(key);
+		if (ret != -1)
+			return ret;
+		lock.writeLock().lock();
+		try {
+			int pos = find(key);
+			if (slots[pos] != 0)
+				return slots[pos] - 1;
+			reserve(size + 1L);
+			return insert(key, find(key));
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Performs {@link #getOrCreateId(Object)} for many objects at once. Objects
+	 * are hashed across the threads of {@link ThreadPool#parallelFor} when they
+	 * are at least {@link Reductions#parallelThreshold}, and new identifiers are assigned in
+	 * the order of the list. This can be called by several threads at the same
+	 * time, for example by parallel data loaders.
+	 * 
+	 * @param objects A list of objects.
+	 * @return An array of their identifiers.
+	 */
+	public long[] getOrCreateIds(List<?> objects) {
+		int n = objects.size();
+		Key[] batch = new Key[n];
+		int threads = ThreadPool.getInstance().getMaxThreads();
+		if (n >= Reductions.parallelThreshold && threads > 1) {
+			int chunks = Math.min(n, threads * 4);
+			ThreadPool.getInstance().parallelFor(chunks, chunk -> {
+				for (int i = (int) ((long) chunk * n / chunks); i < (int) ((long) (chunk + 1) * n / chunks); i++)
+					batch[i] = new Key(objects.get(i));
+			});
+		} else
+			for (int i = 0; i < n; i++)
+				batch[i] = new Key(objects.get(i));
+		long[] ret = new long[n];
+		lock.writeLock().lock();
+		try {
+			reserve(size + (long) n);
+			for (int i = 0; i < n; i++) {
+				int pos = find(batch[i]);
+				ret[i] = slots[pos] != 0 ? slots[pos] - 1 : insert(batch[i], pos);
+			}
+		} finally {
+			lock.writeLock().unlock();
 		}
 		return ret;
 	}
@@ -73,10 +363,28 @@ public class IdConverter {
 	 * Retrieves the object corresponding to a given identifier.
 	 * 
 	 * @param id The identifier of the object.
-	 * @return The object.
+	 * @return The object, or <code>null</code> if the identifier does not exist.
 	 */
 	public Object get(long id) {
-		return inverse.get(id);
+		lock.readLock().lock();
+		try {
+			if (id < 0 || id >= size)
+				return null;
+			int pos = (int) id;
+			switch (kinds[pos]) {
+			case LONG:
+				return keys[pos];
+			case INTEGER:
+				return (int) keys[pos];
+			case STRING:
+				return new String(pool, stringStart((int) keys[pos]), stringLength((int) keys[pos]),
+						StandardCharsets.UTF_8);
+			default:
+				return objects.get((int) keys[pos]);
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
 	}
 
 	/**
@@ -84,11 +392,14 @@ public class IdConverter {
 	 * 
 	 * @param object An object with a registered identifier.
 	 * @return A <code>long</code> identifier.
-	 * @exception Exception if the identifiers does not exist.
+	 * @exception IllegalArgumentException if the identifiers does not exist.
 	 * @see #getOrCreateId(Object)
 	 */
 	public long getId(Object object) {
-		return ids.get(object);
+		long ret = lookup(new Key(object));
+		if (ret == -1)
+			throw new IllegalArgumentException("No identifier registered for " + object);
+		return ret;
 	}
 
 	/**
@@ -97,7 +408,12 @@ public class IdConverter {
 	 * @return A <code>long</code> value.
 	 */
 	public long size() {
-		return ids.size();
+		lock.readLock().lock();
+		try {
+			return size;
+		} finally {
+			lock.readLock().unlock();
+		}
 	}
 
 	/**
@@ -108,7 +424,53 @@ public class IdConverter {
 	 * @return A boolean value.
 	 */
 	public boolean contains(Object object) {
-		return ids.containsKey(object);
+		return lookup(new Key(object)) != -1;
+	}
+
+	/**
+	 * Renumbers identifiers so that the object with identifier
+	 * <code>order[i]</code> obtains identifier i, for example after reordering the
+	 * rows of data matrices to improve memory locality. Registered objects keep
+	 * mapping to the same data, as long as the same ordering is applied to the
+	 * data.
+	 * 
+	 * @param order An array where the i-th element is the previous identifier of
+	 *              the object that obtains identifier i. It should contain each
+	 *              identifier exactly once.
+	 * @return <code>this</code> instance
+	 * @see Dataset#reorder(long[])
+	 */
+	public IdConverter permute(long[] order) {
+		lock.writeLock().lock();
+		try {
+			if (order.length != size)
+				throw new IllegalArgumentException(
+						"A permutation of " + size + " identifiers should have as many elements but found " + order.length);
+			int[] position = new int[size];
+			Arrays.fill(position, -1);
+			for (int i = 0; i < order.length; i++) {
+				if (order[i] < 0 || order[i] >= size || position[(int) order[i]] != -1)
+					throw new IllegalArgumentException(
+							"Identifier " + order[i] + " is out of bounds or repeated in the permutation");
+				position[(int) order[i]] = i;
+			}
+			byte[] permutedKinds = new byte[kinds.length];
+			long[] permutedKeys = new long[keys.length];
+			for (int i = 0; i < size; i++) {
+				permutedKinds[i] = kinds[(int) order[i]];
+				permutedKeys[i] = keys[(int) order[i]];
+			}
+			kinds = permutedKinds;
+			keys = permutedKeys;
+			// objects stay in their slots, so only the identifiers stored there change
+			for (int pos = 0; pos < slots.length; pos++)
+				if (slots[pos] != 0)
+					slots[pos] = position[slots[pos] - 1] + 1;
+			idSlice = null;
+		} finally {
+			lock.writeLock().unlock();
+		}
+		return this;
 	}
 
 	/**
@@ -120,8 +482,130 @@ public class IdConverter {
 	 * @return A {@link Slice}.
 	 */
 	public Slice getSlice() {
-		if (idSlice == null)
-			idSlice = new Slice(new Range(0, ids.size()));
-		return idSlice;
+		Slice ret = idSlice;
+		if (ret == null)
+			idSlice = ret = new Slice(0, size());
+		return ret;
+	}
+
+	/**
+	 * Writes the converter to a binary file, which can be loaded with
+	 * {@link #load(Path)}. Only converters of <code>Long</code>,
+	 * <code>Integer</code>, and string objects can be saved.
+	 * 
+	 * @param path The file path.
+	 * @return <code>this</code> instance, or <code>null</code> if the file could
+	 *         not be written.
+	 * @exception UnsupportedOperationException if other kinds of objects have been
+	 *                                          registered.
+	 */
+	public IdConverter save(Path path) {
+		lock.readLock().lock();
+		try {
+			if (!objects.isEmpty())
+				throw new UnsupportedOperationException(
+						"Only Long, Integer, and String objects can be saved but found " + objects.get(0));
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(Files.newOutputStream(path)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(size);
+				out.writeInt(poolSize);
+				out.writeInt(slots.length);
+				writeName(out, nodeDimensionName);
+				writeName(out, featureDimensionName);
+				out.write(kinds, 0, size);
+				for (int id = 0; id < size; id++)
+					out.writeLong(keys[id]);
+				out.write(pool, 0, poolSize);
+				for (int slot : slots)
+					out.writeInt(slot);
+			} catch (IOException ex) {
+				System.err.println(ex.toString());
+				return null;
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		return this;
+	}
+
+	/**
+	 * Loads a converter from a binary file written by {@link #save(Path)}. The
+	 * file is memory-mapped and its sections are copied directly into the
+	 * converter's arrays, without re-registering objects.
+	 * 
+	 * @param path The file path.
+	 * @return A new {@link IdConverter}, or <code>null</code> if the file could
+	 *         not be read.
+	 */
+	public static IdConverter load(Path path) {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), 1 << 18));
+			if (header.remaining() < 16 || header.getInt() != MAGIC)
+				throw new IOException("Not an identifier file: " + path);
+			IdConverter ret = new IdConverter();
+			int size = header.getInt();
+			int poolSize = header.getInt();
+			int slotCount = header.getInt();
+			String nodeDimensionName = readName(header);
+			String featureDimensionName = readName(header);
+			long position = header.position();
+			if (size < 0 || poolSize < 0 || slotCount < 32 || Integer.bitCount(slotCount) != 1
+					|| channel.size() != position + size + 8L * size + poolSize + 4L * slotCount)
+				throw new IOException("Corrupted identifier file: " + path);
+			ret.size = size;
+			ret.poolSize = poolSize;
+			ret.nodeDimensionName = nodeDimensionName;
+			ret.featureDimensionName = featureDimensionName;
+			ret.kinds = new byte[Math.max(size, 16)];
+			ret.keys = new long[Math.max(size, 16)];
+			ret.pool = new byte[Math.max(poolSize, 256)];
+			ret.slots = new int[slotCount];
+			position = read(channel, position, ret.kinds, size);
+			for (int from = 0; from < size; from += 1 << 26) {
+				int count = Math.min(1 << 26, size - from);
+				channel.map(FileChannel.MapMode.READ_ONLY, position, 8L * count).asLongBuffer().get(ret.keys, from,
+						count);
+				position += 8L * count;
+			}
+			position = read(channel, position, ret.pool, poolSize);
+			for (int from = 0; from < slotCount; from += 1 << 27) {
+				int count = Math.min(1 << 27, slotCount - from);
+				channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * count).asIntBuffer().get(ret.slots, from,
+						count);
+				position += 4L * count;
+			}
+			return ret;
+		} catch (IOException ex) {
+			System.err.println(ex.toString());
+			return null;
+		}
+	}
+
+	private static void writeName(DataOutputStream out, String name) throws IOException {
+		if (name == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readName(ByteBuffer buffer) throws IOException {
+		int length = buffer.remaining() < 4 ? -2 : buffer.getInt();
+		if (length == -1)
+			return null;
+		if (length < 0 || length > buffer.remaining())
+			throw new IOException("Corrupted identifier file");
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static long read(FileChannel channel, long position, byte[] target, int count) throws IOException {
+		if (count > 0)
+			channel.map(FileChannel.MapMode.READ_ONLY, position, count).get(target, 0, count);
+		return position + count;
 	}
 }
@@ -0,0 +1,500 @@
+package mklab.JGNN.adhoc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map.Entry;
+
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.tensor.DenseTensor;
+import mklab.JGNN.nn.Model;
+import mklab.JGNN.nn.NNOperation;
+import mklab.JGNN.nn.activations.Exp;
+import mklab.JGNN.nn.activations.LRelu;
+import mklab.JGNN.nn.activations.NExp;
+import mklab.JGNN.nn.activations.PRelu;
+import mklab.JGNN.nn.activations.Relu;
+import mklab.JGNN.nn.activations.Sigmoid;
+import mklab.JGNN.nn.activations.Tanh;
+import mklab.JGNN.nn.inputs.Parameter;
+import mklab.JGNN.nn.inputs.Variable;
+import mklab.JGNN.nn.operations.Add;
+import mklab.JGNN.nn.operations.Complement;
+import mklab.JGNN.nn.operations.Concat;
+import mklab.JGNN.nn.operations.Dropout;
+import mklab.JGNN.nn.operations.Gather;
+import mklab.JGNN.nn.operations.Identity;
+import mklab.JGNN.nn.operations.Log;
+import mklab.JGNN.nn.operations.MatMul;
+import mklab.JGNN.nn.operations.Multiply;
+import mklab.JGNN.nn.pooling.SoftMax;
+
+/**
+ * Keeps the outputs of all operations of a trained {@link Model} cached so that
+ * predictions can be refreshed after the graph or node features change by
+ * recomputing only the rows of intermediate activations that depend on the
+ * changes. This targets message passing architectures, such as those created
+ * with {@link mklab.JGNN.adhoc.parsers.FastBuilder}, where a change at one node
+ * affects only its L-hop neighborhood after L layers. <br>
+ * Changes are registered through {@link #putEdge(long, long, double)},
+ * {@link #removeEdge(long, long)}, {@link #putFeatures(long, Tensor)}, or
+ * {@link #markChanged(Parameter, long)} and are applied on the next
+ * {@link #predict(List)} call. Operations whose row dependencies are not known
+ * (e.g. column-wise normalizations) are recomputed in full, so that outcomes
+ * always match a full {@link Model#predict(List)} within floating point
+ * tolerance. <br>
+ * Matrix dimensions are fixed, so node insertions should use pre-allocated
+ * (initially isolated) rows of the adjacency and feature matrices, and node
+ * deletions should remove all edges of the deleted node.
+ *
+ * @author Emmanouil Krasanakis
+ * @see #getLastTouchedRows()
+ */
+public class IncrementalInference {
+	private Model model;
+	private Parameter graph;
+	private HashSet<Parameter> nodeData = new HashSet<Parameter>();
+	private ArrayList<NNOperation> order;
+	private HashMap<NNOperation, Tensor> cache = new HashMap<NNOperation, Tensor>();
+	private HashSet<NNOperation> rowwise = new HashSet<NNOperation>();
+	private HashSet<NNOperation> structural = new HashSet<NNOperation>();
+	private HashMap<Parameter, BitSet> pending = new HashMap<Parameter, BitSet>();
+	private HashMap<NNOperation, Long> touched = new HashMap<NNOperation, Long>();
+	private IntOpenHashSet[] outgoing;
+	private IntOpenHashSet[] incoming;
+	private List<Tensor> lastInputs = null;
+	private long lastTouchedRows = 0;
+
+	/**
+	 * Instantiates incremental inference for a model built by a
+	 * {@link mklab.JGNN.adhoc.parsers.FastBuilder}, where the adjacency matrix is
+	 * the constant <code>A</code> and node features are the constant
+	 * <code>h0</code>.
+	 *
+	 * @param builder The builder of a trained model.
+	 * @see #IncrementalInference(Model, Parameter, Parameter...)
+	 */
+	public IncrementalInference(ModelBuilder builder) {
+		this(builder.getModel(), (Parameter) builder.get("A"), (Parameter) builder.get("h0"));
+	}
+
+	/**
+	 * Instantiates incremental inference for a trained model.
+	 *
+	 * @param model    The trained model.
+	 * @param graph    The model component holding the (normalized) square
+	 *                 adjacency matrix used for message passing.
+	 * @param nodeData Model components holding matrices whose rows correspond to
+	 *                 nodes, such as node features.
+	 */
+	public IncrementalInference(Model model, Parameter graph, Parameter... nodeData) {
+		if (graph == null)
+			throw new IllegalArgumentException("A graph component is required for incremental inference");
+		this.model = model;
+		this.graph = graph;
+		for (Parameter data : nodeData)
+			if (data != null)
+				this.nodeData.add(data);
+		order = new ArrayList<NNOperation>();
+		HashSet<NNOperation> visited = new HashSet<NNOperation>();
+		for (NNOperation output : model.getOutputs())
+			visit(output, visited);
+	}
+
+	private void visit(NNOperation operation, HashSet<NNOperation> visited) {
+		if (visited.contains(operation))
+			return;
+		visited.add(operation);
+		for (NNOperation input : operation.getInputs())
+			visit(input, visited);
+		order.add(operation);
+	}
+
+	/**
+	 * Sets the value of an adjacency matrix element and marks the respective row
+	 * as changed. Values should already account for any normalization, as
+	 * neighboring elements are not adjusted.
+	 *
+	 * @param from  The edge's source node (adjacency row).
+	 * @param to    The edge's destination node (adjacency column).
+	 * @param value The new element value. Zero removes the edge.
+	 * @return <code>this</code> incremental inference instance.
+	 * @see #removeEdge(long, long)
+	 */
+	public IncrementalInference putEdge(long from, long to, double value) {
+		graph.get().cast(Matrix.class).put(from, to, value);
+		if (outgoing != null) {
+			if (value == 0) {
+				neighbors(outgoing, from).remove((int) to);
+				neighbors(incoming, to).remove((int) from);
+			} else {
+				neighbors(outgoing, from).add((int) to);
+				neighbors(incoming, to).add((int) from);
+			}
+		}
+		return markChanged(graph, from);
+	}
+
+	/**
+	 * Removes an edge by setting its adjacency matrix element to zero.
+	 *
+	 * @param from The edge's source node (adjacency row).
+	 * @param to   The edge's destination node (adjacency column).
+	 * @return <code>this</code> incremental inference instance.
+	 * @see #putEdge(long, long, double)
+	 */
+	public IncrementalInference removeEdge(long from, long to) {
+		return putEdge(from, to, 0);
+	}
+
+	/**
+	 * Overwrites the features of a node in all node data components of the
+	 * correct dimension and marks them as changed.
+	 *
+	 * @param node     The node whose features change.
+	 * @param features The new feature values.
+	 * @return <code>this</code> incremental inference instance.
+	 */
+	public IncrementalInference putFeatures(long node, Tensor features) {
+		for (Parameter data : nodeData) {
+			Matrix matrix = data.get().cast(Matrix.class);
+			if (matrix.getCols() != features.size())
+				continue;
+			for (long col = 0; col < features.size(); col++)
+				matrix.put(node, col, features.get(col));
+			markChanged(data, node);
+		}
+		return this;
+	}
+
+	/**
+	 * Marks a row of the graph or of a node data component as changed, for
+	 * example after editing the component's value directly.
+	 *
+	 * @param component The graph or node data component.
+	 * @param row       The changed row.
+	 * @return <code>this</code> incremental inference instance.
+	 */
+	public IncrementalInference markChanged(Parameter component, long row) {
+		if (component != graph && !nodeData.contains(component))
+			throw new IllegalArgumentException("Only the graph and node data components can be marked as changed");
+		BitSet rows = pending.get(component);
+		if (rows == null)
+			pending.put(component, rows = new BitSet());
+		rows.set((int) row);
+		return this;
+	}
+
+	/**
+	 * Makes the next prediction recompute all operations, for example after
+	 * parameters have been retrained.
+	 *
+	 * @return <code>this</code> incremental inference instance.
+	 */
+	public IncrementalInference invalidate() {
+		lastInputs = null;
+		return this;
+	}
+
+	/**
+	 * Wraps {@link #predict(List)}.
+	 *
+	 * @param inputs Input tensors to be assigned to input variables.
+	 * @return A list of tensors output by the model.
+	 */
+	public ArrayList<Tensor> predict(Tensor... inputs) {
+		return predict(Arrays.asList(inputs));
+	}
+
+	/**
+	 * Produces the same outcome as {@link Model#predict(List)}, but recomputes only
+	 * rows affected by changes registered since the last call. A full computation
+	 * is performed on the first call, after {@link #invalidate()}, or if the given
+	 * input tensors are not the same objects as before.
+	 *
+	 * @param inputs A list of tensors to be assigned to input variables.
+	 * @return A list of tensors output by the model.
+	 */
+	public ArrayList<Tensor> predict(List<Tensor> inputs) {
+		if (inputs.size() != model.getInputs().size())
+			throw new IllegalArgumentException("Incompatible input size: expected" + model.getInputs().size()
+					+ " inputs instead of " + inputs.size());
+		touched.clear();
+		lastTouchedRows = 0;
+		boolean full = lastInputs == null;
+		for (int i = 0; i < inputs.size() && !full; i++)
+			if (inputs.get(i) != lastInputs.get(i))
+				full = true;
+		if (full)
+			recompute(inputs);
+		else
+			update();
+		pending.clear();
+		lastInputs = new ArrayList<Tensor>(inputs);
+		ArrayList<Tensor> outputs = new ArrayList<Tensor>();
+		for (NNOperation output : model.getOutputs())
+			outputs.add(cache.get(output));
+		return outputs;
+	}
+
+	/**
+	 * Retrieves the total number of rows recomputed across all operations by the
+	 * last {@link #predict(List)} call. Operations recomputed in full count all
+	 * their rows.
+	 *
+	 * @return A <code>long</code> number.
+	 * @see #getTouchedRows(NNOperation)
+	 */
+	public long getLastTouchedRows() {
+		return lastTouchedRows;
+	}
+
+	/**
+	 * Retrieves the number of rows of an operation's output recomputed by the last
+	 * {@link #predict(List)} call.
+	 *
+	 * @param operation A model operation.
+	 * @return A <code>long</code> number.
+	 * @see #getLastTouchedRows()
+	 */
+	public long getTouchedRows(NNOperation operation) {
+		return touched.getOrDefault(operation, 0L);
+	}
+
+	private ArrayList<Tensor> cachedInputs(NNOperation operation) {
+		ArrayList<Tensor> ret = new ArrayList<Tensor>(operation.getInputs().size());
+		for (NNOperation input : operation.getInputs())
+			ret.add(cache.get(input));
+		return ret;
+	}
+
+	private void touch(NNOperation operation, long rows) {
+		touched.put(operation, touched.getOrDefault(operation, 0L) + rows);
+		lastTouchedRows += rows;
+	}
+
+	private static long rows(Tensor tensor) {
+		return tensor instanceof Matrix ? ((Matrix) tensor).getRows() : 1;
+	}
+
+	private void recompute(List<Tensor> inputs) {
+		for (int i = 0; i < inputs.size(); i++)
+			model.getInputs().get(i).setTo(inputs.get(i));
+		cache.clear();
+		rowwise.clear();
+		structural.clear();
+		for (NNOperation operation : order) {
+			Tensor output = operation.run(cachedInputs(operation));
+			cache.put(operation, output);
+			if (!(operation instanceof Parameter))
+				touch(operation, rows(output));
+			classify(operation);
+		}
+		index();
+	}
+
+	private void index() {
+		Matrix adjacency = graph.get().cast(Matrix.class);
+		outgoing = new IntOpenHashSet[(int) adjacency.getRows()];
+		incoming = new IntOpenHashSet[(int) adjacency.getCols()];
+		for (Entry<Long, Long> entry : adjacency.getNonZeroEntries()) {
+			long row = entry.getKey();
+			long col = entry.getValue();
+			if (adjacency.get(row, col) == 0)
+				continue;
+			neighbors(outgoing, row).add((int) col);
+			neighbors(incoming, col).add((int) row);
+		}
+	}
+
+	private static IntOpenHashSet neighbors(IntOpenHashSet[] index, long node) {
+		IntOpenHashSet ret = index[(int) node];
+		if (ret == null)
+			index[(int) node] = ret = new IntOpenHashSet();
+		return ret;
+	}
+
+	private static boolean isRowLocal(NNOperation operation) {
+		if (operation instanceof SoftMax)
+			return ((SoftMax) operation).isRowWise();
+		return operation instanceof Add || operation instanceof Multiply || operation instanceof Identity
+				|| operation instanceof Dropout || operation instanceof Concat || operation instanceof Complement
+				|| operation instanceof Log || operation instanceof Relu || operation instanceof LRelu
+				|| operation instanceof PRelu || operation instanceof Tanh || operation instanceof Sigmoid
+				|| operation instanceof Exp || operation instanceof NExp;
+	}
+
+	private void classify(NNOperation operation) {
+		Tensor output = cache.get(operation);
+		if (!(output instanceof Matrix))
+			return;
+		long outputRows = ((Matrix) output).getRows();
+		if (operation == graph) {
+			rowwise.add(operation);
+			structural.add(operation);
+			return;
+		}
+		if (operation instanceof Parameter) {
+			if (nodeData.contains(operation))
+				rowwise.add(operation);
+			return;
+		}
+		List<NNOperation> inputs = operation.getInputs();
+		if (operation instanceof Gather) {
+			if (rowwise.contains(inputs.get(1)))
+				rowwise.add(operation);
+			return;
+		}
+		if (operation instanceof MatMul) {
+			NNOperation left = inputs.get(0);
+			NNOperation right = inputs.get(1);
+			if (rowwise.contains(left) && !rowwise.contains(right) && !(left == graph && right instanceof Variable))
+				rowwise.add(operation);
+			else if (structural.contains(left) && rowwise.contains(right))
+				rowwise.add(operation);
+			return;
+		}
+		if (!isRowLocal(operation))
+			return;
+		boolean hasRowwiseInput = false;
+		for (NNOperation input : inputs) {
+			if (rowwise.contains(input)) {
+				if (rows(cache.get(input)) != outputRows)
+					return;
+				hasRowwiseInput = true;
+			} else if (cache.get(input) instanceof Matrix)
+				return;
+		}
+		if (!hasRowwiseInput)
+			return;
+		rowwise.add(operation);
+		if ((operation instanceof Dropout || operation instanceof Identity) && structural.contains(inputs.get(0)))
+			structural.add(operation);
+	}
+
+	private void update() {
+		HashMap<NNOperation, BitSet> changed = new HashMap<NNOperation, BitSet>();
+		HashSet<NNOperation> fullyChanged = new HashSet<NNOperation>();
+		for (NNOperation operation : order) {
+			if (operation instanceof Parameter) {
+				BitSet rows = pending.get(operation);
+				if (rows != null && !rows.isEmpty())
+					changed.put(operation, rows);
+				continue;
+			}
+			boolean anyChanged = false;
+			boolean anyFullyChanged = false;
+			for (NNOperation input : operation.getInputs()) {
+				anyChanged = anyChanged || changed.containsKey(input);
+				anyFullyChanged = anyFullyChanged || fullyChanged.contains(input);
+			}
+			if (!anyChanged && !anyFullyChanged)
+				continue;
+			BitSet rows = anyFullyChanged || !rowwise.contains(operation) ? null : updateRows(operation, changed);
+			if (rows == null) {
+				Tensor output = operation.run(cachedInputs(operation));
+				cache.put(operation, output);
+				fullyChanged.add(operation);
+				touch(operation, rows(output));
+			} else if (!rows.isEmpty()) {
+				changed.put(operation, rows);
+				touch(operation, rows.cardinality());
+			}
+		}
+	}
+
+	private static Tensor rowIds(BitSet rows) {
+		Tensor ret = new DenseTensor(rows.cardinality());
+		int pos = 0;
+		for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1))
+			ret.put(pos++, row);
+		return ret;
+	}
+
+	private static void scatter(Matrix destination, Matrix source, BitSet rows) {
+		long cols = destination.getCols();
+		long pos = 0;
+		for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+			for (long col = 0; col < cols; col++)
+				destination.put(row, col, source.get(pos, col));
+			pos += 1;
+		}
+	}
+
+	private BitSet updateRows(NNOperation operation, HashMap<NNOperation, BitSet> changed) {
+		Matrix output = cache.get(operation).cast(Matrix.class);
+		List<NNOperation> inputs = operation.getInputs();
+		if (operation instanceof Gather) {
+			if (changed.containsKey(inputs.get(0)))
+				return null;
+			BitSet sourceRows = changed.get(inputs.get(1));
+			Tensor index = cache.get(inputs.get(0));
+			Matrix source = cache.get(inputs.get(1)).cast(Matrix.class);
+			BitSet rows = new BitSet();
+			long cols = output.getCols();
+			for (long i = 0; i < index.size(); i++) {
+				long pos = (long) index.get(i);
+				if (!sourceRows.get((int) pos))
+					continue;
+				rows.set((int) i);
+				for (long col = 0; col < cols; col++)
+					output.put(i, col, source.get(pos, col));
+			}
+			return rows;
+		}
+		if (operation instanceof MatMul) {
+			NNOperation left = inputs.get(0);
+			NNOperation right = inputs.get(1);
+			Matrix leftValue = cache.get(left).cast(Matrix.class);
+			Matrix rightValue = cache.get(right).cast(Matrix.class);
+			if (structural.contains(left) && rowwise.contains(right)) {
+				BitSet rows = changed.containsKey(left) ? (BitSet) changed.get(left).clone() : new BitSet();
+				BitSet rightRows = changed.get(right);
+				if (rightRows != null)
+					for (int node = rightRows.nextSetBit(0); node >= 0; node = rightRows.nextSetBit(node + 1))
+						if (incoming[node] != null)
+							for (int neighbor : incoming[node])
+								rows.set(neighbor);
+				long cols = output.getCols();
+				double[] accumulation = new double[(int) cols];
+				for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+					Arrays.fill(accumulation, 0);
+					if (outgoing[row] != null)
+						for (int neighbor : outgoing[row]) {
+							double weight = leftValue.get(row, neighbor);
+							if (weight != 0)
+								for (int col = 0; col < cols; col++)
+									accumulation[col] += weight * rightValue.get(neighbor, col);
+						}
+					for (int col = 0; col < cols; col++)
+						output.put(row, col, accumulation[col]);
+				}
+				return rows;
+			}
+			if (changed.containsKey(right))
+				return null;
+			BitSet rows = changed.get(left);
+			scatter(output, leftValue.accessRows(rowIds(rows)).matmul(rightValue), rows);
+			return rows;
+		}
+		BitSet rows = new BitSet();
+		for (NNOperation input : inputs)
+			if (changed.containsKey(input)) {
+				if (!rowwise.contains(input))
+					return null;
+				rows.or(changed.get(input));
+			}
+		Tensor ids = rowIds(rows);
+		ArrayList<Tensor> subInputs = new ArrayList<Tensor>(inputs.size());
+		for (NNOperation input : inputs)
+			subInputs.add(rowwise.contains(input) ? cache.get(input).cast(Matrix.class).accessRows(ids)
+					: cache.get(input));
+		scatter(output, operation.run(subInputs).cast(Matrix.class), rows);
+		return rows;
+	}
+}
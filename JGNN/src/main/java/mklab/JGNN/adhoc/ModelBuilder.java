@@ -1,7 +1,11 @@
 package mklab.JGNN.adhoc;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -22,6 +26,7 @@ import mklab.JGNN.core.tensor.DenseTensor;
 import mklab.JGNN.core.tensor.SparseTensor;
 import mklab.JGNN.nn.Model;
 import mklab.JGNN.nn.NNOperation;
+import mklab.JGNN.nn.Profiler;
 import mklab.JGNN.nn.activations.Exp;
 import mklab.JGNN.nn.activations.L1;
 import mklab.JGNN.nn.activations.LRelu;
@@ -40,6 +45,7 @@ import mklab.JGNN.nn.operations.Concat;
 import mklab.JGNN.nn.operations.Dropout;
 import mklab.JGNN.nn.operations.From;
 import mklab.JGNN.nn.operations.Gather;
+import mklab.JGNN.nn.operations.History;
 import mklab.JGNN.nn.operations.Identity;
 import mklab.JGNN.nn.operations.Log;
 import mklab.JGNN.nn.operations.MatMul;
@@ -525,6 +531,33 @@ public class ModelBuilder {
 		return components.get(name);
 	}
 
+	/**
+	 * Enables gradient checkpointing for the built model, so that only the
+	 * predictions of the named components are retained during training and
+	 * intermediate ones are recomputed when backpropagation needs them. Calling
+	 * this without arguments disables checkpointing.
+	 * 
+	 * @param names The names of components to use as checkpoints.
+	 * @return The builder's instance.
+	 * @throws IllegalArgumentException If any of the names is not a declared
+	 *                                  component.
+	 * @see Model#setCheckpoints(java.util.Collection)
+	 */
+	public ModelBuilder checkpoint(String... names) {
+		if (names.length == 0) {
+			model.setCheckpoints((List<NNOperation>) null);
+			return this;
+		}
+		ArrayList<NNOperation> checkpoints = new ArrayList<NNOperation>();
+		for (String name : names) {
+			if (!components.containsKey(name))
+				throw new IllegalArgumentException("Cannot checkpoint undeclared component: " + name);
+			checkpoints.add(components.get(name));
+		}
+		model.setCheckpoints(checkpoints);
+		return this;
+	}
+
 	/**
 	 * This is a wrapper for <code>getModel().predict(inputs)</code> <b>without</b>
 	 * returning output values (use {@link #get(String)} afterwards to view outputs.
@@ -565,10 +598,10 @@ public class ModelBuilder {
 		return this;
 	}
 
+	private static final Pattern tokenPattern = Pattern.compile("\\b[a-zA-Z_][a-zA-Z0-9_]*\\b" + "|(\\\".*\\\")"
+			+ "|\\b\\w+\\b|\\(|\\)|\\=|\\+|\\;|\\!|\\:|\\#|\\-|\\.|\\*|\\@|\\/|\\[|\\]|\\,|\\?|\\||\\{|\\}");
+
 	private static List<String> extractTokens(String input) {
-		String tokenRegex = "\\b[a-zA-Z_][a-zA-Z0-9_]*\\b" + "|(\\\".*\\\")"
-				+ "|\\b\\w+\\b|\\(|\\)|\\=|\\+|\\;|\\!|\\:|\\#|\\-|\\.|\\*|\\@|\\/|\\[|\\]|\\,|\\?|\\||\\{|\\}";
-		Pattern tokenPattern = Pattern.compile(tokenRegex);
 		Matcher tokenMatcher = tokenPattern.matcher(input);
 		List<String> tokens = new ArrayList<>();
 		while (tokenMatcher.find()) {
@@ -607,8 +640,6 @@ public class ModelBuilder {
 	 */
 	public ModelBuilder operation(String desc) {
 		desc = desc.replace("'", "\"");
-		// System.out.println(desc);
-
 		String[] lines = desc.split("\\;|\\\n");
 		if (lines.length > 1) {
 			for (String line : lines)
@@ -616,137 +647,83 @@ public class ModelBuilder {
 					operation(line);
 			return this;
 		}
-		desc = desc.trim();
-		desc = desc.replace("=", " = ");
-		desc = desc.replace("@", " @ ");
-		desc = desc.replace("+", " + ");
-		desc = desc.replace("*", " * ");
-		desc = desc.replace("[", " [ ");
-		desc = desc.replace("]", " ] ");
-		desc = desc.replace("(", " ( ");
-		desc = desc.replace(")", " ) ");
-		desc = desc.replace(",", " , ");
-		if (!desc.contains("MINUS_ONE")) {
-			if (desc.contains("-") && !components.containsKey("MINUS_ONE"))
-				constant("MINUS_ONE", Tensor.fromDouble(-1));
-			desc = desc.replace("-", " + MINUS_ONE * ");
+		if (lines.length == 0 || lines[0].trim().isEmpty())
+			return this;
+		OperationParser.Compiled compiled = OperationParser.compile(lines[0].trim());
+		if (compiled.usesMinusOne() && !components.containsKey("MINUS_ONE"))
+			constant("MINUS_ONE", Tensor.fromDouble(-1));
+		String[] temporaryNames = new String[compiled.getTemporaries()];
+		for (int i = 0; i < temporaryNames.length; i++) {
+			String tmpName = "_tmp" + tmpVariableIdentifier;
+			tmpVariableIdentifier += 1;
+			while (components.containsKey(tmpName)) {
+				tmpName = "_tmp" + tmpVariableIdentifier;
+				tmpVariableIdentifier += 1;
+			}
+			temporaryNames[i] = tmpName;
 		}
-		desc = desc.replaceAll("\\s\\=\\s+\\+\\s+MINUS\\_ONE", " = MINUS_ONE");
-		desc = desc.replaceAll("\\s+", " ");
-		if (desc.endsWith(";")) // hack to parse return correctly
-			desc = desc.substring(0, desc.length() - 1);
+		for (String assignment : compiled.instantiate(temporaryNames))
+			assign(assignment);
+		return this;
+	}
 
-		boolean madeChanges = true;
-		while (madeChanges) {
-			madeChanges = false;
-			String newDesc = "";
-			ArrayList<StringBuilder> suboperation = new ArrayList<StringBuilder>();
-			suboperation.add(new StringBuilder());
-			int level = 0;
-			for (int i = 0; i < desc.length(); i++) {
-				char c = desc.charAt(i);
-				if (c == '(') {
-					if (level != 0)
-						suboperation.get(suboperation.size() - 1).append(c);
-					level += 1;
-				} else if (c == ',' && level == 1) {
-					suboperation.add(new StringBuilder());
-				} else if (c == ')') {
-					level -= 1;
-					if (level != 0)
-						suboperation.get(suboperation.size() - 1).append(c);
-					else {
-						String args = "";
-						for (StringBuilder subop : suboperation) {
-							if (!args.isEmpty())
-								args += " , ";
-							String arg = subop.toString().trim();
-							if (components.containsKey(arg) || configurations.containsKey(arg)
-									|| (newDesc.endsWith(" matrix ") && isDouble(arg))
-									|| (newDesc.endsWith(" vector ") && isDouble(arg))
-									|| (newDesc.endsWith(" sort ") && isDouble(arg))
-									|| (newDesc.endsWith(" reshape ") && isDouble(arg))
-									|| ((arg.equals("\"col\"") || arg.equals("\"row\"") || arg.contains(":"))
-											&& !arg.contains(",")))
-								args += arg;
-							else {
-								String tmpName = "_tmp" + tmpVariableIdentifier;
-								tmpVariableIdentifier += 1;
-								while (components.containsKey(tmpName)) {
-									tmpName = "_tmp" + tmpVariableIdentifier;
-									tmpVariableIdentifier += 1;
-								}
-								operation(tmpName + " = " + arg);
-								args += tmpName;
-								madeChanges = true;
-							}
-						}
-						suboperation.clear();
-						suboperation.add(new StringBuilder());
-						if (!components.containsKey(args) && !configurations.containsKey(args))
-							newDesc += "( " + args + " )";
-						else
-							newDesc += args;
-					}
-				} else if (level > 0)
-					suboperation.get(suboperation.size() - 1).append(c);
-				else
-					newDesc += c;
-			}
-			if (level != 0)
-				throw new RuntimeException("Imbalanced parenthesis in operation: " + desc);
-			desc = newDesc;
-			String[] operators = { " + ", " * ", " @ ", " | ", "-", "/" };
-			madeChanges = false;
-			for (String operator : operators) {
-				if (madeChanges)
-					break;
-				String[] splt = desc.split("\\s*=\\s*");
-				if (splt.length != 2)
-					throw new IllegalArgumentException("Exactly one equality needed in each operation: " + desc);
-				newDesc = "";
-				int lastArgPos = -1;
-				for (int i = 0; i < splt[1].length(); i++) {
-					char c = splt[1].charAt(i);
-					if (c == '(') {
-						level += 1;
-						newDesc += c;
-					} else if (c == ')') {
-						level -= 1;
-						newDesc += c;
-					} else {
-						newDesc += c;
-						if (!madeChanges && level == 0 && newDesc.endsWith(operator)) {
-							String arg = newDesc.substring(0, newDesc.length() - operator.length()).trim();
-							if (arg.startsWith("(") && arg.endsWith(")"))
-								arg = arg.substring(1, arg.length() - 1).trim();
-							if (components.containsKey(arg) || configurations.containsKey(arg))
-								newDesc = arg + operator;
-							else {
-								newDesc = "(" + arg + ")" + operator;
-								madeChanges = true;
-							}
-						}
-						if (level == 0 && newDesc.endsWith(operator))
-							lastArgPos = newDesc.length();
-					}
-				}
-				if (lastArgPos != -1) {
-					String arg = newDesc.substring(lastArgPos).trim();
-					newDesc = newDesc.substring(0, lastArgPos);
-					if (arg.startsWith("(") && arg.endsWith(")"))
-						arg = arg.substring(1, arg.length() - 1).trim();
-					if (components.containsKey(arg) || configurations.containsKey(arg))
-						newDesc += arg;
-					else {
-						newDesc += "(" + arg + ")";
-						madeChanges = true;
-					}
-				}
-				desc = splt[0] + " = " + newDesc;
-			}
+	/**
+	 * Saves the compiled forms of all operations parsed so far by any builder,
+	 * so that services can {@link #loadCompileCache(Path)} them at startup and
+	 * skip parsing the same architectures again. Operations are identified by
+	 * their text, which means that cached compilations remain valid regardless
+	 * of the builder that uses them.
+	 * 
+	 * @param path The file in which to save the cache.
+	 * @return Whether the cache was saved successfully.
+	 * @see #loadCompileCache(Path)
+	 */
+	public static boolean saveCompileCache(Path path) {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+			OperationParser.writeCache(out);
+			return true;
+		} catch (IOException ex) {
+			System.err.println(ex.toString());
+			return false;
 		}
+	}
 
+	/**
+	 * Loads compiled operations previously saved with
+	 * {@link #saveCompileCache(Path)}.
+	 * 
+	 * @param path The file from which to load the cache.
+	 * @return Whether the cache was loaded successfully.
+	 * @see #clearCompileCache()
+	 */
+	public static boolean loadCompileCache(Path path) {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+			OperationParser.readCache(in);
+			return true;
+		} catch (IOException ex) {
+			System.err.println(ex.toString());
+			return false;
+		}
+	}
+
+	/**
+	 * Removes all compiled operations from memory.
+	 * 
+	 * @see #saveCompileCache(Path)
+	 */
+	public static void clearCompileCache() {
+		OperationParser.clearCache();
+	}
+
+	/**
+	 * Adds to the execution graph an operation of the form
+	 * <code>name = ...</code> that comprises at most one operator or function,
+	 * which is applied on already declared components.
+	 * 
+	 * @param desc The operation.
+	 * @return The builder's instance.
+	 */
+	private ModelBuilder assign(String desc) {
 		String prevRouting = routing;
 		routing += desc + "\n";
 		desc = desc.replace("(", "").replace(")", "").replace(",", "") + " ";
@@ -779,9 +756,12 @@ public class ModelBuilder {
 					modeText = splt[4] + splt[5];
 				if (modeText.endsWith(";"))
 					modeText = modeText.substring(0, modeText.length() - 1);
-				if (!modeText.split("\\:")[0].trim().equals("dim"))
+				if (!modeText.split("\\:")[0].trim().equals("dim")) {
+					if (!modeText.contains(":"))
+						assertExists(modeText);
 					throw new RuntimeException("Second argument " + modeText
 							+ " to softmax should be a dim config (dim: \"row\" or dim: \"col\")");
+				}
 				modeText = modeText.substring(modeText.indexOf(":") + 1).trim();
 				if (modeText.equals("\"col\""))
 					mode = false;
@@ -800,9 +780,12 @@ public class ModelBuilder {
 					modeText = splt[4] + splt[5];
 				if (modeText.endsWith(";"))
 					modeText = modeText.substring(0, modeText.length() - 1);
-				if (!modeText.split("\\:")[0].trim().equals("dim"))
+				if (!modeText.split("\\:")[0].trim().equals("dim")) {
+					if (!modeText.contains(":"))
+						assertExists(modeText);
 					throw new RuntimeException("Second argument " + modeText
 							+ " to softmax should be a dim config (dim: \"row\" or dim: \"col\")");
+				}
 				modeText = modeText.substring(modeText.indexOf(":") + 1).trim();
 				if (modeText.equals("\"col\""))
 					mode = false;
@@ -821,9 +804,12 @@ public class ModelBuilder {
 					modeText = splt[4] + splt[5];
 				if (modeText.endsWith(";"))
 					modeText = modeText.substring(0, modeText.length() - 1);
-				if (!modeText.split("\\:")[0].trim().equals("dim"))
+				if (!modeText.split("\\:")[0].trim().equals("dim")) {
+					if (!modeText.contains(":"))
+						assertExists(modeText);
 					throw new RuntimeException("Second argument " + modeText
 							+ " to softmax should be a dim config (dim: \"row\" or dim: \"col\")");
+				}
 				modeText = modeText.substring(modeText.indexOf(":") + 1).trim();
 				if (modeText.equals("\"col\""))
 					mode = false;
@@ -842,9 +828,12 @@ public class ModelBuilder {
 					modeText = splt[4] + splt[5];
 				if (modeText.endsWith(";"))
 					modeText = modeText.substring(0, modeText.length() - 1);
-				if (!modeText.split("\\:")[0].trim().equals("dim"))
+				if (!modeText.split("\\:")[0].trim().equals("dim")) {
+					if (!modeText.contains(":"))
+						assertExists(modeText);
 					throw new RuntimeException("Second argument " + modeText
 							+ " to softmax should be a dim config (dim: \"row\" or dim: \"col\")");
+				}
 				modeText = modeText.substring(modeText.indexOf(":") + 1).trim();
 				if (modeText.equals("\"col\""))
 					mode = false;
@@ -876,6 +865,13 @@ public class ModelBuilder {
 							splt.length > 4 && isDouble(splt[4]) ? null : splt[4],
 							splt.length <= 5 || isDouble(splt[5]) ? null : splt[5]);
 			arg0 = splt[3];
+		} else if (splt[2].equals("history")) {
+			if (splt.length < 6)
+				throw new RuntimeException("history requires the number of graph nodes as its third argument");
+			component = new History((long) parseConfigValue(splt[5]),
+					(int) (splt.length > 6 ? parseConfigValue(splt[6]) : 0));
+			arg0 = splt[3];
+			arg1 = splt[4];
 		} else if (splt[2].equals("relu")) {
 			component = new Relu();
 			arg0 = splt[3];
@@ -910,9 +906,12 @@ public class ModelBuilder {
 					modeText = splt[4] + splt[5];
 				if (modeText.endsWith(";"))
 					modeText = modeText.substring(0, modeText.length() - 1);
-				if (!modeText.split("\\:")[0].trim().equals("dim"))
+				if (!modeText.split("\\:")[0].trim().equals("dim")) {
+					if (!modeText.contains(":"))
+						assertExists(modeText);
 					throw new RuntimeException("Second argument " + modeText
 							+ " to softmax should be a dim config (dim: \"row\" or dim: \"col\")");
+				}
 				modeText = modeText.substring(modeText.indexOf(":") + 1).trim();
 				if (modeText.equals("\"col\""))
 					mode = false;
@@ -1031,11 +1030,11 @@ public class ModelBuilder {
 					"vector", "matrix", "vec", "mat", "[", "]", "{", "}", "|", "#", "!", ":", "extern", "softmax",
 					"from", "to", "reduce", "transpose", "attention", "att", "dropout", "drop", "repeat", "exp", "nexp",
 					"L1", "sigmoid", "transpose", "monitor", "log", "tanh", "prelu", "lrelu", "relu", "reshape",
-					"mean"));
+					"mean", "history"));
 			keywords.addAll(this.components.keySet());
 			keywords.addAll(this.configurations.keySet());
 			customNames.put("return", splt[0] + " = ");
-			String newExpr = "";
+			StringBuilder newExpr = new StringBuilder();
 			routing = prevRouting; // remove the function call from the routing
 			boolean prevHash = false;
 			boolean prevTemp = false;
@@ -1063,9 +1062,9 @@ public class ModelBuilder {
 					renameLater.clear();
 				}
 				if (!prevHash && !prevTemp)
-					newExpr += token;
+					newExpr.append(token);
 			}
-			this.operation(newExpr);
+			this.operation(newExpr.toString());
 			this.configurations = configStack;
 			return this;
 		} else
@@ -1214,8 +1213,26 @@ public class ModelBuilder {
 	 * representation.
 	 * 
 	 * @return A <code>String</code> to be pasted into GraphViz for visualization.
+	 * @see #getExecutionGraphDot(Profiler)
 	 */
 	public String getExecutionGraphDot() {
+		return getExecutionGraphDot(null);
+	}
+
+	/**
+	 * Exports the builded model's execution graph into a <i>.dot</i> format
+	 * representation, where components are annotated with the total time measured
+	 * for them by a {@link Profiler}. Components are filled with a red color whose
+	 * intensity is proportional to their share of the total measured time, so that
+	 * hot operations stand out.
+	 * 
+	 * @param profiler The profiler whose measurements to show. If
+	 *                 <code>null</code>, no annotations are added.
+	 * @return A <code>String</code> to be pasted into GraphViz for visualization.
+	 * @see #getExecutionGraphDot()
+	 * @see Model#setProfiler(Profiler)
+	 */
+	public String getExecutionGraphDot(Profiler profiler) {
 		getModel();
 		String ret = "//Can visualize at: https://dreampuf.github.io/GraphvizOnline";
 		ret += "\ndigraph operations {";
@@ -1258,7 +1275,17 @@ public class ModelBuilder {
 			} else
 				ret += "\n   " + component.getDescription() + "[label=\"" + component.getDescription() + " = "
 						+ component.getSimpleDescription() + "\"]";
-
+		long totalNanos = profiler == null ? 0 : profiler.getTotalNanos();
+		if (totalNanos != 0)
+			for (NNOperation component : components.values()) {
+				long nanos = profiler.getTotalNanos(component);
+				if (nanos == 0)
+					continue;
+				double share = nanos / (double) totalNanos;
+				ret += "\n   " + component.getDescription() + "[xlabel=\"" + String.format("%.1f", nanos / 1.E6)
+						+ " ms (" + String.format("%.1f", share * 100) + "%)\",style=filled,fillcolor=\"#ff0000"
+						+ String.format("%02x", (int) Math.round(share * 255)) + "\"]";
+			}
 		ret += "\n}";
 		return ret;
 	}
@@ -1,8 +1,12 @@
 package mklab.JGNN.adhoc;
 
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
 
+import mklab.JGNN.adhoc.distributed.RingAllReduce;
+import mklab.JGNN.adhoc.telemetry.BatchMetrics;
+import mklab.JGNN.adhoc.telemetry.TrainingListener;
+import mklab.JGNN.adhoc.telemetry.TrainingTelemetry;
 import mklab.JGNN.core.Matrix;
 import mklab.JGNN.core.Memory;
 import mklab.JGNN.core.Slice;
@@ -32,6 +36,15 @@ public abstract class ModelTraining {
 	protected boolean stochasticGradientDescent = false;
 	protected Loss loss, validationLoss;
 	protected boolean verbose = false;
+	protected TrainingTelemetry telemetry = new TrainingTelemetry();
+	protected CheckpointManager checkpoints = new CheckpointManager();
+	protected int validationInterval = 1;
+	protected boolean asyncValidation = false;
+	protected int prefetch = 0;
+	protected int prefetchThreads = 1;
+	protected int hogwildThreads = 0;
+	protected int maxStaleness = Integer.MAX_VALUE;
+	protected RingAllReduce allReduce;
 
 	public ModelTraining() {
 	}
@@ -171,6 +184,180 @@ public abstract class ModelTraining {
 		return this;
 	}
 
+	/**
+	 * Sets the number of epochs between validations. Epochs that are not validated
+	 * still count towards patience, and the last epoch is always validated.
+	 * 
+	 * @param validationInterval The number of epochs. Default is 1.
+	 * @return <code>this</code> model training instance.
+	 * @see #setAsyncValidation(boolean)
+	 */
+	public ModelTraining setValidationInterval(int validationInterval) {
+		if (validationInterval <= 0)
+			throw new IllegalArgumentException("Validation interval should be positive but given " + validationInterval);
+		this.validationInterval = validationInterval;
+		return this;
+	}
+
+	/**
+	 * Sets whether validation should run on a snapshot of the parameters in a
+	 * separate thread while training proceeds to the next epoch. The result is
+	 * attributed to the epoch it was taken at, and training waits for it only
+	 * before the next validation starts. Early stopping and the selection of the
+	 * best parameters are the same as with synchronous validation, though up to
+	 * one more epoch of training may run before stopping is detected. If
+	 * validation and training use the same {@link Loss} instance, that loss should
+	 * be safe to call from both threads.
+	 * 
+	 * @param asyncValidation A boolean value. Default is <code>false</code>.
+	 * @return <code>this</code> model training instance.
+	 * @see #setValidationInterval(int)
+	 */
+	public ModelTraining setAsyncValidation(boolean asyncValidation) {
+		this.asyncValidation = asyncValidation;
+		return this;
+	}
+
+	/**
+	 * Sets the number of training batches whose data are obtained by
+	 * {@link #getBatchData(int, int)} on a background thread ahead of their use,
+	 * so that data preparation overlaps with forward and backward passes.
+	 * 
+	 * @param batches The maximum number of batches to prepare ahead. Default is 0
+	 *                to prepare each batch when it is needed.
+	 * @return <code>this</code> model training instance.
+	 * @see #setPrefetch(int, int)
+	 */
+	public ModelTraining setPrefetch(int batches) {
+		return setPrefetch(batches, 1);
+	}
+
+	/**
+	 * Sets the number of training batches whose data are obtained by
+	 * {@link #getBatchData(int, int)} on background threads ahead of their use.
+	 * Batches are always consumed in the same order and prefetching happens only
+	 * within each epoch, that is after {@link #onStartEpoch(int)}. With multiple
+	 * threads, {@link #getBatchData(int, int)} should be safe to call
+	 * concurrently, as is already needed by
+	 * {@link #setParallelizedStochasticGradientDescent(boolean)}.
+	 * 
+	 * @param batches The maximum number of batches to prepare ahead. Default is 0
+	 *                to prepare each batch when it is needed.
+	 * @param threads The number of threads that prepare batches.
+	 * @return <code>this</code> model training instance.
+	 * @see BatchPrefetcher
+	 */
+	public ModelTraining setPrefetch(int batches, int threads) {
+		if (batches < 0)
+			throw new IllegalArgumentException("The number of prefetched batches should be non-negative but given " + batches);
+		if (threads <= 0)
+			throw new IllegalArgumentException("The number of prefetch threads should be positive but given " + threads);
+		this.prefetch = batches;
+		this.prefetchThreads = threads;
+		return this;
+	}
+
+	/**
+	 * Sets a number of threads that train on the batches of each epoch
+	 * concurrently, Hogwild!-style, without bounding how stale the parameters
+	 * that each batch starts from can be.
+	 * 
+	 * @param threads The number of training threads. Default is 0 to disable this
+	 *                feature.
+	 * @return <code>this</code> model training instance.
+	 * @see #setHogwild(int, int)
+	 */
+	public ModelTraining setHogwild(int threads) {
+		return setHogwild(threads, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Sets a number of threads that train on the batches of each epoch
+	 * concurrently, Hogwild!-style. Each thread repeatedly claims the next batch
+	 * and passes its gradients to the base optimizer wrapped by
+	 * {@link BatchOptimizer} as soon as they are computed, so that updates are not
+	 * averaged across batches and threads read parameters that other threads are
+	 * writing. Batches are claimed in order, and a batch starts only after all
+	 * batches more than <code>maxStaleness</code> positions before it have
+	 * concluded. This mode takes precedence over
+	 * {@link #setParallelizedStochasticGradientDescent(boolean)}, whose data
+	 * shuffling still applies. For updates to also skip locking, enable the
+	 * lock-free mode of the optimizer, for example with
+	 * {@link Adam#setLockFree(boolean)}; otherwise, concurrent updates of the same
+	 * parameter are serialized.
+	 * 
+	 * @param threads      The number of training threads. Default is 0 to disable
+	 *                     this feature.
+	 * @param maxStaleness The maximum number of earlier batches that may not have
+	 *                     concluded when a batch starts. Zero trains batches one
+	 *                     after the other. Default is Integer.MAX_VALUE.
+	 * @return <code>this</code> model training instance.
+	 * @see mklab.JGNN.nn.optimizers.GradientDescent#setLockFree(boolean)
+	 */
+	public ModelTraining setHogwild(int threads, int maxStaleness) {
+		if (threads < 0)
+			throw new IllegalArgumentException("The number of Hogwild threads should be non-negative but given " + threads);
+		if (maxStaleness < 0)
+			throw new IllegalArgumentException("Maximum staleness should be non-negative but given " + maxStaleness);
+		this.hogwildThreads = threads;
+		this.maxStaleness = maxStaleness;
+		return this;
+	}
+
+	/**
+	 * Sets a worker of data-parallel training across processes. All workers
+	 * should train the same model architecture with the same settings, but on
+	 * different training samples, for example obtained with
+	 * {@link RingAllReduce#shard(Slice)}. Training starts from the parameters of
+	 * the worker with rank 0, and the average derivatives of all workers are
+	 * summed before each parameter update, so that all of them apply the same
+	 * updates. Validation losses are averaged across workers too, so that all of
+	 * them stop at the same epoch. This cannot be combined with thread-based
+	 * parallelization, Hogwild! training, or asynchronous validation.
+	 * 
+	 * @param allReduce The worker's connection to the others, or
+	 *                  <code>null</code> to train only in this process (default).
+	 * @return <code>this</code> model training instance.
+	 * @see BatchOptimizer#reduceAll(List, java.util.function.Consumer)
+	 */
+	public ModelTraining setAllReduce(RingAllReduce allReduce) {
+		this.allReduce = allReduce;
+		return this;
+	}
+
+	/**
+	 * Adds a listener that receives batch and epoch metrics of the training loop,
+	 * such as the time split between batch data extraction, forward and backward
+	 * passes, parameter updates and validation, throughput, and memory usage.
+	 * Metrics are only gathered if at least one listener has been added.
+	 * 
+	 * @param listener The listener to add.
+	 * @return <code>this</code> model training instance.
+	 * @see mklab.JGNN.adhoc.telemetry.TelemetryWriter
+	 * @see mklab.JGNN.adhoc.telemetry.TrainingMonitor
+	 */
+	public ModelTraining addListener(TrainingListener listener) {
+		telemetry.addListener(listener);
+		return this;
+	}
+
+	/**
+	 * Sets the manager of parameter snapshots, which keeps the parameters with the
+	 * smallest validation loss and can periodically write checkpoints to disk from
+	 * which to resume training. By default, only the best parameters are kept in
+	 * memory.
+	 * 
+	 * @param checkpoints The checkpoint manager.
+	 * @return <code>this</code> model training instance.
+	 * @see CheckpointManager#CheckpointManager(java.nio.file.Path)
+	 */
+	public ModelTraining setCheckpointManager(CheckpointManager checkpoints) {
+		if (checkpoints == null)
+			throw new IllegalArgumentException("Cannot set a null checkpoint manager");
+		this.checkpoints = checkpoints;
+		return this;
+	}
+
 	/**
 	 * This is a leftover method from an earlier version of JGNN's interface. For
 	 * the time being, there is no good alternative, but it will be phased out.
@@ -242,74 +429,330 @@ public abstract class ModelTraining {
 
 	/**
 	 * Trains the parameters of a {@link Model} based on current settings and the
-	 * data.
+	 * data. If the checkpoint manager holds a checkpoint file, training resumes
+	 * from the epoch after the one it was written at.
 	 * 
 	 * @param model The model instance to train.
+	 * @see #setCheckpointManager(CheckpointManager)
 	 */
 	public Model train(Model model) {
 		double minLoss = Double.POSITIVE_INFINITY;
-		HashMap<Parameter, Tensor> minLossParameters = new HashMap<Parameter, Tensor>();
-		int currentPatience = patience;
+		// the first epoch counts towards patience as if it improved the loss
+		int lastImprovement = 0;
+		int startEpoch = 0;
+		if (checkpoints.start(model, optimizer, patience)) {
+			minLoss = checkpoints.getMinLoss();
+			lastImprovement = checkpoints.getEpoch() - (patience - checkpoints.getPatience() - 1);
+			startEpoch = checkpoints.getPatience() <= 0 ? epochs : checkpoints.getEpoch() + 1;
+		}
+		if (allReduce != null) {
+			if (paralellization || hogwildThreads > 0 || asyncValidation)
+				throw new RuntimeException(
+						"Distributed training cannot be combined with parallelized batches, Hogwild! training, or asynchronous validation");
+			List<Tensor> values = new ArrayList<Tensor>();
+			for (Parameter parameter : model.getParameters())
+				values.add(parameter.get());
+			allReduce.broadcast(values);
+		}
 		Loss validLoss = validationLoss != null ? validationLoss : loss;
-		for (int epoch = 0; epoch < epochs; epoch++) {
-			onStartEpoch(epoch);
-			int epochId = epoch;
-			for (int batch = 0; batch < numBatches; batch++) {
-				int batchId = batch;
-				Runnable batchCode = new Runnable() {
-					@Override
-					public void run() {
-						for (BatchData batchData : getBatchData(batchId, epochId)) 
-							model.train(loss, optimizer, batchData.getInputs(), batchData.getOutputs());
-						if (stochasticGradientDescent)
-							optimizer.updateAll();
+		boolean measure = telemetry.isEnabled();
+		List<Parameter> parameters = model.getParameters();
+		List<Tensor> snapshot = null;
+		Validation pending = null;
+		BatchPrefetcher prefetcher = prefetch == 0 ? null : new BatchPrefetcher(prefetch, prefetchThreads);
+		try {
+			for (int epoch = startEpoch; epoch < epochs; epoch++) {
+				if (model.getProfiler() != null)
+					model.getProfiler().setEpoch(epoch);
+				long epochTic = System.nanoTime();
+				if (measure)
+					telemetry.startEpoch();
+				onStartEpoch(epoch);
+				int epochId = epoch;
+				if (prefetcher != null)
+					prefetcher.startEpoch(batch -> getBatchData(batch, epochId), numBatches);
+				if (hogwildThreads > 0)
+					trainHogwild(model, epoch, prefetcher, measure);
+				else {
+					for (int batch = 0; batch < numBatches; batch++) {
+						int batchId = batch;
+						Runnable batchCode = new Runnable() {
+							@Override
+							public void run() {
+								trainBatch(model, optimizer, epochId, batchId, prefetcher, measure);
+							}
+						};
+						if (paralellization)
+							ThreadPool.getInstance().submit(batchCode);
+						else
+							batchCode.run();
+						// System.out.println(System.currentTimeMillis()-tic);
 					}
-				};
-				if (paralellization)
-					ThreadPool.getInstance().submit(batchCode);
-				else
-					batchCode.run();
-				// System.out.println(System.currentTimeMillis()-tic);
-			}
-			if (paralellization)
-				ThreadPool.getInstance().waitForConclusion();
-			if (!stochasticGradientDescent)
-				optimizer.updateAll();
-			loss.onEndEpoch();
-			
-			Memory.scope().enter();
-			double totalLoss = 0;
-			List<BatchData> allValidationData = getValidationData(epoch);
-			for (BatchData validationData : allValidationData) {
-				List<Tensor> outputs = model.predict(validationData.getInputs());
-				totalLoss += validLoss.evaluate(outputs.get(0), validationData.getOutputs().get(0));
+					if (paralellization)
+						ThreadPool.getInstance().waitForConclusion();
+				}
+				long updateTic = System.nanoTime();
+				if (!stochasticGradientDescent)
+					updateAll(model);
+				long updateNanos = System.nanoTime() - updateTic;
+				loss.onEndEpoch();
+
+				long validationTic = System.nanoTime();
+				double epochLoss = Double.NaN;
+				// the last epoch whose validation outcome is known
+				int knownEpoch = epoch;
+				if ((epoch + 1) % validationInterval == 0 || epoch == epochs - 1) {
+					if (pending != null) {
+						pending.await();
+						if (pending.loss < minLoss) {
+							minLoss = pending.loss;
+							lastImprovement = pending.epoch;
+							checkpoints.improve(pending.loss, snapshot);
+						}
+						pending = null;
+					}
+					if (asyncValidation) {
+						if (snapshot == null) {
+							snapshot = new ArrayList<Tensor>();
+							for (Parameter parameter : parameters)
+								snapshot.add(parameter.get().copy());
+						} else
+							for (int i = 0; i < parameters.size(); i++)
+								CheckpointManager.copy(parameters.get(i).get(), snapshot.get(i));
+						pending = new Validation(epoch);
+						pending.start(model, parameters, snapshot, validLoss);
+						knownEpoch = epoch - 1;
+					} else {
+						epochLoss = validate(model, epoch, validLoss);
+						if (allReduce != null)
+							epochLoss = allReduce.average(epochLoss);
+						if (epochLoss < minLoss) {
+							minLoss = epochLoss;
+							lastImprovement = epoch;
+							checkpoints.improve(epochLoss);
+						}
+					}
+				} else if (pending != null)
+					knownEpoch = pending.epoch - 1;
+				if (measure) {
+					long toc = System.nanoTime();
+					telemetry.endEpoch(epoch, toc - epochTic, updateNanos, toc - validationTic, epochLoss);
+				}
+				checkpoints.endEpoch(epoch, minLoss, patience - (epoch - lastImprovement) - 1);
+				if (knownEpoch - lastImprovement >= patience - 1) {
+					// training would have stopped before the pending validation's epoch
+					if (pending != null)
+						pending.await();
+					pending = null;
+					break;
+				}
 			}
-			Memory.scope().exit();
-			if (totalLoss != 0)
-				totalLoss /= allValidationData.size();
-
-			if (totalLoss < minLoss) {
-				currentPatience = patience;
-				minLoss = totalLoss;
-				for (Parameter parameter : model.getParameters())
-					minLossParameters.put(parameter, parameter.get().copy());
+		} finally {
+			if (prefetcher != null)
+				prefetcher.close();
+		}
+		if (pending != null) {
+			pending.await();
+			if (pending.loss < minLoss) {
+				minLoss = pending.loss;
+				checkpoints.improve(pending.loss, snapshot);
 			}
-
-			if (verbose)
-				System.out.println("Epoch " + epoch + " with loss " + totalLoss);
-			validLoss.onEndEpoch();
-			currentPatience -= 1;
-			if (currentPatience == 0)
-				break;
 		}
-		for (Parameter parameter : model.getParameters())
-			parameter.set(minLossParameters.get(parameter));
+		checkpoints.finish();
 		loss.onEndTraining();
 		validLoss.onEndTraining();
 		onEndTraining();
+		if (measure)
+			telemetry.endTraining();
 		return model;
 	}
 
+	/**
+	 * Trains the model on one batch in the current thread. The batch optimizer
+	 * updates all accumulated gradients if stochastic gradient descent is enabled
+	 * and it is the given optimizer.
+	 */
+	private void trainBatch(Model model, Optimizer batchOptimizer, int epoch, int batch, BatchPrefetcher prefetcher,
+			boolean measure) {
+		long tic = System.nanoTime();
+		List<BatchData> batchDataList = prefetcher == null ? getBatchData(batch, epoch) : prefetcher.take(batch);
+		long dataNanos = System.nanoTime() - tic;
+		long forwardNanos = 0;
+		long backwardNanos = 0;
+		long samples = 0;
+		for (BatchData batchData : batchDataList) {
+			model.train(loss, batchOptimizer, batchData.getInputs(), batchData.getOutputs());
+			if (measure) {
+				forwardNanos += model.getLastForwardNanos();
+				backwardNanos += model.getLastBackwardNanos();
+				Tensor desired = batchData.getOutputs().get(0);
+				samples += desired instanceof Matrix ? ((Matrix) desired).getRows() : 1;
+			}
+		}
+		long updateTic = System.nanoTime();
+		if (stochasticGradientDescent && batchOptimizer == optimizer)
+			updateAll(model);
+		long toc = System.nanoTime();
+		if (measure)
+			telemetry.batch(new BatchMetrics(epoch, batch, ThreadPool.getCurrentThreadId(), samples, dataNanos,
+					forwardNanos, backwardNanos, toc - updateTic, toc - tic));
+	}
+
+	/**
+	 * Applies all pending updates of the batch optimizer, after combining them
+	 * with those of other workers if training is distributed.
+	 */
+	private void updateAll(Model model) {
+		if (allReduce != null) {
+			List<Tensor> values = new ArrayList<Tensor>();
+			for (Parameter parameter : model.getParameters())
+				values.add(parameter.get());
+			optimizer.reduceAll(values, allReduce::allReduce);
+		}
+		optimizer.updateAll();
+	}
+
+	/**
+	 * Trains the model on all batches of an epoch with multiple threads that
+	 * immediately apply their updates.
+	 * 
+	 * @see #setHogwild(int, int)
+	 */
+	private void trainHogwild(Model model, int epoch, BatchPrefetcher prefetcher, boolean measure) {
+		Optimizer baseOptimizer = optimizer.getBaseOptimizer();
+		BatchSchedule schedule = new BatchSchedule(numBatches, maxStaleness);
+		Thread[] workers = new Thread[hogwildThreads];
+		for (int i = 0; i < workers.length; i++)
+			workers[i] = ThreadPool.getInstance().startThread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						int batch;
+						while ((batch = schedule.next()) != -1) {
+							trainBatch(model, baseOptimizer, epoch, batch, prefetcher, measure);
+							schedule.done(batch);
+						}
+					} catch (RuntimeException ex) {
+						schedule.abort(ex);
+					}
+				}
+			});
+		try {
+			for (Thread worker : workers)
+				worker.join();
+		} catch (InterruptedException ex) {
+			throw new RuntimeException(ex);
+		}
+		if (schedule.exception != null)
+			throw schedule.exception;
+	}
+
+	/**
+	 * Hands out the batches of an epoch in order, so that a batch is handed out
+	 * only if at most a maximum number of batches before it have not concluded.
+	 */
+	static class BatchSchedule {
+		private final boolean[] concluded;
+		private final int maxStaleness;
+		private int next = 0;
+		private int lowestPending = 0;
+		private RuntimeException exception;
+
+		BatchSchedule(int numBatches, int maxStaleness) {
+			concluded = new boolean[numBatches];
+			this.maxStaleness = maxStaleness;
+		}
+
+		synchronized int next() {
+			while (exception == null && next < concluded.length && next - lowestPending > maxStaleness)
+				try {
+					wait();
+				} catch (InterruptedException ex) {
+					throw new RuntimeException(ex);
+				}
+			if (exception != null || next >= concluded.length)
+				return -1;
+			return next++;
+		}
+
+		synchronized void done(int batch) {
+			concluded[batch] = true;
+			while (lowestPending < concluded.length && concluded[lowestPending])
+				lowestPending++;
+			notifyAll();
+		}
+
+		synchronized void abort(RuntimeException ex) {
+			if (exception == null)
+				exception = ex;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Computes the average validation loss of the model at a given epoch in the
+	 * current thread.
+	 */
+	private double validate(Model model, int epoch, Loss validLoss) {
+		Memory.scope().enter();
+		double totalLoss = 0;
+		List<BatchData> allValidationData = getValidationData(epoch);
+		for (BatchData validationData : allValidationData) {
+			List<Tensor> outputs = model.predict(validationData.getInputs());
+			totalLoss += validLoss.evaluate(outputs.get(0), validationData.getOutputs().get(0));
+		}
+		Memory.scope().exit();
+		if (totalLoss != 0)
+			totalLoss /= allValidationData.size();
+		if (verbose)
+			System.out.println("Epoch " + epoch + " with loss " + totalLoss);
+		validLoss.onEndEpoch();
+		return totalLoss;
+	}
+
+	/**
+	 * Runs the validation of one epoch on parameter snapshots in a thread of its
+	 * own.
+	 */
+	private class Validation {
+		private final int epoch;
+		private double loss = Double.NaN;
+		private RuntimeException exception;
+		private Thread thread;
+
+		private Validation(int epoch) {
+			this.epoch = epoch;
+		}
+
+		private void start(Model model, List<Parameter> parameters, List<Tensor> snapshot, Loss validLoss) {
+			thread = ThreadPool.getInstance().startThread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < parameters.size(); i++)
+							parameters.get(i).setThreadValue(snapshot.get(i));
+						loss = validate(model, epoch, validLoss);
+					} catch (RuntimeException ex) {
+						exception = ex;
+					} finally {
+						for (Parameter parameter : parameters)
+							parameter.setThreadValue(null);
+					}
+				}
+			});
+		}
+
+		private void await() {
+			try {
+				thread.join();
+			} catch (InterruptedException ex) {
+				throw new RuntimeException(ex);
+			}
+			if (exception != null)
+				throw exception;
+		}
+	}
+
 	/**
 	 * Retrieves the learning rate (lr), epochs, batches, and patience parameters
 	 * from the configurations of a
@@ -0,0 +1,480 @@
+package mklab.JGNN.adhoc;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compiles single-line expressions of {@link ModelBuilder#operation(String)}
+ * into sequences of assignments that each perform at most one operation on
+ * named components. Each expression is split into tokens, parsed into an
+ * abstract syntax tree with recursive descent, and lowered to assignments by
+ * introducing temporary components for nested sub-expressions. This takes
+ * time linear in the length of expressions.<br>
+ * Operators in ascending precedence are <code>+</code> and <code>-</code>, then
+ * <code>*</code>, then <code>@</code>, then <code>|</code> and <code>x</code>,
+ * then <code>/</code>, where all of them are left-associative. Subtraction is
+ * expressed as addition of the right operand multiplied with the
+ * <code>MINUS_ONE</code> constant. Square brackets gather rows, and
+ * function calls accept expressions and <code>name: value</code>
+ * configurations as arguments.<br>
+ * Compilation does not depend on the components already declared in the
+ * builder, since temporary components are referenced by their creation order
+ * and named only when compiled expressions are applied. Therefore, compiled
+ * expressions are cached per their text and reused across builders.
+ *
+ * @author Emmanouil Krasanakis
+ */
+class OperationParser {
+	private static final int NAME = 0;
+	private static final int NUMBER = 1;
+	private static final int STRING = 2;
+	private static final int SYMBOL = 3;
+	private static final int END = 4;
+	private static final int CONFIG = 5;
+	private static final int CALL = 6;
+	private static final int BINARY = 7;
+	private static final int INDEX = 8;
+	private static final int GROUP = 9;
+	private static final int TEMPORARY = 10;
+	private static final String[][] OPERATORS = { { "+" }, { "*" }, { "@" }, { "|", "x" }, { "/" } };
+	private static final HashSet<String> SHAPED = new HashSet<String>(
+			Arrays.asList("matrix", "mat", "vector", "vec", "sort", "reshape", "history"));
+	private static final int MAX_CACHED = 100000;
+	private static final Map<String, Compiled> cache = new ConcurrentHashMap<String, Compiled>();
+
+	/**
+	 * An expression compiled into assignments. Each assignment targets either the
+	 * expression's component or a temporary one, and temporary components are
+	 * referenced within assignments as <code>\0index\0</code>.
+	 */
+	static class Compiled {
+		private final String name;
+		private final boolean usesMinusOne;
+		private final int temporaries;
+		private final int[] targets;
+		private final String[] assignments;
+
+		private Compiled(String name, boolean usesMinusOne, int temporaries, int[] targets, String[] assignments) {
+			this.name = name;
+			this.usesMinusOne = usesMinusOne;
+			this.temporaries = temporaries;
+			this.targets = targets;
+			this.assignments = assignments;
+		}
+
+		boolean usesMinusOne() {
+			return usesMinusOne;
+		}
+
+		int getTemporaries() {
+			return temporaries;
+		}
+
+		/**
+		 * Creates the assignments given names for temporary components.
+		 */
+		List<String> instantiate(String[] temporaryNames) {
+			ArrayList<String> ret = new ArrayList<String>(assignments.length);
+			StringBuilder builder = new StringBuilder();
+			for (int i = 0; i < assignments.length; i++) {
+				builder.setLength(0);
+				builder.append(targets[i] == -1 ? name : temporaryNames[targets[i]]).append(" = ");
+				String assignment = assignments[i];
+				int pos = 0;
+				int marker;
+				while ((marker = assignment.indexOf('\0', pos)) != -1) {
+					int end = assignment.indexOf('\0', marker + 1);
+					builder.append(assignment, pos, marker);
+					builder.append(temporaryNames[Integer.parseInt(assignment.substring(marker + 1, end))]);
+					pos = end + 1;
+				}
+				builder.append(assignment, pos, assignment.length());
+				ret.add(builder.toString());
+			}
+			return ret;
+		}
+
+		private void write(DataOutputStream out) throws IOException {
+			out.writeUTF(name);
+			out.writeBoolean(usesMinusOne);
+			out.writeInt(temporaries);
+			out.writeInt(targets.length);
+			for (int i = 0; i < targets.length; i++) {
+				out.writeInt(targets[i]);
+				out.writeUTF(assignments[i]);
+			}
+		}
+
+		private static Compiled read(DataInputStream in) throws IOException {
+			String name = in.readUTF();
+			boolean usesMinusOne = in.readBoolean();
+			int temporaries = in.readInt();
+			int count = in.readInt();
+			int[] targets = new int[count];
+			String[] assignments = new String[count];
+			for (int i = 0; i < count; i++) {
+				targets[i] = in.readInt();
+				assignments[i] = in.readUTF();
+			}
+			return new Compiled(name, usesMinusOne, temporaries, targets, assignments);
+		}
+	}
+
+	private static class Node {
+		private final int type;
+		private final String text;
+		private Node left;
+		private Node right;
+		private List<Node> args;
+		private boolean enclosed;
+
+		private Node(int type, String text) {
+			this.type = type;
+			this.text = text;
+		}
+	}
+
+	private final String expression;
+	private final ArrayList<Integer> tokenTypes = new ArrayList<Integer>();
+	private final ArrayList<String> tokens = new ArrayList<String>();
+	private final ArrayList<Integer> tokenStarts = new ArrayList<Integer>();
+	private boolean usesMinusOne = false;
+	private int pos = 0;
+	private int temporaries = 0;
+	private final ArrayList<Integer> targets = new ArrayList<Integer>();
+	private final ArrayList<String> assignments = new ArrayList<String>();
+
+	private OperationParser(String expression) {
+		this.expression = expression;
+	}
+
+	/**
+	 * Compiles a single-line expression of the form <code>name = ...</code>, or
+	 * retrieves a previous compilation of the same text.
+	 *
+	 * @param expression The expression.
+	 * @return The compiled expression.
+	 * @throws IllegalArgumentException If the expression cannot be parsed.
+	 */
+	static Compiled compile(String expression) {
+		Compiled ret = cache.get(expression);
+		if (ret != null)
+			return ret;
+		OperationParser parser = new OperationParser(expression);
+		parser.tokenize();
+		if (parser.tokens.size() < 3 || parser.tokenTypes.get(0) != NAME || !parser.tokens.get(1).equals("="))
+			throw new IllegalArgumentException("Exactly one equality needed in each operation: " + expression);
+		String name = parser.tokens.get(0);
+		parser.pos = 2;
+		Node rhs = parser.parseExpression(0);
+		if (parser.type() != END)
+			throw new IllegalArgumentException("Unexpected " + parser.token() + " in operation: " + expression);
+		parser.lower(-1, rhs, true);
+		int[] targets = new int[parser.targets.size()];
+		for (int i = 0; i < targets.length; i++)
+			targets[i] = parser.targets.get(i);
+		ret = new Compiled(name, parser.usesMinusOne, parser.temporaries, targets,
+				parser.assignments.toArray(new String[parser.assignments.size()]));
+		if (cache.size() < MAX_CACHED)
+			cache.put(expression, ret);
+		return ret;
+	}
+
+	static void clearCache() {
+		cache.clear();
+	}
+
+	static void writeCache(DataOutputStream out) throws IOException {
+		ArrayList<Map.Entry<String, Compiled>> entries = new ArrayList<Map.Entry<String, Compiled>>(cache.entrySet());
+		out.writeInt(entries.size());
+		for (Map.Entry<String, Compiled> entry : entries) {
+			out.writeUTF(entry.getKey());
+			entry.getValue().write(out);
+		}
+	}
+
+	static void readCache(DataInputStream in) throws IOException {
+		int count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			String expression = in.readUTF();
+			Compiled compiled = Compiled.read(in);
+			if (cache.size() < MAX_CACHED)
+				cache.put(expression, compiled);
+		}
+	}
+
+	private void addToken(int type, String text, int start) {
+		tokenTypes.add(type);
+		tokens.add(text);
+		tokenStarts.add(start);
+	}
+
+	private boolean endsOperand() {
+		if (tokens.isEmpty())
+			return false;
+		int last = tokenTypes.get(tokens.size() - 1);
+		String text = tokens.get(tokens.size() - 1);
+		return last == NAME || last == NUMBER || last == STRING || text.equals(")") || text.equals("]");
+	}
+
+	private void tokenize() {
+		int length = expression.length();
+		int i = 0;
+		while (i < length) {
+			char c = expression.charAt(i);
+			int start = i;
+			if (Character.isWhitespace(c))
+				i++;
+			else if (Character.isLetter(c) || c == '_' || c == '?') {
+				i++;
+				if (c != '?')
+					while (i < length && (Character.isLetterOrDigit(expression.charAt(i)) || expression.charAt(i) == '_'))
+						i++;
+				addToken(NAME, expression.substring(start, i), start);
+			} else if (Character.isDigit(c) || (c == '.' && i + 1 < length && Character.isDigit(expression.charAt(i + 1)))) {
+				while (i < length && (Character.isDigit(expression.charAt(i)) || expression.charAt(i) == '.'))
+					i++;
+				if (i + 1 < length && (expression.charAt(i) == 'e' || expression.charAt(i) == 'E')
+						&& (Character.isDigit(expression.charAt(i + 1)) || (i + 2 < length
+								&& (expression.charAt(i + 1) == '-' || expression.charAt(i + 1) == '+')
+								&& Character.isDigit(expression.charAt(i + 2))))) {
+					i += 2;
+					while (i < length && Character.isDigit(expression.charAt(i)))
+						i++;
+				}
+				if (i < length && (Character.isLetter(expression.charAt(i)) || expression.charAt(i) == '_')) {
+					// names such as 2hidden may start with digits
+					while (i < length && (Character.isLetterOrDigit(expression.charAt(i)) || expression.charAt(i) == '_'))
+						i++;
+					addToken(NAME, expression.substring(start, i), start);
+				} else
+					addToken(NUMBER, expression.substring(start, i), start);
+			} else if (c == '"' || c == '\'') {
+				int end = expression.indexOf(c, i + 1);
+				if (end == -1)
+					throw new IllegalArgumentException("Unterminated string in operation: " + expression);
+				addToken(STRING, "\"" + expression.substring(i + 1, end) + "\"", start);
+				i = end + 1;
+			} else if (c == '-') {
+				// a-b becomes a+MINUS_ONE*b and -b becomes MINUS_ONE*b
+				usesMinusOne = true;
+				if (endsOperand())
+					addToken(SYMBOL, "+", start);
+				addToken(NAME, "MINUS_ONE", start);
+				addToken(SYMBOL, "*", start);
+				i++;
+			} else if ("=+*@|/()[],:!".indexOf(c) != -1) {
+				addToken(SYMBOL, String.valueOf(c), start);
+				i++;
+			} else if (c == ';' && expression.substring(i + 1).trim().isEmpty())
+				i++;
+			else
+				throw new IllegalArgumentException("Unexpected character '" + c + "' in operation: " + expression);
+		}
+		addToken(END, "", length);
+	}
+
+	private int type() {
+		return tokenTypes.get(pos);
+	}
+
+	private String token() {
+		return tokens.get(pos);
+	}
+
+	private boolean isSymbol(String symbol) {
+		return type() == SYMBOL && token().equals(symbol);
+	}
+
+	private void expect(String symbol) {
+		if (!isSymbol(symbol))
+			throw new IllegalArgumentException(
+					"Expected " + symbol + " but found " + (type() == END ? "end of line" : token()) + " in operation: "
+							+ expression);
+		pos++;
+	}
+
+	private boolean startsOperand(int position) {
+		int type = tokenTypes.get(position);
+		return type == NAME || type == NUMBER || type == STRING || tokens.get(position).equals("(");
+	}
+
+	private boolean isOperator(int level) {
+		for (String operator : OPERATORS[level])
+			if (operator.equals("x") ? type() == NAME && token().equals("x") && startsOperand(pos + 1)
+					: isSymbol(operator))
+				return true;
+		return false;
+	}
+
+	private Node parseExpression(int level) {
+		if (level == OPERATORS.length)
+			return parsePostfix();
+		Node ret = parseExpression(level + 1);
+		while (isOperator(level)) {
+			Node binary = new Node(BINARY, token());
+			pos++;
+			binary.left = ret;
+			binary.right = parseExpression(level + 1);
+			ret = binary;
+		}
+		return ret;
+	}
+
+	private Node parsePostfix() {
+		Node ret = parsePrimary();
+		while (isSymbol("[")) {
+			pos++;
+			Node index = new Node(INDEX, "[");
+			index.left = ret;
+			index.right = parseExpression(0);
+			expect("]");
+			ret = index;
+		}
+		return ret;
+	}
+
+	private Node parsePrimary() {
+		int type = type();
+		String text = token();
+		if (type == NUMBER || type == STRING) {
+			pos++;
+			return new Node(type, text);
+		}
+		if (isSymbol("(")) {
+			pos++;
+			Node group = new Node(GROUP, "(");
+			group.left = parseExpression(0);
+			expect(")");
+			return group;
+		}
+		if (type != NAME)
+			throw new IllegalArgumentException(
+					"Unexpected " + (type == END ? "end of line" : text) + " in operation: " + expression);
+		pos++;
+		if (isSymbol("(")) {
+			pos++;
+			Node call = new Node(CALL, text);
+			call.args = new ArrayList<Node>();
+			call.enclosed = true;
+			while (!isSymbol(")")) {
+				if (type() == END)
+					throw new IllegalArgumentException("Imbalanced parenthesis in operation: " + expression);
+				if (!call.args.isEmpty())
+					expect(",");
+				call.args.add(parseArgument());
+			}
+			pos++;
+			return call;
+		}
+		// single arguments can follow function names without parentheses
+		int next = type();
+		if ((next == NAME || next == NUMBER || next == STRING)
+				&& !(next == NAME && token().equals("x") && startsOperand(pos + 1))) {
+			Node call = new Node(CALL, text);
+			call.args = new ArrayList<Node>();
+			call.args.add(parsePrimary());
+			return call;
+		}
+		return new Node(NAME, text);
+	}
+
+	private Node parseArgument() {
+		if (type() != NAME || !tokens.get(pos + 1).equals(":"))
+			return parseExpression(0);
+		// configurations keep their text up to the next argument
+		int start = tokenStarts.get(pos);
+		int depth = 0;
+		while (type() != END && (depth > 0 || !(isSymbol(",") || isSymbol(")")))) {
+			if (isSymbol("("))
+				depth++;
+			else if (isSymbol(")"))
+				depth--;
+			pos++;
+		}
+		return new Node(CONFIG, expression.substring(start, tokenStarts.get(pos)).trim().replaceAll("\\s+", " ")
+				.replace("'", "\""));
+	}
+
+	private boolean isSimple(Node node, String function) {
+		if (node.type == NAME || node.type == TEMPORARY || node.type == CONFIG)
+			return true;
+		if (function == null)
+			return false;
+		if (node.type == NUMBER)
+			return SHAPED.contains(function);
+		return node.type == STRING && (node.text.equals("\"col\"") || node.text.equals("\"row\""));
+	}
+
+	private Node temporary(Node node, boolean asWritten) {
+		int temporary = temporaries++;
+		lower(temporary, node, asWritten);
+		return new Node(TEMPORARY, "\0" + temporary + "\0");
+	}
+
+	/**
+	 * Replaces the arguments of function calls and the contents of parentheses
+	 * with temporary components, in the order in which they appear.
+	 */
+	private Node resolve(Node node) {
+		if (node.type == CALL) {
+			for (int i = 0; i < node.args.size(); i++)
+				if (!isSimple(node.args.get(i), node.text))
+					node.args.set(i, temporary(node.args.get(i), true));
+		} else if (node.type == GROUP)
+			return isSimple(node.left, null) ? node.left : temporary(node.left, true);
+		else if (node.type == BINARY || node.type == INDEX) {
+			node.left = resolve(node.left);
+			node.right = resolve(node.right);
+		}
+		return node;
+	}
+
+	private String operand(Node node) {
+		return isSimple(node, null) ? node.text : temporary(node, false).text;
+	}
+
+	/**
+	 * Lowers an expression assigned to either the compiled expression's component
+	 * (-1) or a temporary one. Expressions lowered as written, instead of as
+	 * operands, keep a trailing space after parentheses so that the resulting
+	 * assignments match the ones that previous versions added to
+	 * {@link ModelBuilder#describe()}.
+	 */
+	private void lower(int target, Node node, boolean asWritten) {
+		node = resolve(node);
+		String assignment;
+		if (node.type == BINARY) {
+			String left = operand(node.left);
+			String right = operand(node.right);
+			assignment = left + " " + node.text + " " + right;
+		} else if (node.type == INDEX) {
+			String left = operand(node.left);
+			String right = operand(node.right);
+			assignment = left + " [ " + right + " ] ";
+		} else if (node.type == CALL) {
+			if (node.args.size() == 1 && (node.args.get(0).type == NAME || node.args.get(0).type == TEMPORARY))
+				assignment = node.text + " " + node.args.get(0).text + (asWritten && node.enclosed ? " " : "");
+			else {
+				StringBuilder builder = new StringBuilder();
+				builder.append(node.text).append(" ( ");
+				for (int i = 0; i < node.args.size(); i++) {
+					if (i != 0)
+						builder.append(" , ");
+					builder.append(node.args.get(i).text);
+				}
+				assignment = builder.append(" ) ").toString();
+			}
+		} else
+			assignment = node.text;
+		targets.add(target);
+		assignments.add(assignment);
+	}
+}
@@ -0,0 +1,448 @@
+package mklab.JGNN.adhoc.distributed;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import mklab.JGNN.core.Slice;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.nn.optimizers.compression.GradientCodec;
+
+/**
+ * Connects the worker processes of data-parallel training in a ring over TCP
+ * and sums arrays across them with the ring all-reduce algorithm. Arrays are
+ * split into one chunk per worker, which are summed while passed around the
+ * ring once (reduce-scatter) and then copied around it a second time
+ * (all-gather). Each worker thus sends and receives about twice the array size,
+ * regardless of the number of workers. Chunks are exchanged as binary frames of
+ * a 16-byte header (step, chunk offset, chunk length, payload bytes) followed by
+ * big-endian doubles or the output of a {@link GradientCodec}, and sending to
+ * the next worker overlaps with receiving from the previous one.<br>
+ * Workers should perform the same sequence of all-reduce calls with arrays of
+ * the same length, which is the case when they train the same model
+ * architecture with the same settings, for example with
+ * {@link mklab.JGNN.adhoc.ModelTraining#setAllReduce(RingAllReduce)}. Time
+ * spent between consecutive calls is accounted as compute time, and time spent
+ * within calls as communication time.
+ *
+ * @author Emmanouil Krasanakis
+ */
+public class RingAllReduce implements AutoCloseable {
+	private static final int HEADER_BYTES = 16;
+	private static final long CONNECTION_TIMEOUT_MILLIS = 60000;
+	private final int rank;
+	private final int numWorkers;
+	private ServerSocketChannel server;
+	private SocketChannel next;
+	private SocketChannel previous;
+	private final ExecutorService sender;
+	private ByteBuffer sendBuffer = ByteBuffer.allocateDirect(0);
+	private ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(0);
+	private int step = 0;
+	private long lastCallEnd;
+	private long lastComputeNanos = 0;
+	private long lastCommunicationNanos = 0;
+	private long computeNanos = 0;
+	private long communicationNanos = 0;
+	private long bytesSent = 0;
+	private boolean verbose = false;
+	private GradientCodec codec;
+
+	/**
+	 * Instantiates a worker of a ring whose workers all run on the local host and
+	 * listen to consecutive ports.
+	 *
+	 * @param rank       The worker's position in the ring. Takes values
+	 *                   0,1,...,numWorkers-1.
+	 * @param numWorkers The number of workers.
+	 * @param basePort   The port of the worker with rank 0. Other workers listen
+	 *                   to the next ports.
+	 * @throws IOException If the ring could not be connected.
+	 * @see #RingAllReduce(int, List)
+	 */
+	public RingAllReduce(int rank, int numWorkers, int basePort) throws IOException {
+		this(rank, localAddresses(numWorkers, basePort));
+	}
+
+	/**
+	 * Instantiates a worker of a ring and connects it to the workers before and
+	 * after it. This waits until those workers have been instantiated too.
+	 *
+	 * @param rank      The worker's position in the ring, which is also the
+	 *                  position of its address.
+	 * @param addresses The addresses all workers listen to, in ring order.
+	 * @throws IOException If the ring could not be connected.
+	 */
+	public RingAllReduce(int rank, List<InetSocketAddress> addresses) throws IOException {
+		if (rank < 0 || rank >= addresses.size())
+			throw new IllegalArgumentException("Worker rank " + rank + " is out of range for " + addresses.size() + " workers");
+		this.rank = rank;
+		this.numWorkers = addresses.size();
+		sender = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "JGNN all-reduce sender");
+			thread.setDaemon(true);
+			return thread;
+		});
+		if (numWorkers > 1) {
+			server = ServerSocketChannel.open();
+			server.bind(new InetSocketAddress(addresses.get(rank).getPort()));
+			next = connect(addresses.get((rank + 1) % numWorkers));
+			ByteBuffer handshake = ByteBuffer.allocate(8).putInt(rank).putInt(numWorkers).flip();
+			while (handshake.hasRemaining())
+				next.write(handshake);
+			previous = server.accept();
+			previous.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			handshake.clear();
+			readFully(previous, handshake);
+			handshake.flip();
+			int previousRank = handshake.getInt();
+			int previousNumWorkers = handshake.getInt();
+			if (previousRank != (rank + numWorkers - 1) % numWorkers || previousNumWorkers != numWorkers)
+				throw new IOException("Worker " + rank + " of " + numWorkers + " was connected to by worker "
+						+ previousRank + " of " + previousNumWorkers);
+		}
+		lastCallEnd = System.nanoTime();
+	}
+
+	private static List<InetSocketAddress> localAddresses(int numWorkers, int basePort) {
+		if (numWorkers <= 0)
+			throw new IllegalArgumentException("The number of workers should be positive but given " + numWorkers);
+		List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+		for (int worker = 0; worker < numWorkers; worker++)
+			addresses.add(new InetSocketAddress("localhost", basePort + worker));
+		return addresses;
+	}
+
+	private static SocketChannel connect(InetSocketAddress address) throws IOException {
+		long deadline = System.currentTimeMillis() + CONNECTION_TIMEOUT_MILLIS;
+		while (true) {
+			try {
+				SocketChannel channel = SocketChannel.open(address);
+				channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				return channel;
+			} catch (IOException ex) {
+				// the next worker may not be listening yet
+				if (System.currentTimeMillis() > deadline)
+					throw ex;
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+			}
+		}
+	}
+
+	private static void readFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining())
+			if (channel.read(buffer) < 0)
+				throw new EOFException("The previous worker of the ring closed its connection");
+	}
+
+	/**
+	 * Sets whether the compute and communication time of each all-reduce step
+	 * should be printed.
+	 *
+	 * @param verbose A boolean value. Default is <code>false</code>.
+	 * @return <code>this</code> worker.
+	 */
+	public RingAllReduce setVerbose(boolean verbose) {
+		this.verbose = verbose;
+		return this;
+	}
+
+	/**
+	 * Sets a codec with which to compress the chunks sent to the next worker.
+	 * During reduce-scatter, received chunks are decoded and directly added to
+	 * the local ones, which means that partial sums are compressed again at each
+	 * step of the ring. During all-gather, the worker that holds the sum of a
+	 * chunk also keeps the decoded version it sends, so that all workers end up
+	 * with the same values. Quantization codecs lose little information this way,
+	 * whereas sparsifying codecs are better combined with error feedback in
+	 * {@link mklab.JGNN.nn.optimizers.BatchOptimizer#setCompression(GradientCodec, boolean)}.
+	 * All workers should use the same codec.
+	 *
+	 * @param codec The codec, or <code>null</code> to send doubles (default).
+	 * @return <code>this</code> worker.
+	 */
+	public RingAllReduce setCodec(GradientCodec codec) {
+		this.codec = codec;
+		return this;
+	}
+
+	/**
+	 * Retrieves the worker's position in the ring.
+	 *
+	 * @return An integer in the range 0,1,...,numWorkers-1.
+	 */
+	public int getRank() {
+		return rank;
+	}
+
+	/**
+	 * Retrieves the number of workers of the ring.
+	 *
+	 * @return A positive integer.
+	 */
+	public int getNumWorkers() {
+		return numWorkers;
+	}
+
+	/**
+	 * Selects the part of a slice that this worker should train on. Workers obtain
+	 * non-overlapping parts of roughly equal size that together cover the whole
+	 * slice, as long as all of them are given the same slice.
+	 *
+	 * @param samples The slice to split.
+	 * @return A {@link Slice} of the given one.
+	 */
+	public Slice shard(Slice samples) {
+		return samples.range(rank * samples.size() / numWorkers, (rank + 1) * samples.size() / numWorkers);
+	}
+
+	/**
+	 * Retrieves the number of all-reduce steps performed so far.
+	 *
+	 * @return A non-negative integer.
+	 */
+	public int getNumSteps() {
+		return step;
+	}
+
+	/**
+	 * Retrieves the time elapsed between the previous all-reduce step and the
+	 * last one.
+	 *
+	 * @return A time in nanoseconds.
+	 */
+	public long getLastComputeNanos() {
+		return lastComputeNanos;
+	}
+
+	/**
+	 * Retrieves the time spent within the last all-reduce step.
+	 *
+	 * @return A time in nanoseconds.
+	 */
+	public long getLastCommunicationNanos() {
+		return lastCommunicationNanos;
+	}
+
+	/**
+	 * Retrieves the total time elapsed outside all-reduce steps, from the
+	 * worker's instantiation up to the start of the last step.
+	 *
+	 * @return A time in nanoseconds.
+	 */
+	public long getComputeNanos() {
+		return computeNanos;
+	}
+
+	/**
+	 * Retrieves the total time spent within all-reduce steps.
+	 *
+	 * @return A time in nanoseconds.
+	 */
+	public long getCommunicationNanos() {
+		return communicationNanos;
+	}
+
+	/**
+	 * Retrieves the total number of bytes sent to the next worker.
+	 *
+	 * @return A non-negative number.
+	 */
+	public long getBytesSent() {
+		return bytesSent;
+	}
+
+	/**
+	 * Replaces the values of an array with their sums across all workers. Values
+	 * are compressed with the codec, if one has been set.
+	 *
+	 * @param values The array to sum, which should have the same length for all
+	 *               workers.
+	 * @throws RuntimeException If communication with the other workers fails.
+	 * @see #setCodec(GradientCodec)
+	 */
+	public void allReduce(double[] values) {
+		allReduce(values, codec);
+	}
+
+	private synchronized void allReduce(double[] values, GradientCodec codec) {
+		long tic = System.nanoTime();
+		lastComputeNanos = tic - lastCallEnd;
+		long sentBefore = bytesSent;
+		if (numWorkers > 1) {
+			try {
+				// reduce-scatter: afterwards, each worker holds the sum of chunk rank+1
+				for (int s = 0; s < numWorkers - 1; s++)
+					exchange(values, rank - s, rank - s - 1, true, codec);
+				// all-gather: pass summed chunks around the ring
+				for (int s = 0; s < numWorkers - 1; s++)
+					exchange(values, rank + 1 - s, rank - s, false, codec);
+			} catch (IOException ex) {
+				throw new RuntimeException("All-reduce failed at worker " + rank + ": " + ex.toString(), ex);
+			}
+		}
+		step++;
+		lastCallEnd = System.nanoTime();
+		lastCommunicationNanos = lastCallEnd - tic;
+		computeNanos += lastComputeNanos;
+		communicationNanos += lastCommunicationNanos;
+		if (verbose)
+			System.out.println("Step " + step + " compute " + lastComputeNanos / 1.E6 + " ms, communication "
+					+ lastCommunicationNanos / 1.E6 + " ms, " + (bytesSent - sentBefore) + " bytes sent");
+	}
+
+	/**
+	 * Averages a value across all workers without compression.
+	 *
+	 * @param value The worker's value.
+	 * @return The average of the values of all workers.
+	 */
+	public double average(double value) {
+		double[] values = { value };
+		allReduce(values, null);
+		return values[0] / numWorkers;
+	}
+
+	/**
+	 * Overwrites the values of tensors with those of the worker with rank 0, for
+	 * example to start training from the same parameters. Values are sent without
+	 * compression.
+	 *
+	 * @param tensors The tensors to overwrite, which should have the same sizes
+	 *                for all workers.
+	 */
+	public void broadcast(List<? extends Tensor> tensors) {
+		long size = 0;
+		for (Tensor tensor : tensors)
+			size += tensor.size();
+		if (size > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Too many elements to broadcast: " + size);
+		double[] values = new double[(int) size];
+		if (rank == 0) {
+			int offset = 0;
+			for (Tensor tensor : tensors) {
+				for (long pos = 0; pos < tensor.size(); pos++)
+					values[offset + (int) pos] = tensor.get(pos);
+				offset += tensor.size();
+			}
+		}
+		allReduce(values, null);
+		int offset = 0;
+		for (Tensor tensor : tensors) {
+			for (long pos = 0; pos < tensor.size(); pos++)
+				tensor.put(pos, values[offset + (int) pos]);
+			offset += tensor.size();
+		}
+	}
+
+	private int chunkStart(int length, int chunk) {
+		return (int) ((long) length * chunk / numWorkers);
+	}
+
+	private void exchange(double[] values, int sendChunk, int receiveChunk, boolean add, GradientCodec codec)
+			throws IOException {
+		sendChunk = Math.floorMod(sendChunk, numWorkers);
+		receiveChunk = Math.floorMod(receiveChunk, numWorkers);
+		int sendFrom = chunkStart(values.length, sendChunk);
+		int sendTo = chunkStart(values.length, sendChunk + 1);
+		int receiveFrom = chunkStart(values.length, receiveChunk);
+		int receiveTo = chunkStart(values.length, receiveChunk + 1);
+
+		sendBuffer = frame(sendBuffer, sendTo - sendFrom, codec);
+		sendBuffer.putInt(step).putInt(sendFrom).putInt(sendTo - sendFrom).putInt(0);
+		if (codec == null)
+			for (int i = sendFrom; i < sendTo; i++)
+				sendBuffer.putDouble(values[i]);
+		else
+			codec.encode(values, sendFrom, sendTo, sendBuffer);
+		sendBuffer.putInt(12, sendBuffer.position() - HEADER_BYTES);
+		sendBuffer.flip();
+		bytesSent += sendBuffer.remaining();
+		if (codec != null && !add) {
+			// hold the same decoded values as the workers receiving the chunk
+			ByteBuffer sentValues = sendBuffer.duplicate();
+			sentValues.position(HEADER_BYTES);
+			codec.decode(sentValues, values, sendFrom, sendTo, false);
+		}
+		Future<?> sent = sender.submit(() -> {
+			while (sendBuffer.hasRemaining())
+				next.write(sendBuffer);
+			return null;
+		});
+
+		receiveBuffer = frame(receiveBuffer, receiveTo - receiveFrom, codec);
+		receiveBuffer.limit(HEADER_BYTES);
+		readFully(previous, receiveBuffer);
+		receiveBuffer.flip();
+		int receivedStep = receiveBuffer.getInt();
+		int receivedFrom = receiveBuffer.getInt();
+		int receivedLength = receiveBuffer.getInt();
+		int receivedBytes = receiveBuffer.getInt();
+		if (receivedStep != step || receivedFrom != receiveFrom || receivedLength != receiveTo - receiveFrom
+				|| receivedBytes > receiveBuffer.capacity() - HEADER_BYTES)
+			throw new IOException("Expected chunk at " + receiveFrom + " of length " + (receiveTo - receiveFrom)
+					+ " for step " + step + " but received chunk at " + receivedFrom + " of length "
+					+ receivedLength + " and " + receivedBytes + " bytes for step " + receivedStep);
+		receiveBuffer.clear().limit(receivedBytes);
+		readFully(previous, receiveBuffer);
+		receiveBuffer.flip();
+		if (codec != null)
+			codec.decode(receiveBuffer, values, receiveFrom, receiveTo, add);
+		else if (add)
+			for (int i = receiveFrom; i < receiveTo; i++)
+				values[i] += receiveBuffer.getDouble();
+		else
+			for (int i = receiveFrom; i < receiveTo; i++)
+				values[i] = receiveBuffer.getDouble();
+
+		try {
+			sent.get();
+		} catch (InterruptedException ex) {
+			throw new IOException(ex);
+		} catch (ExecutionException ex) {
+			if (ex.getCause() instanceof IOException)
+				throw (IOException) ex.getCause();
+			throw new IOException(ex.getCause());
+		}
+	}
+
+	private static ByteBuffer frame(ByteBuffer buffer, int length, GradientCodec codec) {
+		int capacity = HEADER_BYTES + (codec == null ? length * Double.BYTES : codec.getMaxEncodedBytes(length));
+		if (buffer.capacity() < capacity)
+			buffer = ByteBuffer.allocateDirect(capacity);
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Closes the connections to the other workers.
+	 */
+	@Override
+	public void close() {
+		sender.shutdownNow();
+		try {
+			if (next != null)
+				next.close();
+			if (previous != null)
+				previous.close();
+			if (server != null)
+				server.close();
+		} catch (IOException ex) {
+			System.err.println(ex.toString());
+		}
+	}
+}
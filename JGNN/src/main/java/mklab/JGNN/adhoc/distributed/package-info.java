@@ -0,0 +1,8 @@
+/**
+ * Contains utilities for data-parallel training across multiple processes,
+ * where each process trains a replica of the same model on a different part of
+ * the training data and gradients are summed over the network.
+ * 
+ * @author Emmanouil Krasanakis
+ */
+package mklab.JGNN.adhoc.distributed;
@@ -1,11 +1,13 @@
 package mklab.JGNN.adhoc.parsers;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.function.Function;
 
 import mklab.JGNN.core.Matrix;
 import mklab.JGNN.core.Tensor;
 import mklab.JGNN.adhoc.ModelBuilder;
+import mklab.JGNN.nn.inputs.Parameter;
 
 /**
  * Extends the capabilities of {@link LayeredBuilder} to use for node
@@ -18,6 +20,7 @@ import mklab.JGNN.adhoc.ModelBuilder;
  */
 public class FastBuilder extends ModelBuilder {
 	private int layer = 0;
+	private boolean history = false;
 	private HashMap<String, Integer> rememberAs = new HashMap<String, Integer>();
 
 	/**
@@ -45,6 +48,8 @@ public class FastBuilder extends ModelBuilder {
 		for (String rememberKey : rememberAs.keySet())
 			ret += "remember " + rememberKey + " as " + rememberAs.get(rememberKey) + "\n";
 		ret += "layer " + layer + "\n";
+		if (history)
+			ret += "history true\n";
 		return ret;
 	}
 
@@ -53,6 +58,10 @@ public class FastBuilder extends ModelBuilder {
 			layer = Integer.parseInt(data);
 			return true;
 		}
+		if (command.equals("history")) {
+			history = Boolean.parseBoolean(data);
+			return true;
+		}
 		if (command.equals("remember")) {
 			int pos = data.lastIndexOf(" as ");
 			rememberAs.put(data.substring(0, pos), Integer.parseInt(data.substring(pos + 4)));
@@ -91,20 +100,76 @@ public class FastBuilder extends ModelBuilder {
 		return this;
 	}
 
+	/**
+	 * Enables mini-batch message passing with historical embeddings. This declares
+	 * the <code>nodes</code> input variable of the batch's node identifiers, and
+	 * the configurations <code>numNodes</code> (the number of graph nodes) and
+	 * <code>staleness</code>. Subsequent layers should only compute rows of batch
+	 * nodes, for instance by aggregating with <code>A[nodes]</code>, and pass
+	 * hidden representations of previous layers through
+	 * <code>history(h{l}, nodes, numNodes, staleness)</code> to read out-of-batch
+	 * neighbor representations from a {@link mklab.JGNN.nn.operations.History}
+	 * store. For example: <br>
+	 * <code>.history(10)<br>
+	 * .layer("h{l+1}=relu(A[nodes]@h{l}@matrix(features, hidden)+vector(hidden))")<br>
+	 * .layer("h{l+1}=A[nodes]@history(h{l}, nodes, numNodes, staleness)@matrix(hidden, classes)+vector(classes)")<br>
+	 * .classify()</code><br>
+	 * Since layer outputs already follow the order of <code>nodes</code>, a
+	 * subsequent {@link #classify()} does not gather rows.
+	 * 
+	 * @param maxStaleness The maximum number of batches for which historical
+	 *                     representations remain valid. Zero or negative values
+	 *                     never evict them.
+	 * @return <code>this</code> builder.
+	 */
+	public FastBuilder history(int maxStaleness) {
+		if (history)
+			throw new RuntimeException("Historical embeddings have already been enabled");
+		config("numNodes", ((Parameter) get("A")).get().cast(Matrix.class).getRows());
+		config("staleness", maxStaleness);
+		var("nodes");
+		history = true;
+		return this;
+	}
+
 	/**
 	 * Adds a classification layer that gather the number of inputs nodes and
-	 * applies softmax on all of them.
+	 * applies softmax on all of them. If {@link #history(int)} has been enabled,
+	 * layer outputs already correspond to the input nodes and are not gathered.
 	 * 
 	 * @return <code>this</code> builder.
 	 */
 	public FastBuilder classify() {
-		var("nodes");
-		layer("h{l+1}=h{l}[nodes]");
+		if (!history) {
+			var("nodes");
+			layer("h{l+1}=h{l}[nodes]");
+		}
 		layer("h{l+1}=softmax(h{l}, dim: \"row\")");
 		out("h" + layer);
 		return this;
 	}
 
+	/**
+	 * Enables gradient checkpointing on layer outputs <code>h{l}</code>, retaining
+	 * every <code>ceil(sqrt(L))</code>-th one of the <code>L</code> layers
+	 * declared so far. This keeps <code>O(sqrt(L))</code> layer representations
+	 * in memory during training, at the cost of recomputing the rest once during
+	 * backpropagation. Call this after declaring outputs, for example after
+	 * {@link #classify()}.
+	 * 
+	 * @return <code>this</code> builder.
+	 * @see #checkpoint(String...)
+	 */
+	public FastBuilder checkpointLayers() {
+		int step = (int) Math.ceil(Math.sqrt(layer));
+		ArrayList<String> names = new ArrayList<String>();
+		for (int l = step; l <= layer; l += step)
+			if (get("h" + l) != null)
+				names.add("h" + l);
+		checkpoint(names.toArray(new String[names.size()]));
+		return this;
+	}
+
 	/**
 	 * Repeats a {@link #layer(String)} definition a number of times. Ideal for
 	 * building deep architectures.
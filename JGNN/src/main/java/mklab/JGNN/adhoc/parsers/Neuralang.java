@@ -50,34 +50,30 @@ public class Neuralang extends ModelBuilder {
 	 */
 	public Neuralang parse(String text) {
 		int depth = 0;
-		String progress = "";
+		StringBuilder progress = new StringBuilder();
 		for (int i = 0; i < text.length(); i++) {
 			char c = text.charAt(i);
 			if (c == '{')
 				depth += 1;
 			if (c == '}')
 				depth -= 1;
+			progress.append(c);
 			if ((c == ';' || c == '}') && depth == 0) {
-				progress += c;
-				progress = progress.trim();
-				if (progress.startsWith("fn ")) {
-					function(progress.substring(3, progress.indexOf("(")).trim(),
-							progress.substring(progress.indexOf("(")));
-				} else if (!progress.isEmpty())
-					operation(progress);
-				progress = "";
-				continue;
+				parseStatement(progress.toString().trim());
+				progress.setLength(0);
 			}
-			progress += c;
 		}
-		progress = progress.trim();
-		if (progress.startsWith("fn ")) {
-			function(progress.substring(3, progress.indexOf("(")).trim(), progress.substring(progress.indexOf("(")));
-		} else if (!progress.isEmpty())
-			operation(progress);
+		parseStatement(progress.toString().trim());
 		return this;
 	}
 
+	private void parseStatement(String statement) {
+		if (statement.startsWith("fn "))
+			function(statement.substring(3, statement.indexOf("(")).trim(), statement.substring(statement.indexOf("(")));
+		else if (!statement.isEmpty())
+			operation(statement);
+	}
+
 	public Neuralang constant(String name, Tensor value) {
 		super.constant(name, value);
 		return this;
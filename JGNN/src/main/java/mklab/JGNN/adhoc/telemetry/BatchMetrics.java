@@ -0,0 +1,124 @@
+package mklab.JGNN.adhoc.telemetry;
+
+/**
+ * Holds the time measurements of one training batch. Times are measured in
+ * nanoseconds.
+ * 
+ * @author Emmanouil Krasanakis
+ * @see EpochMetrics
+ */
+public class BatchMetrics {
+	private final int epoch;
+	private final int batch;
+	private final int threadId;
+	private final long samples;
+	private final long dataNanos;
+	private final long forwardNanos;
+	private final long backwardNanos;
+	private final long updateNanos;
+	private final long totalNanos;
+
+	public BatchMetrics(int epoch, int batch, int threadId, long samples, long dataNanos, long forwardNanos,
+			long backwardNanos, long updateNanos, long totalNanos) {
+		this.epoch = epoch;
+		this.batch = batch;
+		this.threadId = threadId;
+		this.samples = samples;
+		this.dataNanos = dataNanos;
+		this.forwardNanos = forwardNanos;
+		this.backwardNanos = backwardNanos;
+		this.updateNanos = updateNanos;
+		this.totalNanos = totalNanos;
+	}
+
+	public int getEpoch() {
+		return epoch;
+	}
+
+	public int getBatch() {
+		return batch;
+	}
+
+	public int getThreadId() {
+		return threadId;
+	}
+
+	/**
+	 * Retrieves the number of training samples in the batch. These are the rows
+	 * of desired output matrices, or one for each non-matrix output.
+	 * 
+	 * @return A <code>long</code> value.
+	 */
+	public long getSamples() {
+		return samples;
+	}
+
+	/**
+	 * Retrieves the time spent in obtaining batch data.
+	 * 
+	 * @return A <code>long</code> value.
+	 */
+	public long getDataNanos() {
+		return dataNanos;
+	}
+
+	public long getForwardNanos() {
+		return forwardNanos;
+	}
+
+	public long getBackwardNanos() {
+		return backwardNanos;
+	}
+
+	/**
+	 * Retrieves the time spent in parameter updates within the batch. This is
+	 * non-zero only for stochastic gradient descent, where updates take place after
+	 * each batch.
+	 * 
+	 * @return A <code>long</code> value.
+	 */
+	public long getUpdateNanos() {
+		return updateNanos;
+	}
+
+	/**
+	 * Retrieves the wall time of the whole batch.
+	 * 
+	 * @return A <code>long</code> value.
+	 */
+	public long getTotalNanos() {
+		return totalNanos;
+	}
+
+	/**
+	 * Retrieves the header line of {@link #toCSV()} outputs.
+	 * 
+	 * @return A <code>String</code> header.
+	 */
+	public static String csvHeader() {
+		return "epoch,batch,thread,samples,dataNanos,forwardNanos,backwardNanos,updateNanos,totalNanos";
+	}
+
+	/**
+	 * Retrieves a CSV line of the metrics, with the same order as
+	 * {@link #csvHeader()}.
+	 * 
+	 * @return A <code>String</code> line without a newline character.
+	 */
+	public String toCSV() {
+		return epoch + "," + batch + "," + threadId + "," + samples + "," + dataNanos + "," + forwardNanos + ","
+				+ backwardNanos + "," + updateNanos + "," + totalNanos;
+	}
+
+	/**
+	 * Retrieves a one-line JSON object of the metrics.
+	 * 
+	 * @return A <code>String</code> in JSON format.
+	 */
+	public String toJSON() {
+		return "{\"type\": \"batch\", \"epoch\": " + epoch + ", \"batch\": " + batch + ", \"thread\": " + threadId
+				+ ", \"samples\": " + samples + ", \"dataNanos\": " + dataNanos + ", \"forwardNanos\": "
+				+ forwardNanos + ", \"backwardNanos\": " + backwardNanos + ", \"updateNanos\": " + updateNanos
+				+ ", \"totalNanos\": " + totalNanos + "}";
+	}
+}
@@ -0,0 +1,267 @@
+package mklab.JGNN.adhoc.telemetry;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Holds the metrics of one training epoch, including aggregated batch
+ * measurements, latency percentiles across batches, and memory gauges obtained
+ * at the end of the epoch. Times are measured in nanoseconds and sizes in
+ * bytes.
+ * 
+ * @author Emmanouil Krasanakis
+ * @see BatchMetrics
+ */
+public class EpochMetrics {
+	private final int epoch;
+	private final int numBatches;
+	private final long samples;
+	private final long epochNanos;
+	private final long dataNanos;
+	private final long forwardNanos;
+	private final long backwardNanos;
+	private final long updateNanos;
+	private final long validationNanos;
+	private final long[] batchPercentiles;
+	private final double validationLoss;
+	private final long heapUsed;
+	private final long heapCommitted;
+	private final long pooledBytes;
+	private final long peakPooledBytes;
+	private final long gcCount;
+	private final long gcNanos;
+
+	/**
+	 * Instantiates epoch metrics by aggregating batch metrics.
+	 * 
+	 * @param epoch           The epoch.
+	 * @param batches         The metrics of the epoch's batches.
+	 * @param epochNanos      The wall time of the whole epoch.
+	 * @param updateNanos     The time spent in parameter updates outside batches.
+	 * @param validationNanos The time spent in validation.
+	 * @param validationLoss  The validation loss.
+	 * @param heapUsed        The used heap memory at the end of the epoch.
+	 * @param heapCommitted   The committed heap memory at the end of the epoch.
+	 * @param pooledBytes     The memory held by {@link mklab.JGNN.core.Memory}.
+	 * @param peakPooledBytes The peak memory bound to live objects by
+	 *                        {@link mklab.JGNN.core.Memory} during the epoch.
+	 * @param gcCount         The number of garbage collections during the epoch.
+	 * @param gcNanos         The garbage collection time during the epoch.
+	 */
+	public EpochMetrics(int epoch, List<BatchMetrics> batches, long epochNanos, long updateNanos,
+			long validationNanos, double validationLoss, long heapUsed, long heapCommitted, long pooledBytes,
+			long peakPooledBytes, long gcCount, long gcNanos) {
+		this.epoch = epoch;
+		this.numBatches = batches.size();
+		long samples = 0;
+		long dataNanos = 0;
+		long forwardNanos = 0;
+		long backwardNanos = 0;
+		long[] latencies = new long[batches.size()];
+		for (int i = 0; i < latencies.length; i++) {
+			BatchMetrics batch = batches.get(i);
+			samples += batch.getSamples();
+			dataNanos += batch.getDataNanos();
+			forwardNanos += batch.getForwardNanos();
+			backwardNanos += batch.getBackwardNanos();
+			updateNanos += batch.getUpdateNanos();
+			latencies[i] = batch.getTotalNanos();
+		}
+		Arrays.sort(latencies);
+		this.samples = samples;
+		this.dataNanos = dataNanos;
+		this.forwardNanos = forwardNanos;
+		this.backwardNanos = backwardNanos;
+		this.updateNanos = updateNanos;
+		this.epochNanos = epochNanos;
+		this.validationNanos = validationNanos;
+		this.batchPercentiles = new long[] { percentile(latencies, 0.5), percentile(latencies, 0.9),
+				percentile(latencies, 0.99), latencies.length == 0 ? 0 : latencies[latencies.length - 1] };
+		this.validationLoss = validationLoss;
+		this.heapUsed = heapUsed;
+		this.heapCommitted = heapCommitted;
+		this.pooledBytes = pooledBytes;
+		this.peakPooledBytes = peakPooledBytes;
+		this.gcCount = gcCount;
+		this.gcNanos = gcNanos;
+	}
+
+	private static long percentile(long[] sorted, double fraction) {
+		if (sorted.length == 0)
+			return 0;
+		return sorted[(int) Math.min(sorted.length - 1, Math.ceil(fraction * sorted.length) - 1)];
+	}
+
+	public int getEpoch() {
+		return epoch;
+	}
+
+	public int getNumBatches() {
+		return numBatches;
+	}
+
+	public long getSamples() {
+		return samples;
+	}
+
+	/**
+	 * Retrieves the number of training samples processed per second of epoch wall
+	 * time.
+	 * 
+	 * @return A <code>double</code> value.
+	 */
+	public double getSamplesPerSecond() {
+		return epochNanos == 0 ? 0 : samples * 1.E9 / epochNanos;
+	}
+
+	public long getEpochNanos() {
+		return epochNanos;
+	}
+
+	/**
+	 * Retrieves the time spent in obtaining batch data, summed across batches.
+	 * 
+	 * @return A <code>long</code> value.
+	 */
+	public long getDataNanos() {
+		return dataNanos;
+	}
+
+	/**
+	 * Retrieves the time spent in forward passes, summed across batches. This may
+	 * exceed epoch time when batches run in parallel.
+	 * 
+	 * @return A <code>long</code> value.
+	 */
+	public long getForwardNanos() {
+		return forwardNanos;
+	}
+
+	/**
+	 * Retrieves the time spent in backward passes, summed across batches. This may
+	 * exceed epoch time when batches run in parallel.
+	 * 
+	 * @return A <code>long</code> value.
+	 */
+	public long getBackwardNanos() {
+		return backwardNanos;
+	}
+
+	/**
+	 * Retrieves the time spent in optimizer updates, both within and outside
+	 * batches.
+	 * 
+	 * @return A <code>long</code> value.
+	 */
+	public long getUpdateNanos() {
+		return updateNanos;
+	}
+
+	public long getValidationNanos() {
+		return validationNanos;
+	}
+
+	/**
+	 * Retrieves the median batch wall time.
+	 * 
+	 * @return A <code>long</code> value.
+	 */
+	public long getBatchP50Nanos() {
+		return batchPercentiles[0];
+	}
+
+	public long getBatchP90Nanos() {
+		return batchPercentiles[1];
+	}
+
+	public long getBatchP99Nanos() {
+		return batchPercentiles[2];
+	}
+
+	public long getBatchMaxNanos() {
+		return batchPercentiles[3];
+	}
+
+	public double getValidationLoss() {
+		return validationLoss;
+	}
+
+	public long getHeapUsed() {
+		return heapUsed;
+	}
+
+	public long getHeapCommitted() {
+		return heapCommitted;
+	}
+
+	/**
+	 * Retrieves the memory held by the {@link mklab.JGNN.core.Memory} pool.
+	 * 
+	 * @return A <code>long</code> value.
+	 */
+	public long getPooledBytes() {
+		return pooledBytes;
+	}
+
+	/**
+	 * Retrieves the peak memory of {@link mklab.JGNN.core.Memory} pool arrays that
+	 * were in use at the same time during the epoch. This is non-zero only when
+	 * pooling is enabled, for example with
+	 * {@link mklab.JGNN.nn.Model#setBufferReuse(boolean)}.
+	 * 
+	 * @return A <code>long</code> value.
+	 */
+	public long getPeakPooledBytes() {
+		return peakPooledBytes;
+	}
+
+	public long getGcCount() {
+		return gcCount;
+	}
+
+	public long getGcNanos() {
+		return gcNanos;
+	}
+
+	/**
+	 * Retrieves the header line of {@link #toCSV()} outputs.
+	 * 
+	 * @return A <code>String</code> header.
+	 */
+	public static String csvHeader() {
+		return "epoch,batches,samples,samplesPerSecond,epochNanos,dataNanos,forwardNanos,backwardNanos,updateNanos,"
+				+ "validationNanos,batchP50Nanos,batchP90Nanos,batchP99Nanos,batchMaxNanos,validationLoss,heapUsed,"
+				+ "heapCommitted,pooledBytes,peakPooledBytes,gcCount,gcNanos";
+	}
+
+	/**
+	 * Retrieves a CSV line of the metrics, with the same order as
+	 * {@link #csvHeader()}.
+	 * 
+	 * @return A <code>String</code> line without a newline character.
+	 */
+	public String toCSV() {
+		return epoch + "," + numBatches + "," + samples + "," + getSamplesPerSecond() + "," + epochNanos + ","
+				+ dataNanos + "," + forwardNanos + "," + backwardNanos + "," + updateNanos + "," + validationNanos + ","
+				+ batchPercentiles[0] + "," + batchPercentiles[1] + "," + batchPercentiles[2] + ","
+				+ batchPercentiles[3] + "," + validationLoss + "," + heapUsed + "," + heapCommitted + ","
+				+ pooledBytes + "," + peakPooledBytes + "," + gcCount + "," + gcNanos;
+	}
+
+	/**
+	 * Retrieves a one-line JSON object of the metrics.
+	 * 
+	 * @return A <code>String</code> in JSON format.
+	 */
+	public String toJSON() {
+		return "{\"type\": \"epoch\", \"epoch\": " + epoch + ", \"batches\": " + numBatches + ", \"samples\": "
+				+ samples + ", \"samplesPerSecond\": " + getSamplesPerSecond() + ", \"epochNanos\": " + epochNanos
+				+ ", \"dataNanos\": " + dataNanos + ", \"forwardNanos\": " + forwardNanos + ", \"backwardNanos\": "
+				+ backwardNanos + ", \"updateNanos\": " + updateNanos + ", \"validationNanos\": " + validationNanos
+				+ ", \"batchP50Nanos\": " + batchPercentiles[0] + ", \"batchP90Nanos\": " + batchPercentiles[1]
+				+ ", \"batchP99Nanos\": " + batchPercentiles[2] + ", \"batchMaxNanos\": " + batchPercentiles[3]
+				+ ", \"validationLoss\": " + (Double.isFinite(validationLoss) ? validationLoss : "null")
+				+ ", \"heapUsed\": " + heapUsed + ", \"heapCommitted\": " + heapCommitted + ", \"pooledBytes\": "
+				+ pooledBytes + ", \"peakPooledBytes\": " + peakPooledBytes + ", \"gcCount\": " + gcCount + ", \"gcNanos\": " + gcNanos + "}";
+	}
+}
@@ -0,0 +1,136 @@
+package mklab.JGNN.adhoc.telemetry;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A {@link TrainingListener} that writes training metrics to a file, either as
+ * CSV with one line per epoch or as JSON lines with one object per epoch and,
+ * optionally, per batch. Files are flushed after each epoch and closed when
+ * training ends.
+ * 
+ * @author Emmanouil Krasanakis
+ */
+public class TelemetryWriter implements TrainingListener {
+	private Writer writer;
+	private final boolean json;
+	private final boolean batches;
+	private final boolean ownsWriter;
+
+	/**
+	 * Instantiates a writer that writes JSON lines if the path ends with
+	 * <i>.jsonl</i>, and CSV otherwise. Batch metrics are written only for JSON
+	 * lines. Paths ending with <i>.json</i> are rejected, because JSON lines do
+	 * not form a valid JSON document.
+	 * 
+	 * @param path The file path.
+	 * @see #TelemetryWriter(Path, boolean, boolean)
+	 */
+	public TelemetryWriter(Path path) {
+		this(checkExtension(path), path.toString().endsWith(".jsonl"), path.toString().endsWith(".jsonl"));
+	}
+
+	private static Path checkExtension(Path path) {
+		if (path.toString().endsWith(".json"))
+			throw new IllegalArgumentException(
+					"Telemetry is written as JSON lines, so use a .jsonl extension instead of: " + path);
+		return path;
+	}
+
+	/**
+	 * Instantiates a writer.
+	 * 
+	 * @param path    The file path.
+	 * @param json    Whether to write JSON lines instead of CSV.
+	 * @param batches Whether to also write batch metrics. This is supported only
+	 *                for JSON lines, because CSV files hold one type of record.
+	 */
+	public TelemetryWriter(Path path, boolean json, boolean batches) {
+		if (batches && !json)
+			throw new IllegalArgumentException("Batch metrics can only be written as JSON lines");
+		this.json = json;
+		this.batches = batches;
+		this.ownsWriter = true;
+		try {
+			writer = Files.newBufferedWriter(path);
+			if (!json)
+				writer.write(EpochMetrics.csvHeader() + "\n");
+		} catch (IOException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	/**
+	 * Instantiates a writer on an existing writer, which is not closed when
+	 * training ends.
+	 * 
+	 * @param writer The writer on which to write metrics, such as a
+	 *               <code>PrintWriter</code> of <code>System.out</code>.
+	 * @param json   Whether to write JSON lines instead of CSV.
+	 */
+	public TelemetryWriter(Writer writer, boolean json) {
+		this.writer = new BufferedWriter(writer);
+		this.json = json;
+		this.batches = false;
+		this.ownsWriter = false;
+		if (!json)
+			write(EpochMetrics.csvHeader());
+	}
+
+	private synchronized void write(String line) {
+		if (writer == null)
+			return;
+		try {
+			writer.write(line + "\n");
+		} catch (IOException ex) {
+			System.err.println(ex.toString());
+		}
+	}
+
+	@Override
+	public void onBatch(BatchMetrics metrics) {
+		if (batches)
+			write(metrics.toJSON());
+	}
+
+	private synchronized void flush() {
+		if (writer == null)
+			return;
+		try {
+			writer.flush();
+		} catch (IOException ex) {
+			System.err.println(ex.toString());
+		}
+	}
+
+	@Override
+	public void onEpoch(EpochMetrics metrics) {
+		write(json ? metrics.toJSON() : metrics.toCSV());
+		flush();
+	}
+
+	@Override
+	public void onEndTraining() {
+		if (ownsWriter)
+			close();
+		else
+			flush();
+	}
+
+	/**
+	 * Closes the underlying writer. No more metrics are written afterwards.
+	 */
+	public synchronized void close() {
+		if (writer == null)
+			return;
+		try {
+			writer.close();
+		} catch (IOException ex) {
+			System.err.println(ex.toString());
+		}
+		writer = null;
+	}
+}
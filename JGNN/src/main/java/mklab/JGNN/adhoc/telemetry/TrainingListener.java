@@ -0,0 +1,34 @@
+package mklab.JGNN.adhoc.telemetry;
+
+/**
+ * Receives metrics from the training loop of
+ * {@link mklab.JGNN.adhoc.ModelTraining} instances. Batch metrics may be
+ * reported from multiple threads if training is parallelized, so
+ * implementations should be thread-safe.
+ * 
+ * @author Emmanouil Krasanakis
+ * @see mklab.JGNN.adhoc.ModelTraining#addListener(TrainingListener)
+ */
+public interface TrainingListener {
+	/**
+	 * Is called after each training batch concludes.
+	 * 
+	 * @param metrics The batch's metrics.
+	 */
+	public default void onBatch(BatchMetrics metrics) {
+	}
+
+	/**
+	 * Is called after each training epoch concludes, including validation.
+	 * 
+	 * @param metrics The epoch's metrics.
+	 */
+	public default void onEpoch(EpochMetrics metrics) {
+	}
+
+	/**
+	 * Is called once when training concludes.
+	 */
+	public default void onEndTraining() {
+	}
+}
@@ -0,0 +1,188 @@
+package mklab.JGNN.adhoc.telemetry;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * A {@link TrainingListener} that exposes the metrics of the last training
+ * epoch as a JMX MBean, for example to be monitored with JConsole or scraped by
+ * JMX exporters. Register it with {@link #register(String)} before training.
+ * 
+ * @author Emmanouil Krasanakis
+ */
+public class TrainingMonitor implements TrainingListener, TrainingMonitorMBean {
+	private volatile EpochMetrics last = null;
+	private volatile long totalBatches = 0;
+	private volatile boolean training = false;
+	private ObjectName objectName = null;
+
+	/**
+	 * Registers the monitor to the platform MBean server under the object name
+	 * <code>mklab.JGNN:type=TrainingMonitor,name=...</code>.
+	 * 
+	 * @param name The name that distinguishes this monitor from others.
+	 * @return <code>this</code> monitor.
+	 * @see #unregister()
+	 */
+	public TrainingMonitor register(String name) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			objectName = new ObjectName("mklab.JGNN:type=TrainingMonitor,name=" + ObjectName.quote(name));
+			server.registerMBean(this, objectName);
+		} catch (JMException ex) {
+			throw new RuntimeException(ex);
+		}
+		return this;
+	}
+
+	/**
+	 * Removes the monitor from the platform MBean server.
+	 * 
+	 * @return <code>this</code> monitor.
+	 * @see #register(String)
+	 */
+	public TrainingMonitor unregister() {
+		if (objectName == null)
+			return this;
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+		} catch (JMException ex) {
+			throw new RuntimeException(ex);
+		}
+		objectName = null;
+		return this;
+	}
+
+	/**
+	 * Retrieves the metrics of the last concluded epoch.
+	 * 
+	 * @return An {@link EpochMetrics} instance, or <code>null</code> if no epoch
+	 *         has concluded.
+	 */
+	public EpochMetrics getLastEpochMetrics() {
+		return last;
+	}
+
+	@Override
+	public synchronized void onBatch(BatchMetrics metrics) {
+		training = true;
+		totalBatches += 1;
+	}
+
+	@Override
+	public void onEpoch(EpochMetrics metrics) {
+		last = metrics;
+	}
+
+	@Override
+	public void onEndTraining() {
+		training = false;
+	}
+
+	private static double millis(long nanos) {
+		return nanos / 1.E6;
+	}
+
+	@Override
+	public int getEpoch() {
+		return last == null ? -1 : last.getEpoch();
+	}
+
+	@Override
+	public long getTotalBatches() {
+		return totalBatches;
+	}
+
+	@Override
+	public double getSamplesPerSecond() {
+		return last == null ? 0 : last.getSamplesPerSecond();
+	}
+
+	@Override
+	public double getEpochMillis() {
+		return last == null ? 0 : millis(last.getEpochNanos());
+	}
+
+	@Override
+	public double getDataMillis() {
+		return last == null ? 0 : millis(last.getDataNanos());
+	}
+
+	@Override
+	public double getForwardMillis() {
+		return last == null ? 0 : millis(last.getForwardNanos());
+	}
+
+	@Override
+	public double getBackwardMillis() {
+		return last == null ? 0 : millis(last.getBackwardNanos());
+	}
+
+	@Override
+	public double getUpdateMillis() {
+		return last == null ? 0 : millis(last.getUpdateNanos());
+	}
+
+	@Override
+	public double getValidationMillis() {
+		return last == null ? 0 : millis(last.getValidationNanos());
+	}
+
+	@Override
+	public double getBatchP50Millis() {
+		return last == null ? 0 : millis(last.getBatchP50Nanos());
+	}
+
+	@Override
+	public double getBatchP90Millis() {
+		return last == null ? 0 : millis(last.getBatchP90Nanos());
+	}
+
+	@Override
+	public double getBatchP99Millis() {
+		return last == null ? 0 : millis(last.getBatchP99Nanos());
+	}
+
+	@Override
+	public double getBatchMaxMillis() {
+		return last == null ? 0 : millis(last.getBatchMaxNanos());
+	}
+
+	@Override
+	public double getValidationLoss() {
+		return last == null ? Double.NaN : last.getValidationLoss();
+	}
+
+	@Override
+	public long getHeapUsed() {
+		return last == null ? 0 : last.getHeapUsed();
+	}
+
+	@Override
+	public long getHeapCommitted() {
+		return last == null ? 0 : last.getHeapCommitted();
+	}
+
+	@Override
+	public long getPooledBytes() {
+		return last == null ? 0 : last.getPooledBytes();
+	}
+
+	@Override
+	public long getGcCount() {
+		return last == null ? 0 : last.getGcCount();
+	}
+
+	@Override
+	public double getGcMillis() {
+		return last == null ? 0 : millis(last.getGcNanos());
+	}
+
+	@Override
+	public boolean isTraining() {
+		return training;
+	}
+}
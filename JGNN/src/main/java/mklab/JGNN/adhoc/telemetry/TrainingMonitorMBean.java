@@ -0,0 +1,49 @@
+package mklab.JGNN.adhoc.telemetry;
+
+/**
+ * Management interface of {@link TrainingMonitor}, exposing the metrics of the
+ * last training epoch over JMX.
+ * 
+ * @author Emmanouil Krasanakis
+ */
+public interface TrainingMonitorMBean {
+	public int getEpoch();
+
+	public long getTotalBatches();
+
+	public double getSamplesPerSecond();
+
+	public double getEpochMillis();
+
+	public double getDataMillis();
+
+	public double getForwardMillis();
+
+	public double getBackwardMillis();
+
+	public double getUpdateMillis();
+
+	public double getValidationMillis();
+
+	public double getBatchP50Millis();
+
+	public double getBatchP90Millis();
+
+	public double getBatchP99Millis();
+
+	public double getBatchMaxMillis();
+
+	public double getValidationLoss();
+
+	public long getHeapUsed();
+
+	public long getHeapCommitted();
+
+	public long getPooledBytes();
+
+	public long getGcCount();
+
+	public double getGcMillis();
+
+	public boolean isTraining();
+}
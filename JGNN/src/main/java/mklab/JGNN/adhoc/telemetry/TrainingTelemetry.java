@@ -0,0 +1,105 @@
+package mklab.JGNN.adhoc.telemetry;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+
+import mklab.JGNN.core.Memory;
+
+/**
+ * Collects batch measurements of a training loop across threads, and produces
+ * {@link EpochMetrics} that are forwarded to {@link TrainingListener}
+ * instances. This class is used internally by
+ * {@link mklab.JGNN.adhoc.ModelTraining}.
+ * 
+ * @author Emmanouil Krasanakis
+ */
+public class TrainingTelemetry {
+	private final ArrayList<TrainingListener> listeners = new ArrayList<TrainingListener>();
+	private final ArrayList<BatchMetrics> batches = new ArrayList<BatchMetrics>();
+	private long gcCount = 0;
+	private long gcMillis = 0;
+
+	public TrainingTelemetry addListener(TrainingListener listener) {
+		listeners.add(listener);
+		return this;
+	}
+
+	/**
+	 * Checks whether any listeners have been added, in which case metrics should
+	 * be reported.
+	 * 
+	 * @return A <code>boolean</code> value.
+	 */
+	public boolean isEnabled() {
+		return !listeners.isEmpty();
+	}
+
+	/**
+	 * Marks the start of a training epoch by resetting batch measurements and
+	 * garbage collection baselines.
+	 */
+	public synchronized void startEpoch() {
+		batches.clear();
+		long[] gc = gcTotals();
+		gcCount = gc[0];
+		gcMillis = gc[1];
+	}
+
+	/**
+	 * Records the metrics of a batch and forwards them to listeners.
+	 * 
+	 * @param metrics The batch's metrics.
+	 */
+	public void batch(BatchMetrics metrics) {
+		synchronized (this) {
+			batches.add(metrics);
+		}
+		for (TrainingListener listener : listeners)
+			listener.onBatch(metrics);
+	}
+
+	/**
+	 * Aggregates the metrics of the current epoch and forwards them to listeners.
+	 * 
+	 * @param epoch           The epoch.
+	 * @param epochNanos      The wall time of the whole epoch.
+	 * @param updateNanos     The time spent in parameter updates outside batches.
+	 * @param validationNanos The time spent in validation.
+	 * @param validationLoss  The validation loss.
+	 * @return The aggregated {@link EpochMetrics}.
+	 */
+	public EpochMetrics endEpoch(int epoch, long epochNanos, long updateNanos, long validationNanos,
+			double validationLoss) {
+		EpochMetrics metrics;
+		synchronized (this) {
+			long[] gc = gcTotals();
+			MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+			metrics = new EpochMetrics(epoch, new ArrayList<BatchMetrics>(batches), epochNanos, updateNanos,
+					validationNanos, validationLoss, heap.getUsed(), heap.getCommitted(), Memory.getPooledBytes(),
+					Memory.resetPeakBytes(), gc[0] - gcCount, (gc[1] - gcMillis) * 1000000L);
+		}
+		for (TrainingListener listener : listeners)
+			listener.onEpoch(metrics);
+		return metrics;
+	}
+
+	/**
+	 * Notifies listeners that training has concluded.
+	 */
+	public void endTraining() {
+		for (TrainingListener listener : listeners)
+			listener.onEndTraining();
+	}
+
+	private static long[] gcTotals() {
+		long count = 0;
+		long millis = 0;
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, collector.getCollectionCount());
+			millis += Math.max(0, collector.getCollectionTime());
+		}
+		return new long[] { count, millis };
+	}
+}
@@ -0,0 +1,8 @@
+/**
+ * Contains metrics and listeners that monitor the training loop of
+ * {@link mklab.JGNN.adhoc.ModelTraining} instances, such as throughput, time
+ * splits between training stages, latency percentiles, and memory usage.
+ * 
+ * @author Emmanouil Krasanakis
+ */
+package mklab.JGNN.adhoc.telemetry;
@@ -9,7 +9,6 @@ import mklab.JGNN.adhoc.ModelTraining;
 import mklab.JGNN.core.Matrix;
 import mklab.JGNN.core.Slice;
 import mklab.JGNN.core.Tensor;
-import mklab.JGNN.core.util.Range;
 
 /**
  * Extends the {@link ModelTraining} class to be able to train
@@ -53,7 +52,7 @@ public class AGFTraining extends ModelTraining {
 	}
 
 	public AGFTraining setValidationSplit(double validationFraction) {
-		Slice indices = new Slice(new Range(0, graphs.size()));
+		Slice indices = new Slice(0, graphs.size());
 		indices.shuffle();
 		validationSamples = indices.range(0, validationFraction);
 		trainingSamples = indices.range(validationFraction, 1);
@@ -7,7 +7,6 @@ import mklab.JGNN.adhoc.BatchData;
 import mklab.JGNN.adhoc.ModelTraining;
 import mklab.JGNN.core.Matrix;
 import mklab.JGNN.core.Slice;
-import mklab.JGNN.core.matrix.WrapRows;
 
 /**
  * Extends the {@link ModelTraining} class to train {@link mklab.JGNN.nn.Model}
@@ -31,6 +30,10 @@ public class SampleClassification extends ModelTraining {
 	private Matrix labels;
 	private Slice trainingSamples;
 	private Slice validationSamples;
+	private Matrix batchFeatures;
+	private Matrix batchLabels;
+	private Matrix validationFeatures;
+	private Matrix validationLabels;
 
 	/**
 	 * Sets the feature matrix of data samples, where each row corresponds to a
@@ -117,19 +120,26 @@ public class SampleClassification extends ModelTraining {
 					"Cannot obtain batch data for SampleClassification without first setting a validation data slice.");
 		int start = (trainingSamples.size() / numBatches) * batch;
 		int end = Math.min(trainingSamples.size(), start + (trainingSamples.size() / numBatches));
-		Matrix trainFeatures = new WrapRows(features.accessRows(trainingSamples.range(start, end)))
-				.setDimensionName(features);
-		Matrix trainLabels = new WrapRows(labels.accessRows(trainingSamples.range(start, end)))
-				.setDimensionName(labels);
+		Slice batchSamples = trainingSamples.range(start, end);
+		Matrix trainFeatures;
+		Matrix trainLabels;
+		if (prefetch == 0 && hogwildThreads == 0 && !paralellization) {
+			// batches are obtained only after previous ones are no longer in use
+			trainFeatures = batchFeatures = features.gatherRows(batchSamples, batchFeatures);
+			trainLabels = batchLabels = labels.gatherRows(batchSamples, batchLabels);
+		} else {
+			trainFeatures = features.gatherRows(batchSamples);
+			trainLabels = labels.gatherRows(batchSamples);
+		}
 		return Arrays.asList(new BatchData(Arrays.asList(trainFeatures), Arrays.asList(trainLabels)));
 	}
 
 	@Override
 	protected List<BatchData> getValidationData(int epoch) {
-		Matrix trainFeatures = new WrapRows(features.accessRows(validationSamples))
-				.setDimensionName(features.getRowName(), features.getColName());
-		Matrix trainLabels = new WrapRows(labels.accessRows(validationSamples));// .setDimensionName(labels.getRowName(),
-																				// labels.getColName());
-		return Arrays.asList(new BatchData(Arrays.asList(trainFeatures), Arrays.asList(trainLabels)));
+		// validation of an epoch always concludes before that of the next one starts
+		validationFeatures = features.gatherRows(validationSamples, validationFeatures);
+		validationLabels = labels.gatherRows(validationSamples, validationLabels).setDimensionName(null, null);
+		return Arrays.asList(
+				new BatchData(Arrays.asList(validationFeatures), Arrays.asList(validationLabels)));
 	}
 }
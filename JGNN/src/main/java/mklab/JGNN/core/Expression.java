@@ -0,0 +1,591 @@
+package mklab.JGNN.core;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+import mklab.JGNN.core.util.Reductions;
+
+/**
+ * A lazily evaluated element-wise expression of {@link Tensor} instances and
+ * constants. Expressions are obtained with {@link Tensor#lazy()} and combined
+ * with methods that only record the operation instead of computing it. The
+ * whole expression is computed in one pass over tensor elements when it is
+ * materialized by {@link #evaluate()}, {@link #assign(Tensor)}, {@link #sum()}
+ * or {@link #get(long)}. This avoids intermediate tensors and the memory
+ * traffic of passing over each of them. For example, the following two
+ * snippets compute the same tensor, but the first one creates two intermediate
+ * tensors and passes three times over elements:
+ *
+ * <pre>
+ * Tensor c = a.multiply(2).selfAdd(b).selfSqrt();
+ * Tensor c = a.lazy().multiply(2).add(b).sqrt().evaluate();
+ * </pre>
+ *
+ * Evaluation splits elements into small blocks that fit in the processor cache
+ * and applies each operation on whole blocks with SIMD instructions through
+ * {@link DoubleVector}. Blocks are distributed across the threads of
+ * {@link ThreadPool#parallelFor} for tensors of at least
+ * {@link Reductions#parallelThreshold} elements. Arithmetic operations,
+ * square roots, and comparisons yield the same values as their scalar
+ * counterparts, but vectorized exponentials, logarithms, and hyperbolic tangents
+ * may differ from {@link Math#exp(double)}, {@link Math#log(double)} and
+ * {@link Math#tanh(double)} in the last bits. Tensors that are not
+ * stored in dense arrays, such as sparse ones, are read and written element by
+ * element, so that all elements (including zeros) take part in the expression.
+ * Tensors are read while evaluating, so they can also be the destination of
+ * {@link #assign(Tensor)}.
+ *
+ * @author Emmanouil Krasanakis
+ */
+public abstract class Expression {
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+	private static final int BLOCK = 256;
+
+	private enum Operation {
+		ADD, SUBTRACT, MULTIPLY, DIVIDE, MAX, MIN, SQRT, INVERSE, ABS, NEGATIVE, EXP, LOG, TANH
+	}
+
+	private final long size;
+	private final int depth;
+
+	private Expression(long size, int depth) {
+		this.size = size;
+		this.depth = depth;
+	}
+
+	/**
+	 * Creates an expression that holds the elements of a tensor. This is
+	 * equivalent to {@link Tensor#lazy()}.
+	 *
+	 * @param tensor The tensor.
+	 * @return An {@link Expression}.
+	 */
+	public static Expression of(Tensor tensor) {
+		return new Leaf(tensor);
+	}
+
+	/**
+	 * Retrieves the number of elements of the expression.
+	 *
+	 * @return The common size of expression tensors.
+	 */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * Writes the values of a block of elements into an array.
+	 *
+	 * @param from    The first element of the block.
+	 * @param length  The number of elements in the block.
+	 * @param out     The array to write to, starting from index 0.
+	 * @param scratch Arrays that subexpressions can write to, one per level of
+	 *                the expression's depth.
+	 * @param level   The first scratch array that can be used.
+	 */
+	abstract void block(long from, int length, double[] out, double[][] scratch, int level);
+
+	/**
+	 * Computes the value of one element without vectorization.
+	 *
+	 * @param pos The element's position.
+	 * @return The element's value.
+	 */
+	public abstract double get(long pos);
+
+	/**
+	 * Retrieves a tensor of the expression to use as prototype of evaluation
+	 * results.
+	 */
+	abstract Tensor prototype();
+
+	private static class Leaf extends Expression {
+		private final Tensor tensor;
+		private final double[] values;
+
+		private Leaf(Tensor tensor) {
+			super(tensor.size(), 0);
+			this.tensor = tensor;
+			this.values = Reductions.getDenseValues(tensor);
+		}
+
+		@Override
+		void block(long from, int length, double[] out, double[][] scratch, int level) {
+			if (values != null)
+				System.arraycopy(values, (int) from, out, 0, length);
+			else
+				for (int i = 0; i < length; i++)
+					out[i] = tensor.get(from + i);
+		}
+
+		@Override
+		public double get(long pos) {
+			return tensor.get(pos);
+		}
+
+		@Override
+		Tensor prototype() {
+			return tensor;
+		}
+	}
+
+	private static class Unary extends Expression {
+		private final Operation operation;
+		private final Expression input;
+		private final double constant;
+
+		private Unary(Operation operation, Expression input, double constant) {
+			super(input.size, input.depth);
+			this.operation = operation;
+			this.input = input;
+			this.constant = constant;
+		}
+
+		@Override
+		void block(long from, int length, double[] out, double[][] scratch, int level) {
+			input.block(from, length, out, scratch, level);
+			// operators are spelled out per case, because the vector API only compiles
+			// constant operators to SIMD instructions
+			int i = 0;
+			int bound = SPECIES.loopBound(length);
+			int lanes = SPECIES.length();
+			switch (operation) {
+			case ADD:
+				for (; i < bound; i += lanes)
+					DoubleVector.fromArray(SPECIES, out, i).add(constant).intoArray(out, i);
+				break;
+			case SUBTRACT:
+				for (; i < bound; i += lanes)
+					DoubleVector.fromArray(SPECIES, out, i).sub(constant).intoArray(out, i);
+				break;
+			case MULTIPLY:
+				for (; i < bound; i += lanes)
+					DoubleVector.fromArray(SPECIES, out, i).mul(constant).intoArray(out, i);
+				break;
+			case DIVIDE:
+				for (; i < bound; i += lanes)
+					DoubleVector.fromArray(SPECIES, out, i).div(constant).intoArray(out, i);
+				break;
+			case MAX:
+				for (; i < bound; i += lanes)
+					DoubleVector.fromArray(SPECIES, out, i).max(constant).intoArray(out, i);
+				break;
+			case MIN:
+				for (; i < bound; i += lanes)
+					DoubleVector.fromArray(SPECIES, out, i).min(constant).intoArray(out, i);
+				break;
+			case SQRT:
+				for (; i < bound; i += lanes)
+					DoubleVector.fromArray(SPECIES, out, i).sqrt().intoArray(out, i);
+				break;
+			case INVERSE:
+				DoubleVector one = DoubleVector.broadcast(SPECIES, 1);
+				for (; i < bound; i += lanes)
+					one.div(DoubleVector.fromArray(SPECIES, out, i)).intoArray(out, i);
+				break;
+			case ABS:
+				for (; i < bound; i += lanes)
+					DoubleVector.fromArray(SPECIES, out, i).abs().intoArray(out, i);
+				break;
+			case NEGATIVE:
+				for (; i < bound; i += lanes)
+					DoubleVector.fromArray(SPECIES, out, i).neg().intoArray(out, i);
+				break;
+			case EXP:
+				for (; i < bound; i += lanes)
+					DoubleVector.fromArray(SPECIES, out, i).lanewise(VectorOperators.EXP).intoArray(out, i);
+				break;
+			case LOG:
+				for (; i < bound; i += lanes)
+					DoubleVector.fromArray(SPECIES, out, i).lanewise(VectorOperators.LOG).intoArray(out, i);
+				break;
+			case TANH:
+				for (; i < bound; i += lanes)
+					DoubleVector.fromArray(SPECIES, out, i).lanewise(VectorOperators.TANH).intoArray(out, i);
+				break;
+			}
+			for (; i < length; i++)
+				out[i] = apply(operation, out[i], constant);
+		}
+
+		@Override
+		public double get(long pos) {
+			return apply(operation, input.get(pos), constant);
+		}
+
+		@Override
+		Tensor prototype() {
+			return input.prototype();
+		}
+	}
+
+	private static class Binary extends Expression {
+		private final Operation operation;
+		private final Expression left;
+		private final Expression right;
+
+		private Binary(Operation operation, Expression left, Expression right) {
+			super(left.size, Math.max(left.depth, right.depth + 1));
+			if (left.size != right.size)
+				throw new IllegalArgumentException(
+						"Mismatched sizes of lazy expressions: " + left.size + " and " + right.size);
+			this.operation = operation;
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		void block(long from, int length, double[] out, double[][] scratch, int level) {
+			left.block(from, length, out, scratch, level);
+			double[] other = scratch[level];
+			right.block(from, length, other, scratch, level + 1);
+			int i = 0;
+			int bound = SPECIES.loopBound(length);
+			int lanes = SPECIES.length();
+			switch (operation) {
+			case ADD:
+				for (; i < bound; i += lanes)
+					DoubleVector.fromArray(SPECIES, out, i).add(DoubleVector.fromArray(SPECIES, other, i)).intoArray(out, i);
+				break;
+			case SUBTRACT:
+				for (; i < bound; i += lanes)
+					DoubleVector.fromArray(SPECIES, out, i).sub(DoubleVector.fromArray(SPECIES, other, i)).intoArray(out, i);
+				break;
+			case MULTIPLY:
+				for (; i < bound; i += lanes)
+					DoubleVector.fromArray(SPECIES, out, i).mul(DoubleVector.fromArray(SPECIES, other, i)).intoArray(out, i);
+				break;
+			case DIVIDE:
+				for (; i < bound; i += lanes)
+					DoubleVector.fromArray(SPECIES, out, i).div(DoubleVector.fromArray(SPECIES, other, i)).intoArray(out, i);
+				break;
+			default:
+				throw new IllegalArgumentException("Not a binary operation: " + operation);
+			}
+			for (; i < length; i++)
+				out[i] = apply(operation, out[i], other[i]);
+		}
+
+		@Override
+		public double get(long pos) {
+			return apply(operation, left.get(pos), right.get(pos));
+		}
+
+		@Override
+		Tensor prototype() {
+			return left.prototype();
+		}
+	}
+
+	private static double apply(Operation operation, double value, double other) {
+		switch (operation) {
+		case ADD:
+			return value + other;
+		case SUBTRACT:
+			return value - other;
+		case MULTIPLY:
+			return value * other;
+		case DIVIDE:
+			return value / other;
+		case MAX:
+			return Math.max(value, other);
+		case MIN:
+			return Math.min(value, other);
+		case SQRT:
+			return Math.sqrt(value);
+		case INVERSE:
+			return 1 / value;
+		case ABS:
+			return Math.abs(value);
+		case NEGATIVE:
+			return -value;
+		case EXP:
+			return Math.exp(value);
+		case LOG:
+			return Math.log(value);
+		case TANH:
+			return Math.tanh(value);
+		default:
+			throw new IllegalArgumentException("Unknown operation: " + operation);
+		}
+	}
+
+	/**
+	 * Records element-by-element addition.
+	 *
+	 * @param other The expression to add.
+	 * @return A new {@link Expression}.
+	 */
+	public Expression add(Expression other) {
+		return new Binary(Operation.ADD, this, other);
+	}
+
+	/**
+	 * Records element-by-element addition.
+	 *
+	 * @param tensor The tensor to add.
+	 * @return A new {@link Expression}.
+	 */
+	public Expression add(Tensor tensor) {
+		return add(of(tensor));
+	}
+
+	/**
+	 * Records the addition of a constant to all elements.
+	 *
+	 * @param value The value to add.
+	 * @return A new {@link Expression}.
+	 */
+	public Expression add(double value) {
+		return new Unary(Operation.ADD, this, value);
+	}
+
+	/**
+	 * Records element-by-element subtraction.
+	 *
+	 * @param other The expression to subtract.
+	 * @return A new {@link Expression}.
+	 */
+	public Expression subtract(Expression other) {
+		return new Binary(Operation.SUBTRACT, this, other);
+	}
+
+	/**
+	 * Records element-by-element subtraction.
+	 *
+	 * @param tensor The tensor to subtract.
+	 * @return A new {@link Expression}.
+	 */
+	public Expression subtract(Tensor tensor) {
+		return subtract(of(tensor));
+	}
+
+	/**
+	 * Records element-by-element multiplication.
+	 *
+	 * @param other The expression to multiply with.
+	 * @return A new {@link Expression}.
+	 */
+	public Expression multiply(Expression other) {
+		return new Binary(Operation.MULTIPLY, this, other);
+	}
+
+	/**
+	 * Records element-by-element multiplication.
+	 *
+	 * @param tensor The tensor to multiply with.
+	 * @return A new {@link Expression}.
+	 */
+	public Expression multiply(Tensor tensor) {
+		return multiply(of(tensor));
+	}
+
+	/**
+	 * Records the multiplication of all elements with a constant.
+	 *
+	 * @param value The value to multiply with.
+	 * @return A new {@link Expression}.
+	 */
+	public Expression multiply(double value) {
+		return new Unary(Operation.MULTIPLY, this, value);
+	}
+
+	/**
+	 * Records element-by-element division.
+	 *
+	 * @param other The expression to divide with.
+	 * @return A new {@link Expression}.
+	 */
+	public Expression divide(Expression other) {
+		return new Binary(Operation.DIVIDE, this, other);
+	}
+
+	/**
+	 * Records element-by-element division.
+	 *
+	 * @param tensor The tensor to divide with.
+	 * @return A new {@link Expression}.
+	 */
+	public Expression divide(Tensor tensor) {
+		return divide(of(tensor));
+	}
+
+	/**
+	 * Records the element-by-element maximum with a constant.
+	 *
+	 * @param value The constant.
+	 * @return A new {@link Expression}.
+	 */
+	public Expression max(double value) {
+		return new Unary(Operation.MAX, this, value);
+	}
+
+	/**
+	 * Records the element-by-element minimum with a constant.
+	 *
+	 * @param value The constant.
+	 * @return A new {@link Expression}.
+	 */
+	public Expression min(double value) {
+		return new Unary(Operation.MIN, this, value);
+	}
+
+	/**
+	 * Records the element-by-element square root.
+	 *
+	 * @return A new {@link Expression}.
+	 */
+	public Expression sqrt() {
+		return new Unary(Operation.SQRT, this, 0);
+	}
+
+	/**
+	 * Records the element-by-element inverse 1/x.
+	 *
+	 * @return A new {@link Expression}.
+	 */
+	public Expression inverse() {
+		return new Unary(Operation.INVERSE, this, 0);
+	}
+
+	/**
+	 * Records the element-by-element absolute value.
+	 *
+	 * @return A new {@link Expression}.
+	 */
+	public Expression abs() {
+		return new Unary(Operation.ABS, this, 0);
+	}
+
+	/**
+	 * Records element-by-element negation.
+	 *
+	 * @return A new {@link Expression}.
+	 */
+	public Expression negative() {
+		return new Unary(Operation.NEGATIVE, this, 0);
+	}
+
+	/**
+	 * Records the element-by-element exponential. Vectorized evaluation may
+	 * differ from {@link Math#exp(double)} in the last bits.
+	 *
+	 * @return A new {@link Expression}.
+	 */
+	public Expression exp() {
+		return new Unary(Operation.EXP, this, 0);
+	}
+
+	/**
+	 * Records the element-by-element natural logarithm. Vectorized evaluation may
+	 * differ from {@link Math#log(double)} in the last bits.
+	 *
+	 * @return A new {@link Expression}.
+	 */
+	public Expression log() {
+		return new Unary(Operation.LOG, this, 0);
+	}
+
+	/**
+	 * Records the element-by-element hyperbolic tangent. Vectorized evaluation may
+	 * differ from {@link Math#tanh(double)} in the last bits.
+	 *
+	 * @return A new {@link Expression}.
+	 */
+	public Expression tanh() {
+		return new Unary(Operation.TANH, this, 0);
+	}
+
+	/**
+	 * Records the element-by-element sigmoid 1/(1+exp(-x)).
+	 *
+	 * @return A new {@link Expression}.
+	 */
+	public Expression sigmoid() {
+		return negative().exp().add(1).inverse();
+	}
+
+	private interface BlockConsumer {
+		void accept(long from, int length, double[] values);
+	}
+
+	/**
+	 * Computes all blocks of elements and passes them to a consumer, possibly
+	 * from multiple threads.
+	 */
+	private void forBlocks(BlockConsumer consumer) {
+		long numBlocks = (size + BLOCK - 1) / BLOCK;
+		int threads = ThreadPool.getInstance().getMaxThreads();
+		if (size < Reductions.parallelThreshold || threads <= 1 || numBlocks < 2) {
+			computeBlocks(0, numBlocks, consumer);
+			return;
+		}
+		long chunks = Math.min(numBlocks, threads * 4);
+		long step = (numBlocks + chunks - 1) / chunks;
+		ThreadPool.getInstance().parallelFor((int) ((numBlocks + step - 1) / step),
+				chunk -> computeBlocks(chunk * step, Math.min(numBlocks, (chunk + 1) * step), consumer));
+	}
+
+	private void computeBlocks(long fromBlock, long toBlock, BlockConsumer consumer) {
+		double[] out = new double[BLOCK];
+		double[][] scratch = new double[depth][BLOCK];
+		for (long block = fromBlock; block < toBlock; block++) {
+			long from = block * BLOCK;
+			int length = (int) Math.min(BLOCK, size - from);
+			block(from, length, out, scratch, 0);
+			consumer.accept(from, length, out);
+		}
+	}
+
+	/**
+	 * Writes the values of the expression to a tensor. The tensor can also
+	 * appear in the expression, in which case this performs an in-place update.
+	 *
+	 * @param destination The tensor to write to.
+	 * @return The destination tensor.
+	 */
+	public Tensor assign(Tensor destination) {
+		destination.assertSize(size);
+		double[] values = Reductions.getDenseValues(destination);
+		if (values != null)
+			forBlocks((from, length, block) -> System.arraycopy(block, 0, values, (int) from, length));
+		else
+			forBlocks((from, length, block) -> {
+				// blocks do not overlap, but non-dense tensors may not be thread-safe
+				synchronized (destination) {
+					for (int i = 0; i < length; i++)
+						destination.put(from + i, block[i]);
+				}
+			});
+		return destination;
+	}
+
+	/**
+	 * Computes the values of the expression into a new tensor. The new tensor is
+	 * a {@link Tensor#zeroCopy()} of the first tensor that appears in the
+	 * expression.
+	 *
+	 * @return A new {@link Tensor}.
+	 */
+	public Tensor evaluate() {
+		return assign(prototype().zeroCopy());
+	}
+
+	/**
+	 * Computes the sum of the values of the expression without storing them.
+	 *
+	 * @return The sum of all elements.
+	 */
+	public double sum() {
+		double[] total = { 0 };
+		forBlocks((from, length, block) -> {
+			double partial = 0;
+			for (int i = 0; i < length; i++)
+				partial += block[i];
+			synchronized (total) {
+				total[0] += partial;
+			}
+		});
+		return total[0];
+	}
+}
@@ -1,8 +1,12 @@
 package mklab.JGNN.core;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
+import java.util.function.IntConsumer;
+import java.util.function.LongToDoubleFunction;
+
+import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
 
 import mklab.JGNN.core.matrix.AccessRow;
 import mklab.JGNN.core.matrix.AccessCol;
@@ -13,6 +17,9 @@ import mklab.JGNN.core.matrix.VectorizedMatrix;
 import mklab.JGNN.core.matrix.WrapCols;
 import mklab.JGNN.core.matrix.WrapRows;
 import mklab.JGNN.core.tensor.DenseTensor;
+import mklab.JGNN.core.util.Reductions;
+import mklab.JGNN.core.util.SparseProducts;
+import mklab.JGNN.core.util.Thresholds;
 
 import java.util.Map.Entry;
 
@@ -287,6 +294,18 @@ public abstract class Matrix extends Tensor {
 
 	private int parallelizedMultiplication = 0;
 
+	/**
+	 * Checks whether a multiplication with another matrix should be computed with
+	 * {@link SparseProducts}, which happens when neither operand is stored densely
+	 * and the product is stored in a sparse matrix.
+	 */
+	private boolean isSparseProduct(Matrix with, Matrix ret) {
+		long limit = Integer.MAX_VALUE - 8;
+		return ret instanceof SparseMatrix && Reductions.getDenseValues(this) == null
+				&& Reductions.getDenseValues(with) == null && getRows() < limit && getCols() < limit
+				&& with.getRows() < limit && with.getCols() < limit;
+	}
+
 	/**
 	 * Performs the matrix multiplication of <code>this*with</code> and the
 	 * recipient.
@@ -296,13 +315,29 @@ public abstract class Matrix extends Tensor {
 	 * @see #matmul(Matrix, boolean, boolean)
 	 */
 	public Matrix matmul(Matrix with) {
+		return matmul(with, Thresholds.getSparseDensity());
+	}
+
+	/**
+	 * Performs the matrix multiplication of <code>this*with</code> while storing
+	 * the outcome in a sparse matrix only if its estimated density is less than a
+	 * given value, instead of {@link Thresholds#getSparseDensity()}. For example,
+	 * this can be used to compare the running times of sparse and dense outputs.
+	 * 
+	 * @param with          The matrix to multiply with.
+	 * @param sparseDensity A density, where 0 never creates sparse outputs and
+	 *                      values greater than 1 always create sparse outputs.
+	 * @return A matrix that stores the outcome of the multiplication.
+	 * @see #matmul(Matrix)
+	 */
+	public Matrix matmul(Matrix with, double sparseDensity) {
 		if (cols != with.getRows())
 			throw new IllegalArgumentException(
 					"Mismatched matrix sizes between " + describe() + " and " + with.describe());
 		if (colName != null && with.getRowName() != null && !colName.equals(with.getRowName()))
 			throw new IllegalArgumentException(
 					"Mismatched matrix dimension names between " + describe() + " and " + with.describe());
-		Matrix ret = determineZeroCopy(with, getRows(), with.getCols(), getCols());
+		Matrix ret = determineZeroCopy(with, getRows(), with.getCols(), getCols(), sparseDensity);
 		if (parallelizedMultiplication > 1) {
 			ArrayList<Entry<Long, Long>> entries = new ArrayList<Entry<Long, Long>>();
 			for (Entry<Long, Long> element : getNonZeroEntries())
@@ -333,7 +368,9 @@ public abstract class Matrix extends Tensor {
 				} catch (InterruptedException e) {
 					e.printStackTrace();
 				}
-		} else {
+		} else if (isSparseProduct(with, ret))
+			SparseProducts.multiply(this, false, with, false, ret, 0, 0);
+		else {
 			if (estimateNumNonZeroElements() / getRows() < with.estimateNumNonZeroElements() / with.getCols()) {
 				long withCols = with.getCols();
 				for (Entry<Long, Long> element : getNonZeroEntries()) {
@@ -417,7 +454,9 @@ public abstract class Matrix extends Tensor {
 				} catch (InterruptedException e) {
 					e.printStackTrace();
 				}
-		} else {
+		} else if (isSparseProduct(with, ret))
+			SparseProducts.multiply(this, transposeSelf, with, transposeWith, ret, 0, 0);
+		else {
 			if (estimateNumNonZeroElements() / (transposeSelf ? getCols() : getRows()) < with
 					.estimateNumNonZeroElements() / (transposeWith ? with.getRows() : with.getCols())) {
 				for (Entry<Long, Long> element : getNonZeroEntries()) {
@@ -549,6 +588,31 @@ public abstract class Matrix extends Tensor {
 		return this;
 	}
 
+	/**
+	 * Sums the values of non-zero elements per row or per column. Sums are
+	 * stored in a primitive array, unless the respective dimension is too large to
+	 * index with integers.
+	 */
+	private LongToDoubleFunction sumNonZeros(boolean perRow) {
+		long count = perRow ? getRows() : getCols();
+		if (count > Integer.MAX_VALUE - 8) {
+			Long2DoubleOpenHashMap sums = new Long2DoubleOpenHashMap();
+			for (Entry<Long, Long> element : getNonZeroEntries()) {
+				long row = element.getKey();
+				long col = element.getValue();
+				sums.addTo(perRow ? row : col, get(row, col));
+			}
+			return sums::get;
+		}
+		double[] sums = new double[(int) count];
+		for (Entry<Long, Long> element : getNonZeroEntries()) {
+			long row = element.getKey();
+			long col = element.getValue();
+			sums[(int) (perRow ? row : col)] += get(row, col);
+		}
+		return pos -> sums[(int) pos];
+	}
+
 	/**
 	 * Sets the Matrix to its symmetrically normalized transformation by
 	 * appropriately adjusting its element values.
@@ -557,19 +621,12 @@ public abstract class Matrix extends Tensor {
 	 * @see #symmetricNormalization()
 	 */
 	public Matrix setToSymmetricNormalization() {
-		HashMap<Long, Double> outDegrees = new HashMap<Long, Double>();
-		HashMap<Long, Double> inDegrees = new HashMap<Long, Double>();
+		LongToDoubleFunction outDegrees = sumNonZeros(true);
+		LongToDoubleFunction inDegrees = sumNonZeros(false);
 		for (Entry<Long, Long> element : getNonZeroEntries()) {
 			long row = element.getKey();
 			long col = element.getValue();
-			double value = get(row, col);
-			outDegrees.put(row, outDegrees.getOrDefault(row, 0.) + value);
-			inDegrees.put(col, inDegrees.getOrDefault(col, 0.) + value);
-		}
-		for (Entry<Long, Long> element : getNonZeroEntries()) {
-			long row = element.getKey();
-			long col = element.getValue();
-			double div = Math.sqrt(outDegrees.get(row) * inDegrees.get(col));
+			double div = Math.sqrt(outDegrees.applyAsDouble(row) * inDegrees.applyAsDouble(col));
 			if (div != 0)
 				put(row, col, get(row, col) / div);
 		}
@@ -584,19 +641,11 @@ public abstract class Matrix extends Tensor {
 	 * @see #symmetricNormalization()
 	 */
 	public Matrix setToASymmetricNormalization() {
-		HashMap<Long, Double> outDegrees = new HashMap<Long, Double>();
-		HashMap<Long, Double> inDegrees = new HashMap<Long, Double>();
+		LongToDoubleFunction inDegrees = sumNonZeros(false);
 		for (Entry<Long, Long> element : getNonZeroEntries()) {
 			long row = element.getKey();
 			long col = element.getValue();
-			double value = get(row, col);
-			outDegrees.put(row, outDegrees.getOrDefault(row, 0.) + value);
-			inDegrees.put(col, inDegrees.getOrDefault(col, 0.) + value);
-		}
-		for (Entry<Long, Long> element : getNonZeroEntries()) {
-			long row = element.getKey();
-			long col = element.getValue();
-			double div = inDegrees.get(col);
+			double div = inDegrees.applyAsDouble(col);
 			if (div != 0)
 				put(row, col, get(row, col) / div);
 		}
@@ -823,6 +872,13 @@ public abstract class Matrix extends Tensor {
 	 * @see #accessColumns(Iterable)
 	 */
 	public List<Tensor> accessRows(Iterable<Long> rowIds) {
+		if (rowIds instanceof Slice) {
+			Slice slice = (Slice) rowIds;
+			List<Tensor> ret = new ArrayList<Tensor>(slice.size());
+			for (int i = 0; i < slice.size(); i++)
+				ret.add(accessRow(slice.get(i)));
+			return ret;
+		}
 		List<Tensor> ret = new ArrayList<Tensor>();
 		for (long row : rowIds)
 			ret.add(accessRow(row));
@@ -843,11 +899,120 @@ public abstract class Matrix extends Tensor {
 	 * @see #accessRows(Iterable)
 	 */
 	public List<Tensor> accessColumns(Iterable<Long> colIds) {
+		if (colIds instanceof Slice) {
+			Slice slice = (Slice) colIds;
+			List<Tensor> ret = new ArrayList<Tensor>(slice.size());
+			for (int i = 0; i < slice.size(); i++)
+				ret.add(accessCol(slice.get(i)));
+			return ret;
+		}
 		List<Tensor> ret = new ArrayList<Tensor>();
 		for (long col : colIds)
 			ret.add(accessCol(col));
 		return ret;
 	}
+	/**
+	 * Copies specific matrix rows into a new matrix whose i-th row holds the
+	 * i-th requested row. Contrary to {@link #accessRows(Tensor)}, the result does
+	 * not share entries with this matrix but is stored contiguously, so that
+	 * subsequent operations on it run the same kernels as on any other matrix of
+	 * its type. Dense rows are gathered into a dense matrix and sparse rows into a
+	 * sparse one.
+	 * 
+	 * @param rows The rows to gather.
+	 * @return A {@link Matrix} with as many rows as the given ones.
+	 * @see #gatherRows(Slice, Matrix)
+	 * @see #gatherRows(Tensor)
+	 */
+	public Matrix gatherRows(Slice rows) {
+		return gatherRows(rows, null);
+	}
+
+	/**
+	 * Performs {@link #gatherRows(Slice)} for rows whose identifiers are the
+	 * values of a tensor.
+	 * 
+	 * @param rows A tensor whose values hold the rows to gather.
+	 * @return A {@link Matrix} with as many rows as the size of the given tensor.
+	 * @see #accessRows(Tensor)
+	 */
+	public Matrix gatherRows(Tensor rows) {
+		long[] ids = new long[(int) rows.size()];
+		for (int i = 0; i < ids.length; i++)
+			ids[i] = (long) rows.get(i);
+		return gatherRows(new Slice(ids), null);
+	}
+
+	/**
+	 * Performs {@link #gatherRows(Slice)} by writing the gathered rows into a
+	 * destination matrix, for example to reuse the same memory across training
+	 * batches. The destination is only reused if it has the appropriate
+	 * dimensions and is of the same type as the matrix that would otherwise be
+	 * created, and its previous contents are overwritten.
+	 * 
+	 * @param rows        The rows to gather.
+	 * @param destination The matrix to write into, or <code>null</code> to
+	 *                    allocate a new one.
+	 * @return The destination, or a newly allocated matrix if the destination
+	 *         could not be used.
+	 */
+	public Matrix gatherRows(Slice rows, Matrix destination) {
+		int n = rows.size();
+		long[] ids = new long[n];
+		for (int i = 0; i < n; i++) {
+			if (rows.get(i) < 0 || rows.get(i) >= getRows())
+				throw new IllegalArgumentException("Row " + rows.get(i) + " is out of bounds for " + describe());
+			ids[i] = rows.get(i);
+		}
+		int cols = (int) getCols();
+		double[] source = Reductions.getDenseValues(this);
+		if (destination == null || destination.getRows() != n || destination.getCols() != getCols()
+				|| (source != null ? Reductions.getDenseValues(destination) == null
+						: destination.getClass() != getClass()))
+			destination = null;
+		Matrix ret = destination == null ? zeroCopy(n, getCols()) : destination;
+		ret.setDimensionName(getRowName(), getColName());
+		double[] target = Reductions.getDenseValues(ret);
+		if (source != null && target != null) {
+			// both are column-major, so each column is gathered separately
+			int rowsThis = (int) getRows();
+			IntConsumer gatherColumn = col -> {
+				int from = col * rowsThis;
+				int to = col * n;
+				for (int i = 0; i < n; i++)
+					target[to + i] = source[from + (int) ids[i]];
+			};
+			if ((long) n * cols >= Reductions.parallelThreshold)
+				ThreadPool.getInstance().parallelFor(cols, gatherColumn);
+			else
+				for (int col = 0; col < cols; col++)
+					gatherColumn.accept(col);
+			return ret;
+		}
+		if (destination != null)
+			ret.setToZero();
+		if (estimateNumNonZeroElements() < (long) n * cols) {
+			// scan non-zeros once, where each row points to its (possibly repeated) positions
+			Long2IntOpenHashMap first = new Long2IntOpenHashMap(n);
+			first.defaultReturnValue(-1);
+			int[] next = new int[n];
+			for (int i = n - 1; i >= 0; i--) {
+				next[i] = first.get(ids[i]);
+				first.put(ids[i], i);
+			}
+			for (Entry<Long, Long> entry : getNonZeroEntries()) {
+				long row = entry.getKey();
+				long col = entry.getValue();
+				for (int i = first.get(row); i != -1; i = next[i])
+					ret.put(i, col, get(row, col));
+			}
+		} else
+			for (int i = 0; i < n; i++)
+				for (long col = 0; col < cols; col++)
+					ret.put(i, col, get(ids[i], col));
+		return ret;
+	}
+
 	/*
 	 * public List<Tensor> toSparseColumns() { List<Tensor> ret = new
 	 * ArrayList<Tensor>(); for(long col=0;col<getCols();col++) ret.add(new
@@ -871,7 +1036,11 @@ public abstract class Matrix extends Tensor {
 	}
 
 	protected Matrix determineZeroCopy(Matrix with, long rows, long cols, long intermediate) {
-		if (1 - Math.pow(1 - density() * with.density(), intermediate) < 0.3)
+		return determineZeroCopy(with, rows, cols, intermediate, Thresholds.getSparseDensity());
+	}
+
+	private Matrix determineZeroCopy(Matrix with, long rows, long cols, long intermediate, double sparseDensity) {
+		if (1 - Math.pow(1 - density() * with.density(), intermediate) < sparseDensity)
 			return new SparseMatrix(rows, cols);
 		/*
 		 * if(with instanceof SparseMatrix) return ((Matrix)with).zeroCopy(rows, cols);
@@ -879,8 +1048,8 @@ public abstract class Matrix extends Tensor {
 		 * } try { return ((Matrix)with).zeroCopy(rows, cols); }
 		 * catch(UnsupportedOperationException e) { }
 		 */
-		if (rows > 100000 / cols && Tensor.vectorization)
-			return new VectorizedMatrix(rows, cols); // TODO: run benchmarks on several machines for this limit
+		if (Thresholds.isVectorized(rows, cols))
+			return new VectorizedMatrix(rows, cols);
 		return new DenseMatrix(rows, cols);
 		// throw new UnsupportedOperationException("Neither "+describe()+" nor
 		// "+with.describe()+" support zeroCopy("+rows+", "+cols+")");
@@ -892,7 +1061,7 @@ public abstract class Matrix extends Tensor {
 	 * @return A {@link DenseMatrix} instance.
 	 */
 	public Matrix toDense() {
-		if (getRows() > 100000 / getCols() && vectorization)
+		if (Thresholds.isVectorized(getRows(), getCols()))
 			return (VectorizedMatrix) new VectorizedMatrix(getRows(), getCols()).selfAdd(this).setDimensionName(this);
 		return (DenseMatrix) new DenseMatrix(getRows(), getCols()).selfAdd(this).setDimensionName(this);
 	}
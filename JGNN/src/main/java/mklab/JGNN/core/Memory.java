@@ -11,7 +11,12 @@ import java.util.WeakHashMap;
  * A memory management system for thread-safe allocation and release of arrays
  * of doubles. Soft references to allocated arrays kept so that released ones
  * can be reused by future allocation calls without explicitly initializing
- * memory.
+ * memory. <br>
+ * Tensors allocate their arrays from the pool only while
+ * {@link Scope#setPooling(boolean)} is enabled for the allocating thread, and
+ * can return them to the pool early with {@link Tensor#release()}. The pool
+ * keeps track of the bytes bound to live objects, as well as their peak since
+ * the last {@link #resetPeakBytes()}.
  * 
  * @author Emmanouil Krasanakis
  */
@@ -19,10 +24,41 @@ public class Memory {
 	public static class Scope {
 		private Stack<ArrayList<WeakReference<double[]>>> values = new Stack<ArrayList<WeakReference<double[]>>>();
 		private ArrayList<WeakReference<double[]>> topValues = null;
+		private boolean pooling = false;
 
 		private Scope() {
 		}
 
+		/**
+		 * Sets whether dense tensors created by the scope's thread should allocate
+		 * their arrays from the memory pool with {@link Memory#reuse(int, Object)}.
+		 * Such arrays are not registered to the scope, so they are not released
+		 * when exiting it.
+		 * 
+		 * @param pooling Whether pooling should be enabled.
+		 * @return <code>this</code> scope.
+		 * @see #isPooling()
+		 */
+		public Scope setPooling(boolean pooling) {
+			synchronized (scopes) {
+				if (pooling != this.pooling)
+					poolingScopes += pooling ? 1 : -1;
+				this.pooling = pooling;
+			}
+			return this;
+		}
+
+		/**
+		 * Checks whether dense tensors created by the scope's thread allocate their
+		 * arrays from the memory pool.
+		 * 
+		 * @return A <code>boolean</code> value.
+		 * @see #setPooling(boolean)
+		 */
+		public boolean isPooling() {
+			return pooling;
+		}
+
 		public void enter() {
 			values.push(topValues = new ArrayList<WeakReference<double[]>>());
 		}
@@ -54,6 +90,18 @@ public class Memory {
 	}
 
 	private static HashMap<Integer, Scope> scopes = new HashMap<Integer, Scope>();
+	private static volatile int poolingScopes = 0;
+
+	/**
+	 * Checks whether the current thread's {@link Scope} has pooling enabled. This
+	 * is fast when no scope does.
+	 * 
+	 * @return A <code>boolean</code> value.
+	 * @see Scope#setPooling(boolean)
+	 */
+	public static boolean isPooling() {
+		return poolingScopes != 0 && scope().isPooling();
+	}
 
 	public static Scope scope() {
 		int threadId = ThreadPool.getCurrentThreadId();
@@ -72,8 +120,11 @@ public class Memory {
 	private static class BoundAllocation {
 		private SoftReference<double[]> memory;
 		public WeakReference<Object> boundObject;
+		public boolean isCounted = false;
+		public final int length;
 
 		public BoundAllocation(int length, Object boundObject) {
+			this.length = length;
 			memory = new SoftReference<double[]>(new double[length]);
 			this.boundObject = new WeakReference<Object>(boundObject);
 		}
@@ -98,7 +149,27 @@ public class Memory {
 	private static HashMap<Integer, ArrayList<BoundAllocation>> allocated = new HashMap<Integer, ArrayList<BoundAllocation>>();
 	private static WeakHashMap<double[], BoundAllocation> bounded = new WeakHashMap<double[], BoundAllocation>();
 
+	private static long liveBytes = 0;
+	private static long peakBytes = 0;
+
 	public synchronized static double[] allocate(int length, Object boundTo) {
+		double[] ret = reuse(length, boundTo);
+		scope().register(ret);
+		return ret;
+	}
+
+	/**
+	 * Allocates an array of zeros, reusing a released array of the same length
+	 * from the pool if possible. Contrary to {@link #allocate(int, Object)}, the
+	 * array is not registered to the current {@link Scope}.
+	 * 
+	 * @param length  The length of the array.
+	 * @param boundTo The object that uses the array. The array can be reused once
+	 *                this object is garbage collected or the array is released.
+	 * @return A <code>double[]</code> array.
+	 * @see #release(double[])
+	 */
+	public synchronized static double[] reuse(int length, Object boundTo) {
 		ArrayList<BoundAllocation> search = allocated.get(length);
 		if (search == null)
 			allocated.put(length, search = new ArrayList<BoundAllocation>());
@@ -109,12 +180,16 @@ public class Memory {
 				for (int i = 0; i < ret.length; i++)
 					ret[i] = 0;
 				ref.changeBoundObject(boundTo);
+				if (!ref.isCounted)
+					count(ref, length);
 				return ret;
 			}
 			if (ref.isInvalid()) {
 				if (toDelete == null)
 					toDelete = new ArrayList<BoundAllocation>();
 				toDelete.add(ref);
+				if (ref.isCounted)
+					uncount(ref, length);
 			}
 		}
 		if (toDelete != null)
@@ -122,13 +197,93 @@ public class Memory {
 		BoundAllocation ret = new BoundAllocation(length, boundTo);
 		search.add(ret);
 		bounded.put(ret.value(), ret);
-		scope().register(ret.value());
+		count(ret, length);
 		return ret.value();
 	}
 
+	private static void count(BoundAllocation ref, int length) {
+		ref.isCounted = true;
+		liveBytes += 8L * length;
+		if (liveBytes > peakBytes)
+			peakBytes = liveBytes;
+	}
+
+	private static void uncount(BoundAllocation ref, int length) {
+		ref.isCounted = false;
+		liveBytes -= 8L * length;
+	}
+
+	/**
+	 * Retrieves the peak number of bytes of pooled arrays that were bound to
+	 * objects at the same time since the last {@link #resetPeakBytes()}. Arrays
+	 * whose objects have been garbage collected without being released are
+	 * accounted for until they are reused, so this is an upper bound.
+	 * 
+	 * @return A <code>long</code> value.
+	 * @see #getUsedBytes()
+	 */
+	public static synchronized long getPeakBytes() {
+		return peakBytes;
+	}
+
+	/**
+	 * Resets the peak of {@link #getPeakBytes()} to the bytes currently bound to
+	 * objects that have not been garbage collected.
+	 * 
+	 * @return The peak before resetting.
+	 */
+	public static synchronized long resetPeakBytes() {
+		long ret = peakBytes;
+		for (ArrayList<BoundAllocation> search : allocated.values())
+			for (BoundAllocation ref : search)
+				if (ref.isCounted && ref.boundObject.get() == null)
+					uncount(ref, ref.length);
+		peakBytes = liveBytes;
+		return ret;
+	}
+
+	/**
+	 * Retrieves the number of bytes held by the memory pool, including both arrays
+	 * that are in use and released arrays that can be reused.
+	 * 
+	 * @return A <code>long</code> value.
+	 * @see #getUsedBytes()
+	 */
+	public static synchronized long getPooledBytes() {
+		long ret = 0;
+		for (ArrayList<BoundAllocation> search : allocated.values())
+			for (BoundAllocation ref : search) {
+				double[] value = ref.value();
+				if (value != null)
+					ret += 8L * value.length;
+			}
+		return ret;
+	}
+
+	/**
+	 * Retrieves the number of bytes of pooled arrays that are bound to objects
+	 * still in use.
+	 * 
+	 * @return A <code>long</code> value.
+	 * @see #getPooledBytes()
+	 */
+	public static synchronized long getUsedBytes() {
+		long ret = 0;
+		for (ArrayList<BoundAllocation> search : allocated.values())
+			for (BoundAllocation ref : search) {
+				double[] value = ref.value();
+				if (value != null && ref.boundObject.get() != null)
+					ret += 8L * value.length;
+			}
+		return ret;
+	}
+
 	public static synchronized void release(double[] value) {
 		BoundAllocation ref = bounded.get(value);
-		if (ref != null)
+		if (ref != null) {
 			ref.changeBoundObject(null);
+			if (ref.isCounted)
+				uncount(ref, value.length);
+		}
 	}
 }
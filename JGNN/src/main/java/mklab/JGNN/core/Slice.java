@@ -1,31 +1,107 @@
 package mklab.JGNN.core;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Random;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.SplittableRandom;
+import java.util.stream.LongStream;
 
 import mklab.JGNN.core.tensor.DenseTensor;
 
 /**
  * This class provices an interface with which to define data slices, for
- * instance to sample labels.
+ * instance to sample labels. Identifiers are stored in a primitive array, and
+ * ranges of slices are views that share this array instead of copying it.
+ * Shuffling a slice whose array is shared with others first gives it its own
+ * copy of its identifiers, so that shuffling never affects previously obtained
+ * ranges or the slices they were obtained from.
  * 
  * @author Emmanouil Krasanakis
  */
 public class Slice implements Iterable<Long> {
-	private List<Long> ids;
+	private long[] ids;
+	private int offset;
+	private int size;
+	private boolean shared;
 
 	/**
 	 * Instantiates a data slice from a collection of element identifiers.
 	 * 
 	 * @param collection An iterable of longs.
+	 * @see #Slice(long[])
+	 * @see #Slice(long, long)
 	 */
 	public Slice(Iterable<Long> collection) {
-		this.ids = new ArrayList<Long>();
-		for (long id : collection)
-			this.ids.add(id);
+		if (collection instanceof Slice) {
+			Slice other = (Slice) collection;
+			ids = Arrays.copyOfRange(other.ids, other.offset, other.offset + other.size);
+		} else {
+			ids = new long[16];
+			int pos = 0;
+			Iterator<Long> iterator = collection.iterator();
+			if (iterator instanceof PrimitiveIterator.OfLong) {
+				PrimitiveIterator.OfLong primitiveIterator = (PrimitiveIterator.OfLong) iterator;
+				while (primitiveIterator.hasNext()) {
+					if (pos == ids.length)
+						ids = Arrays.copyOf(ids, grow(pos));
+					ids[pos++] = primitiveIterator.nextLong();
+				}
+			} else
+				while (iterator.hasNext()) {
+					if (pos == ids.length)
+						ids = Arrays.copyOf(ids, grow(pos));
+					ids[pos++] = iterator.next();
+				}
+			if (pos != ids.length)
+				ids = Arrays.copyOf(ids, pos);
+		}
+		size = ids.length;
+	}
+
+	/**
+	 * Instantiates a data slice that holds the given element identifiers. The
+	 * array is used directly without being copied, so it should not be edited
+	 * afterwards.
+	 * 
+	 * @param ids An array of identifiers.
+	 */
+	public Slice(long[] ids) {
+		this.ids = ids;
+		this.size = ids.length;
+	}
+
+	/**
+	 * Instantiates a data slice holding the identifiers in the range [from, end),
+	 * where the right side is non-inclusive.
+	 * 
+	 * @param from The first identifier.
+	 * @param end  The identifier at which the range stops (it is not included).
+	 */
+	public Slice(long from, long end) {
+		if (end < from)
+			throw new IllegalArgumentException("Invalid identifier range [" + from + "," + end + ")");
+		if (end - from > Integer.MAX_VALUE - 8)
+			throw new IllegalArgumentException("Too many identifiers for a slice: " + (end - from));
+		size = (int) (end - from);
+		ids = new long[size];
+		for (int i = 0; i < size; i++)
+			ids[i] = from + i;
+	}
+
+	private Slice(long[] ids, int offset, int size) {
+		this.ids = ids;
+		this.offset = offset;
+		this.size = size;
+		this.shared = true;
+	}
+
+	private static int grow(int length) {
+		if (length >= Integer.MAX_VALUE - 8)
+			throw new IllegalArgumentException("Too many identifiers for a slice");
+		return (int) Math.min(Integer.MAX_VALUE - 8, length * 2L);
 	}
 
 	/**
@@ -35,8 +111,7 @@ public class Slice implements Iterable<Long> {
 	 * @see #shuffle(int)
 	 */
 	public Slice shuffle() {
-		Collections.shuffle(ids);
-		return this;
+		return shuffle(new SplittableRandom());
 	}
 
 	/**
@@ -48,12 +123,28 @@ public class Slice implements Iterable<Long> {
 	 * @see #shuffle()
 	 */
 	public Slice shuffle(int seed) {
-		Collections.shuffle(ids, new Random(seed));
+		return shuffle(new SplittableRandom(seed));
+	}
+
+	private Slice shuffle(SplittableRandom random) {
+		if (shared) {
+			ids = Arrays.copyOfRange(ids, offset, offset + size);
+			offset = 0;
+			shared = false;
+		}
+		for (int i = size - 1; i > 0; i--) {
+			int j = offset + random.nextInt(i + 1);
+			long swap = ids[offset + i];
+			ids[offset + i] = ids[j];
+			ids[j] = swap;
+		}
 		return this;
 	}
 
 	/**
-	 * Obtains the identifiers in a given range of the (shuffled) slice.
+	 * Obtains the identifiers in a given range of the (shuffled) slice. The
+	 * returned slice is a view of this one's identifiers and no memory is
+	 * allocated for them.
 	 * 
 	 * @param from The beginning of the identifiers' position in the slice.
 	 * @param end  The end (non-inclusive) of the identifiers' position in the
@@ -64,7 +155,29 @@ public class Slice implements Iterable<Long> {
 	 * @see #range(double, double)
 	 */
 	public Slice range(int from, int end) {
-		return new Slice(ids.subList(from, end));
+		if (from < 0 || end > size || from > end)
+			throw new IndexOutOfBoundsException(
+					"Range [" + from + "," + end + ") is out of bounds for a slice of size " + size);
+		shared = true;
+		return new Slice(ids, offset + from, end - from);
+	}
+
+	/**
+	 * Splits the slice into a number of consecutive non-overlapping views of
+	 * roughly equal size that together cover the whole slice, for example to
+	 * distribute its identifiers among threads.
+	 * 
+	 * @param parts The number of parts.
+	 * @return A list of Slice instances.
+	 * @see #range(int, int)
+	 */
+	public List<Slice> split(int parts) {
+		if (parts <= 0)
+			throw new IllegalArgumentException("Can only split slices into a positive number of parts");
+		List<Slice> ret = new ArrayList<Slice>(parts);
+		for (int part = 0; part < parts; part++)
+			ret.add(range((int) ((long) part * size / parts), (int) ((long) (part + 1) * size / parts)));
+		return ret;
 	}
 
 	/**
@@ -110,12 +223,48 @@ public class Slice implements Iterable<Long> {
 	 * @return An integer.
 	 */
 	public int size() {
-		return ids.size();
+		return size;
+	}
+
+	/**
+	 * Retrieves the identifier at a given position of the slice.
+	 * 
+	 * @param pos The position in the range 0,1,..{@link #size()}-1.
+	 * @return The identifier at that position.
+	 */
+	public long get(int pos) {
+		if (pos < 0 || pos >= size)
+			throw new IndexOutOfBoundsException("Position " + pos + " is out of bounds for a slice of size " + size);
+		return ids[offset + pos];
 	}
 
 	@Override
-	public Iterator<Long> iterator() {
-		return ids.iterator();
+	public PrimitiveIterator.OfLong iterator() {
+		return new PrimitiveIterator.OfLong() {
+			private int pos = offset;
+
+			@Override
+			public boolean hasNext() {
+				return pos < offset + size;
+			}
+
+			@Override
+			public long nextLong() {
+				if (pos >= offset + size)
+					throw new NoSuchElementException();
+				return ids[pos++];
+			}
+		};
+	}
+
+	/**
+	 * Creates a stream of the slice's identifiers. The stream can be traversed in
+	 * parallel.
+	 * 
+	 * @return A LongStream.
+	 */
+	public LongStream stream() {
+		return Arrays.stream(ids, offset, offset + size);
 	}
 
 	/**
@@ -124,7 +273,10 @@ public class Slice implements Iterable<Long> {
 	 * @return A {@link DenseTensor}.
 	 */
 	public Tensor asTensor() {
-		return new DenseTensor(iterator());
+		Tensor ret = new DenseTensor(size);
+		for (int i = 0; i < size; i++)
+			ret.put(i, ids[offset + i]);
+		return ret;
 	}
 
 }
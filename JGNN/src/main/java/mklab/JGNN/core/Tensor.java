@@ -344,6 +344,19 @@ public abstract class Tensor implements Iterable<Long> {
 		return this;
 	}
 
+	/**
+	 * Starts a lazily evaluated element-wise expression of this tensor. Operations
+	 * on the expression are only recorded, and are computed together in one pass
+	 * over elements when the expression is evaluated.
+	 * 
+	 * @return An {@link Expression} holding the tensor's elements.
+	 * @see Expression#evaluate()
+	 * @see Expression#assign(Tensor)
+	 */
+	public Expression lazy() {
+		return Expression.of(this);
+	}
+
 	/**
 	 * @param tensor The tensor to add with
 	 * @return a new Tensor that stores the outcome of addition
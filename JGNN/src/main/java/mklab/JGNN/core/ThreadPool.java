@@ -1,10 +1,16 @@
 package mklab.JGNN.core;
 
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
 
 /**
  * This class provides thread execution pool utilities while keeping track of
@@ -15,9 +21,10 @@ import java.util.concurrent.TimeUnit;
  * @author Emmanouil Krasanakis
  */
 public class ThreadPool {
-	private HashMap<Thread, Integer> threadIds = new HashMap<Thread, Integer>();
+	private Map<Thread, Integer> threadIds = new ConcurrentHashMap<Thread, Integer>();
 	private HashSet<Integer> usedIds = new HashSet<Integer>();
 	private ThreadPoolExecutor executor;
+	private ExecutorService kernelExecutor;
 	private int maxThreads;
 
 	private static ThreadPool instance = new ThreadPool(Runtime.getRuntime().availableProcessors());
@@ -77,6 +84,108 @@ public class ThreadPool {
 		executor.submit(thread);
 	}
 
+	/**
+	 * Starts a thread outside the pool that is assigned its own identifier while
+	 * running. Identifiers of such threads are different from those of pooled
+	 * threads and the main thread, so that they can run
+	 * {@link mklab.JGNN.nn.NNOperation} computations concurrently to those. This
+	 * is not affected by {@link #waitForConclusion()}.
+	 * 
+	 * @param runnable A Java {@link Runnable}.
+	 * @return The started {@link Thread}, which can be joined to wait for it.
+	 */
+	public Thread startThread(Runnable runnable) {
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				synchronized (threadIds) {
+					int threadId = maxThreads;
+					while (usedIds.contains(threadId))
+						threadId++;
+					threadIds.put(Thread.currentThread(), threadId);
+					usedIds.add(threadId);
+				}
+				try {
+					runnable.run();
+				} finally {
+					synchronized (threadIds) {
+						usedIds.remove(threadIds.remove(this));
+					}
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
+
+	/**
+	 * Retrieves the maximum number of threads that run concurrently in the pool.
+	 * 
+	 * @return The number of threads.
+	 */
+	public int getMaxThreads() {
+		return maxThreads;
+	}
+
+	/**
+	 * Calls a loop body for all chunk indexes <code>0,1,...,chunks-1</code> and
+	 * returns once all calls conclude. Chunks are split between the calling
+	 * thread and at most {@link #getMaxThreads()}-1 helper threads, which are
+	 * kept separately from those of {@link #submit(Runnable)} and thus are not
+	 * affected by {@link #waitForConclusion()}. Since the calling thread also
+	 * processes chunks, this can be called from within pooled threads or other
+	 * loop bodies without waiting for helpers to become available.
+	 * 
+	 * @param chunks The number of chunks.
+	 * @param body   The loop body, which is called once per chunk index.
+	 */
+	public void parallelFor(int chunks, IntConsumer body) {
+		int helpers = Math.min(chunks, maxThreads) - 1;
+		if (helpers <= 0) {
+			for (int chunk = 0; chunk < chunks; chunk++)
+				body.accept(chunk);
+			return;
+		}
+		AtomicInteger next = new AtomicInteger();
+		Runnable worker = () -> {
+			for (int chunk = next.getAndIncrement(); chunk < chunks; chunk = next.getAndIncrement())
+				body.accept(chunk);
+		};
+		ExecutorService helperExecutor = getKernelExecutor();
+		Future<?>[] futures = new Future<?>[helpers];
+		for (int i = 0; i < helpers; i++)
+			futures[i] = helperExecutor.submit(worker);
+		worker.run();
+		for (Future<?> future : futures) {
+			// helpers that have not started yet would find no remaining chunks
+			if (future.cancel(false))
+				continue;
+			try {
+				future.get();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(ex);
+			} catch (ExecutionException ex) {
+				if (ex.getCause() instanceof RuntimeException)
+					throw (RuntimeException) ex.getCause();
+				if (ex.getCause() instanceof Error)
+					throw (Error) ex.getCause();
+				throw new RuntimeException(ex.getCause());
+			}
+		}
+	}
+
+	private synchronized ExecutorService getKernelExecutor() {
+		if (kernelExecutor == null)
+			kernelExecutor = Executors.newFixedThreadPool(maxThreads - 1, runnable -> {
+				Thread thread = new Thread(runnable);
+				thread.setDaemon(true);
+				return thread;
+			});
+		return kernelExecutor;
+	}
+
 	/**
 	 * Retrieves a unique integer indicating the currently running thread.
 	 * 
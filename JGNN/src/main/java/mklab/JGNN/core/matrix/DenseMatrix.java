@@ -7,6 +7,7 @@ import mklab.JGNN.core.Matrix;
 import mklab.JGNN.core.Tensor;
 import mklab.JGNN.core.tensor.DenseTensor;
 import mklab.JGNN.core.util.Range2D;
+import mklab.JGNN.core.util.Thresholds;
 
 /**
  * Implements a dense {@link Matrix} where all elements are stored in memory.
@@ -30,7 +31,7 @@ public class DenseMatrix extends Matrix {
 
 	@Override
 	public Matrix zeroCopy(long rows, long cols) {
-		if (rows > 100000 / cols && vectorization)
+		if (Thresholds.isVectorized(rows, cols))
 			return new VectorizedMatrix(rows, cols).setDimensionName(getRowName(), getColName());
 		return new DenseMatrix(rows, cols).setDimensionName(getRowName(), getColName());
 	}
@@ -40,6 +41,16 @@ public class DenseMatrix extends Matrix {
 		tensor = new DenseTensor(size);
 	}
 
+	/**
+	 * Retrieves the array that stores the matrix elements in column-major order.
+	 * Changes to the array are reflected on the matrix and conversely.
+	 * 
+	 * @return A <code>double[]</code> array.
+	 */
+	public double[] getValues() {
+		return tensor.values;
+	}
+
 	@Override
 	public Tensor put(long pos, double value) {
 		tensor.put(pos, value);
@@ -0,0 +1,221 @@
+package mklab.JGNN.core.matrix;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map.Entry;
+
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.util.FastEntry;
+
+/**
+ * A {@link Matrix} that allocates memory only for rows that have been written
+ * to, where each stored row is kept densely. This is the structure of gradients
+ * of embedding tables whose rows are gathered by a batch of node identifiers,
+ * in which case only batch rows are non-zero. Element-wise operations only
+ * iterate through stored rows, and optimizers recognize this type to update
+ * only the affected rows of parameters.
+ *
+ * @author Emmanouil Krasanakis
+ * @see mklab.JGNN.nn.operations.Gather
+ */
+public class RowSparseMatrix extends Matrix {
+	private Long2IntOpenHashMap slots;
+	private LongArrayList storedRows;
+	private ArrayList<double[]> rowValues;
+	private CachedRow cached = null;
+
+	private static final class CachedRow {
+		private final long row;
+		private final double[] values;
+
+		private CachedRow(long row, double[] values) {
+			this.row = row;
+			this.values = values;
+		}
+	}
+
+	/**
+	 * Generates a row-sparse matrix with the designated number of rows and
+	 * columns, without storing any rows.
+	 *
+	 * @param rows The number of rows.
+	 * @param cols The number of columns.
+	 */
+	public RowSparseMatrix(long rows, long cols) {
+		super(rows, cols);
+		if (cols > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Too many columns for a row-sparse matrix: " + cols);
+	}
+
+	@Override
+	public Matrix zeroCopy(long rows, long cols) {
+		return new RowSparseMatrix(rows, cols);
+	}
+
+	@Override
+	protected void allocate(long size) {
+		slots = new Long2IntOpenHashMap();
+		slots.defaultReturnValue(-1);
+		storedRows = new LongArrayList();
+		rowValues = new ArrayList<double[]>();
+	}
+
+	private double[] row(long row, boolean create) {
+		// the last accessed row is cached as one immutable snapshot so that
+		// concurrent readers never pair a row identifier with another row's values
+		CachedRow last = cached;
+		if (last != null && last.row == row)
+			return last.values;
+		int slot = slots.get(row);
+		double[] values;
+		if (slot != -1)
+			values = rowValues.get(slot);
+		else if (create) {
+			slots.put(row, storedRows.size());
+			storedRows.add(row);
+			rowValues.add(values = new double[(int) getCols()]);
+		} else
+			return null;
+		cached = new CachedRow(row, values);
+		return values;
+	}
+
+	@Override
+	public Tensor put(long pos, double value) {
+		long rows = getRows();
+		double[] values = row(pos % rows, value != 0);
+		if (values != null)
+			values[(int) (pos / rows)] = value;
+		return this;
+	}
+
+	@Override
+	public double get(long pos) {
+		long rows = getRows();
+		double[] values = row(pos % rows, false);
+		return values == null ? 0 : values[(int) (pos / rows)];
+	}
+
+	/**
+	 * Retrieves the number of rows for which memory has been allocated.
+	 *
+	 * @return A <code>long</code> value.
+	 */
+	public long getNumStoredRows() {
+		return storedRows.size();
+	}
+
+	/**
+	 * Retrieves the identifiers of stored rows in the order they were first
+	 * written to. All other rows are zero.
+	 *
+	 * @return A <code>long[]</code> array.
+	 */
+	public long[] getStoredRows() {
+		return storedRows.toLongArray();
+	}
+
+	/**
+	 * Retrieves the values of a stored row. Editing the returned array edits the
+	 * matrix.
+	 *
+	 * @param row The row identifier.
+	 * @return A <code>double[]</code> array with one value per column, or
+	 *         <code>null</code> if the row is not stored.
+	 */
+	public double[] getStoredRow(long row) {
+		return row(row, false);
+	}
+
+	/**
+	 * Adds to each stored row the corresponding row of another matrix multiplied
+	 * by a weight. Rows that are not stored are not affected. This can be used to
+	 * apply regularization only on rows with non-zero gradients.
+	 *
+	 * @param matrix The matrix whose rows to add (it's not affected).
+	 * @param weight The weight to multiply added values with.
+	 * @return <code>this</code> matrix.
+	 */
+	public RowSparseMatrix selfAddStoredRows(Matrix matrix, double weight) {
+		assertMatching(matrix);
+		int cols = (int) getCols();
+		for (int slot = 0; slot < storedRows.size(); slot++) {
+			long row = storedRows.getLong(slot);
+			double[] values = rowValues.get(slot);
+			for (int col = 0; col < cols; col++)
+				values[col] += weight * matrix.get(row, col);
+		}
+		return this;
+	}
+
+	@Override
+	public long estimateNumNonZeroElements() {
+		return storedRows.size() * getCols();
+	}
+
+	@Override
+	public String describe() {
+		return super.describe() + " " + storedRows.size() + "/" + getRows() + " rows";
+	}
+
+	@Override
+	public Iterator<Long> traverseNonZeroElements() {
+		return new Iterator<Long>() {
+			private int slot = 0;
+			private long col = 0;
+
+			@Override
+			public boolean hasNext() {
+				return slot < storedRows.size() && col < getCols();
+			}
+
+			@Override
+			public Long next() {
+				long pos = storedRows.getLong(slot) + col * getRows();
+				col += 1;
+				if (col >= getCols()) {
+					col = 0;
+					slot += 1;
+				}
+				return pos;
+			}
+		};
+	}
+
+	@Override
+	public Iterable<Entry<Long, Long>> getNonZeroEntries() {
+		return () -> new Iterator<Entry<Long, Long>>() {
+			private final FastEntry<Long, Long> ret = new FastEntry<Long, Long>();
+			private int slot = 0;
+			private long col = 0;
+
+			@Override
+			public boolean hasNext() {
+				return slot < storedRows.size() && col < getCols();
+			}
+
+			@Override
+			public Entry<Long, Long> next() {
+				ret.setKey(storedRows.getLong(slot));
+				ret.setValue(col);
+				col += 1;
+				if (col >= getCols()) {
+					col = 0;
+					slot += 1;
+				}
+				return ret;
+			}
+		};
+	}
+
+	@Override
+	public void release() {
+	}
+
+	@Override
+	public void persist() {
+	}
+}
@@ -7,6 +7,7 @@ import mklab.JGNN.core.Matrix;
 import mklab.JGNN.core.Tensor;
 import mklab.JGNN.core.tensor.VectorizedTensor;
 import mklab.JGNN.core.util.Range2D;
+import mklab.JGNN.core.util.Thresholds;
 
 /**
  * Implements a dense {@link Matrix} where all elements are stored in memory.
@@ -30,7 +31,7 @@ public class VectorizedMatrix extends Matrix {
 
 	@Override
 	public Matrix zeroCopy(long rows, long cols) {
-		if (rows <= 100000 / cols)
+		if (!Thresholds.isVectorized(rows, cols))
 			return new DenseMatrix(rows, cols).setDimensionName(getRowName(), getColName());
 		return new VectorizedMatrix(rows, cols).setDimensionName(getRowName(), getColName());
 	}
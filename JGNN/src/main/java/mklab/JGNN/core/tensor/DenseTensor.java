@@ -3,8 +3,10 @@ package mklab.JGNN.core.tensor;
 import java.util.ArrayList;
 import java.util.Iterator;
 
+import mklab.JGNN.core.Memory;
 import mklab.JGNN.core.Tensor;
 import mklab.JGNN.core.util.Range;
+import mklab.JGNN.core.util.Thresholds;
 
 /**
  * This class provides a dense {@link Tensor} that wraps an array of doubles.
@@ -108,12 +110,12 @@ public class DenseTensor extends Tensor {
 
 	@Override
 	protected void allocate(long size) {
-		values = new double[(int) size];
+		values = Memory.isPooling() ? Memory.reuse((int) size, this) : new double[(int) size];
 	}
 
 	@Override
 	public Tensor zeroCopy(long size) {
-		if (size >= 100000 && vectorization)
+		if (Thresholds.isVectorized(size))
 			return new VectorizedTensor(size);
 		return new DenseTensor(size);
 	}
@@ -125,6 +127,8 @@ public class DenseTensor extends Tensor {
 
 	@Override
 	public void release() {
+		if (values != null)
+			Memory.release(values);
 		values = null;
 	}
 
@@ -5,8 +5,10 @@ import java.util.Iterator;
 
 import jdk.incubator.vector.DoubleVector;
 import jdk.incubator.vector.VectorSpecies;
+import mklab.JGNN.core.Memory;
 import mklab.JGNN.core.Tensor;
 import mklab.JGNN.core.util.Range;
+import mklab.JGNN.core.util.Thresholds;
 
 /**
  * This class provides a dense {@link Tensor} that wraps an array of doubles.
@@ -100,12 +102,12 @@ public class VectorizedTensor extends Tensor {
 
     @Override
     protected void allocate(long size) {
-        values = new double[(int) size];
+        values = Memory.isPooling() ? Memory.reuse((int) size, this) : new double[(int) size];
     }
 
     @Override
     public Tensor zeroCopy(long size) {
-    	if(size<100000)
+    	if(!Thresholds.isVectorized(size))
     		return new DenseTensor(size);
         return new VectorizedTensor(size);
     }
@@ -117,6 +119,8 @@ public class VectorizedTensor extends Tensor {
 
     @Override
     public void release() {
+        if (values != null)
+            Memory.release(values);
         values = null;
     }
 
@@ -128,7 +132,7 @@ public class VectorizedTensor extends Tensor {
     public Tensor add(Tensor tensor) {
         if (tensor instanceof VectorizedTensor) {
             VectorizedTensor other = (VectorizedTensor) tensor;
-            VectorizedTensor res = (VectorizedTensor) zeroCopy();
+            VectorizedTensor res = new VectorizedTensor(size());
 
             int i = 0;
             int bound = SPECIES.loopBound((int) size());
@@ -168,7 +172,7 @@ public class VectorizedTensor extends Tensor {
     public Tensor subtract(Tensor tensor) {
         if (tensor instanceof VectorizedTensor) {
             VectorizedTensor other = (VectorizedTensor) tensor;
-            VectorizedTensor res = (VectorizedTensor) zeroCopy();
+            VectorizedTensor res = new VectorizedTensor(size());
 
             int i = 0;
             int bound = SPECIES.loopBound((int) size());
@@ -207,7 +211,7 @@ public class VectorizedTensor extends Tensor {
     public Tensor multiply(Tensor tensor) {
         if (tensor instanceof VectorizedTensor) {
             VectorizedTensor other = (VectorizedTensor) tensor;
-            VectorizedTensor res = (VectorizedTensor) zeroCopy();
+            VectorizedTensor res = new VectorizedTensor(size());
 
             int i = 0;
             int bound = SPECIES.loopBound((int) size());
@@ -244,7 +248,7 @@ public class VectorizedTensor extends Tensor {
 
     @Override
     public Tensor multiply(double value) {
-        VectorizedTensor res = (VectorizedTensor) zeroCopy();
+        VectorizedTensor res = new VectorizedTensor(size());
 
         int i = 0;
         int bound = SPECIES.loopBound((int) size());
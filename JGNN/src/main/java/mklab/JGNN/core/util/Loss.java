@@ -4,7 +4,9 @@ import mklab.JGNN.core.Tensor;
 
 /**
  * Provides computation and (partial) derivation of popular activation functions
- * and cross-entropy loss functions.
+ * and cross-entropy loss functions. Element-by-element functions of dense
+ * tensors are computed in one vectorized pass with
+ * {@link mklab.JGNN.core.Expression}.
  * 
  * @author Emmanouil Krasanakis
  */
@@ -153,11 +155,15 @@ public interface Loss {
 	
 
 	/**
-	 * Applies {@link #sigmoid(double)} element-by-element.
+	 * Applies {@link #sigmoid(double)} element-by-element. Dense tensors are
+	 * processed with vectorized exponentials, so that results may differ from
+	 * the scalar function in the last bits.
 	 * @param x  The activation tensor of the sigmoid function.
 	 * @return The tensor of sigmoid values.
 	 */
 	public static Tensor sigmoid(Tensor x) {
+		if(Reductions.getDenseValues(x)!=null)
+			return x.lazy().sigmoid().evaluate();
 		Tensor ret = x.zeroCopy();
 		for(long i : x.getNonZeroElements())
 			ret.put(i, sigmoid(x.get(i)));
@@ -165,11 +171,15 @@ public interface Loss {
 	}
 
 	/**
-	 * Applies {@link #tanh(double)} element-by-element.
+	 * Applies {@link #tanh(double)} element-by-element. Dense tensors are
+	 * processed with vectorized hyperbolic tangents, so that results may differ from
+	 * the scalar function in the last bits.
 	 * @param x  The activation tensor of the tanh function.
 	 * @return The tensor of tanh values.
 	 */
 	public static Tensor tanh(Tensor x) {
+		if(Reductions.getDenseValues(x)!=null)
+			return x.lazy().tanh().evaluate();
 		Tensor ret = x.zeroCopy();
 		for(long i : x.getNonZeroElements())
 			ret.put(i, tanh(x.get(i)));
@@ -182,6 +192,8 @@ public interface Loss {
 	 * @return The tensor of relu values.
 	 */
 	public static Tensor relu(Tensor x) {
+		if(Reductions.getDenseValues(x)!=null)
+			return x.lazy().max(0).evaluate();
 		Tensor ret = x.zeroCopy();
 		for(long i : x.getNonZeroElements())
 			ret.put(i, relu(x.get(i)));
@@ -189,11 +201,15 @@ public interface Loss {
 	}
 	
 	/**
-	 * Applies {@link #sigmoidDerivative(double)} function.
+	 * Applies {@link #sigmoidDerivative(double)} function. Dense tensors are
+	 * processed with vectorized exponentials, so that results may differ from
+	 * the scalar function in the last bits.
 	 * @param x The activation tensor of the sigmoid function.
 	 * @return The tensor of sigmoid derivative values.
 	 */
 	public static Tensor sigmoidDerivative(Tensor x) {
+		if(Reductions.getDenseValues(x)!=null)
+			return x.lazy().sigmoid().multiply(x.lazy().sigmoid().negative().add(1)).evaluate();
 		Tensor ret = x.zeroCopy();
 		for(long i : x.getNonZeroElements())
 			ret.put(i, sigmoidDerivative(x.get(i)));
@@ -201,11 +217,15 @@ public interface Loss {
 	}
 
 	/**
-	 * Applies {@link #tanhDerivative(double)} function.
+	 * Applies {@link #tanhDerivative(double)} function. Dense tensors are
+	 * processed with vectorized hyperbolic tangents, so that results may differ from
+	 * the scalar function in the last bits.
 	 * @param x The activation tensor of the tanh function.
 	 * @return The tensor of tanh derivative values.
 	 */
 	public static Tensor tanhDerivative(Tensor x) {
+		if(Reductions.getDenseValues(x)!=null)
+			return x.lazy().tanh().multiply(x.lazy().tanh()).negative().add(1).evaluate();
 		Tensor ret = x.zeroCopy();
 		for(long i : x.getNonZeroElements())
 			ret.put(i, tanhDerivative(x.get(i)));
@@ -0,0 +1,475 @@
+package mklab.JGNN.core.util;
+
+import java.util.Arrays;
+import java.util.Map.Entry;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.ThreadPool;
+import mklab.JGNN.core.matrix.DenseMatrix;
+import mklab.JGNN.core.matrix.VectorizedMatrix;
+import mklab.JGNN.core.tensor.DenseTensor;
+import mklab.JGNN.core.tensor.VectorizedTensor;
+
+/**
+ * Provides row-wise and column-wise reductions and normalizations of matrices.
+ * Matrices that store all their elements in a column-major array, that is
+ * {@link DenseMatrix} and {@link VectorizedMatrix}, are processed with
+ * primitive array kernels that use SIMD instructions through
+ * {@link DoubleVector} and split their rows or columns across the threads of
+ * {@link ThreadPool#parallelFor} when they comprise at least
+ * {@link #parallelThreshold} elements. Other matrices are processed by only
+ * visiting their non-zero entries.
+ *
+ * @author Emmanouil Krasanakis
+ */
+public class Reductions {
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+	/**
+	 * The minimum number of dense matrix elements for which kernels run in
+	 * parallel. Set this to {@link Long#MAX_VALUE} to always run on the calling
+	 * thread.
+	 */
+	public static long parallelThreshold = 1 << 16;
+
+	private interface RangeKernel {
+		void run(int from, int to);
+	}
+
+	/**
+	 * Retrieves the array that holds all the elements of a dense tensor. For
+	 * matrices, this array is column-major, that is the element at position
+	 * <code>(row, col)</code> is found at index <code>row+col*rows</code>.
+	 *
+	 * @param tensor The tensor whose array to retrieve.
+	 * @return A <code>double[]</code> array, or <code>null</code> if the tensor is
+	 *         not stored in a dense array.
+	 */
+	public static double[] getDenseValues(Tensor tensor) {
+		if (tensor == null)
+			return null;
+		if (tensor.getClass() == DenseMatrix.class)
+			return ((DenseMatrix) tensor).getValues();
+		if (tensor.getClass() == VectorizedMatrix.class)
+			return ((VectorizedMatrix) tensor).tensor.values;
+		if (tensor.getClass() == DenseTensor.class)
+			return ((DenseTensor) tensor).values;
+		if (tensor.getClass() == VectorizedTensor.class)
+			return ((VectorizedTensor) tensor).values;
+		return null;
+	}
+
+	private static void forRanges(int n, long work, RangeKernel kernel) {
+		forRanges(n, work, parallelThreshold, kernel);
+	}
+
+	private static void forRanges(int n, long work, long threshold, RangeKernel kernel) {
+		int threads = ThreadPool.getInstance().getMaxThreads();
+		if (work < threshold || threads <= 1 || n < 2) {
+			kernel.run(0, n);
+			return;
+		}
+		int chunks = Math.min(n, threads * 4);
+		int chunk = (n + chunks - 1) / chunks;
+		// row chunks are aligned to vector lanes so that only the last one has a tail
+		if (chunk > SPECIES.length())
+			chunk = (chunk + SPECIES.length() - 1) / SPECIES.length() * SPECIES.length();
+		int step = chunk;
+		ThreadPool.getInstance().parallelFor((n + step - 1) / step,
+				i -> kernel.run(i * step, Math.min(n, (i + 1) * step)));
+	}
+
+	/**
+	 * Computes the sums of matrix rows or columns.
+	 *
+	 * @param matrix The matrix to reduce.
+	 * @param byRow  Whether to sum each row (otherwise, each column is summed).
+	 * @return A <code>double[]</code> array with one sum per row or column.
+	 */
+	public static double[] sum(Matrix matrix, boolean byRow) {
+		return sum(matrix, byRow, parallelThreshold);
+	}
+
+	/**
+	 * Computes the sums of matrix rows or columns while running in parallel from
+	 * a given number of elements instead of {@link #parallelThreshold}.
+	 */
+	static double[] sum(Matrix matrix, boolean byRow, long threshold) {
+		int rows = (int) matrix.getRows();
+		int cols = (int) matrix.getCols();
+		double[] ret = new double[byRow ? rows : cols];
+		double[] values = getDenseValues(matrix);
+		if (values == null) {
+			for (Entry<Long, Long> entry : matrix.getNonZeroEntries()) {
+				long row = entry.getKey();
+				long col = entry.getValue();
+				ret[(int) (byRow ? row : col)] += matrix.get(row, col);
+			}
+		} else if (byRow)
+			forRanges(rows, values.length, threshold, (from, to) -> {
+				int bound = from + SPECIES.loopBound(to - from);
+				for (int col = 0; col < cols; col++) {
+					int offset = col * rows;
+					int row = from;
+					for (; row < bound; row += SPECIES.length())
+						DoubleVector.fromArray(SPECIES, ret, row)
+								.add(DoubleVector.fromArray(SPECIES, values, offset + row)).intoArray(ret, row);
+					for (; row < to; row++)
+						ret[row] += values[offset + row];
+				}
+			});
+		else
+			forRanges(cols, values.length, threshold, (from, to) -> {
+				for (int col = from; col < to; col++)
+					ret[col] = sum(values, col * rows, rows);
+			});
+		return ret;
+	}
+
+	/**
+	 * Computes the maximum of each matrix row or column. Elements that are not
+	 * visited as non-zero entries of sparse matrices are not considered.
+	 *
+	 * @param matrix  The matrix to reduce.
+	 * @param byRow   Whether to find the maximum of each row (otherwise, the
+	 *                maximum of each column is found).
+	 * @param initial The value to start from, for example
+	 *                <code>Double.NEGATIVE_INFINITY</code>.
+	 * @return A <code>double[]</code> array with one maximum per row or column.
+	 */
+	public static double[] max(Matrix matrix, boolean byRow, double initial) {
+		int rows = (int) matrix.getRows();
+		int cols = (int) matrix.getCols();
+		double[] ret = new double[byRow ? rows : cols];
+		Arrays.fill(ret, initial);
+		double[] values = getDenseValues(matrix);
+		if (values == null) {
+			for (Entry<Long, Long> entry : matrix.getNonZeroEntries()) {
+				long row = entry.getKey();
+				long col = entry.getValue();
+				int pos = (int) (byRow ? row : col);
+				ret[pos] = Math.max(ret[pos], matrix.get(row, col));
+			}
+		} else if (byRow)
+			forRanges(rows, values.length, (from, to) -> rowMax(values, rows, cols, ret, from, to));
+		else
+			forRanges(cols, values.length, (from, to) -> {
+				for (int col = from; col < to; col++)
+					ret[col] = max(values, col * rows, rows, initial);
+			});
+		return ret;
+	}
+
+	/**
+	 * Normalizes the rows or columns of a dense matrix with softmax, that is by
+	 * exponentiating elements after subtracting their row or column maximum and
+	 * then dividing them with the sum of exponentials. Sums of zero leave
+	 * exponentials unnormalized.
+	 *
+	 * @param matrix The matrix to normalize (it's not affected).
+	 * @param byRow  Whether to normalize each row (otherwise, each column is
+	 *               normalized).
+	 * @return A new dense {@link Matrix}, or <code>null</code> if the matrix is not
+	 *         dense.
+	 * @see #getDenseValues(Tensor)
+	 */
+	public static Matrix softmax(Matrix matrix, boolean byRow) {
+		double[] values = getDenseValues(matrix);
+		if (values == null)
+			return null;
+		Matrix ret = matrix.zeroCopy().cast(Matrix.class);
+		double[] out = getDenseValues(ret);
+		if (out == null)
+			return null;
+		int rows = (int) matrix.getRows();
+		int cols = (int) matrix.getCols();
+		if (byRow) {
+			// chunks of rows only access their own range of these arrays
+			double[] maxs = new double[rows];
+			double[] sums = new double[rows];
+			Arrays.fill(maxs, Double.NEGATIVE_INFINITY);
+			forRanges(rows, values.length, (from, to) -> {
+				rowMax(values, rows, cols, maxs, from, to);
+				int bound = from + SPECIES.loopBound(to - from);
+				for (int col = 0; col < cols; col++) {
+					int offset = col * rows;
+					int row = from;
+					for (; row < bound; row += SPECIES.length()) {
+						DoubleVector element = DoubleVector.fromArray(SPECIES, values, offset + row)
+								.sub(DoubleVector.fromArray(SPECIES, maxs, row)).lanewise(VectorOperators.EXP);
+						element.intoArray(out, offset + row);
+						DoubleVector.fromArray(SPECIES, sums, row).add(element).intoArray(sums, row);
+					}
+					for (; row < to; row++) {
+						double element = Math.exp(values[offset + row] - maxs[row]);
+						out[offset + row] = element;
+						sums[row] += element;
+					}
+				}
+				for (int row = from; row < to; row++)
+					if (sums[row] == 0)
+						sums[row] = 1;
+				for (int col = 0; col < cols; col++) {
+					int offset = col * rows;
+					int row = from;
+					for (; row < bound; row += SPECIES.length())
+						DoubleVector.fromArray(SPECIES, out, offset + row)
+								.div(DoubleVector.fromArray(SPECIES, sums, row)).intoArray(out, offset + row);
+					for (; row < to; row++)
+						out[offset + row] /= sums[row];
+				}
+			});
+		} else
+			forRanges(cols, values.length, (from, to) -> {
+				for (int col = from; col < to; col++) {
+					int offset = col * rows;
+					double max = max(values, offset, rows, Double.NEGATIVE_INFINITY);
+					DoubleVector maxVector = DoubleVector.broadcast(SPECIES, max);
+					int bound = offset + SPECIES.loopBound(rows);
+					int end = offset + rows;
+					double sum = 0;
+					int pos = offset;
+					for (; pos < bound; pos += SPECIES.length()) {
+						DoubleVector element = DoubleVector.fromArray(SPECIES, values, pos).sub(maxVector)
+								.lanewise(VectorOperators.EXP);
+						element.intoArray(out, pos);
+						sum += element.reduceLanes(VectorOperators.ADD);
+					}
+					for (; pos < end; pos++) {
+						double element = Math.exp(values[pos] - max);
+						out[pos] = element;
+						sum += element;
+					}
+					if (sum != 0)
+						scale(out, offset, rows, 1. / sum);
+				}
+			});
+		return ret;
+	}
+
+	/**
+	 * Computes the gradient of a softmax normalization of dense matrix rows or
+	 * columns given its output and the derivative of the loss with respect to
+	 * that output. Each gradient element is
+	 * <code>output*(error-dot)</code>, where <code>dot</code> is the inner
+	 * product between the output and error elements of the same row or column.
+	 *
+	 * @param output The outcome of {@link #softmax(Matrix, boolean)}.
+	 * @param error  The derivative of the loss with respect to the output.
+	 * @param byRow  Whether rows were normalized (otherwise, columns were).
+	 * @return A new dense {@link Matrix}, or <code>null</code> if the output or
+	 *         error are not dense.
+	 */
+	public static Matrix softmaxGradient(Matrix output, Matrix error, boolean byRow) {
+		double[] values = getDenseValues(output);
+		double[] errors = getDenseValues(error);
+		if (values == null || errors == null)
+			return null;
+		output.assertMatching(error);
+		Matrix ret = output.zeroCopy().cast(Matrix.class);
+		double[] out = getDenseValues(ret);
+		if (out == null)
+			return null;
+		int rows = (int) output.getRows();
+		int cols = (int) output.getCols();
+		if (byRow) {
+			double[] dots = new double[rows];
+			forRanges(rows, values.length, (from, to) -> {
+				int bound = from + SPECIES.loopBound(to - from);
+				for (int col = 0; col < cols; col++) {
+					int offset = col * rows;
+					int row = from;
+					for (; row < bound; row += SPECIES.length())
+						DoubleVector.fromArray(SPECIES, values, offset + row)
+								.fma(DoubleVector.fromArray(SPECIES, errors, offset + row),
+										DoubleVector.fromArray(SPECIES, dots, row))
+								.intoArray(dots, row);
+					for (; row < to; row++)
+						dots[row] += values[offset + row] * errors[offset + row];
+				}
+				for (int col = 0; col < cols; col++) {
+					int offset = col * rows;
+					int row = from;
+					for (; row < bound; row += SPECIES.length())
+						DoubleVector.fromArray(SPECIES, errors, offset + row)
+								.sub(DoubleVector.fromArray(SPECIES, dots, row))
+								.mul(DoubleVector.fromArray(SPECIES, values, offset + row))
+								.intoArray(out, offset + row);
+					for (; row < to; row++)
+						out[offset + row] = values[offset + row] * (errors[offset + row] - dots[row]);
+				}
+			});
+		} else
+			forRanges(cols, values.length, (from, to) -> {
+				for (int col = from; col < to; col++) {
+					int offset = col * rows;
+					int bound = offset + SPECIES.loopBound(rows);
+					int end = offset + rows;
+					DoubleVector dotVector = DoubleVector.zero(SPECIES);
+					int pos = offset;
+					for (; pos < bound; pos += SPECIES.length())
+						dotVector = DoubleVector.fromArray(SPECIES, values, pos)
+								.fma(DoubleVector.fromArray(SPECIES, errors, pos), dotVector);
+					double dot = dotVector.reduceLanes(VectorOperators.ADD);
+					for (; pos < end; pos++)
+						dot += values[pos] * errors[pos];
+					DoubleVector dotBroadcast = DoubleVector.broadcast(SPECIES, dot);
+					for (pos = offset; pos < bound; pos += SPECIES.length())
+						DoubleVector.fromArray(SPECIES, errors, pos).sub(dotBroadcast)
+								.mul(DoubleVector.fromArray(SPECIES, values, pos)).intoArray(out, pos);
+					for (; pos < end; pos++)
+						out[pos] = values[pos] * (errors[pos] - dot);
+				}
+			});
+		return ret;
+	}
+
+	/**
+	 * Divides the absolute value of each matrix element by the sum of its row or
+	 * column. For column sums, columns that sum to zero retain their original
+	 * values.
+	 *
+	 * @param matrix The matrix to normalize (it's not affected).
+	 * @param byRow  Whether to normalize each row (otherwise, each column is
+	 *               normalized).
+	 * @return A new {@link Matrix} of the same type as the original.
+	 */
+	public static Matrix l1(Matrix matrix, boolean byRow) {
+		double[] sums = sum(matrix, byRow);
+		Matrix ret = matrix.copy().cast(Matrix.class);
+		double[] out = getDenseValues(ret);
+		if (out == null) {
+			for (Entry<Long, Long> entry : ret.getNonZeroEntries()) {
+				long row = entry.getKey();
+				long col = entry.getValue();
+				double div = sums[(int) (byRow ? row : col)];
+				if (byRow || div != 0)
+					ret.put(row, col, Math.abs(ret.get(row, col)) / div);
+			}
+			return ret;
+		}
+		int rows = (int) matrix.getRows();
+		int cols = (int) matrix.getCols();
+		if (byRow)
+			forRanges(rows, out.length, (from, to) -> {
+				int bound = from + SPECIES.loopBound(to - from);
+				for (int col = 0; col < cols; col++) {
+					int offset = col * rows;
+					int row = from;
+					for (; row < bound; row += SPECIES.length())
+						DoubleVector.fromArray(SPECIES, out, offset + row).abs()
+								.div(DoubleVector.fromArray(SPECIES, sums, row)).intoArray(out, offset + row);
+					for (; row < to; row++)
+						out[offset + row] = Math.abs(out[offset + row]) / sums[row];
+				}
+			});
+		else
+			forRanges(cols, out.length, (from, to) -> {
+				for (int col = from; col < to; col++) {
+					if (sums[col] == 0)
+						continue;
+					int offset = col * rows;
+					DoubleVector div = DoubleVector.broadcast(SPECIES, sums[col]);
+					int bound = offset + SPECIES.loopBound(rows);
+					int end = offset + rows;
+					int pos = offset;
+					for (; pos < bound; pos += SPECIES.length())
+						DoubleVector.fromArray(SPECIES, out, pos).abs().div(div).intoArray(out, pos);
+					for (; pos < end; pos++)
+						out[pos] = Math.abs(out[pos]) / sums[col];
+				}
+			});
+		return ret;
+	}
+
+	/**
+	 * Creates a matrix of the same type and dimensions as a prototype, where each
+	 * element is equal to the entry of a vector that corresponds to its row or
+	 * column multiplied by a weight. For matrices that are not dense, only the
+	 * prototype's non-zero entries are filled.
+	 *
+	 * @param prototype The matrix whose type, dimensions and non-zero entries to
+	 *                  use.
+	 * @param vector    The tensor to broadcast, with one value per row or column.
+	 * @param byRow     Whether vector entries correspond to rows (otherwise, they
+	 *                  correspond to columns).
+	 * @param weight    The weight to multiply vector entries with.
+	 * @return A new {@link Matrix}.
+	 */
+	public static Matrix broadcast(Matrix prototype, Tensor vector, boolean byRow, double weight) {
+		Matrix ret = prototype.zeroCopy().cast(Matrix.class);
+		double[] out = getDenseValues(ret);
+		if (out == null || getDenseValues(prototype) == null) {
+			for (Entry<Long, Long> entry : prototype.getNonZeroEntries()) {
+				long row = entry.getKey();
+				long col = entry.getValue();
+				ret.put(row, col, vector.get(byRow ? row : col) * weight);
+			}
+			return ret;
+		}
+		int rows = (int) prototype.getRows();
+		int cols = (int) prototype.getCols();
+		if (byRow) {
+			double[] column = new double[rows];
+			for (int row = 0; row < rows; row++)
+				column[row] = vector.get(row) * weight;
+			for (int col = 0; col < cols; col++)
+				System.arraycopy(column, 0, out, col * rows, rows);
+		} else
+			for (int col = 0; col < cols; col++)
+				Arrays.fill(out, col * rows, (col + 1) * rows, vector.get(col) * weight);
+		return ret;
+	}
+
+	private static void rowMax(double[] values, int rows, int cols, double[] ret, int from, int to) {
+		int bound = from + SPECIES.loopBound(to - from);
+		for (int col = 0; col < cols; col++) {
+			int offset = col * rows;
+			int row = from;
+			for (; row < bound; row += SPECIES.length())
+				DoubleVector.fromArray(SPECIES, ret, row).max(DoubleVector.fromArray(SPECIES, values, offset + row))
+						.intoArray(ret, row);
+			for (; row < to; row++)
+				ret[row] = Math.max(ret[row], values[offset + row]);
+		}
+	}
+
+	private static double sum(double[] values, int offset, int length) {
+		int bound = offset + SPECIES.loopBound(length);
+		int end = offset + length;
+		DoubleVector sum = DoubleVector.zero(SPECIES);
+		int pos = offset;
+		for (; pos < bound; pos += SPECIES.length())
+			sum = sum.add(DoubleVector.fromArray(SPECIES, values, pos));
+		double ret = sum.reduceLanes(VectorOperators.ADD);
+		for (; pos < end; pos++)
+			ret += values[pos];
+		return ret;
+	}
+
+	private static double max(double[] values, int offset, int length, double initial) {
+		int bound = offset + SPECIES.loopBound(length);
+		int end = offset + length;
+		DoubleVector max = DoubleVector.broadcast(SPECIES, initial);
+		int pos = offset;
+		for (; pos < bound; pos += SPECIES.length())
+			max = max.max(DoubleVector.fromArray(SPECIES, values, pos));
+		double ret = max.reduceLanes(VectorOperators.MAX);
+		for (; pos < end; pos++)
+			ret = Math.max(ret, values[pos]);
+		return ret;
+	}
+
+	private static void scale(double[] values, int offset, int length, double weight) {
+		int bound = offset + SPECIES.loopBound(length);
+		int end = offset + length;
+		int pos = offset;
+		for (; pos < bound; pos += SPECIES.length())
+			DoubleVector.fromArray(SPECIES, values, pos).mul(weight).intoArray(values, pos);
+		for (; pos < end; pos++)
+			values[pos] *= weight;
+	}
+}
@@ -2,7 +2,88 @@ package mklab.JGNN.core.util;
 
 import java.util.ArrayList;
 
+import mklab.JGNN.core.Matrix;
+
 public class Sort { 
+	/**
+	 * Selects the rows of a matrix segment with the largest values in the last
+	 * column, breaking ties by comparing previous columns (from the second-to-last
+	 * one towards the first) and then by row order. Selection maintains a heap of
+	 * the best rows found so far, so it runs in <i>O(n log k)</i> time for
+	 * <i>n</i> segment rows, and only reads columns other than the last on ties.
+	 * Segments can be used to pool each graph of a batch independently.
+	 * 
+	 * @param values The matrix whose rows to compare.
+	 * @param from   The first row of the segment.
+	 * @param to     The row after the segment's end (non-inclusive).
+	 * @param k      The number of rows to select.
+	 * @return An <code>long[]</code> array of the top-<code>k</code> row
+	 *         identifiers in descending order, or of all segment rows if fewer.
+	 */
+	public static long[] topK(Matrix values, long from, long to, int k) {
+		int n = (int) (to - from);
+		if (n < 0 || k < 0)
+			throw new IllegalArgumentException("Invalid top-k selection of " + k + " rows in [" + from + "," + to + ")");
+		long lastCol = values.getCols() - 1;
+		double[] keys = new double[n];
+		for (int i = 0; i < n; i++)
+			keys[i] = values.get(from + i, lastCol);
+		int size = Math.min(k, n);
+		int[] heap = new int[size];
+		int heapSize = 0;
+		for (int i = 0; i < n; i++) {
+			if (heapSize < size) {
+				// sift up so that the worst selected row remains at the root
+				int pos = heapSize++;
+				while (pos > 0) {
+					int parent = (pos - 1) / 2;
+					if (!isBefore(values, keys, from, heap[parent], i))
+						break;
+					heap[pos] = heap[parent];
+					pos = parent;
+				}
+				heap[pos] = i;
+			} else if (size > 0 && isBefore(values, keys, from, i, heap[0]))
+				siftDown(values, keys, from, heap, i, heapSize);
+		}
+		long[] ret = new long[size];
+		for (int pos = size - 1; pos >= 0; pos--) {
+			ret[pos] = from + heap[0];
+			heapSize -= 1;
+			if (heapSize > 0)
+				siftDown(values, keys, from, heap, heap[heapSize], heapSize);
+		}
+		return ret;
+	}
+
+	private static void siftDown(Matrix values, double[] keys, long from, int[] heap, int row, int heapSize) {
+		int pos = 0;
+		while (true) {
+			int child = 2 * pos + 1;
+			if (child >= heapSize)
+				break;
+			if (child + 1 < heapSize && isBefore(values, keys, from, heap[child], heap[child + 1]))
+				child += 1;
+			if (!isBefore(values, keys, from, row, heap[child]))
+				break;
+			heap[pos] = heap[child];
+			pos = child;
+		}
+		heap[pos] = row;
+	}
+
+	private static boolean isBefore(Matrix values, double[] keys, long from, int row1, int row2) {
+		if (keys[row1] != keys[row2])
+			return keys[row1] > keys[row2];
+		for (long col = values.getCols() - 2; col >= 0; col--) {
+			double value1 = values.get(from + row1, col);
+			double value2 = values.get(from + row2, col);
+			if (value1 != value2)
+				return value1 > value2;
+		}
+		return row1 < row2;
+	}
+
 	public static int[] sortedIndexes(double A[]) {
 		int[] indexes = new int[A.length];
 		for(int i=0;i<A.length;i++)
@@ -0,0 +1,201 @@
+package mklab.JGNN.core.util;
+
+import java.util.Arrays;
+import java.util.Map.Entry;
+
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.ThreadPool;
+import mklab.JGNN.core.matrix.SparseMatrix;
+
+/**
+ * Provides Gustavson's row-wise multiplication of sparse matrices. Both
+ * operands are first organized into compressed rows. Then, each row of the
+ * product is computed by scattering the right operand's rows that correspond
+ * to the non-zero elements of the left operand's row into a sparse
+ * accumulator. Rows are split across the threads of
+ * {@link ThreadPool#parallelFor} in chunks of roughly equal estimated work
+ * when the total number of multiplications is at least
+ * {@link Reductions#parallelThreshold}, where each chunk has its own
+ * accumulator. This takes time proportional to the number of multiplications
+ * instead of to the number of non-zero left elements times the number of
+ * right columns, which makes it suitable for computing multi-hop adjacency
+ * matrices of large graphs. Products can optionally be pruned by keeping only
+ * the largest elements of each row or elements above a threshold.
+ *
+ * @author Emmanouil Krasanakis
+ */
+public class SparseProducts {
+	/**
+	 * Compressed rows of a matrix, where the columns and values of row i are
+	 * found in positions start[i] to start[i+1]-1 of the respective arrays.
+	 */
+	private static class Rows {
+		private int[] start;
+		private int[] index;
+		private double[] value;
+
+		private Rows(Matrix matrix, boolean transpose) {
+			int rows = (int) (transpose ? matrix.getCols() : matrix.getRows());
+			start = new int[rows + 1];
+			long count = 0;
+			for (Entry<Long, Long> entry : matrix.getNonZeroEntries()) {
+				long row = transpose ? entry.getValue() : entry.getKey();
+				start[(int) row + 1]++;
+				count++;
+			}
+			if (count > Integer.MAX_VALUE - 8)
+				throw new IllegalArgumentException("Too many non-zero elements to multiply in " + matrix.describe());
+			for (int row = 0; row < rows; row++)
+				start[row + 1] += start[row];
+			index = new int[(int) count];
+			value = new double[(int) count];
+			int[] next = Arrays.copyOf(start, rows);
+			for (Entry<Long, Long> entry : matrix.getNonZeroEntries()) {
+				long row = entry.getKey();
+				long col = entry.getValue();
+				int pos = next[(int) (transpose ? col : row)]++;
+				index[pos] = (int) (transpose ? row : col);
+				value[pos] = matrix.get(row, col);
+			}
+		}
+	}
+
+	/**
+	 * Computes the product <code>left*right</code> as a sparse matrix.
+	 *
+	 * @param left  The left operand.
+	 * @param right The right operand.
+	 * @return A {@link SparseMatrix}.
+	 * @see #multiply(Matrix, Matrix, int, double)
+	 */
+	public static Matrix multiply(Matrix left, Matrix right) {
+		return multiply(left, right, 0, 0);
+	}
+
+	/**
+	 * Computes the product <code>left*right</code> as a sparse matrix while
+	 * keeping, for each row, only the elements of greatest absolute values whose
+	 * absolute values are also at least a threshold. For example, this can be used
+	 * to sparsify two-hop adjacency matrices.
+	 *
+	 * @param left      The left operand.
+	 * @param right     The right operand.
+	 * @param topK      The maximum number of elements to keep per row, or 0 to
+	 *                  keep all of them. Ties may keep more elements.
+	 * @param threshold The minimum absolute value of kept elements.
+	 * @return A {@link SparseMatrix}.
+	 * @see #multiply(Matrix, Matrix)
+	 */
+	public static Matrix multiply(Matrix left, Matrix right, int topK, double threshold) {
+		if (left.getCols() != right.getRows())
+			throw new IllegalArgumentException(
+					"Mismatched matrix sizes between " + left.describe() + " and " + right.describe());
+		if (left.getColName() != null && right.getRowName() != null
+				&& !left.getColName().equals(right.getRowName()))
+			throw new IllegalArgumentException(
+					"Mismatched matrix dimension names between " + left.describe() + " and " + right.describe());
+		Matrix ret = new SparseMatrix(left.getRows(), right.getCols());
+		multiply(left, false, right, false, ret, topK, threshold);
+		return ret.setRowName(left.getRowName()).setColName(right.getColName());
+	}
+
+	/**
+	 * Writes the product of two matrices, each optionally transposed, into the
+	 * non-zero elements of a result matrix, which should initially be zero.
+	 * Dimensions should be checked beforehand.
+	 *
+	 * @param left           The left operand.
+	 * @param transposeLeft  Whether the left operand is transposed.
+	 * @param right          The right operand.
+	 * @param transposeRight Whether the right operand is transposed.
+	 * @param result         The matrix in which to write the product.
+	 * @param topK           The maximum number of elements to keep per row, or 0
+	 *                       to keep all of them.
+	 * @param threshold      The minimum absolute value of kept elements.
+	 */
+	public static void multiply(Matrix left, boolean transposeLeft, Matrix right, boolean transposeRight,
+			Matrix result, int topK, double threshold) {
+		if (topK < 0)
+			throw new IllegalArgumentException("The number of kept elements should be non-negative but given " + topK);
+		long rowCount = transposeLeft ? left.getCols() : left.getRows();
+		long colCount = transposeRight ? right.getRows() : right.getCols();
+		long innerCount = transposeRight ? right.getCols() : right.getRows();
+		if (rowCount > Integer.MAX_VALUE - 8 || colCount > Integer.MAX_VALUE - 8 || innerCount > Integer.MAX_VALUE - 8)
+			throw new IllegalArgumentException("Too large matrices to multiply: " + left.describe() + " and "
+					+ right.describe());
+		Rows a = new Rows(left, transposeLeft);
+		Rows b = new Rows(right, transposeRight);
+		int rows = (int) rowCount;
+		int cols = (int) colCount;
+
+		// the number of multiplications of each row bounds the number of its non-zeros
+		long[] work = new long[rows + 1];
+		for (int row = 0; row < rows; row++) {
+			long rowWork = 0;
+			for (int pos = a.start[row]; pos < a.start[row + 1]; pos++)
+				rowWork += b.start[a.index[pos] + 1] - b.start[a.index[pos]];
+			work[row + 1] = work[row] + rowWork;
+		}
+		int[][] outIndex = new int[rows][];
+		double[][] outValue = new double[rows][];
+		int threads = ThreadPool.getInstance().getMaxThreads();
+		int chunks = work[rows] < Reductions.parallelThreshold || threads <= 1 ? 1 : Math.min(rows, threads * 4);
+		int[] bounds = new int[chunks + 1];
+		for (int chunk = 1, row = 0; chunk <= chunks; chunk++) {
+			long target = work[rows] * chunk / chunks;
+			while (row < rows && work[row] < target)
+				row++;
+			bounds[chunk] = chunk == chunks ? rows : row;
+		}
+		ThreadPool.getInstance().parallelFor(chunks, chunk -> {
+			if (bounds[chunk] == bounds[chunk + 1])
+				return;
+			double[] accumulator = new double[cols];
+			int[] marker = new int[cols];
+			Arrays.fill(marker, -1);
+			int[] touched = new int[(int) Math.min(cols, work[bounds[chunk + 1]] - work[bounds[chunk]])];
+			for (int row = bounds[chunk]; row < bounds[chunk + 1]; row++) {
+				int count = 0;
+				for (int pos = a.start[row]; pos < a.start[row + 1]; pos++) {
+					int inner = a.index[pos];
+					double value = a.value[pos];
+					for (int pos2 = b.start[inner]; pos2 < b.start[inner + 1]; pos2++) {
+						int col = b.index[pos2];
+						if (marker[col] != row) {
+							marker[col] = row;
+							accumulator[col] = 0;
+							touched[count++] = col;
+						}
+						accumulator[col] += value * b.value[pos2];
+					}
+				}
+				double minimum = threshold;
+				if (topK > 0 && count > topK) {
+					double[] magnitudes = new double[count];
+					for (int i = 0; i < count; i++)
+						magnitudes[i] = Math.abs(accumulator[touched[i]]);
+					Arrays.sort(magnitudes);
+					minimum = Math.max(minimum, magnitudes[count - topK]);
+				}
+				int kept = 0;
+				for (int i = 0; i < count; i++) {
+					double value = accumulator[touched[i]];
+					if (value != 0 && Math.abs(value) >= minimum)
+						touched[kept++] = touched[i];
+				}
+				outIndex[row] = Arrays.copyOf(touched, kept);
+				outValue[row] = new double[kept];
+				for (int i = 0; i < kept; i++)
+					outValue[row][i] = accumulator[outIndex[row][i]];
+			}
+		});
+		for (int row = 0; row < rows; row++) {
+			if (outIndex[row] == null)
+				continue;
+			for (int i = 0; i < outIndex[row].length; i++)
+				result.put(row, outIndex[row][i], outValue[row][i]);
+			outIndex[row] = null;
+			outValue[row] = null;
+		}
+	}
+}
@@ -0,0 +1,300 @@
+package mklab.JGNN.core.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+import java.util.Random;
+
+import jdk.incubator.vector.DoubleVector;
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.matrix.DenseMatrix;
+import mklab.JGNN.core.matrix.SparseMatrix;
+import mklab.JGNN.core.tensor.DenseTensor;
+import mklab.JGNN.core.tensor.VectorizedTensor;
+
+/**
+ * Holds the thresholds with which tensors decide on storage formats and
+ * kernels, namely the number of elements from which dense tensors and matrices
+ * are vectorized, the estimated output density under which matrix
+ * multiplications produce sparse matrices, and the
+ * {@link Reductions#parallelThreshold} from which dense kernels run in parallel.
+ * Thresholds can be set manually, or can be measured on the current machine
+ * with {@link #calibrate()}.<br>
+ * Calibrated thresholds are saved to a profile file, which defaults to
+ * <code>.jgnn/thresholds.properties</code> under the user's home directory and
+ * can be changed with the <code>jgnn.thresholds</code> system property. When
+ * this class is first used, thresholds are loaded once from that file if it was
+ * written on a machine with the same architecture, number of processors, and
+ * vector size.
+ * Otherwise, default values are kept, unless the <code>jgnn.autotune</code>
+ * system property is <code>true</code>, in which case thresholds are
+ * calibrated and saved. Thresholds affect running times and memory usage, but
+ * not which operations are computed.
+ *
+ * @author Emmanouil Krasanakis
+ */
+public class Thresholds {
+	private static volatile long vectorizedSize = 100000;
+	private static volatile double sparseDensity = 0.3;
+
+	static {
+		File profile = getProfile();
+		if (!(profile.exists() && load(profile)) && Boolean.getBoolean("jgnn.autotune")) {
+			calibrate();
+			save(profile);
+		}
+	}
+
+	/**
+	 * Retrieves the profile file in which calibrated thresholds are stored.
+	 *
+	 * @return A {@link File}.
+	 */
+	public static File getProfile() {
+		String path = System.getProperty("jgnn.thresholds");
+		if (path != null)
+			return new File(path);
+		return new File(new File(System.getProperty("user.home"), ".jgnn"), "thresholds.properties");
+	}
+
+	/**
+	 * Retrieves the number of elements from which dense tensors and matrices are
+	 * vectorized when vectorization is available.
+	 *
+	 * @return A number of elements.
+	 * @see #setVectorizedSize(long)
+	 */
+	public static long getVectorizedSize() {
+		return vectorizedSize;
+	}
+
+	/**
+	 * Sets the number of elements from which dense tensors and matrices are
+	 * vectorized when vectorization is available. Default is 100000.
+	 *
+	 * @param vectorizedSize A non-negative number of elements, or
+	 *                       {@link Long#MAX_VALUE} to never vectorize.
+	 * @see #getVectorizedSize()
+	 */
+	public static void setVectorizedSize(long vectorizedSize) {
+		if (vectorizedSize < 0)
+			throw new IllegalArgumentException("The vectorized size should be non-negative but given " + vectorizedSize);
+		Thresholds.vectorizedSize = vectorizedSize;
+	}
+
+	/**
+	 * Retrieves the estimated output density under which matrix multiplications
+	 * produce sparse matrices.
+	 *
+	 * @return A density.
+	 * @see #setSparseDensity(double)
+	 */
+	public static double getSparseDensity() {
+		return sparseDensity;
+	}
+
+	/**
+	 * Sets the estimated output density under which matrix multiplications
+	 * produce sparse matrices. Default is 0.3. Calibration never sets this lower
+	 * than 0.02, so that very sparse products of large matrices remain sparse.
+	 *
+	 * @param sparseDensity A density, where 0 never creates sparse outputs and
+	 *                      values greater than 1 always create sparse outputs.
+	 * @see #getSparseDensity()
+	 */
+	public static void setSparseDensity(double sparseDensity) {
+		if (sparseDensity < 0)
+			throw new IllegalArgumentException("The sparse density should be non-negative but given " + sparseDensity);
+		Thresholds.sparseDensity = sparseDensity;
+	}
+
+	/**
+	 * Checks whether dense storage of the given number of elements should be
+	 * vectorized.
+	 *
+	 * @param size The number of elements.
+	 * @return A boolean value.
+	 */
+	public static boolean isVectorized(long size) {
+		return Tensor.vectorization && size >= getVectorizedSize();
+	}
+
+	/**
+	 * Checks whether dense matrix storage of the given dimensions should be
+	 * vectorized. This is similar to {@link #isVectorized(long)} for
+	 * <code>rows*cols</code> elements but avoids overflows.
+	 *
+	 * @param rows The number of matrix rows.
+	 * @param cols The number of matrix columns.
+	 * @return A boolean value.
+	 */
+	public static boolean isVectorized(long rows, long cols) {
+		return Tensor.vectorization && rows > getVectorizedSize() / Math.max(cols, 1);
+	}
+
+	private static String getHost() {
+		return System.getProperty("os.arch") + "," + Runtime.getRuntime().availableProcessors() + ","
+				+ (Tensor.vectorization ? DoubleVector.SPECIES_PREFERRED.vectorBitSize() : 0);
+	}
+
+	/**
+	 * Loads thresholds from a profile file, as long as it was saved on a machine
+	 * with the same architecture, number of processors, and vector size.
+	 *
+	 * @param profile The file to load from.
+	 * @return Whether thresholds were loaded.
+	 * @see #save(File)
+	 */
+	public static boolean load(File profile) {
+		Properties properties = new Properties();
+		try (InputStream input = new FileInputStream(profile)) {
+			properties.load(input);
+		} catch (IOException ex) {
+			System.err.println(ex.toString());
+			return false;
+		}
+		if (!getHost().equals(properties.getProperty("host")))
+			return false;
+		try {
+			long vectorizedSize = Long.parseLong(properties.getProperty("vectorizedSize"));
+			double sparseDensity = Double.parseDouble(properties.getProperty("sparseDensity"));
+			long parallelThreshold = Long.parseLong(properties.getProperty("parallelThreshold"));
+			Thresholds.vectorizedSize = vectorizedSize;
+			Thresholds.sparseDensity = sparseDensity;
+			Reductions.parallelThreshold = parallelThreshold;
+			return true;
+		} catch (NullPointerException | NumberFormatException ex) {
+			System.err.println("Invalid thresholds profile " + profile + ": " + ex.toString());
+			return false;
+		}
+	}
+
+	/**
+	 * Saves the current thresholds to a profile file.
+	 *
+	 * @param profile The file to save to.
+	 * @return Whether thresholds were saved.
+	 * @see #load(File)
+	 */
+	public static boolean save(File profile) {
+		Properties properties = new Properties();
+		properties.setProperty("host", getHost());
+		properties.setProperty("vectorizedSize", "" + getVectorizedSize());
+		properties.setProperty("sparseDensity", "" + getSparseDensity());
+		properties.setProperty("parallelThreshold", "" + Reductions.parallelThreshold);
+		if (profile.getParentFile() != null)
+			profile.getParentFile().mkdirs();
+		try (OutputStream output = new FileOutputStream(profile)) {
+			properties.store(output, "JGNN thresholds");
+			return true;
+		} catch (IOException ex) {
+			System.err.println(ex.toString());
+			return false;
+		}
+	}
+
+	/**
+	 * Measures the running time of a kernel in nanoseconds after warming it up,
+	 * as the best of several rounds.
+	 */
+	private static double measure(Runnable kernel) {
+		long warmup = System.nanoTime();
+		while (System.nanoTime() - warmup < 20000000L)
+			kernel.run();
+		double best = Double.POSITIVE_INFINITY;
+		for (int round = 0; round < 3; round++) {
+			int runs = 0;
+			long tic = System.nanoTime();
+			long elapsed;
+			do {
+				kernel.run();
+				runs++;
+				elapsed = System.nanoTime() - tic;
+			} while (elapsed < 10000000L);
+			best = Math.min(best, elapsed / (double) runs);
+		}
+		return best;
+	}
+
+	/**
+	 * Micro-benchmarks candidate kernels on the current machine and sets all
+	 * thresholds accordingly. Vectorized storage is enabled from the smallest
+	 * measured size from which it is consistently not slower than plain arrays.
+	 * Sparse multiplication outputs are selected up to the largest estimated
+	 * density at which they are faster to compute. Parallel kernels are enabled
+	 * from the smallest measured number of elements from which they are
+	 * consistently faster, but this is skipped for machines with one processor.
+	 * Candidate kernels are given their thresholds explicitly, so that other
+	 * threads keep using the previous thresholds until calibration concludes.
+	 * This takes a few seconds.
+	 *
+	 * @see #save(File)
+	 */
+	public static synchronized void calibrate() {
+		Random random = new Random(0);
+
+		if (Tensor.vectorization) {
+			long threshold = Long.MAX_VALUE;
+			for (int size = 1 << 20; size >= 1 << 10; size /= 4) {
+				Tensor dense = new DenseTensor(size).setToRandom();
+				Tensor denseOther = new DenseTensor(size).setToRandom();
+				Tensor vectorized = new VectorizedTensor(size).setToRandom();
+				Tensor vectorizedOther = new VectorizedTensor(size).setToRandom();
+				Runnable denseKernel = () -> dense.selfAdd(denseOther).selfMultiply(0.5);
+				Runnable vectorizedKernel = () -> vectorized.selfAdd(vectorizedOther).selfMultiply(0.5);
+				// alternate measurements to reduce the effect of noise
+				double denseTime = measure(denseKernel);
+				double vectorizedTime = measure(vectorizedKernel);
+				denseTime = Math.min(denseTime, measure(denseKernel));
+				vectorizedTime = Math.min(vectorizedTime, measure(vectorizedKernel));
+				// ties are resolved in favor of vectorization
+				if (vectorizedTime > 1.05 * denseTime)
+					break;
+				threshold = size;
+			}
+			vectorizedSize = threshold;
+		}
+
+		// outputs of very low density are always sparse so that they fit in memory
+		double[] densities = { 0.02, 0.05, 0.1, 0.2, 0.3, 0.5, 0.7, 0.9 };
+		double threshold = densities[0];
+		int n = 200;
+		for (int i = 0; i < densities.length; i++) {
+			// inputs whose product has the given estimated density
+			double inputDensity = Math.sqrt(1 - Math.pow(1 - densities[i], 1. / n));
+			Matrix left = new SparseMatrix(n, n);
+			Matrix right = new SparseMatrix(n, n);
+			for (long pos = 0; pos < left.size(); pos++) {
+				if (random.nextDouble() < inputDensity)
+					left.put(pos, random.nextDouble());
+				if (random.nextDouble() < inputDensity)
+					right.put(pos, random.nextDouble());
+			}
+			double sparseTime = measure(() -> left.matmul(right, 2));
+			double denseTime = measure(() -> left.matmul(right, 0));
+			if (sparseTime >= denseTime)
+				break;
+			threshold = i + 1 < densities.length ? densities[i + 1] : 1;
+		}
+		sparseDensity = threshold;
+
+		if (Runtime.getRuntime().availableProcessors() > 1) {
+			long parallel = Long.MAX_VALUE;
+			for (int size = 1 << 22; size >= 1 << 12; size /= 4) {
+				Matrix matrix = new DenseMatrix(size / 64, 64);
+				matrix.setToRandom();
+				double serialTime = measure(() -> Reductions.sum(matrix, true, Long.MAX_VALUE));
+				double parallelTime = measure(() -> Reductions.sum(matrix, true, 0));
+				if (parallelTime >= serialTime)
+					break;
+				parallel = size;
+			}
+			Reductions.parallelThreshold = parallel;
+		}
+	}
+}
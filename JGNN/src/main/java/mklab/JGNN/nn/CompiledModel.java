@@ -0,0 +1,876 @@
+package mklab.JGNN.nn;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map.Entry;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.matrix.DenseMatrix;
+import mklab.JGNN.core.tensor.DenseTensor;
+import mklab.JGNN.core.util.Reductions;
+import mklab.JGNN.nn.activations.LRelu;
+import mklab.JGNN.nn.activations.Relu;
+import mklab.JGNN.nn.activations.Sigmoid;
+import mklab.JGNN.nn.activations.Tanh;
+import mklab.JGNN.nn.inputs.Parameter;
+import mklab.JGNN.nn.inputs.Variable;
+import mklab.JGNN.nn.operations.Add;
+import mklab.JGNN.nn.operations.Concat;
+import mklab.JGNN.nn.operations.Dropout;
+import mklab.JGNN.nn.operations.Gather;
+import mklab.JGNN.nn.operations.Identity;
+import mklab.JGNN.nn.operations.Log;
+import mklab.JGNN.nn.operations.MatMul;
+import mklab.JGNN.nn.operations.Multiply;
+import mklab.JGNN.nn.operations.Transpose;
+import mklab.JGNN.nn.pooling.SoftMax;
+
+/**
+ * Compiles the forward pass of a {@link Model} into a class generated for its
+ * specific operations and tensor shapes, so that inference skips the
+ * interpretation of {@link NNOperation#runPrediction()}. Shapes are obtained by
+ * running the model's operations once on sample inputs, and each operation
+ * becomes a loop over <code>double[]</code> buffers whose sizes are written in
+ * the generated code. Buffers are allocated once and reused across operations
+ * whose outputs are no longer needed. Sparse constant matrices, such as graph
+ * adjacency matrices, are stored in compressed rows and multiplied directly.
+ * Dropout is skipped, as during prediction.<br>
+ * Generated code is compiled in memory with the system's Java compiler and
+ * loaded as a hidden class. Operations that cannot be generated, as well as
+ * operations on sparse intermediate results, run through their own
+ * {@link NNOperation#run(List)} implementation. Compiled models that do not
+ * need such interpretation can be saved with {@link #save(Path)} and loaded
+ * with {@link #load(Path)} without needing a Java compiler or the original
+ * model.<br>
+ * Predictions should be given inputs of the same sizes as the sample inputs.
+ * They are synchronized, which means that each thread making concurrent
+ * predictions should compile or load its own instance.
+ *
+ * @author Emmanouil Krasanakis
+ * @see Model#compile(Tensor...)
+ */
+public class CompiledModel {
+	private static final int MAGIC = 0x4A474E43;
+	private static final int DENSE = 0;
+	private static final int SPARSE = 1;
+	private static final int OBJECT = 2;
+	private static final int STEPS_PER_METHOD = 256;
+
+	/**
+	 * The base class of generated code. Buffers hold dense values and the
+	 * elements of sparse matrices, and structures hold the row starts and column
+	 * indexes of the latter.
+	 */
+	abstract static class Program {
+		double[][] buffers;
+		int[][] structures;
+		CompiledModel model;
+
+		abstract void forward();
+
+		final void interpret(int step) {
+			model.interpret(step);
+		}
+	}
+
+	private Program program;
+	private String source;
+	private byte[] bytecode;
+	private int[] inputSlots;
+	private int[] inputLengths;
+	private int[] inputValues;
+	private double[][] inputCopies;
+	private int[] outputSlots;
+	private int[] outputValues;
+	private Tensor[] outputTemplates;
+	private boolean[] storedSlots;
+
+	// needed only by interpreted operations
+	private NNOperation[] stepOperations;
+	private int[][] stepInputs;
+	private int[] stepOutputs;
+	private int[] kinds;
+	private int[] slots;
+	private Tensor[] templates;
+	private Tensor[] objects;
+
+	private CompiledModel() {
+	}
+
+	/**
+	 * Compiles a model given sample inputs that determine the sizes of all tensors
+	 * involved in its forward pass.
+	 *
+	 * @param model        The model to compile. Its parameters should have been
+	 *                     already sized, for example with
+	 *                     {@link mklab.JGNN.adhoc.ModelBuilder#autosize(Tensor...)}.
+	 * @param sampleInputs Tensors of the same sizes as prediction inputs, in the
+	 *                     order of {@link Model#getInputs()}.
+	 * @throws IllegalArgumentException      If the number of sample inputs does not
+	 *                                       match the model's inputs, or if the
+	 *                                       model depends on other variables.
+	 * @throws UnsupportedOperationException If the running Java environment has no
+	 *                                       compiler.
+	 */
+	public CompiledModel(Model model, List<Tensor> sampleInputs) {
+		if (sampleInputs.size() != model.getInputs().size())
+			throw new IllegalArgumentException("Incompatible input size: expected " + model.getInputs().size()
+					+ " inputs instead of " + sampleInputs.size());
+
+		// order operations so that each one comes after its inputs
+		ArrayList<NNOperation> order = new ArrayList<NNOperation>();
+		HashMap<NNOperation, Integer> ids = new HashMap<NNOperation, Integer>();
+		for (NNOperation output : model.getOutputs())
+			visit(output, order, ids);
+		int count = order.size();
+
+		// run operations on the samples to find the kinds and shapes of their outputs
+		int[] values = new int[count];
+		kinds = new int[count];
+		templates = new Tensor[count];
+		objects = new Tensor[count];
+		Tensor[] samples = new Tensor[count];
+		boolean[] isNative = new boolean[count];
+		for (int id = 0; id < count; id++) {
+			NNOperation operation = order.get(id);
+			values[id] = id;
+			if (operation instanceof Variable) {
+				int input = model.getInputs().indexOf(operation);
+				if (input == -1)
+					throw new IllegalArgumentException(
+							"Cannot compile a model depending on variables that are not inputs: " + operation.describe());
+				samples[id] = sampleInputs.get(input);
+				kinds[id] = Reductions.getDenseValues(samples[id]) == null && samples[id].density() < 1 ? OBJECT : DENSE;
+				continue;
+			}
+			if (operation instanceof Parameter) {
+				samples[id] = ((Parameter) operation).get();
+				kinds[id] = Reductions.getDenseValues(samples[id]) == null && samples[id] instanceof Matrix ? SPARSE
+						: DENSE;
+				if (kinds[id] == SPARSE)
+					objects[id] = samples[id];
+				continue;
+			}
+			int[] inputs = inputsOf(operation, ids, values);
+			if (operation instanceof Identity || operation instanceof Dropout) {
+				values[id] = inputs[0];
+				samples[id] = samples[inputs[0]];
+				continue;
+			}
+			ArrayList<Tensor> inputSamples = new ArrayList<Tensor>(inputs.length);
+			for (int input : inputs)
+				inputSamples.add(samples[input]);
+			samples[id] = operation.run(inputSamples);
+			isNative[id] = isNative(operation, inputs, samples);
+			kinds[id] = isNative[id] || Reductions.getDenseValues(samples[id]) != null ? DENSE : OBJECT;
+		}
+		for (int id = 0; id < count; id++)
+			if (values[id] == id && kinds[id] == DENSE) {
+				if (samples[id].size() > Integer.MAX_VALUE - 8)
+					throw new IllegalArgumentException("Too large tensor to compile: " + samples[id].describe());
+				templates[id] = samples[id] instanceof Matrix
+						? new DenseMatrix(samples[id].cast(Matrix.class).getRows(),
+								samples[id].cast(Matrix.class).getCols()).setDimensionName(samples[id])
+						: new DenseTensor(samples[id].size()).setDimensionName(samples[id]);
+			}
+
+		// find the last step in which each value is read, where inputs, parameters
+		// and outputs are never released
+		ArrayList<Integer> steps = new ArrayList<Integer>();
+		for (int id = 0; id < count; id++)
+			if (values[id] == id && !(order.get(id) instanceof Variable) && !(order.get(id) instanceof Parameter))
+				steps.add(id);
+		int[] lastUse = new int[count];
+		Arrays.fill(lastUse, -1);
+		for (int step = 0; step < steps.size(); step++)
+			for (int input : inputsOf(order.get(steps.get(step)), ids, values))
+				lastUse[input] = step;
+		for (int id = 0; id < count; id++)
+			if (order.get(id) instanceof Variable || order.get(id) instanceof Parameter)
+				lastUse[id] = Integer.MAX_VALUE;
+		for (NNOperation output : model.getOutputs())
+			lastUse[values[ids.get(output)]] = Integer.MAX_VALUE;
+
+		// assign buffers and generate code
+		ArrayList<double[]> buffers = new ArrayList<double[]>();
+		ArrayList<int[]> structures = new ArrayList<int[]>();
+		ArrayList<Boolean> stored = new ArrayList<Boolean>();
+		HashMap<Integer, ArrayList<Integer>> released = new HashMap<Integer, ArrayList<Integer>>();
+		slots = new int[count];
+		Arrays.fill(slots, -1);
+		int[] structureSlots = new int[count];
+		for (int id = 0; id < count; id++) {
+			NNOperation operation = order.get(id);
+			if (operation instanceof Variable && kinds[id] == DENSE)
+				slots[id] = reserve(buffers, stored, 0, null, false);
+			else if (operation instanceof Parameter && kinds[id] == DENSE)
+				slots[id] = reserve(buffers, stored, 0, denseCopy(samples[id]), true);
+			else if (operation instanceof Parameter) {
+				Matrix matrix = samples[id].cast(Matrix.class);
+				int rows = (int) matrix.getRows();
+				int[] start = new int[rows + 1];
+				for (Entry<Long, Long> entry : matrix.getNonZeroEntries())
+					start[(int) (long) entry.getKey() + 1]++;
+				for (int row = 0; row < rows; row++)
+					start[row + 1] += start[row];
+				int[] index = new int[start[rows]];
+				double[] value = new double[start[rows]];
+				int[] next = Arrays.copyOf(start, rows);
+				for (Entry<Long, Long> entry : matrix.getNonZeroEntries()) {
+					int pos = next[(int) (long) entry.getKey()]++;
+					index[pos] = (int) (long) entry.getValue();
+					value[pos] = matrix.get(entry.getKey(), entry.getValue());
+				}
+				slots[id] = reserve(buffers, stored, 0, value, true);
+				structureSlots[id] = structures.size();
+				structures.add(start);
+				structures.add(index);
+			}
+		}
+		StringBuilder code = new StringBuilder();
+		code.append("package mklab.JGNN.nn;\n\n");
+		code.append("final class CompiledProgram extends CompiledModel.Program {\n");
+		stepOperations = new NNOperation[steps.size()];
+		stepInputs = new int[steps.size()][];
+		stepOutputs = new int[steps.size()];
+		for (int step = 0; step < steps.size(); step++) {
+			int id = steps.get(step);
+			int[] inputs = inputsOf(order.get(id), ids, values);
+			stepOperations[step] = order.get(id);
+			stepInputs[step] = inputs;
+			stepOutputs[step] = id;
+			if (kinds[id] == DENSE)
+				slots[id] = reserve(buffers, stored, (int) samples[id].size(), null, false, released);
+			if (isNative[id]) {
+				code.append("\tprivate void s").append(step).append("() {\n");
+				generate(code, order.get(id), id, inputs, samples, structureSlots, buffers, stored, released);
+				code.append("\t}\n\n");
+			}
+			for (int input : inputs)
+				if (lastUse[input] == step && slots[input] != -1)
+					release(released, slots[input], buffers.get(slots[input]).length);
+		}
+		int methods = (steps.size() + STEPS_PER_METHOD - 1) / STEPS_PER_METHOD;
+		for (int method = 0; method < methods; method++) {
+			code.append("\tprivate void f").append(method).append("() {\n");
+			for (int step = method * STEPS_PER_METHOD; step < Math.min(steps.size(),
+					(method + 1) * STEPS_PER_METHOD); step++)
+				if (isNative[steps.get(step)])
+					code.append("\t\ts").append(step).append("();\n");
+				else
+					code.append("\t\tinterpret(").append(step).append(");\n");
+			code.append("\t}\n\n");
+		}
+		code.append("\t@Override\n\tvoid forward() {\n");
+		for (int method = 0; method < methods; method++)
+			code.append("\t\tf").append(method).append("();\n");
+		code.append("\t}\n}\n");
+		source = code.toString();
+
+		inputSlots = new int[sampleInputs.size()];
+		inputLengths = new int[sampleInputs.size()];
+		inputValues = new int[sampleInputs.size()];
+		inputCopies = new double[sampleInputs.size()][];
+		for (int input = 0; input < sampleInputs.size(); input++) {
+			int id = ids.get(model.getInputs().get(input));
+			inputValues[input] = id;
+			inputSlots[input] = slots[id];
+			inputLengths[input] = (int) sampleInputs.get(input).size();
+		}
+		outputSlots = new int[model.getOutputs().size()];
+		outputValues = new int[model.getOutputs().size()];
+		outputTemplates = new Tensor[model.getOutputs().size()];
+		for (int output = 0; output < outputSlots.length; output++) {
+			int id = values[ids.get(model.getOutputs().get(output))];
+			outputValues[output] = id;
+			outputSlots[output] = kinds[id] == DENSE ? slots[id] : -1;
+			outputTemplates[output] = templates[id];
+		}
+		storedSlots = new boolean[stored.size()];
+		for (int slot = 0; slot < storedSlots.length; slot++)
+			storedSlots[slot] = stored.get(slot);
+		bytecode = compile(source);
+		boolean interpreted = false;
+		for (int id : steps)
+			interpreted = interpreted || !isNative[id];
+		for (int slot : inputSlots)
+			interpreted = interpreted || slot == -1;
+		for (int slot : outputSlots)
+			interpreted = interpreted || slot == -1;
+		if (!interpreted) {
+			stepOperations = null;
+			stepInputs = null;
+			stepOutputs = null;
+			templates = null;
+			objects = null;
+		}
+		program = define(bytecode);
+		program.model = this;
+		program.buffers = buffers.toArray(new double[buffers.size()][]);
+		program.structures = structures.toArray(new int[structures.size()][]);
+	}
+
+	private static void visit(NNOperation operation, ArrayList<NNOperation> order, HashMap<NNOperation, Integer> ids) {
+		if (ids.containsKey(operation))
+			return;
+		ids.put(operation, -1);
+		for (NNOperation input : operation.getInputs())
+			visit(input, order, ids);
+		ids.put(operation, order.size());
+		order.add(operation);
+	}
+
+	private static int[] inputsOf(NNOperation operation, HashMap<NNOperation, Integer> ids, int[] values) {
+		ArrayList<NNOperation> inputs = operation.getInputs();
+		int[] ret = new int[inputs.size()];
+		for (int i = 0; i < ret.length; i++)
+			ret[i] = values[ids.get(inputs.get(i))];
+		return ret;
+	}
+
+	private static double[] denseCopy(Tensor tensor) {
+		double[] values = Reductions.getDenseValues(tensor);
+		if (values != null)
+			return Arrays.copyOf(values, (int) tensor.size());
+		values = new double[(int) tensor.size()];
+		for (long pos : tensor.getNonZeroElements())
+			values[(int) pos] = tensor.get(pos);
+		return values;
+	}
+
+	private static int reserve(ArrayList<double[]> buffers, ArrayList<Boolean> stored, int length, double[] values,
+			boolean isStored) {
+		buffers.add(values == null ? new double[length] : values);
+		stored.add(isStored);
+		return buffers.size() - 1;
+	}
+
+	private static int reserve(ArrayList<double[]> buffers, ArrayList<Boolean> stored, int length, double[] values,
+			boolean isStored, HashMap<Integer, ArrayList<Integer>> released) {
+		ArrayList<Integer> free = released.get(length);
+		if (free != null && !free.isEmpty())
+			return free.remove(free.size() - 1);
+		return reserve(buffers, stored, length, values, isStored);
+	}
+
+	private static void release(HashMap<Integer, ArrayList<Integer>> released, int slot, int length) {
+		ArrayList<Integer> free = released.get(length);
+		if (free == null)
+			released.put(length, free = new ArrayList<Integer>());
+		if (!free.contains(slot))
+			free.add(slot);
+	}
+
+	private boolean isDense(int value, Tensor[] samples, boolean matrix) {
+		return kinds[value] == DENSE && (!matrix || samples[value] instanceof Matrix);
+	}
+
+	private boolean isNative(NNOperation operation, int[] inputs, Tensor[] samples) {
+		if (operation instanceof Relu || operation instanceof Sigmoid || operation instanceof Tanh
+				|| operation instanceof Log || operation instanceof SoftMax)
+			return inputs.length == 1 && isDense(inputs[0], samples, false);
+		if (operation instanceof Transpose)
+			return inputs.length == 1 && isDense(inputs[0], samples, true);
+		if (inputs.length != 2)
+			return false;
+		if (operation instanceof MatMul)
+			return (kinds[inputs[0]] == SPARSE || isDense(inputs[0], samples, true))
+					&& isDense(inputs[1], samples, true);
+		if (!isDense(inputs[0], samples, false) || !isDense(inputs[1], samples, false))
+			return false;
+		Tensor left = samples[inputs[0]];
+		Tensor right = samples[inputs[1]];
+		if (operation instanceof LRelu)
+			return right.size() == 1;
+		if (operation instanceof Gather || operation instanceof Concat)
+			return operation instanceof Concat ? left instanceof Matrix && right instanceof Matrix
+					: right instanceof Matrix;
+		if (operation instanceof Add)
+			return left.size() == 1 || right.size() == 1
+					|| (left instanceof Matrix && !(right instanceof Matrix)) || left.size() == right.size();
+		if (operation instanceof Multiply)
+			return left.size() == 1 || (left instanceof Matrix && !(right instanceof Matrix)
+					? left.cast(Matrix.class).getCols() == right.size()
+					: left.size() == right.size());
+		return false;
+	}
+
+	private void generate(StringBuilder code, NNOperation operation, int id, int[] inputs, Tensor[] samples,
+			int[] structureSlots, ArrayList<double[]> buffers, ArrayList<Boolean> stored,
+			HashMap<Integer, ArrayList<Integer>> released) {
+		int size = (int) samples[id].size();
+		code.append("\t\tfinal double[] y = buffers[").append(slots[id]).append("];\n");
+		code.append("\t\tfinal double[] a = buffers[").append(slots[inputs[0]]).append("];\n");
+		if (inputs.length > 1)
+			code.append("\t\tfinal double[] b = buffers[").append(slots[inputs[1]]).append("];\n");
+		if (operation instanceof Relu)
+			loop(code, size, "y[i] = a[i] > 0 ? a[i] : 0;");
+		else if (operation instanceof Sigmoid)
+			loop(code, size, "y[i] = 1. / (1 + Math.exp(-a[i]));");
+		else if (operation instanceof Tanh)
+			loop(code, size, "y[i] = (1 - Math.exp(-2 * a[i])) / (1 + Math.exp(-2 * a[i]));");
+		else if (operation instanceof Log)
+			loop(code, size, "y[i] = Math.log(a[i] + 1.E-12);");
+		else if (operation instanceof LRelu)
+			loop(code, size, "y[i] = a[i] > 0 ? a[i] : a[i] * b[0];");
+		else if (operation instanceof Concat) {
+			int left = (int) samples[inputs[0]].size();
+			code.append("\t\tSystem.arraycopy(a, 0, y, 0, ").append(left).append(");\n");
+			code.append("\t\tSystem.arraycopy(b, 0, y, ").append(left).append(", ").append(size - left)
+					.append(");\n");
+		} else if (operation instanceof Transpose) {
+			Matrix matrix = samples[inputs[0]].cast(Matrix.class);
+			int rows = (int) matrix.getRows();
+			int cols = (int) matrix.getCols();
+			code.append("\t\tfor (int c = 0; c < ").append(cols).append("; c++)\n");
+			code.append("\t\t\tfor (int r = 0; r < ").append(rows).append("; r++)\n");
+			code.append("\t\t\t\ty[c + r * ").append(cols).append("] = a[r + c * ").append(rows).append("];\n");
+		} else if (operation instanceof Gather) {
+			Matrix matrix = samples[inputs[1]].cast(Matrix.class);
+			int rows = (int) samples[inputs[0]].size();
+			code.append("\t\tfor (int c = 0; c < ").append(matrix.getCols()).append("; c++)\n");
+			code.append("\t\t\tfor (int r = 0; r < ").append(rows).append("; r++)\n");
+			code.append("\t\t\t\ty[r + c * ").append(rows).append("] = b[(int) a[r] + c * ")
+					.append(matrix.getRows()).append("];\n");
+		} else if (operation instanceof Add || operation instanceof Multiply) {
+			String symbol = operation instanceof Add ? " + " : " * ";
+			Tensor left = samples[inputs[0]];
+			Tensor right = samples[inputs[1]];
+			if (left.size() == 1)
+				loop(code, size, "y[i] = b[i]" + symbol + "a[0];");
+			else if (right.size() == 1)
+				loop(code, size, "y[i] = a[i]" + symbol + "b[0];");
+			else if (left instanceof Matrix && !(right instanceof Matrix)) {
+				Matrix matrix = left.cast(Matrix.class);
+				boolean byRow = operation instanceof Add && matrix.getCols() != right.size();
+				code.append("\t\tfor (int c = 0; c < ").append(matrix.getCols()).append("; c++)\n");
+				code.append("\t\t\tfor (int r = 0; r < ").append(matrix.getRows()).append("; r++)\n");
+				code.append("\t\t\t\ty[r + c * ").append(matrix.getRows()).append("] = a[r + c * ")
+						.append(matrix.getRows()).append("]").append(symbol).append(byRow ? "b[r]" : "b[c]")
+						.append(";\n");
+			} else
+				loop(code, size, "y[i] = a[i]" + symbol + "b[i];");
+		} else if (operation instanceof MatMul) {
+			Matrix right = samples[inputs[1]].cast(Matrix.class);
+			Matrix result = samples[id].cast(Matrix.class);
+			int rows = (int) result.getRows();
+			int inner = (int) right.getRows();
+			int cols = (int) right.getCols();
+			code.append("\t\tfor (int c = 0; c < ").append(cols).append("; c++) {\n");
+			code.append("\t\t\tfinal int out = c * ").append(rows).append(";\n");
+			code.append("\t\t\tfinal int in = c * ").append(inner).append(";\n");
+			if (kinds[inputs[0]] == SPARSE) {
+				code.append("\t\t\tfinal int[] start = structures[").append(structureSlots[inputs[0]]).append("];\n");
+				code.append("\t\t\tfinal int[] index = structures[").append(structureSlots[inputs[0]] + 1)
+						.append("];\n");
+				code.append("\t\t\tfor (int r = 0; r < ").append(rows).append("; r++) {\n");
+				code.append("\t\t\t\tdouble sum = 0;\n");
+				code.append("\t\t\t\tfor (int pos = start[r]; pos < start[r + 1]; pos++)\n");
+				code.append("\t\t\t\t\tsum += a[pos] * b[index[pos] + in];\n");
+				code.append("\t\t\t\ty[out + r] = sum;\n");
+				code.append("\t\t\t}\n");
+			} else {
+				code.append("\t\t\tjava.util.Arrays.fill(y, out, out + ").append(rows).append(", 0);\n");
+				code.append("\t\t\tfor (int k = 0; k < ").append(inner).append("; k++) {\n");
+				code.append("\t\t\t\tfinal double value = b[in + k];\n");
+				code.append("\t\t\t\tif (value == 0)\n\t\t\t\t\tcontinue;\n");
+				code.append("\t\t\t\tfinal int from = k * ").append(rows).append(";\n");
+				code.append("\t\t\t\tfor (int r = 0; r < ").append(rows).append("; r++)\n");
+				code.append("\t\t\t\t\ty[out + r] += a[from + r] * value;\n");
+				code.append("\t\t\t}\n");
+			}
+			code.append("\t\t}\n");
+		} else if (operation instanceof SoftMax) {
+			Tensor input = samples[inputs[0]];
+			int rows = input instanceof Matrix ? (int) input.cast(Matrix.class).getRows() : size;
+			int cols = input instanceof Matrix ? (int) input.cast(Matrix.class).getCols() : 1;
+			if (input instanceof Matrix && ((SoftMax) operation).isRowWise()) {
+				// row-wise normalization through column-wise passes over scratch buffers
+				int maxs = reserve(buffers, stored, rows, null, false, released);
+				int sums = reserve(buffers, stored, rows, null, false, released);
+				release(released, maxs, rows);
+				release(released, sums, rows);
+				code.append("\t\tfinal double[] max = buffers[").append(maxs).append("];\n");
+				code.append("\t\tfinal double[] sum = buffers[").append(sums).append("];\n");
+				code.append("\t\tjava.util.Arrays.fill(max, Double.NEGATIVE_INFINITY);\n");
+				code.append("\t\tjava.util.Arrays.fill(sum, 0);\n");
+				code.append("\t\tfor (int c = 0; c < ").append(cols).append("; c++)\n");
+				code.append("\t\t\tfor (int r = 0; r < ").append(rows).append("; r++)\n");
+				code.append("\t\t\t\tmax[r] = Math.max(max[r], a[r + c * ").append(rows).append("]);\n");
+				code.append("\t\tfor (int c = 0; c < ").append(cols).append("; c++)\n");
+				code.append("\t\t\tfor (int r = 0; r < ").append(rows).append("; r++) {\n");
+				code.append("\t\t\t\tfinal double value = Math.exp(a[r + c * ").append(rows).append("] - max[r]);\n");
+				code.append("\t\t\t\ty[r + c * ").append(rows).append("] = value;\n");
+				code.append("\t\t\t\tsum[r] += value;\n");
+				code.append("\t\t\t}\n");
+				code.append("\t\tfor (int c = 0; c < ").append(cols).append("; c++)\n");
+				code.append("\t\t\tfor (int r = 0; r < ").append(rows).append("; r++)\n");
+				code.append("\t\t\t\ty[r + c * ").append(rows).append("] /= sum[r] == 0 ? 1 : sum[r];\n");
+			} else {
+				code.append("\t\tfor (int c = 0; c < ").append(cols).append("; c++) {\n");
+				code.append("\t\t\tfinal int offset = c * ").append(rows).append(";\n");
+				code.append("\t\t\tdouble max = Double.NEGATIVE_INFINITY;\n");
+				code.append("\t\t\tfor (int r = 0; r < ").append(rows).append("; r++)\n");
+				code.append("\t\t\t\tmax = Math.max(max, a[offset + r]);\n");
+				code.append("\t\t\tdouble sum = 0;\n");
+				code.append("\t\t\tfor (int r = 0; r < ").append(rows).append("; r++) {\n");
+				code.append("\t\t\t\tfinal double value = Math.exp(a[offset + r] - max);\n");
+				code.append("\t\t\t\ty[offset + r] = value;\n");
+				code.append("\t\t\t\tsum += value;\n");
+				code.append("\t\t\t}\n");
+				code.append("\t\t\tif (sum != 0)\n");
+				code.append("\t\t\t\tfor (int r = 0; r < ").append(rows).append("; r++)\n");
+				code.append("\t\t\t\t\ty[offset + r] /= sum;\n");
+				code.append("\t\t}\n");
+			}
+		}
+	}
+
+	private static void loop(StringBuilder code, int size, String statement) {
+		code.append("\t\tfor (int i = 0; i < ").append(size).append("; i++)\n");
+		code.append("\t\t\t").append(statement).append("\n");
+	}
+
+	private static byte[] compile(String source) {
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		if (compiler == null)
+			throw new UnsupportedOperationException("Compiling models requires a Java runtime with a compiler");
+		ByteArrayOutputStream bytecode = new ByteArrayOutputStream();
+		JavaFileManager manager = new ForwardingJavaFileManager<JavaFileManager>(
+				compiler.getStandardFileManager(null, null, StandardCharsets.UTF_8)) {
+			@Override
+			public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind,
+					FileObject sibling) {
+				return new SimpleJavaFileObject(URI.create("bytes:///" + className.replace('.', '/') + kind.extension),
+						kind) {
+					@Override
+					public OutputStream openOutputStream() {
+						return bytecode;
+					}
+				};
+			}
+		};
+		JavaFileObject file = new SimpleJavaFileObject(URI.create("string:///mklab/JGNN/nn/CompiledProgram.java"),
+				JavaFileObject.Kind.SOURCE) {
+			@Override
+			public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+				return source;
+			}
+		};
+		String classpath = System.getProperty("java.class.path");
+		try {
+			classpath = Paths.get(CompiledModel.class.getProtectionDomain().getCodeSource().getLocation().toURI())
+					+ File.pathSeparator + classpath;
+		} catch (Exception ex) {
+			// the class path may already contain the library
+		}
+		StringWriter errors = new StringWriter();
+		boolean success = compiler.getTask(errors, manager, null,
+				Arrays.asList("-classpath", classpath, "-proc:none", "-nowarn"), null, Arrays.asList(file)).call();
+		if (!success)
+			throw new RuntimeException("Failed to compile model: " + errors);
+		return bytecode.toByteArray();
+	}
+
+	private static Program define(byte[] bytecode) {
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytecode, true);
+			return (Program) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+		} catch (Throwable ex) {
+			throw new RuntimeException("Failed to load compiled model: " + ex.toString());
+		}
+	}
+
+	private Tensor tensor(int value) {
+		if (kinds[value] != DENSE)
+			return objects[value];
+		Tensor ret = templates[value].zeroCopy();
+		double[] values = Reductions.getDenseValues(ret);
+		double[] buffer = program.buffers[slots[value]];
+		if (values != null)
+			System.arraycopy(buffer, 0, values, 0, (int) ret.size());
+		else
+			for (int pos = 0; pos < ret.size(); pos++)
+				ret.put(pos, buffer[pos]);
+		return ret;
+	}
+
+	private void interpret(int step) {
+		ArrayList<Tensor> inputs = new ArrayList<Tensor>(stepInputs[step].length);
+		for (int input : stepInputs[step])
+			inputs.add(tensor(input));
+		Tensor result = stepOperations[step].run(inputs);
+		int output = stepOutputs[step];
+		if (kinds[output] != DENSE) {
+			objects[output] = result;
+			return;
+		}
+		double[] values = Reductions.getDenseValues(result);
+		double[] buffer = program.buffers[slots[output]];
+		if (values != null)
+			System.arraycopy(values, 0, buffer, 0, buffer.length);
+		else
+			for (int pos = 0; pos < buffer.length; pos++)
+				buffer[pos] = result.get(pos);
+	}
+
+	/**
+	 * Retrieves the Java source code generated for the model.
+	 *
+	 * @return A <code>String</code> of source code.
+	 */
+	public String getSource() {
+		return source;
+	}
+
+	/**
+	 * Checks whether some operations could not be generated and are interpreted
+	 * instead.
+	 *
+	 * @return A <code>boolean</code> value.
+	 */
+	public boolean isInterpreted() {
+		return stepOperations != null;
+	}
+
+	/**
+	 * Forward run of the compiled model given an array of input tensors. Wraps
+	 * {@link #predict(List)}.
+	 *
+	 * @param inputs Input tensors in the order of the model's inputs.
+	 * @return A list of tensors output by the model after a forward pass.
+	 * @see #predict(List)
+	 */
+	public ArrayList<Tensor> predict(Tensor... inputs) {
+		return predict(Arrays.asList(inputs));
+	}
+
+	/**
+	 * Forward run of the compiled model given a list of input tensors. Dense
+	 * inputs are read directly, whereas other inputs are first copied to dense
+	 * buffers. Outputs are copied to new tensors.
+	 *
+	 * @param inputs A list of tensors of the same sizes as the sample inputs given
+	 *               during compilation.
+	 * @return A list of tensors output by the model after a forward pass.
+	 * @throws IllegalArgumentException If the number or sizes of inputs do not
+	 *                                  match the sample inputs.
+	 * @see Model#predict(List)
+	 */
+	public synchronized ArrayList<Tensor> predict(List<Tensor> inputs) {
+		if (inputs.size() != inputSlots.length)
+			throw new IllegalArgumentException(
+					"Incompatible input size: expected " + inputSlots.length + " inputs instead of " + inputs.size());
+		for (int input = 0; input < inputSlots.length; input++) {
+			Tensor tensor = inputs.get(input);
+			if (tensor.size() != inputLengths[input])
+				throw new IllegalArgumentException("Input " + input + " should have " + inputLengths[input]
+						+ " elements but found " + tensor.describe());
+			if (inputSlots[input] == -1) {
+				objects[inputValues[input]] = tensor;
+				continue;
+			}
+			double[] values = Reductions.getDenseValues(tensor);
+			if (values == null || values.length < inputLengths[input]) {
+				if (inputCopies[input] == null)
+					inputCopies[input] = new double[inputLengths[input]];
+				values = inputCopies[input];
+				Arrays.fill(values, 0);
+				for (long pos : tensor.getNonZeroElements())
+					values[(int) pos] = tensor.get(pos);
+			}
+			program.buffers[inputSlots[input]] = values;
+		}
+		program.forward();
+		ArrayList<Tensor> outputs = new ArrayList<Tensor>(outputSlots.length);
+		for (int output = 0; output < outputSlots.length; output++) {
+			if (outputSlots[output] == -1) {
+				outputs.add(objects[outputValues[output]]);
+				continue;
+			}
+			Tensor ret = outputTemplates[output].zeroCopy();
+			double[] values = Reductions.getDenseValues(ret);
+			double[] buffer = program.buffers[outputSlots[output]];
+			if (values != null)
+				System.arraycopy(buffer, 0, values, 0, (int) ret.size());
+			else
+				for (int pos = 0; pos < ret.size(); pos++)
+					ret.put(pos, buffer[pos]);
+			outputs.add(ret);
+		}
+		return outputs;
+	}
+
+	private static void writeName(DataOutputStream out, String name) throws IOException {
+		out.writeBoolean(name != null);
+		if (name != null)
+			out.writeUTF(name);
+	}
+
+	private static String readName(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	/**
+	 * Writes the compiled model, including its generated bytecode and parameter
+	 * values, to a binary file that can be loaded with {@link #load(Path)}.
+	 *
+	 * @param path The file path.
+	 * @return <code>this</code> instance, or <code>null</code> if the file could
+	 *         not be written.
+	 * @exception UnsupportedOperationException if some operations are interpreted.
+	 * @see #isInterpreted()
+	 */
+	public CompiledModel save(Path path) {
+		if (isInterpreted())
+			throw new UnsupportedOperationException("Cannot save compiled models with interpreted operations");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(bytecode.length);
+			out.write(bytecode);
+			byte[] sourceBytes = source.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(sourceBytes.length);
+			out.write(sourceBytes);
+			out.writeInt(program.buffers.length);
+			for (int slot = 0; slot < program.buffers.length; slot++) {
+				boolean isInput = false;
+				for (int inputSlot : inputSlots)
+					isInput = isInput || inputSlot == slot;
+				out.writeInt(isInput ? 0 : program.buffers[slot].length);
+				out.writeBoolean(storedSlots[slot]);
+				if (storedSlots[slot])
+					for (double value : program.buffers[slot])
+						out.writeDouble(value);
+			}
+			out.writeInt(program.structures.length);
+			for (int[] structure : program.structures) {
+				out.writeInt(structure.length);
+				for (int value : structure)
+					out.writeInt(value);
+			}
+			out.writeInt(inputSlots.length);
+			for (int input = 0; input < inputSlots.length; input++) {
+				out.writeInt(inputSlots[input]);
+				out.writeInt(inputLengths[input]);
+			}
+			out.writeInt(outputSlots.length);
+			for (int output = 0; output < outputSlots.length; output++) {
+				Tensor template = outputTemplates[output];
+				out.writeInt(outputSlots[output]);
+				out.writeBoolean(template instanceof Matrix);
+				if (template instanceof Matrix) {
+					out.writeLong(template.cast(Matrix.class).getRows());
+					out.writeLong(template.cast(Matrix.class).getCols());
+					writeName(out, template.cast(Matrix.class).getRowName());
+					writeName(out, template.cast(Matrix.class).getColName());
+				} else {
+					out.writeLong(template.size());
+					writeName(out, template.getDimensionName());
+				}
+			}
+		} catch (IOException ex) {
+			System.err.println(ex.toString());
+			return null;
+		}
+		return this;
+	}
+
+	/**
+	 * Loads a compiled model from a binary file written by {@link #save(Path)}.
+	 * This does not need a Java compiler.<br>
+	 * <b>Security:</b> loading defines a hidden class from the raw bytecode stored
+	 * in the file and runs it on predictions, which means that a crafted file can
+	 * execute arbitrary code. Only load files that you produced yourself.
+	 *
+	 * @param path The file path.
+	 * @return A new {@link CompiledModel}, or <code>null</code> if the file could
+	 *         not be read.
+	 */
+	public static CompiledModel load(Path path) {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+			if (in.readInt() != MAGIC)
+				throw new IOException("Not a compiled model file: " + path);
+			CompiledModel ret = new CompiledModel();
+			ret.bytecode = new byte[in.readInt()];
+			in.readFully(ret.bytecode);
+			byte[] sourceBytes = new byte[in.readInt()];
+			in.readFully(sourceBytes);
+			ret.source = new String(sourceBytes, StandardCharsets.UTF_8);
+			double[][] buffers = new double[in.readInt()][];
+			ret.storedSlots = new boolean[buffers.length];
+			for (int slot = 0; slot < buffers.length; slot++) {
+				buffers[slot] = new double[in.readInt()];
+				ret.storedSlots[slot] = in.readBoolean();
+				if (ret.storedSlots[slot])
+					for (int pos = 0; pos < buffers[slot].length; pos++)
+						buffers[slot][pos] = in.readDouble();
+			}
+			int[][] structures = new int[in.readInt()][];
+			for (int structure = 0; structure < structures.length; structure++) {
+				structures[structure] = new int[in.readInt()];
+				for (int pos = 0; pos < structures[structure].length; pos++)
+					structures[structure][pos] = in.readInt();
+			}
+			int inputs = in.readInt();
+			ret.inputSlots = new int[inputs];
+			ret.inputLengths = new int[inputs];
+			ret.inputValues = new int[inputs];
+			ret.inputCopies = new double[inputs][];
+			for (int input = 0; input < inputs; input++) {
+				ret.inputSlots[input] = in.readInt();
+				ret.inputLengths[input] = in.readInt();
+			}
+			int outputs = in.readInt();
+			ret.outputSlots = new int[outputs];
+			ret.outputValues = new int[outputs];
+			ret.outputTemplates = new Tensor[outputs];
+			for (int output = 0; output < outputs; output++) {
+				ret.outputSlots[output] = in.readInt();
+				if (in.readBoolean()) {
+					long rows = in.readLong();
+					long cols = in.readLong();
+					ret.outputTemplates[output] = new DenseMatrix(rows, cols).setDimensionName(readName(in),
+							readName(in));
+				} else {
+					long size = in.readLong();
+					ret.outputTemplates[output] = new DenseTensor(size).setDimensionName(readName(in));
+				}
+			}
+			ret.program = define(ret.bytecode);
+			ret.program.model = ret;
+			ret.program.buffers = buffers;
+			ret.program.structures = structures;
+			return ret;
+		} catch (IOException ex) {
+			System.err.println(ex.toString());
+			return null;
+		}
+	}
+}
@@ -2,6 +2,7 @@ package mklab.JGNN.nn;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -15,6 +16,7 @@ import mklab.JGNN.core.tensor.RepeatTensor;
 import mklab.JGNN.nn.inputs.Parameter;
 import mklab.JGNN.nn.inputs.Variable;
 import mklab.JGNN.nn.operations.Dropout;
+import mklab.JGNN.nn.operations.History;
 
 /**
  * This class is a way to organize {@link NNOperation} trees into trainable
@@ -27,6 +29,9 @@ import mklab.JGNN.nn.operations.Dropout;
 public class Model {
 	private ArrayList<Variable> inputs = new ArrayList<Variable>();
 	private ArrayList<NNOperation> outputs = new ArrayList<NNOperation>();
+	private Profiler profiler = null;
+	private boolean bufferReuse = false;
+	private final ThreadLocal<long[]> lastPassNanos = ThreadLocal.withInitial(() -> new long[2]);
 
 	/**
 	 * Instantiates an empty model.
@@ -163,6 +168,159 @@ public class Model {
 		return this;
 	}
 
+	/**
+	 * Attaches a {@link Profiler} to all operations of the model, so that it
+	 * records the time they spend in forward and backward passes. Call this after
+	 * all outputs have been added.
+	 * 
+	 * @param profiler The profiler to attach, or <code>null</code> to stop
+	 *                 profiling.
+	 * @return The model's instance.
+	 * @see #getProfiler()
+	 */
+	public Model setProfiler(Profiler profiler) {
+		this.profiler = profiler;
+		ArrayList<NNOperation> pending = new ArrayList<NNOperation>();
+		HashSet<NNOperation> visited = new HashSet<NNOperation>();
+		for (NNOperation output : outputs) {
+			visited.add(output);
+			pending.add(output);
+		}
+		while (!pending.isEmpty()) {
+			NNOperation operation = pending.remove(pending.size() - 1);
+			operation.profiler = profiler;
+			for (NNOperation input : operation.getInputs())
+				if (!visited.contains(input)) {
+					visited.add(input);
+					pending.add(input);
+				}
+		}
+		return this;
+	}
+
+	/**
+	 * Enables gradient checkpointing, which trades computations for memory when
+	 * training deep architectures. Only the predictions of the given checkpoint
+	 * operations are kept after forward passes, and intermediate predictions are
+	 * released as soon as all operations that depend on them have been computed.
+	 * Released predictions are recomputed from the nearest checkpoints when
+	 * backpropagation needs them and are released again afterwards. For example,
+	 * checkpointing every <code>sqrt(L)</code>-th layer of an <code>L</code>-layer
+	 * architecture keeps <code>O(sqrt(L))</code> layer outputs alive at the cost of
+	 * roughly one additional forward pass. <br>
+	 * Model inputs and outputs, parameters, and operations whose outputs cannot be
+	 * reproduced (such as {@link Dropout} masks and
+	 * {@link History} updates) are always retained. Call
+	 * this after all outputs have been added.
+	 * 
+	 * @param checkpoints The operations whose predictions should be retained. An
+	 *                    empty collection retains only the operations mentioned
+	 *                    above, and <code>null</code> disables checkpointing.
+	 * @return The model's instance.
+	 * @see #setCheckpoints(NNOperation...)
+	 * @see mklab.JGNN.adhoc.ModelBuilder#checkpoint(String...)
+	 */
+	public Model setCheckpoints(Collection<? extends NNOperation> checkpoints) {
+		HashSet<NNOperation> retained = checkpoints == null ? null : new HashSet<NNOperation>(checkpoints);
+		ArrayList<NNOperation> pending = new ArrayList<NNOperation>();
+		HashSet<NNOperation> visited = new HashSet<NNOperation>();
+		for (NNOperation output : outputs) {
+			visited.add(output);
+			pending.add(output);
+		}
+		while (!pending.isEmpty()) {
+			NNOperation operation = pending.remove(pending.size() - 1);
+			operation.clearPrediction();
+			operation.pinOutput = isPinned(operation);
+			operation.retainOutput = retained == null || retained.contains(operation) || operation.pinOutput;
+			for (NNOperation input : operation.getInputs())
+				if (!visited.contains(input)) {
+					visited.add(input);
+					pending.add(input);
+				}
+		}
+		return this;
+	}
+
+	/**
+	 * Enables the reuse of memory buffers during training. When enabled,
+	 * {@link #train(Loss, Optimizer, List, List, List)} allocates dense tensors
+	 * from the {@link Memory} pool of the training thread. During backpropagation,
+	 * each intermediate prediction is returned to the pool once the backward
+	 * passes of its operation and of all operations that depend on it have
+	 * concluded. Only predictions that their operation provably owns are
+	 * returned, and buffers that could be shared with other tensors, for example
+	 * because adjacent operations output views of them, are left to the garbage
+	 * collector together with gradients. Released predictions are recomputed if
+	 * requested afterwards with {@link NNOperation#getPrediction()}. Model
+	 * inputs and outputs, parameters, and predictions that cannot be reproduced
+	 * are never released. <br>
+	 * Peak memory usage of pooled buffers can be obtained with
+	 * {@link Memory#getPeakBytes()}. Call this after all outputs have been added.
+	 * 
+	 * @param reuse Whether buffer reuse should be enabled.
+	 * @return The model's instance.
+	 * @see #setCheckpoints(Collection)
+	 */
+	public Model setBufferReuse(boolean reuse) {
+		bufferReuse = reuse;
+		ArrayList<NNOperation> pending = new ArrayList<NNOperation>();
+		HashSet<NNOperation> visited = new HashSet<NNOperation>();
+		for (NNOperation output : outputs) {
+			visited.add(output);
+			pending.add(output);
+		}
+		while (!pending.isEmpty()) {
+			NNOperation operation = pending.remove(pending.size() - 1);
+			operation.clearPrediction();
+			operation.pinOutput = isPinned(operation);
+			operation.reuseBuffers = reuse;
+			for (NNOperation input : operation.getInputs())
+				if (!visited.contains(input)) {
+					visited.add(input);
+					pending.add(input);
+				}
+		}
+		return this;
+	}
+
+	/**
+	 * Checks whether buffer reuse has been enabled.
+	 * 
+	 * @return A <code>boolean</code> value.
+	 * @see #setBufferReuse(boolean)
+	 */
+	public boolean isBufferReuse() {
+		return bufferReuse;
+	}
+
+	private boolean isPinned(NNOperation operation) {
+		return outputs.contains(operation) || operation instanceof Parameter || operation instanceof Variable
+				|| operation instanceof Dropout || operation instanceof History;
+	}
+
+	/**
+	 * Enables gradient checkpointing for the given operations.
+	 * 
+	 * @param checkpoints The operations whose predictions should be retained.
+	 * @return The model's instance.
+	 * @see #setCheckpoints(Collection)
+	 */
+	public Model setCheckpoints(NNOperation... checkpoints) {
+		return setCheckpoints(Arrays.asList(checkpoints));
+	}
+
+	/**
+	 * Retrieves the profiler attached to the model.
+	 * 
+	 * @return A {@link Profiler} instance, or <code>null</code> if none is
+	 *         attached.
+	 * @see #setProfiler(Profiler)
+	 */
+	public Profiler getProfiler() {
+		return profiler;
+	}
+
 	/**
 	 * Adds to the model's inputs the provided {@link Variable}.
 	 * 
@@ -230,6 +388,19 @@ public class Model {
 		return this.predict(Arrays.asList(inputs));
 	}
 
+	/**
+	 * Compiles the model's forward pass into generated code specialized to the
+	 * sizes of the provided sample inputs. The compiled model holds copies of
+	 * current parameter values and does not reflect further training.
+	 * 
+	 * @param sampleInputs Tensors of the same sizes as future prediction inputs.
+	 * @return A {@link CompiledModel}.
+	 * @see CompiledModel#predict(List)
+	 */
+	public CompiledModel compile(Tensor... sampleInputs) {
+		return new CompiledModel(this, Arrays.asList(sampleInputs));
+	}
+
 	/**
 	 * Forward run of the model given a list of input tensors. Their order should
 	 * match the order of variables in {@link #getInputs()}.
@@ -319,20 +490,53 @@ public class Model {
 			throw new IllegalArgumentException("Incompatible number of outputs: " + desiredOutputs.size()
 					+ " given but " + this.outputs.size() + " expected");
 		setTraining(true);
-		Memory.scope().enter();
+		long[] passNanos = lastPassNanos.get();
+		long tic = System.nanoTime();
+		Memory.Scope scope = Memory.scope();
+		boolean pooling = scope.isPooling();
+		scope.setPooling(bufferReuse);
+		scope.enter();
 		ArrayList<Tensor> outputs = predict(inputs);
 		for (int i = 0; i < outputs.size(); i++)
 			outputs.get(i).persist();
-		Memory.scope().exit();
-		Memory.scope().enter();
+		scope.exit();
+		long toc = System.nanoTime();
+		passNanos[0] = toc - tic;
+		scope.enter();
 		for (int i = 0; i < outputs.size(); i++) {
 			this.outputs.get(i).forceBackpropagate(optimizer, loss.derivative(outputs.get(i), desiredOutputs.get(i)));
 		}
 		setTraining(false);
-		Memory.scope().exit();
+		scope.exit();
+		scope.setPooling(pooling);
+		passNanos[1] = System.nanoTime() - toc;
 		return outputs;
 	}
 
+	/**
+	 * Retrieves the time that the forward pass of the last
+	 * {@link #train(Loss, Optimizer, List, List, List)} call of the current thread
+	 * took.
+	 * 
+	 * @return The time in nanoseconds.
+	 * @see #getLastBackwardNanos()
+	 */
+	public long getLastForwardNanos() {
+		return lastPassNanos.get()[0];
+	}
+
+	/**
+	 * Retrieves the time that the backward pass (including gradient accumulation by
+	 * the optimizer) of the last {@link #train(Loss, Optimizer, List, List, List)}
+	 * call of the current thread took.
+	 * 
+	 * @return The time in nanoseconds.
+	 * @see #getLastForwardNanos()
+	 */
+	public long getLastBackwardNanos() {
+		return lastPassNanos.get()[1];
+	}
+
 	/**
 	 * Is equivalent to calling {@link #train(Loss, Optimizer, List, List)} for new
 	 * Zero() loss. Use this to train towards optimizing an explicitly defined loss
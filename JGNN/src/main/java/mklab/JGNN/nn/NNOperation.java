@@ -7,6 +7,8 @@ import java.util.List;
 
 import mklab.JGNN.core.Tensor;
 import mklab.JGNN.core.ThreadPool;
+import mklab.JGNN.core.matrix.RowSparseMatrix;
+import mklab.JGNN.core.util.Reductions;
 
 /**
  * This class defines an abstract neural network operation with forward and
@@ -37,11 +39,20 @@ public abstract class NNOperation {
 	private Boolean isConstant = null;
 	private Boolean isCachable = null;
 	private Tensor constantCache = null;
+	Profiler profiler = null;
+	boolean retainOutput = true;
+	boolean pinOutput = true;
+	boolean reuseBuffers = false;
 
 	protected static class ThreadData {
 		public Tensor lastOutput;
 		public Tensor tapeError;
 		public int countTapeSources;
+		public int pendingConsumers;
+		public int pendingBackward;
+		public boolean backwardDone;
+		public boolean released;
+		public boolean ownsOutput;
 		private int isLocked = -1;
 		private int threadId;
 		public int getThreadId() {
@@ -200,9 +211,10 @@ public abstract class NNOperation {
 	public final void clearPrediction() {
 		ThreadData data = data();
 		synchronized(data) {
-			if (data.lastOutput == null)
+			if (data.lastOutput == null && !data.released)
 				return;
 			data.lastOutput = null;
+			data.released = false;
 		}
 		for (NNOperation input : inputs)
 			input.clearPrediction();
@@ -221,7 +233,7 @@ public abstract class NNOperation {
 	}
 
 	public final Tensor getPrediction() {
-		return data().lastOutput;
+		return materialize();
 	}
 
 	protected boolean isOutputNeededForDerivative() {
@@ -265,14 +277,28 @@ public abstract class NNOperation {
 				data.lastOutput = constantCache;
 				if (debugging)
 					System.out.println("\tUsing cached value for " + describe());
+			} else if (profiler != null) {
+				Profiler profiler = this.profiler;
+				long bytes = profiler.allocatedBytes();
+				long tic = System.nanoTime();
+				data.lastOutput = forward(lastInputs);
+				profiler.recordForward(this, System.nanoTime() - tic, profiler.allocatedBytes() - bytes,
+						data.lastOutput);
 			} else
 				data.lastOutput = forward(lastInputs);
 			data.tapeError = null;
 			data.countTapeSources = 0;
+			data.pendingConsumers = outputs.size();
+			data.pendingBackward = outputs.size();
+			data.backwardDone = false;
+			data.released = false;
+			data.ownsOutput = constantCache == null && isExclusive(data.lastOutput, lastInputs);
 			if (isConstant() && isCachable())
 				constantCache = data.lastOutput;
 			if (debugging)
 				System.out.println("\t=> " + describe());
+			for (NNOperation input : inputs)
+				input.consumed();
 			return data.unlock();
 		} catch (Exception e) {
 			synchronized(System.err) {
@@ -301,7 +327,7 @@ public abstract class NNOperation {
 					data.tapeError = error;
 				else {
 					if (data.tapeError == null)
-						data.tapeError = data.lastOutput.zeroCopy();
+						data.tapeError = error instanceof RowSparseMatrix ? error.zeroCopy() : materialize().zeroCopy();
 					data.tapeError.selfAdd(error);
 				}
 			}
@@ -317,11 +343,11 @@ public abstract class NNOperation {
 			// "+data.tapeError+" prev out "+data.lastOutput);
 			ArrayList<Tensor> lastInputs = new ArrayList<Tensor>(inputs.size());
 			for (NNOperation input : inputs)
-				lastInputs.add(input.data().lastOutput);
-			for (int i = 0; i < inputs.size(); i++)
-				if (!inputs.get(i).isConstant())
-					inputs.get(i).backpropagate(optimizer, partial(i, lastInputs, data.lastOutput, data.tapeError));
-			trainParameters(optimizer, data.tapeError);
+				lastInputs.add(input.materialize());
+			propagateToInputs(optimizer, lastInputs, materialize(), data.tapeError, true);
+			data.backwardDone = true;
+			if (data.pendingBackward <= 0)
+				releaseOutput(false);
 			if (debugging) {
 				synchronized(System.err) {
 					System.out.println(
@@ -349,10 +375,129 @@ public abstract class NNOperation {
 		data.tapeError = error;
 		ArrayList<Tensor> lastInputs = new ArrayList<Tensor>();
 		for (NNOperation input : inputs)
-			lastInputs.add(input.data().lastOutput);
+			lastInputs.add(input.materialize());
+		propagateToInputs(optimizer, lastInputs, materialize(), error, false);
+	}
+
+	/**
+	 * Is called when one of the operation's outputs has consumed its last
+	 * prediction during a forward pass. Operations that do not retain their
+	 * outputs (see {@link Model#setCheckpoints(java.util.Collection)}) release
+	 * them once all outputs have consumed them.
+	 */
+	private void consumed() {
+		if (retainOutput || isConstant())
+			return;
+		ThreadData data = data();
+		data.pendingConsumers -= 1;
+		if (data.pendingConsumers <= 0)
+			releaseOutput(true);
+	}
+
+	/**
+	 * Is called when one of the operation's outputs has concluded its backward
+	 * pass. Once this happens for all outputs and for the operation itself, its
+	 * last prediction is no longer needed by the current pass.
+	 */
+	private void backwardConsumed() {
+		ThreadData data = data();
+		data.pendingBackward -= 1;
+		if (data.pendingBackward <= 0 && data.backwardDone)
+			releaseOutput(false);
+	}
+
+	/**
+	 * Releases the last prediction so that it can be recomputed by
+	 * {@link #materialize()} if needed again. If buffer reuse is enabled (see
+	 * {@link Model#setBufferReuse(boolean)}), the prediction's memory also returns
+	 * to the {@link mklab.JGNN.core.Memory} pool, as long as the operation
+	 * provably owns it; the prediction must have been allocated by its forward
+	 * pass without being backed by an input's array, and no prediction of
+	 * consumers may be a view of it or be backed by its array. Gradients are
+	 * never recycled, since they are handed over to other operations and
+	 * optimizers.
+	 * 
+	 * @param duringForward Whether this is called during the forward pass, in
+	 *                      which case only operations that do not retain their
+	 *                      outputs are released.
+	 */
+	private void releaseOutput(boolean duringForward) {
+		if (pinOutput || isConstant() || (retainOutput && (duringForward || !reuseBuffers)))
+			return;
+		ThreadData data = data();
+		Tensor output = data.lastOutput;
+		if (output == null)
+			return;
+		data.lastOutput = null;
+		data.released = true;
+		if (!reuseBuffers || !data.ownsOutput)
+			return;
+		for (NNOperation consumer : outputs)
+			if (!consumer.data().ownsOutput)
+				return;
+		output.release();
+	}
+
+	/**
+	 * Checks whether a tensor is a dense buffer that cannot share memory with any
+	 * of the given tensors. This holds if none of the latter is a view of some
+	 * other tensor that could be unwrapped into it, and none is backed by the same
+	 * array.
+	 */
+	private static boolean isExclusive(Tensor tensor, List<Tensor> others) {
+		double[] values = Reductions.getDenseValues(tensor);
+		if (values == null)
+			return false;
+		for (Tensor other : others) {
+			double[] otherValues = Reductions.getDenseValues(other);
+			if (otherValues == null || otherValues == values)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Retrieves the last prediction of the current thread, recomputing it from
+	 * retained predictions of inputs if it has been released. Recomputation does
+	 * not affect gradients accumulated for backpropagation.
+	 * 
+	 * @return The last prediction.
+	 */
+	private Tensor materialize() {
+		ThreadData data = data();
+		if (data.lastOutput != null || !data.released)
+			return data.lastOutput;
+		ArrayList<Tensor> lastInputs = new ArrayList<Tensor>(inputs.size());
+		for (NNOperation input : inputs)
+			lastInputs.add(input.materialize());
+		data.lastOutput = forward(lastInputs);
+		data.released = false;
+		data.ownsOutput = isExclusive(data.lastOutput, lastInputs);
+		return data.lastOutput;
+	}
+
+	private void propagateToInputs(Optimizer optimizer, List<Tensor> lastInputs, Tensor output, Tensor error,
+			boolean skipConstantInputs) {
+		Profiler profiler = this.profiler;
 		for (int i = 0; i < inputs.size(); i++)
-			inputs.get(i).backpropagate(optimizer, partial(i, lastInputs, data.lastOutput, error));
-		trainParameters(optimizer, error);
+			if (!skipConstantInputs || !inputs.get(i).isConstant()) {
+				long bytes = profiler == null ? 0 : profiler.allocatedBytes();
+				long tic = profiler == null ? 0 : System.nanoTime();
+				Tensor partial = partial(i, lastInputs, output, error);
+				if (profiler != null)
+					profiler.recordBackward(this, System.nanoTime() - tic, profiler.allocatedBytes() - bytes);
+				inputs.get(i).backpropagate(optimizer, partial);
+			}
+		if (profiler == null)
+			trainParameters(optimizer, error);
+		else {
+			long bytes = profiler.allocatedBytes();
+			long tic = System.nanoTime();
+			trainParameters(optimizer, error);
+			profiler.recordBackward(this, System.nanoTime() - tic, profiler.allocatedBytes() - bytes);
+		}
+		for (NNOperation input : inputs)
+			input.backwardConsumed();
 	}
 
 	/**
@@ -0,0 +1,329 @@
+package mklab.JGNN.nn;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.ThreadPool;
+
+/**
+ * Records the time spent by each {@link NNOperation} of a {@link Model} during
+ * forward and backward passes. Measurements only account for each operation's
+ * own computations (not those of its inputs) and are aggregated per operation,
+ * epoch and thread. Besides wall time, profiling records call counts, the last
+ * output shape and density, and the bytes allocated by the computing thread
+ * (where the JVM supports such measurements). <br>
+ * Attach profilers with {@link Model#setProfiler(Profiler)}. Operations check
+ * for a profiler once per pass, so there is no overhead when none is attached.
+ * {@link mklab.JGNN.adhoc.ModelTraining} automatically advances the profiled
+ * epoch. Results can be exported with {@link #toCSV()} and {@link #toJSON()}, or
+ * overlaid on execution graphs with
+ * {@link mklab.JGNN.adhoc.ModelBuilder#getExecutionGraphDot(Profiler)}.
+ *
+ * @author Emmanouil Krasanakis
+ */
+public class Profiler {
+	private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+	/**
+	 * Holds aggregated measurements for one operation, epoch and thread.
+	 *
+	 * @author Emmanouil Krasanakis
+	 */
+	public static class Record {
+		private final NNOperation operation;
+		private final int epoch;
+		private final int threadId;
+		private long forwardCalls = 0;
+		private long forwardNanos = 0;
+		private long backwardCalls = 0;
+		private long backwardNanos = 0;
+		private long allocatedBytes = 0;
+		private String shape = "";
+		private double density = 0;
+
+		protected Record(NNOperation operation, int epoch, int threadId) {
+			this.operation = operation;
+			this.epoch = epoch;
+			this.threadId = threadId;
+		}
+
+		public NNOperation getOperation() {
+			return operation;
+		}
+
+		public String getName() {
+			return name(operation);
+		}
+
+		public int getEpoch() {
+			return epoch;
+		}
+
+		public int getThreadId() {
+			return threadId;
+		}
+
+		public long getForwardCalls() {
+			return forwardCalls;
+		}
+
+		public long getForwardNanos() {
+			return forwardNanos;
+		}
+
+		public long getBackwardCalls() {
+			return backwardCalls;
+		}
+
+		public long getBackwardNanos() {
+			return backwardNanos;
+		}
+
+		/**
+		 * Retrieves the bytes allocated by the profiled thread while running the
+		 * operation's computations. This is zero if the JVM does not support
+		 * allocation measurements.
+		 *
+		 * @return A <code>long</code> value.
+		 */
+		public long getAllocatedBytes() {
+			return allocatedBytes;
+		}
+
+		/**
+		 * Retrieves the dimensions of the last output, as obtained by
+		 * {@link Tensor#describe()}.
+		 *
+		 * @return A <code>String</code> description.
+		 */
+		public String getShape() {
+			return shape;
+		}
+
+		public double getDensity() {
+			return density;
+		}
+	}
+
+	private final HashMap<NNOperation, HashMap<Long, Record>> records = new HashMap<NNOperation, HashMap<Long, Record>>();
+	private volatile int epoch = 0;
+	private final boolean measureAllocations;
+
+	/**
+	 * Instantiates a profiler that also measures allocated bytes if the JVM
+	 * supports it.
+	 */
+	public Profiler() {
+		this(true);
+	}
+
+	/**
+	 * Instantiates a profiler.
+	 *
+	 * @param measureAllocations Whether to measure the bytes allocated by
+	 *                           operations. This is ignored if the JVM does not
+	 *                           support such measurements.
+	 */
+	public Profiler(boolean measureAllocations) {
+		this.measureAllocations = measureAllocations && threads instanceof com.sun.management.ThreadMXBean
+				&& ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported();
+		if (this.measureAllocations)
+			((com.sun.management.ThreadMXBean) threads).setThreadAllocatedMemoryEnabled(true);
+	}
+
+	/**
+	 * Sets the epoch under which subsequent measurements are aggregated.
+	 *
+	 * @param epoch The current epoch.
+	 * @return <code>this</code> profiler.
+	 */
+	public Profiler setEpoch(int epoch) {
+		this.epoch = epoch;
+		return this;
+	}
+
+	public int getEpoch() {
+		return epoch;
+	}
+
+	/**
+	 * Removes all measurements.
+	 *
+	 * @return <code>this</code> profiler.
+	 */
+	public synchronized Profiler clear() {
+		records.clear();
+		return this;
+	}
+
+	long allocatedBytes() {
+		if (!measureAllocations)
+			return 0;
+		return ((com.sun.management.ThreadMXBean) threads).getCurrentThreadAllocatedBytes();
+	}
+
+	private Record record(NNOperation operation) {
+		int threadId = ThreadPool.getCurrentThreadId();
+		long key = ((long) epoch << 32) | (threadId & 0xffffffffL);
+		HashMap<Long, Record> operationRecords = records.get(operation);
+		if (operationRecords == null)
+			records.put(operation, operationRecords = new HashMap<Long, Record>());
+		Record record = operationRecords.get(key);
+		if (record == null)
+			operationRecords.put(key, record = new Record(operation, epoch, threadId));
+		return record;
+	}
+
+	synchronized void recordForward(NNOperation operation, long nanos, long bytes, Tensor output) {
+		Record record = record(operation);
+		record.forwardCalls += 1;
+		record.forwardNanos += nanos;
+		record.allocatedBytes += bytes;
+		if (output != null) {
+			record.shape = output.describe();
+			record.density = output.density();
+		}
+	}
+
+	synchronized void recordBackward(NNOperation operation, long nanos, long bytes) {
+		Record record = record(operation);
+		record.backwardCalls += 1;
+		record.backwardNanos += nanos;
+		record.allocatedBytes += bytes;
+	}
+
+	/**
+	 * Retrieves all measurement records, ordered by decreasing total time of their
+	 * operations.
+	 *
+	 * @return A list of {@link Record} instances.
+	 */
+	public synchronized List<Record> getRecords() {
+		ArrayList<NNOperation> operations = new ArrayList<NNOperation>(records.keySet());
+		HashMap<NNOperation, Long> totals = new HashMap<NNOperation, Long>();
+		for (NNOperation operation : operations)
+			totals.put(operation, getTotalNanos(operation));
+		operations.sort((a, b) -> Long.compare(totals.get(b), totals.get(a)));
+		ArrayList<Record> ret = new ArrayList<Record>();
+		for (NNOperation operation : operations) {
+			ArrayList<Record> operationRecords = new ArrayList<Record>(records.get(operation).values());
+			operationRecords.sort((a, b) -> a.epoch != b.epoch ? Integer.compare(a.epoch, b.epoch)
+					: Integer.compare(a.threadId, b.threadId));
+			ret.addAll(operationRecords);
+		}
+		return ret;
+	}
+
+	/**
+	 * Retrieves the total forward and backward time measured for an operation
+	 * across all epochs and threads.
+	 *
+	 * @param operation The profiled operation.
+	 * @return The time in nanoseconds.
+	 */
+	public synchronized long getTotalNanos(NNOperation operation) {
+		HashMap<Long, Record> operationRecords = records.get(operation);
+		if (operationRecords == null)
+			return 0;
+		long ret = 0;
+		for (Record record : operationRecords.values())
+			ret += record.forwardNanos + record.backwardNanos;
+		return ret;
+	}
+
+	/**
+	 * Retrieves the total forward and backward time measured across all
+	 * operations.
+	 *
+	 * @return The time in nanoseconds.
+	 */
+	public synchronized long getTotalNanos() {
+		long ret = 0;
+		for (NNOperation operation : records.keySet())
+			ret += getTotalNanos(operation);
+		return ret;
+	}
+
+	static String name(NNOperation operation) {
+		if (operation.getDescription() != null)
+			return operation.getDescription();
+		return operation.getSimpleDescription() + "#" + operation.hashCode();
+	}
+
+	private static String quote(String text) {
+		return "\"" + text.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+	}
+
+	/**
+	 * Exports measurements in CSV format with a header line.
+	 *
+	 * @return A <code>String</code> with one line per record.
+	 * @see #toJSON()
+	 */
+	public String toCSV() {
+		StringBuilder ret = new StringBuilder(
+				"operation,type,epoch,thread,forwardCalls,forwardNanos,backwardCalls,backwardNanos,allocatedBytes,shape,density\n");
+		for (Record record : getRecords())
+			ret.append(quote(record.getName())).append(",").append(record.operation.getSimpleDescription()).append(",")
+					.append(record.epoch).append(",").append(record.threadId).append(",").append(record.forwardCalls)
+					.append(",").append(record.forwardNanos).append(",").append(record.backwardCalls).append(",")
+					.append(record.backwardNanos).append(",").append(record.allocatedBytes).append(",")
+					.append(quote(record.shape)).append(",").append(record.density).append("\n");
+		return ret.toString();
+	}
+
+	/**
+	 * Exports measurements as a JSON array of records. Undefined densities, such
+	 * as those of empty outputs, are exported as <code>null</code>.
+	 *
+	 * @return A <code>String</code> in JSON format.
+	 * @see #toCSV()
+	 */
+	public String toJSON() {
+		StringBuilder ret = new StringBuilder("[");
+		boolean isNotFirst = false;
+		for (Record record : getRecords()) {
+			if (isNotFirst)
+				ret.append(",");
+			isNotFirst = true;
+			ret.append("\n  {\"operation\": ").append(quote(record.getName())).append(", \"type\": ")
+					.append(quote(record.operation.getSimpleDescription())).append(", \"epoch\": ")
+					.append(record.epoch).append(", \"thread\": ").append(record.threadId)
+					.append(", \"forwardCalls\": ").append(record.forwardCalls).append(", \"forwardNanos\": ")
+					.append(record.forwardNanos).append(", \"backwardCalls\": ").append(record.backwardCalls)
+					.append(", \"backwardNanos\": ").append(record.backwardNanos).append(", \"allocatedBytes\": ")
+					.append(record.allocatedBytes).append(", \"shape\": ").append(quote(record.shape))
+					.append(", \"density\": ").append(Double.isFinite(record.density) ? record.density : "null")
+					.append("}");
+		}
+		ret.append("\n]");
+		return ret.toString();
+	}
+
+	/**
+	 * Writes measurements to a file, in JSON format if the path ends with
+	 * <i>.json</i> and in CSV format otherwise.
+	 *
+	 * @param path The file path.
+	 * @return <code>this</code> profiler.
+	 * @see #toCSV()
+	 * @see #toJSON()
+	 */
+	public Profiler save(Path path) {
+		try (BufferedWriter writer = Files.newBufferedWriter(path)) {
+			writer.write(path.toString().endsWith(".json") ? toJSON() : toCSV());
+		} catch (IOException ex) {
+			System.err.println(ex.toString());
+			return null;
+		}
+		return this;
+	}
+}
@@ -1,12 +1,11 @@
 package mklab.JGNN.nn.activations;
 
 import java.util.List;
-import java.util.Map.Entry;
 
 import mklab.JGNN.core.Matrix;
 import mklab.JGNN.nn.NNOperation;
 import mklab.JGNN.core.Tensor;
-import mklab.JGNN.core.tensor.DenseTensor;
+import mklab.JGNN.core.util.Reductions;
 
 /**
  * Implements a {@link NNOperation} that performs a L1 transformation of its one
@@ -43,41 +42,9 @@ public class L1 extends NNOperation {
 	public Tensor forward(List<Tensor> inputs) {
 		if (inputs.size() != 1)
 			throw new IllegalArgumentException();
-		Tensor ret = inputs.get(0).copy();
-		if (ret instanceof Matrix) {
-			if (colMode) {
-				Matrix matrix = ret.cast(Matrix.class);
-				Tensor sums = new DenseTensor(matrix.getRows());
-				for (Entry<Long, Long> pos : matrix.getNonZeroEntries()) {
-					long row = pos.getKey();
-					long col = pos.getValue();
-					sums.putAdd(row, matrix.get(row, col));
-				}
-				for (Entry<Long, Long> pos : matrix.getNonZeroEntries()) {
-					long row = pos.getKey();
-					long col = pos.getValue();
-					double div = sums.get(row);
-					matrix.put(row, col, Math.abs(matrix.get(row, col)) / div);
-				}
-			} else {
-				Matrix matrix = ret.cast(Matrix.class);
-				Tensor sums = new DenseTensor(matrix.getCols());
-				for (Entry<Long, Long> pos : matrix.getNonZeroEntries()) {
-					long row = pos.getKey();
-					long col = pos.getValue();
-					sums.putAdd(col, matrix.get(row, col));
-				}
-				for (Entry<Long, Long> pos : matrix.getNonZeroEntries()) {
-					long row = pos.getKey();
-					long col = pos.getValue();
-					double div = sums.get(col);
-					if (div != 0)
-						matrix.put(row, col, Math.abs(matrix.get(row, col)) / div);
-				}
-			}
-		} else
-			return ret.setToProbability();
-		return ret;
+		if (inputs.get(0) instanceof Matrix)
+			return Reductions.l1(inputs.get(0).cast(Matrix.class), colMode);
+		return inputs.get(0).copy().setToProbability();
 	}
 
 	@Override
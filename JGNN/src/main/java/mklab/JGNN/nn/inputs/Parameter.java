@@ -1,10 +1,14 @@
 package mklab.JGNN.nn.inputs;
 
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 import mklab.JGNN.nn.NNOperation;
 import mklab.JGNN.nn.Optimizer;
+import mklab.JGNN.core.Matrix;
 import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.ThreadPool;
+import mklab.JGNN.core.matrix.RowSparseMatrix;
 
 /**
  * Implements a {@link NNOperation} that holds and returns a parameter tensor.
@@ -15,6 +19,7 @@ import mklab.JGNN.core.Tensor;
 public class Parameter extends NNOperation {
 	protected Tensor tensor;
 	protected double regularization;
+	private final ConcurrentHashMap<Integer, Tensor> threadValues = new ConcurrentHashMap<Integer, Tensor>();
 	public Parameter(Tensor tensor) {
 		this(tensor, 0);
 	}
@@ -41,18 +46,44 @@ public class Parameter extends NNOperation {
 	public Tensor get() {
 		return this.tensor;
 	}
+	/**
+	 * Sets a value that the current thread sees instead of the parameter's value
+	 * tensor during forward passes, for example to run predictions on a snapshot
+	 * of parameters while other threads keep training them.
+	 * @param value The value to see, or <code>null</code> to see the parameter's
+	 * value tensor again.
+	 * @return <code>this</code> parameter.
+	 * @see mklab.JGNN.core.ThreadPool#getCurrentThreadId()
+	 */
+	public Parameter setThreadValue(Tensor value) {
+		int threadId = ThreadPool.getCurrentThreadId();
+		if(value==null)
+			threadValues.remove(threadId);
+		else {
+			tensor.assertMatching(value);
+			threadValues.put(threadId, value);
+		}
+		return this;
+	}
 	@Override
 	public NNOperation addInput(NNOperation inputComponent) {
 		throw new RuntimeException("Parameter can not have inputs");
 	}
 	@Override
 	protected void trainParameters(Optimizer optimizer, Tensor error) {
-		if(regularization!=0)
+		if(regularization!=0 && error instanceof RowSparseMatrix)
+			error = ((RowSparseMatrix) error.copy()).selfAddStoredRows(tensor.cast(Matrix.class), regularization);
+		else if(regularization!=0)
 			error = error.add(tensor.multiply(regularization));
 		optimizer.update(tensor, error);
 	}
 	@Override
 	protected Tensor forward(List<Tensor> inputs) {
+		if(!threadValues.isEmpty()) {
+			Tensor value = threadValues.get(ThreadPool.getCurrentThreadId());
+			if(value!=null)
+				return value;
+		}
 		return tensor;
 	}
 	@Override
@@ -1,9 +1,12 @@
 package mklab.JGNN.nn.operations;
 
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import mklab.JGNN.nn.NNOperation;
 import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.ThreadPool;
 import mklab.JGNN.core.matrix.ColumnRepetition;
 
 /**
@@ -14,14 +17,31 @@ import mklab.JGNN.core.matrix.ColumnRepetition;
  * @author Emmanouil Krasanakis
  */
 public class Dropout extends NNOperation {
-	private boolean enabled = false;
+	private final Set<Integer> enabledThreads = ConcurrentHashMap.newKeySet();
 
+	/**
+	 * Checks whether dropout is applied by the current thread.
+	 * 
+	 * @return A <code>boolean</code> value.
+	 * @see #setEnabled(boolean)
+	 */
 	public boolean isEnabled() {
-		return enabled;
+		return !enabledThreads.isEmpty() && enabledThreads.contains(ThreadPool.getCurrentThreadId());
 	}
 
+	/**
+	 * Sets whether dropout is applied by the current thread. This is set per
+	 * thread so that predictions can run without dropout while other threads
+	 * train the same model.
+	 * 
+	 * @param enabled Whether to apply dropout.
+	 * @see ThreadPool#getCurrentThreadId()
+	 */
 	public void setEnabled(boolean enabled) {
-		this.enabled = enabled;
+		if (enabled)
+			enabledThreads.add(ThreadPool.getCurrentThreadId());
+		else
+			enabledThreads.remove(ThreadPool.getCurrentThreadId());
 	}
 
 	@Override
@@ -31,7 +51,7 @@ public class Dropout extends NNOperation {
 		double value = inputs.get(1).toDouble();
 		if (value < 0 || value > 1)
 			throw new IllegalArgumentException();
-		if (!enabled || value == 0)
+		if (!isEnabled() || value == 0)
 			return inputs.get(0);
 		Tensor input = inputs.get(0);
 		Tensor ret = inputs.get(0).zeroCopy();
@@ -45,7 +65,7 @@ public class Dropout extends NNOperation {
 	protected Tensor partial(int inputId, List<Tensor> inputs, Tensor output, Tensor error) {
 		if (inputId == 1)
 			return null;
-		if (!enabled)
+		if (!isEnabled())
 			return error;
 		double value = inputs.get(1).toDouble();
 		Tensor ret = output.zeroCopy();
@@ -3,12 +3,17 @@ package mklab.JGNN.nn.operations;
 import java.util.List;
 
 import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.matrix.RowSparseMatrix;
 import mklab.JGNN.nn.NNOperation;
+import mklab.JGNN.nn.inputs.Parameter;
 import mklab.JGNN.core.Tensor;
 
 /**
  * Implements a {@link NNOperation} that performs the equivalent of TensorFlow's
- * gather operation.
+ * gather operation. When gathering rows of a {@link Parameter}, such as an
+ * embedding table, the derivative is a {@link RowSparseMatrix} that only stores
+ * gathered rows, so that optimizers can update only those. Gathered rows are
+ * copied into a contiguous matrix with {@link Matrix#gatherRows(Tensor)}.
  * 
  * @author Emmanouil Krasanakis
  */
@@ -17,14 +22,8 @@ public class Gather extends NNOperation {
 	protected Tensor forward(List<Tensor> inputs) {
 		if (inputs.size() != 2)
 			throw new IllegalArgumentException();
-		return inputs.get(1).cast(Matrix.class).accessRows(inputs.get(0));
-		/*
-		 * Tensor index = inputs.get(0); Matrix H = (Matrix) inputs.get(1); Matrix ret =
-		 * H.zeroCopy(index.size(), H.getCols()).setRowName(index.getDimensionName());
-		 * for(int i=0;i<index.size();i++) { int pos = (int)index.get(i); for(int
-		 * j=0;j<H.getCols();j++) ret.put(i, j, ret.get(i, j) + H.get(pos, j)); } return
-		 * ret;
-		 */
+		Tensor index = inputs.get(0);
+		return inputs.get(1).cast(Matrix.class).gatherRows(index).setRowName(index.getDimensionName());
 	}
 
 	@Override
@@ -34,7 +33,9 @@ public class Gather extends NNOperation {
 		Tensor index = inputs.get(0);
 		Matrix H = inputs.get(1).cast(Matrix.class);
 		Matrix errorMatrix = error.cast(Matrix.class);
-		Matrix derivative = H.zeroCopy().cast(Matrix.class);
+		Matrix derivative = getInputs().get(1) instanceof Parameter
+				? new RowSparseMatrix(H.getRows(), H.getCols()).setDimensionName(H)
+				: H.zeroCopy().cast(Matrix.class);
 		for (int i = 0; i < index.size(); i++) {
 			int pos = (int) index.get(i);
 			derivative.accessRow(pos).selfAdd(errorMatrix.accessRow(i));
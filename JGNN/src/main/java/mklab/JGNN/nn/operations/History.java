@@ -0,0 +1,301 @@
+package mklab.JGNN.nn.operations;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+
+import it.unimi.dsi.fastutil.ints.IntArrayFIFOQueue;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.matrix.SparseMatrix;
+import mklab.JGNN.nn.NNOperation;
+
+/**
+ * Implements a {@link NNOperation} that keeps historical embeddings of hidden
+ * node representations, as in GNNAutoScale. Its first input holds freshly
+ * computed representations of a batch of nodes, whose identifiers are given by
+ * the second input, so that row <code>i</code> corresponds to node
+ * <code>nodes[i]</code>. The output is a matrix with one row per graph node,
+ * where batch rows hold the fresh representations and all other (halo) rows
+ * are read from the last representations pushed for those nodes. This lets
+ * message passing over <code>A[nodes]</code> run with per-batch cost. <br>
+ * Historical rows are stored in single precision and are allocated only for
+ * nodes that have been pushed. Rows that have not been refreshed for more than
+ * a maximum number of pushes are evicted when new batches are pushed and are
+ * read as zeros until they are computed again. Pushing batches and evicting
+ * rows take work and memory proportional to the batch size, as eviction only
+ * visits rows in the order they were pushed, but traversing the non-zero
+ * elements of outputs visits all stored rows. Backpropagation only flows
+ * towards batch rows, since halo rows are treated as constants.<br>
+ * Outputs do not copy halo rows, but read them when accessed. When several
+ * threads train on the same model, for example with
+ * {@link mklab.JGNN.adhoc.ModelTraining#setHogwild(int, int)}, halo rows may
+ * thus reflect batches pushed by other threads after the output was created.
+ * Each halo row is replaced as a whole when pushed, so reads never mix the
+ * values of different pushes.
+ *
+ * @author Emmanouil Krasanakis
+ * @see mklab.JGNN.adhoc.parsers.FastBuilder#history(int)
+ */
+public class History extends NNOperation {
+	private final long numNodes;
+	private final int maxStaleness;
+	private float[][] rows;
+	private int[] pushedAt;
+	private int[] stored;
+	private int[] storedPos;
+	private int numStored;
+	private IntArrayFIFOQueue pushedNodes;
+	private IntArrayFIFOQueue pushedSteps;
+	private int step = 0;
+
+	/**
+	 * Instantiates a historical embedding store without a staleness bound.
+	 *
+	 * @param numNodes The number of graph nodes.
+	 * @see #History(long, int)
+	 */
+	public History(long numNodes) {
+		this(numNodes, 0);
+	}
+
+	/**
+	 * Instantiates a historical embedding store.
+	 *
+	 * @param numNodes     The number of graph nodes.
+	 * @param maxStaleness The maximum number of batch pushes for which a
+	 *                     historical row is considered valid. Zero or negative
+	 *                     values never evict rows.
+	 */
+	public History(long numNodes, int maxStaleness) {
+		if (numNodes <= 0 || numNodes > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Invalid number of nodes for historical embeddings: " + numNodes);
+		this.numNodes = numNodes;
+		this.maxStaleness = maxStaleness;
+		clear();
+	}
+
+	/**
+	 * Retrieves the maximum number of batch pushes for which historical rows are
+	 * considered valid.
+	 *
+	 * @return An <code>int</code> value.
+	 */
+	public int getMaxStaleness() {
+		return maxStaleness;
+	}
+
+	/**
+	 * Releases the memory of historical rows that exceed the staleness bound. Such
+	 * rows are already read as zeros, so this does not affect outcomes. This is
+	 * also performed automatically whenever a new batch is pushed, and visits only
+	 * rows that have become stale since the last eviction.
+	 *
+	 * @return The number of released rows.
+	 * @see #getMaxStaleness()
+	 */
+	public synchronized long evictStale() {
+		long ret = 0;
+		if (maxStaleness <= 0)
+			return ret;
+		while (!pushedSteps.isEmpty() && step - pushedSteps.firstInt() > maxStaleness) {
+			int node = pushedNodes.dequeueInt();
+			int pushStep = pushedSteps.dequeueInt();
+			if (rows[node] != null && pushedAt[node] == pushStep) {
+				rows[node] = null;
+				unstore(node);
+				ret += 1;
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Retrieves the number of nodes for which historical embeddings are currently
+	 * stored.
+	 *
+	 * @return A <code>long</code> value.
+	 */
+	public synchronized long getNumStored() {
+		return numStored;
+	}
+
+	/**
+	 * Removes all stored historical embeddings, for example to re-initialize the
+	 * store after retraining.
+	 *
+	 * @return <code>this</code> operation.
+	 */
+	public synchronized History clear() {
+		rows = new float[(int) numNodes][];
+		pushedAt = new int[(int) numNodes];
+		stored = new int[(int) numNodes];
+		storedPos = new int[(int) numNodes];
+		numStored = 0;
+		pushedNodes = new IntArrayFIFOQueue();
+		pushedSteps = new IntArrayFIFOQueue();
+		step = 0;
+		return this;
+	}
+
+	private void unstore(int node) {
+		int pos = storedPos[node];
+		int last = stored[--numStored];
+		stored[pos] = last;
+		storedPos[last] = pos;
+	}
+
+	private synchronized int push(Matrix fresh, Tensor nodes) {
+		step += 1;
+		int cols = (int) fresh.getCols();
+		for (long i = 0; i < nodes.size(); i++) {
+			int node = (int) nodes.get(i);
+			if (rows[node] == null) {
+				storedPos[node] = numStored;
+				stored[numStored++] = node;
+			}
+			// rows are replaced instead of overwritten, as outputs read them concurrently
+			float[] row = new float[cols];
+			for (int col = 0; col < cols; col++)
+				row[col] = (float) fresh.get(i, col);
+			rows[node] = row;
+			pushedAt[node] = step;
+			if (maxStaleness > 0) {
+				pushedNodes.enqueue(node);
+				pushedSteps.enqueue(step);
+			}
+		}
+		evictStale();
+		return step;
+	}
+
+	@Override
+	protected Tensor forward(List<Tensor> inputs) {
+		if (inputs.size() != 2)
+			throw new IllegalArgumentException();
+		Matrix fresh = inputs.get(0).cast(Matrix.class);
+		Tensor nodes = inputs.get(1);
+		if (fresh.getRows() != nodes.size())
+			throw new IllegalArgumentException("History expects one row of " + fresh.describe()
+					+ " per node identifier in " + nodes.describe());
+		return new HistoryView(fresh, nodes, push(fresh, nodes));
+	}
+
+	@Override
+	protected Tensor partial(int inputId, List<Tensor> inputs, Tensor output, Tensor error) {
+		if (inputId == 1)
+			return null;
+		Tensor nodes = inputs.get(1);
+		Matrix errorMatrix = error.cast(Matrix.class);
+		Matrix derivative = inputs.get(0).cast(Matrix.class).zeroCopy();
+		for (long i = 0; i < nodes.size(); i++)
+			derivative.accessRow(i).selfAdd(errorMatrix.accessRow((long) nodes.get(i)));
+		return derivative;
+	}
+
+	/**
+	 * Matrix view over the historical embeddings that overlays a copy of the rows
+	 * of the current batch. No memory is allocated for the remaining rows, and
+	 * only batch and stored rows are traversed as non-zero.
+	 */
+	protected class HistoryView extends Matrix {
+		private double[] fresh;
+		private int[] freshNodes;
+		private Long2IntOpenHashMap freshRows;
+		private int step;
+
+		protected HistoryView(Matrix fresh, Tensor nodes, int step) {
+			super(numNodes, fresh.getCols());
+			int cols = (int) fresh.getCols();
+			this.fresh = new double[(int) nodes.size() * cols];
+			this.step = step;
+			freshNodes = new int[(int) nodes.size()];
+			freshRows = new Long2IntOpenHashMap((int) nodes.size());
+			freshRows.defaultReturnValue(-1);
+			for (int i = 0; i < freshNodes.length; i++) {
+				freshNodes[i] = (int) nodes.get(i);
+				freshRows.put(freshNodes[i], i);
+				for (int col = 0; col < cols; col++)
+					this.fresh[i * cols + col] = fresh.get(i, col);
+			}
+			setColName(fresh.getColName());
+		}
+
+		private boolean isAvailable(float[] values, int row) {
+			return values != null && (maxStaleness <= 0 || step - pushedAt[row] <= maxStaleness);
+		}
+
+		private IntArrayList availableRows() {
+			IntArrayList ret = new IntArrayList(freshNodes);
+			synchronized (History.this) {
+				for (int i = 0; i < numStored; i++)
+					if (freshRows.get(stored[i]) == -1 && isAvailable(History.this.rows[stored[i]], stored[i]))
+						ret.add(stored[i]);
+			}
+			return ret;
+		}
+
+		@Override
+		public Matrix zeroCopy(long rows, long cols) {
+			return new SparseMatrix(rows, cols);
+		}
+
+		@Override
+		protected void allocate(long size) {
+		}
+
+		@Override
+		public Tensor put(long pos, double value) {
+			throw new UnsupportedOperationException("Historical embeddings are read-only");
+		}
+
+		@Override
+		public double get(long pos) {
+			long row = pos % getRows();
+			long col = pos / getRows();
+			int freshRow = freshRows.get(row);
+			if (freshRow != -1)
+				return fresh[freshRow * (int) getCols() + (int) col];
+			float[] values = History.this.rows[(int) row];
+			if (!isAvailable(values, (int) row))
+				return 0;
+			return values[(int) col];
+		}
+
+		@Override
+		public Iterator<Long> traverseNonZeroElements() {
+			ArrayList<Long> positions = new ArrayList<Long>();
+			IntArrayList available = availableRows();
+			for (int i = 0; i < available.size(); i++) {
+				long row = available.getInt(i);
+				for (long col = 0; col < getCols(); col++)
+					positions.add(row + col * getRows());
+			}
+			return positions.iterator();
+		}
+
+		@Override
+		public Iterable<Entry<Long, Long>> getNonZeroEntries() {
+			ArrayList<Entry<Long, Long>> entries = new ArrayList<Entry<Long, Long>>();
+			IntArrayList available = availableRows();
+			for (int i = 0; i < available.size(); i++) {
+				long row = available.getInt(i);
+				for (long col = 0; col < getCols(); col++)
+					entries.add(new AbstractMap.SimpleEntry<Long, Long>(row, col));
+			}
+			return entries;
+		}
+
+		@Override
+		public void release() {
+		}
+
+		@Override
+		public void persist() {
+		}
+	}
+}
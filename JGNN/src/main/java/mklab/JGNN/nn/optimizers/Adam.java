@@ -1,9 +1,13 @@
 package mklab.JGNN.nn.optimizers;
 
-import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import mklab.JGNN.nn.Optimizer;
+import mklab.JGNN.core.Expression;
+import mklab.JGNN.core.Matrix;
 import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.matrix.RowSparseMatrix;
 
 /**
  * Thic class implements an Adam {@link Optimizer} as explained in the paper:
@@ -23,10 +27,12 @@ public class Adam implements Optimizer {
 	private double espilon;
 	private boolean NDmode;
 
-	private HashMap<Tensor, Tensor> m = new HashMap<Tensor, Tensor>();
-	private HashMap<Tensor, Tensor> v = new HashMap<Tensor, Tensor>();
-	private HashMap<Tensor, Double> b1t = new HashMap<Tensor, Double>();
-	private HashMap<Tensor, Double> b2t = new HashMap<Tensor, Double>();
+	private boolean lockFree = false;
+
+	private Map<Tensor, Tensor> m = new ConcurrentHashMap<Tensor, Tensor>();
+	private Map<Tensor, Tensor> v = new ConcurrentHashMap<Tensor, Tensor>();
+	private Map<Tensor, Double> b1t = new ConcurrentHashMap<Tensor, Double>();
+	private Map<Tensor, Double> b2t = new ConcurrentHashMap<Tensor, Double>();
 
 	/**
 	 * Initializes an NDAdam instance of an {@link Adam} optimizer with the default
@@ -99,38 +105,153 @@ public class Adam implements Optimizer {
 		this.espilon = epsilon;
 	}
 
+	/**
+	 * Sets whether updates should be applied without locking the updated tensor.
+	 * This lets threads that train the same parameters concurrently overwrite each
+	 * other's updates of values and moments, which is acceptable for sparse
+	 * gradients that rarely collide (Hogwild! training). Only the allocation of
+	 * moments is synchronized. The bias corrections <i>b1<sup>t</sup></i> and
+	 * <i>b2<sup>t</sup></i> of each tensor are also read, multiplied and
+	 * written back without synchronization, so concurrent updates can lose some
+	 * of their steps. This makes corrections lag behind the true number of
+	 * updates and hence overestimate moments, which is mostly noticeable in early
+	 * steps where corrections are large.
+	 *
+	 * @param lockFree Whether updates are lock-free. Default is
+	 *                 <code>false</code>.
+	 * @return <code>this</code> optimizer.
+	 * @see mklab.JGNN.adhoc.ModelTraining#setHogwild(int, int)
+	 */
+	public Adam setLockFree(boolean lockFree) {
+		this.lockFree = lockFree;
+		return this;
+	}
+
 	@Override
 	public void update(Tensor value, Tensor gradient) {
+		if (lockFree) {
+			apply(value, gradient);
+			return;
+		}
 		synchronized (value) {
-			Tensor mValue = m.get(value);
-			Tensor vValue = v.get(value);
-			if (mValue == null) {
-				m.put(value, mValue = value.zeroCopy());
-				v.put(value, vValue = value.zeroCopy());
+			apply(value, gradient);
+		}
+	}
+
+	private Tensor firstMoment(Tensor value) {
+		Tensor mValue = m.get(value);
+		if (mValue == null)
+			synchronized (value) {
+				mValue = m.get(value);
+				if (mValue == null) {
+					// the second moment is stored first, so that it exists once the first does
+					v.put(value, value.zeroCopy());
+					m.put(value, mValue = value.zeroCopy());
+				}
 			}
-			// Tensor val = value.copy().setToNormalized();
-			if (NDmode)
-				gradient = gradient.subtract(value.multiply(gradient.dot(value)));
-			b1t.put(value, b1t.getOrDefault(value, 1.) * b1);
-			b2t.put(value, b2t.getOrDefault(value, 1.) * b2);
-
-			mValue.selfMultiply(b1).selfAdd(gradient.multiply(1 - b1));
-			vValue.selfMultiply(b2).selfAdd(gradient.multiply(gradient).selfMultiply(1 - b2));
-
-			Tensor mHat = mValue.multiply(1. / (1 - b1t.get(value)));
-			Tensor vHat = vValue.multiply(1. / (1 - b2t.get(value)));
-			value.selfAdd(
-					mHat.selfMultiply(-learningRate).selfMultiply(vHat.selfAdd(espilon).selfSqrt().selfInverse()));
-			if (NDmode)
-				value.setToNormalized();
+		return mValue;
+	}
+
+	private void apply(Tensor value, Tensor gradient) {
+		if (gradient instanceof RowSparseMatrix && !NDmode) {
+			updateRows(value.cast(Matrix.class), (RowSparseMatrix) gradient);
+			return;
+		}
+		Tensor mValue = firstMoment(value);
+		Tensor vValue = v.get(value);
+		// Tensor val = value.copy().setToNormalized();
+		if (NDmode)
+			gradient = gradient.subtract(value.multiply(gradient.dot(value)));
+		b1t.put(value, b1t.getOrDefault(value, 1.) * b1);
+		b2t.put(value, b2t.getOrDefault(value, 1.) * b2);
+
+		// each expression is computed in one pass without intermediate tensors
+		mValue.lazy().multiply(b1).add(gradient.lazy().multiply(1 - b1)).assign(mValue);
+		vValue.lazy().multiply(b2).add(gradient.lazy().multiply(gradient).multiply(1 - b2)).assign(vValue);
+
+		Expression mHat = mValue.lazy().multiply(1. / (1 - b1t.get(value)));
+		Expression vHat = vValue.lazy().multiply(1. / (1 - b2t.get(value)));
+		value.lazy().add(mHat.multiply(-learningRate).multiply(vHat.add(espilon).sqrt().inverse())).assign(value);
+		if (NDmode)
+			value.setToNormalized();
+	}
+
+	/**
+	 * Performs lazy Adam updates that only affect the stored rows of row-sparse
+	 * gradients, such as those of gathered embeddings. Moments of other rows are
+	 * not decayed, and bias correction uses the number of updates of the whole
+	 * tensor.
+	 */
+	private void updateRows(Matrix value, RowSparseMatrix gradient) {
+		Matrix mValue = (Matrix) firstMoment(value);
+		Matrix vValue = (Matrix) v.get(value);
+		b1t.put(value, b1t.getOrDefault(value, 1.) * b1);
+		b2t.put(value, b2t.getOrDefault(value, 1.) * b2);
+		double mCorrection = 1. / (1 - b1t.get(value));
+		double vCorrection = 1. / (1 - b2t.get(value));
+		long cols = value.getCols();
+		for (long row : gradient.getStoredRows()) {
+			double[] rowGradient = gradient.getStoredRow(row);
+			for (int col = 0; col < cols; col++) {
+				double g = rowGradient[col];
+				double mElement = mValue.get(row, col) * b1 + g * (1 - b1);
+				double vElement = vValue.get(row, col) * b2 + g * g * (1 - b2);
+				mValue.put(row, col, mElement);
+				vValue.put(row, col, vElement);
+				value.put(row, col, value.get(row, col)
+						- learningRate * mElement * mCorrection / Math.sqrt(vElement * vCorrection + espilon));
+			}
+		}
+	}
+
+	/**
+	 * Retrieves the optimization memory of a tensor, which can be used to save
+	 * training progress.
+	 * 
+	 * @param value The tensor being optimized.
+	 * @return An array of the first moment, second moment, and the bias
+	 *         corrections <i>b1<sup>t</sup></i> and <i>b2<sup>t</sup></i> as
+	 *         one-element tensors, or <code>null</code> if the tensor has not been
+	 *         updated yet. Moments are not copied.
+	 * @see #setState(Tensor, Tensor, Tensor, double, double)
+	 */
+	public Tensor[] getState(Tensor value) {
+		synchronized (value) {
+			Tensor mValue = m.get(value);
+			if (mValue == null)
+				return null;
+			return new Tensor[] { mValue, v.get(value), Tensor.fromDouble(b1t.get(value)),
+					Tensor.fromDouble(b2t.get(value)) };
+		}
+	}
+
+	/**
+	 * Sets the optimization memory of a tensor, for example to resume training
+	 * from a saved checkpoint.
+	 * 
+	 * @param value        The tensor being optimized.
+	 * @param firstMoment  The first moment, with the same size as the tensor.
+	 * @param secondMoment The second moment, with the same size as the tensor.
+	 * @param b1t          The bias correction <i>b1<sup>t</sup></i>.
+	 * @param b2t          The bias correction <i>b2<sup>t</sup></i>.
+	 * @see #getState(Tensor)
+	 */
+	public void setState(Tensor value, Tensor firstMoment, Tensor secondMoment, double b1t, double b2t) {
+		value.assertMatching(firstMoment);
+		value.assertMatching(secondMoment);
+		synchronized (value) {
+			m.put(value, firstMoment);
+			v.put(value, secondMoment);
+			this.b1t.put(value, b1t);
+			this.b2t.put(value, b2t);
 		}
 	}
 
 	@Override
 	public void reset() {
-		m = new HashMap<Tensor, Tensor>();
-		v = new HashMap<Tensor, Tensor>();
-		b1t = new HashMap<Tensor, Double>();
-		b2t = new HashMap<Tensor, Double>();
+		m = new ConcurrentHashMap<Tensor, Tensor>();
+		v = new ConcurrentHashMap<Tensor, Tensor>();
+		b1t = new ConcurrentHashMap<Tensor, Double>();
+		b2t = new ConcurrentHashMap<Tensor, Double>();
 	}
 }
@@ -1,10 +1,19 @@
 package mklab.JGNN.nn.optimizers;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 import mklab.JGNN.nn.Optimizer;
+import mklab.JGNN.nn.optimizers.compression.GradientCodec;
 import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.matrix.RowSparseMatrix;
+import mklab.JGNN.core.util.Reductions;
 
 /**
  * Wraps an {@link Optimizer} by accumulating derivatives and calling
@@ -13,6 +22,10 @@ import mklab.JGNN.core.Tensor;
  * update. Provides a method {@link #updateAll()} to update all accumulated 
  * derivatives, for example in case the constructor {@link #BatchOptimizer(Optimizer)}
  * is used without inputting a fixed number of derivative updates.
+ * Row-sparse derivatives, such as those of gathered embeddings, are accumulated
+ * in a {@link RowSparseMatrix} as long as no dense derivatives are received.
+ * Average derivatives can optionally pass through a {@link GradientCodec}
+ * before being given to the base optimizer.
  * 
  * @author Emmanouil Krasanakis
  */
@@ -21,6 +34,11 @@ public class BatchOptimizer implements Optimizer {
 	private long batchSize;
 	private HashMap<Tensor, Tensor> derivativeAccumulation = new HashMap<Tensor, Tensor>();
 	private HashMap<Tensor, Integer> batchProgress = new HashMap<Tensor, Integer>();
+	private GradientCodec codec;
+	private boolean errorFeedback;
+	private Map<Tensor, double[]> residuals = new ConcurrentHashMap<Tensor, double[]>();
+	private Map<Tensor, ByteBuffer> encodings = new ConcurrentHashMap<Tensor, ByteBuffer>();
+	private Set<Tensor> reduced = ConcurrentHashMap.newKeySet();
 	
 	/**
 	 * Initializes a {@link BatchOptimizer} that accumulates derivatives and updates them
@@ -41,6 +59,82 @@ public class BatchOptimizer implements Optimizer {
 		this.baseOptimizer = baseOptimizer;
 		this.batchSize = batchSize;
 	}
+	/**
+	 * Retrieves the optimizer wrapped by this one.
+	 * 
+	 * @return An {@link Optimizer} instance.
+	 */
+	public Optimizer getBaseOptimizer() {
+		return baseOptimizer;
+	}
+
+	/**
+	 * Sets a codec through which average derivatives pass before being given to
+	 * the base optimizer, for example to simulate or measure the effect of
+	 * compressing gradients before exchanging them. Decoded values are written
+	 * in place of the accumulated derivative, which is then directly passed to
+	 * the base optimizer. With error feedback, the difference between each
+	 * derivative and its decoded version is remembered and added to the next
+	 * derivative of the same tensor before encoding it. Derivatives combined with
+	 * {@link #reduceAll(List, Consumer)} are compressed before the reduction
+	 * instead. Encoded bytes are decoded right away in the same process and never
+	 * transmitted, so this only simulates the quantization error of compression
+	 * and does not reduce communication. Each tensor keeps one encoding buffer
+	 * that is reused across updates.
+	 * 
+	 * @param codec The codec, or <code>null</code> to not compress derivatives
+	 *                      (default).
+	 * @param errorFeedback Whether compression errors are added to the next
+	 *                      derivatives.
+	 * @return <code>this</code> optimizer.
+	 * @see mklab.JGNN.nn.optimizers.compression.TopKCodec
+	 */
+	public BatchOptimizer setCompression(GradientCodec codec, boolean errorFeedback) {
+		this.codec = codec;
+		this.errorFeedback = errorFeedback;
+		residuals = new ConcurrentHashMap<Tensor, double[]>();
+		encodings = new ConcurrentHashMap<Tensor, ByteBuffer>();
+		return this;
+	}
+	/**
+	 * Encodes and decodes the average derivative of a tensor with the codec, reusing
+	 * the tensor's encoding buffer. This should be called while synchronized on the
+	 * tensor.
+	 * @return The average derivative, or a dense copy of it, holding decoded values.
+	 */
+	private Tensor compress(Tensor value, Tensor derivative) {
+		double[] values = Reductions.getDenseValues(derivative);
+		if(values==null) {
+			derivative = value.zeroCopy().selfAdd(derivative);
+			values = Reductions.getDenseValues(derivative);
+		}
+		if(values==null)
+			throw new RuntimeException("Gradient compression requires dense parameters but found "+value.describe());
+		int capacity = codec.getMaxEncodedBytes(values.length);
+		ByteBuffer buffer = encodings.get(value);
+		if(buffer==null || buffer.capacity()<capacity)
+			encodings.put(value, buffer = ByteBuffer.allocate(capacity));
+		buffer.clear();
+		if(errorFeedback) {
+			double[] residual = residuals.get(value);
+			if(residual==null)
+				residuals.put(value, residual = new double[values.length]);
+			for(int i=0;i<values.length;i++)
+				residual[i] += values[i];
+			codec.encode(residual, 0, values.length, buffer);
+			buffer.flip();
+			codec.decode(buffer, values, 0, values.length, false);
+			for(int i=0;i<values.length;i++)
+				residual[i] -= values[i];
+		}
+		else {
+			codec.encode(values, 0, values.length, buffer);
+			buffer.flip();
+			codec.decode(buffer, values, 0, values.length, false);
+		}
+		return derivative;
+	}
+
 	/**
 	 * Updates all tracked variables with pending batch calculations using the
 	 * wrapped optimizer. This overrides any potential waiting over pre-specified batch sizes.
@@ -49,21 +143,87 @@ public class BatchOptimizer implements Optimizer {
 		for(Tensor value : new ArrayList<Tensor>(derivativeAccumulation.keySet())) 
 			synchronized(value) {
 				if(batchProgress.get(value)!=0) {
-					baseOptimizer.update(value, derivativeAccumulation.get(value).selfMultiply(1./batchProgress.get(value)));
+					Tensor derivative = derivativeAccumulation.get(value).selfMultiply(1./batchProgress.get(value));
+					if(codec!=null && !reduced.remove(value))
+						derivative = compress(value, derivative);
+					baseOptimizer.update(value, derivative);
 					derivativeAccumulation.remove(value);
 					batchProgress.remove(value);
 				}
 			}
 	}
+	/**
+	 * Replaces the pending average derivatives of tensors with their combination
+	 * across model replicas, such as those of other processes in data-parallel
+	 * training. Average derivatives are flattened into one array in the given
+	 * order of tensors, with one additional element per tensor that is 1 if it
+	 * has a pending derivative and 0 otherwise. The reduction should replace
+	 * array elements with their sums across replicas, after which each derivative
+	 * becomes the average among the replicas that had one. Call
+	 * {@link #updateAll()} afterwards to apply the combined derivatives.
+	 *
+	 * @param values    The tensors whose derivatives to combine, which should be
+	 *                  listed in the same order by all replicas.
+	 * @param reduction A function that sums an array in place across replicas.
+	 * @see mklab.JGNN.adhoc.distributed.RingAllReduce#allReduce(double[])
+	 */
+	public void reduceAll(List<? extends Tensor> values, Consumer<double[]> reduction) {
+		long size = 0;
+		for(Tensor value : values)
+			size += value.size() + 1;
+		if(size > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Too many derivative elements to reduce: " + size);
+		double[] flat = new double[(int) size];
+		int offset = 0;
+		for(Tensor value : values) {
+			synchronized(value) {
+				Integer progress = batchProgress.get(value);
+				if(progress!=null && progress!=0) {
+					Tensor average = derivativeAccumulation.get(value).selfMultiply(1./progress);
+					if(codec!=null)
+						average = compress(value, average);
+					for(long pos : average.getNonZeroElements())
+						flat[offset + (int) pos] = average.get(pos);
+					flat[offset + (int) value.size()] = 1;
+				}
+			}
+			offset += value.size() + 1;
+		}
+		reduction.accept(flat);
+		offset = 0;
+		for(Tensor value : values) {
+			double replicas = flat[offset + (int) value.size()];
+			synchronized(value) {
+				derivativeAccumulation.remove(value);
+				batchProgress.remove(value);
+				if(replicas!=0) {
+					Tensor accumulation = value.zeroCopy();
+					for(long pos = 0; pos < value.size(); pos++)
+						accumulation.put(pos, flat[offset + (int) pos]/replicas);
+					derivativeAccumulation.put(value, accumulation);
+					batchProgress.put(value, 1);
+					if(codec!=null)
+						reduced.add(value);
+				}
+			}
+			offset += value.size() + 1;
+		}
+	}
 	@Override
 	public void update(Tensor value, Tensor gradient) {
 		synchronized(value) {
-			if(!derivativeAccumulation.containsKey(value))
-				derivativeAccumulation.put(value, value.zeroCopy());
-			derivativeAccumulation.get(value).selfAdd(gradient);
+			Tensor accumulation = derivativeAccumulation.get(value);
+			if(accumulation==null)
+				derivativeAccumulation.put(value, accumulation = gradient instanceof RowSparseMatrix ? gradient.zeroCopy() : value.zeroCopy());
+			else if(accumulation instanceof RowSparseMatrix && !(gradient instanceof RowSparseMatrix))
+				derivativeAccumulation.put(value, accumulation = value.zeroCopy().selfAdd(accumulation));
+			accumulation.selfAdd(gradient);
 			batchProgress.put(value, batchProgress.getOrDefault(value, 0)+1);
 			if(batchProgress.get(value)>=batchSize) {
-				baseOptimizer.update(value, derivativeAccumulation.get(value).selfMultiply(1./batchProgress.get(value)));
+				Tensor derivative = derivativeAccumulation.get(value).selfMultiply(1./batchProgress.get(value));
+				if(codec!=null)
+					derivative = compress(value, derivative);
+				baseOptimizer.update(value, derivative);
 				derivativeAccumulation.remove(value);
 				batchProgress.remove(value);
 			}
@@ -73,6 +233,8 @@ public class BatchOptimizer implements Optimizer {
 	public void reset() {
 		derivativeAccumulation = new HashMap<Tensor, Tensor>();
 		batchProgress = new HashMap<Tensor, Integer>();
+		residuals = new ConcurrentHashMap<Tensor, double[]>();
+		reduced = ConcurrentHashMap.newKeySet();
 		baseOptimizer.reset();
 	}
 }
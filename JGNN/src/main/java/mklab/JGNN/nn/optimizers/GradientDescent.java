@@ -1,6 +1,7 @@
 package mklab.JGNN.nn.optimizers;
 
-import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import mklab.JGNN.nn.Optimizer;
 import mklab.JGNN.core.Tensor;
@@ -13,7 +14,8 @@ import mklab.JGNN.core.Tensor;
 public class GradientDescent implements Optimizer {
 	protected double learningRate;
 	private double degradation;
-	private HashMap<Tensor, Double> individualLearningRates = new HashMap<Tensor, Double>();
+	private Map<Tensor, Double> individualLearningRates = new ConcurrentHashMap<Tensor, Double>();
+	private boolean lockFree = false;
 	
 	/**
 	 * Initializes a {@link GradientDescent} optimizer with fixed learning rate.
@@ -33,16 +35,36 @@ public class GradientDescent implements Optimizer {
 		this.degradation = degradation;
 	}
 	protected GradientDescent() {}
+	/**
+	 * Sets whether updates should be applied without locking the updated tensor.
+	 * This lets threads that train the same parameters concurrently overwrite each
+	 * other's updates, which is acceptable for sparse gradients that rarely
+	 * collide (Hogwild! training).
+	 * @param lockFree Whether updates are lock-free. Default is <code>false</code>.
+	 * @return <code>this</code> optimizer.
+	 * @see mklab.JGNN.adhoc.ModelTraining#setHogwild(int, int)
+	 */
+	public GradientDescent setLockFree(boolean lockFree) {
+		this.lockFree = lockFree;
+		return this;
+	}
 	@Override
 	public void update(Tensor value, Tensor gradient) {
+		if(lockFree) {
+			apply(value, gradient);
+			return;
+		}
 		synchronized(value) {
-			if(degradation!=1)
-				individualLearningRates.put(value, individualLearningRates.getOrDefault(value, learningRate)*degradation);
-			value.selfAdd(gradient.multiply(-individualLearningRates.getOrDefault(value, learningRate)));
+			apply(value, gradient);
 		}
 	}
+	private void apply(Tensor value, Tensor gradient) {
+		if(degradation!=1)
+			individualLearningRates.put(value, individualLearningRates.getOrDefault(value, learningRate)*degradation);
+		value.selfAdd(gradient.multiply(-individualLearningRates.getOrDefault(value, learningRate)));
+	}
 	@Override
 	public void reset() {
-		individualLearningRates = new HashMap<Tensor, Double>();
+		individualLearningRates = new ConcurrentHashMap<Tensor, Double>();
 	}
 }
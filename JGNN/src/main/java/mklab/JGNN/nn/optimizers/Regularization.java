@@ -1,11 +1,15 @@
 package mklab.JGNN.nn.optimizers;
 
 import mklab.JGNN.nn.Optimizer;
+import mklab.JGNN.core.Matrix;
 import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.matrix.RowSparseMatrix;
 
 /**
  * Wraps an {@link Optimizer} by applying the derivative of L2 loss on every
- * tensor during {@link Optimizer#update(Tensor, Tensor)}.
+ * tensor during {@link Optimizer#update(Tensor, Tensor)}. For
+ * {@link RowSparseMatrix} gradients, the derivative is applied only on stored
+ * rows.
  * 
  * @author Emmanouil Krasanakis
  */
@@ -31,10 +35,22 @@ public class Regularization implements Optimizer {
 	public void update(Tensor value, Tensor gradient) {
 		if (regularization == 0)
 			baseOptimizer.update(value, gradient);
+		else if (gradient instanceof RowSparseMatrix)
+			baseOptimizer.update(value, ((RowSparseMatrix) gradient.copy())
+					.selfAddStoredRows(value.cast(Matrix.class), regularization));
 		else
 			baseOptimizer.update(value, gradient.add(value.multiply(regularization)));
 	}
 
+	/**
+	 * Retrieves the optimizer wrapped by this one.
+	 * 
+	 * @return An {@link Optimizer} instance.
+	 */
+	public Optimizer getBaseOptimizer() {
+		return baseOptimizer;
+	}
+
 	@Override
 	public void reset() {
 		baseOptimizer.reset();
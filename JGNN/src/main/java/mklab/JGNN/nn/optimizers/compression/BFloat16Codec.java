@@ -0,0 +1,57 @@
+package mklab.JGNN.nn.optimizers.compression;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link GradientCodec} that quantizes values to bfloat16 numbers of 2 bytes
+ * each, which keep the exponent range of floats but only 8 significant bits.
+ * Values are rounded to the nearest bfloat16, with ties to even.
+ * 
+ * @author Emmanouil Krasanakis
+ * @see Float16Codec
+ */
+public class BFloat16Codec implements GradientCodec {
+	@Override
+	public int getMaxEncodedBytes(int length) {
+		return 2 * length;
+	}
+
+	@Override
+	public void encode(double[] values, int from, int to, ByteBuffer out) {
+		for (int i = from; i < to; i++)
+			out.putShort(toBFloat16((float) values[i]));
+	}
+
+	@Override
+	public void decode(ByteBuffer in, double[] values, int from, int to, boolean add) {
+		if (add)
+			for (int i = from; i < to; i++)
+				values[i] += fromBFloat16(in.getShort());
+		else
+			for (int i = from; i < to; i++)
+				values[i] = fromBFloat16(in.getShort());
+	}
+
+	/**
+	 * Converts a float to the bits of the nearest bfloat16 number.
+	 * 
+	 * @param value The value to convert.
+	 * @return The bfloat16 bits.
+	 */
+	public static short toBFloat16(float value) {
+		int bits = Float.floatToRawIntBits(value);
+		if (Float.isNaN(value))
+			return (short) ((bits >>> 16) | 0x40);
+		return (short) ((bits + 0x7FFF + ((bits >>> 16) & 1)) >>> 16);
+	}
+
+	/**
+	 * Converts the bits of a bfloat16 number to a float.
+	 * 
+	 * @param value The bfloat16 bits.
+	 * @return The represented value.
+	 */
+	public static float fromBFloat16(short value) {
+		return Float.intBitsToFloat((value & 0xFFFF) << 16);
+	}
+}
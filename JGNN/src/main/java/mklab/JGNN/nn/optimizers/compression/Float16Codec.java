@@ -0,0 +1,92 @@
+package mklab.JGNN.nn.optimizers.compression;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link GradientCodec} that quantizes values to IEEE 754 half-precision
+ * floats of 2 bytes each, with round-to-nearest-even. Half-precision floats
+ * keep 11 significant bits but only represent magnitudes up to 65504, so larger
+ * values saturate to that magnitude, and magnitudes below about 6e-8 become
+ * zero.
+ * 
+ * @author Emmanouil Krasanakis
+ * @see BFloat16Codec
+ */
+public class Float16Codec implements GradientCodec {
+	private static final int MAX_FINITE = 0x7BFF;
+
+	@Override
+	public int getMaxEncodedBytes(int length) {
+		return 2 * length;
+	}
+
+	@Override
+	public void encode(double[] values, int from, int to, ByteBuffer out) {
+		for (int i = from; i < to; i++)
+			out.putShort(toHalf((float) values[i]));
+	}
+
+	@Override
+	public void decode(ByteBuffer in, double[] values, int from, int to, boolean add) {
+		if (add)
+			for (int i = from; i < to; i++)
+				values[i] += fromHalf(in.getShort());
+		else
+			for (int i = from; i < to; i++)
+				values[i] = fromHalf(in.getShort());
+	}
+
+	/**
+	 * Converts a float to the bits of the nearest half-precision float.
+	 * 
+	 * @param value The value to convert.
+	 * @return The half-precision bits.
+	 */
+	public static short toHalf(float value) {
+		int bits = Float.floatToRawIntBits(value);
+		int sign = (bits >>> 16) & 0x8000;
+		int exponent = ((bits >>> 23) & 0xFF) - 127 + 15;
+		int mantissa = bits & 0x7FFFFF;
+		if (exponent == 0xFF - 127 + 15)
+			return (short) (mantissa == 0 ? sign | MAX_FINITE : sign | 0x7E00);
+		if (exponent >= 0x1F)
+			return (short) (sign | MAX_FINITE);
+		int half;
+		int shift;
+		if (exponent <= 0) {
+			// subnormal half-precision values shift the implicit leading bit into the mantissa
+			if (exponent < -10)
+				return (short) sign;
+			mantissa |= 0x800000;
+			shift = 14 - exponent;
+			half = mantissa >> shift;
+		} else {
+			shift = 13;
+			half = (exponent << 10) | (mantissa >> shift);
+		}
+		int remainder = mantissa & ((1 << shift) - 1);
+		int halfway = 1 << (shift - 1);
+		if (remainder > halfway || (remainder == halfway && (half & 1) != 0))
+			half++;
+		return (short) (sign | Math.min(half, MAX_FINITE));
+	}
+
+	/**
+	 * Converts the bits of a half-precision float to a float.
+	 * 
+	 * @param half The half-precision bits.
+	 * @return The represented value.
+	 */
+	public static float fromHalf(short half) {
+		int sign = (half & 0x8000) << 16;
+		int exponent = (half >>> 10) & 0x1F;
+		int mantissa = half & 0x3FF;
+		if (exponent == 0x1F)
+			return Float.intBitsToFloat(sign | 0x7F800000 | (mantissa << 13));
+		if (exponent == 0) {
+			float value = mantissa * 0x1p-24f;
+			return sign == 0 ? value : -value;
+		}
+		return Float.intBitsToFloat(sign | ((exponent + 127 - 15) << 23) | (mantissa << 13));
+	}
+}
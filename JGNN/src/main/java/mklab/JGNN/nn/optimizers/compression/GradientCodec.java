@@ -0,0 +1,51 @@
+package mklab.JGNN.nn.optimizers.compression;
+
+import java.nio.ByteBuffer;
+
+/**
+ * This interface abstracts lossy or lossless compression of gradient values
+ * into bytes. Codecs are stateless, so that the same instance can encode
+ * different gradients from multiple threads. Error feedback, which adds the
+ * compression error of each gradient to the next one, is applied by
+ * {@link mklab.JGNN.nn.optimizers.BatchOptimizer}.
+ * 
+ * @author Emmanouil Krasanakis
+ */
+public interface GradientCodec {
+	/**
+	 * Retrieves an upper bound of the number of bytes used to encode a number of
+	 * values.
+	 * 
+	 * @param length The number of values.
+	 * @return The number of bytes.
+	 */
+	public int getMaxEncodedBytes(int length);
+
+	/**
+	 * Encodes a range of values into a buffer, starting from the buffer's
+	 * position.
+	 * 
+	 * @param values The array of values (it's not affected).
+	 * @param from   The first position of the range.
+	 * @param to     The end of the range (non-inclusive).
+	 * @param out    The buffer to write to, with at least
+	 *               {@link #getMaxEncodedBytes(int)} bytes remaining.
+	 */
+	public void encode(double[] values, int from, int to, ByteBuffer out);
+
+	/**
+	 * Decodes the values of a range from a buffer, starting from the buffer's
+	 * position. Decoded values either overwrite or are added to those of the
+	 * range, so that accumulating received gradients does not require an
+	 * intermediate array.
+	 * 
+	 * @param in     The buffer to read from.
+	 * @param values The array of values to write to.
+	 * @param from   The first position of the range.
+	 * @param to     The end of the range (non-inclusive), which should be the
+	 *               same as when encoding.
+	 * @param add    Whether to add decoded values to the existing ones instead of
+	 *               overwriting them.
+	 */
+	public void decode(ByteBuffer in, double[] values, int from, int to, boolean add);
+}
@@ -0,0 +1,50 @@
+package mklab.JGNN.nn.optimizers.compression;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link GradientCodec} that keeps only one bit per value, namely its sign,
+ * alongside the average magnitude of encoded values. Decoded values are all
+ * equal to that magnitude with the encoded signs. This compresses double
+ * gradients by a factor of about 64, but is meant to be used with error
+ * feedback, which carries over the lost information to subsequent gradients.
+ * 
+ * @author Emmanouil Krasanakis
+ * @see mklab.JGNN.nn.optimizers.BatchOptimizer#setCompression(GradientCodec, boolean)
+ */
+public class SignCodec implements GradientCodec {
+	@Override
+	public int getMaxEncodedBytes(int length) {
+		return 4 + (length + 7) / 8;
+	}
+
+	@Override
+	public void encode(double[] values, int from, int to, ByteBuffer out) {
+		double scale = 0;
+		for (int i = from; i < to; i++)
+			scale += Math.abs(values[i]);
+		out.putFloat(to == from ? 0 : (float) (scale / (to - from)));
+		for (int i = from; i < to; i += 8) {
+			int bits = 0;
+			for (int j = 0; j < 8 && i + j < to; j++)
+				if (values[i + j] >= 0)
+					bits |= 1 << j;
+			out.put((byte) bits);
+		}
+	}
+
+	@Override
+	public void decode(ByteBuffer in, double[] values, int from, int to, boolean add) {
+		double scale = in.getFloat();
+		for (int i = from; i < to; i += 8) {
+			int bits = in.get();
+			for (int j = 0; j < 8 && i + j < to; j++) {
+				double value = (bits & (1 << j)) != 0 ? scale : -scale;
+				if (add)
+					values[i + j] += value;
+				else
+					values[i + j] = value;
+			}
+		}
+	}
+}
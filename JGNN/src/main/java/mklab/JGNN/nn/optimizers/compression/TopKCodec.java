@@ -0,0 +1,106 @@
+package mklab.JGNN.nn.optimizers.compression;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link GradientCodec} that keeps only a fraction of values with the largest
+ * magnitudes and sets the rest to zero. Kept values are encoded as pairs of
+ * their position and their single-precision value, which take 8 bytes each.
+ * This is typically used with error feedback, so that small values accumulate
+ * until they are eventually sent.
+ * 
+ * @author Emmanouil Krasanakis
+ * @see mklab.JGNN.nn.optimizers.BatchOptimizer#setCompression(GradientCodec, boolean)
+ */
+public class TopKCodec implements GradientCodec {
+	private final double fraction;
+
+	/**
+	 * Instantiates a top-k codec.
+	 * 
+	 * @param fraction The fraction of values to keep, in the range (0,1]. At
+	 *                 least one value of each non-empty range is kept.
+	 */
+	public TopKCodec(double fraction) {
+		if (fraction <= 0 || fraction > 1)
+			throw new IllegalArgumentException("The fraction of kept values should be in the range (0,1] but given " + fraction);
+		this.fraction = fraction;
+	}
+
+	private int getK(int length) {
+		return length == 0 ? 0 : Math.min(length, Math.max(1, (int) Math.ceil(fraction * length)));
+	}
+
+	@Override
+	public int getMaxEncodedBytes(int length) {
+		return 4 + 8 * getK(length);
+	}
+
+	@Override
+	public void encode(double[] values, int from, int to, ByteBuffer out) {
+		int k = getK(to - from);
+		double[] magnitudes = new double[to - from];
+		for (int i = from; i < to; i++)
+			magnitudes[i - from] = Math.abs(values[i]);
+		double threshold = k == 0 ? 0 : select(magnitudes, magnitudes.length - k);
+		// values above the threshold are kept and ties fill the remaining places
+		int ties = k;
+		for (int i = from; i < to; i++)
+			if (Math.abs(values[i]) > threshold)
+				ties--;
+		out.putInt(k);
+		for (int i = from; i < to; i++) {
+			double magnitude = Math.abs(values[i]);
+			if (magnitude > threshold || (magnitude == threshold && ties-- > 0)) {
+				out.putInt(i - from);
+				out.putFloat((float) values[i]);
+			}
+		}
+	}
+
+	@Override
+	public void decode(ByteBuffer in, double[] values, int from, int to, boolean add) {
+		if (!add)
+			for (int i = from; i < to; i++)
+				values[i] = 0;
+		int count = in.getInt();
+		for (int entry = 0; entry < count; entry++) {
+			int i = from + in.getInt();
+			values[i] += in.getFloat();
+		}
+	}
+
+	/**
+	 * Finds the value that would be at a given position if the array were sorted
+	 * in ascending order. The array is partially reordered.
+	 */
+	private static double select(double[] values, int position) {
+		int left = 0;
+		int right = values.length - 1;
+		while (left < right) {
+			double pivot = values[(left + right) >>> 1];
+			int i = left;
+			int j = right;
+			while (i <= j) {
+				while (values[i] < pivot)
+					i++;
+				while (values[j] > pivot)
+					j--;
+				if (i <= j) {
+					double swap = values[i];
+					values[i] = values[j];
+					values[j] = swap;
+					i++;
+					j--;
+				}
+			}
+			if (position <= j)
+				right = j;
+			else if (position >= i)
+				left = i;
+			else
+				break;
+		}
+		return values[position];
+	}
+}
@@ -0,0 +1,12 @@
+/**
+ * Contains codecs that compress gradients into compact binary frames, for
+ * example before exchanging them between threads or processes. Use them with
+ * {@link mklab.JGNN.nn.optimizers.BatchOptimizer#setCompression(GradientCodec, boolean)}
+ * to apply compression when accumulated gradients are passed to the base
+ * optimizer, and with
+ * {@link mklab.JGNN.adhoc.distributed.RingAllReduce#setCodec(GradientCodec)}
+ * to compress the gradients sent between processes.
+ * 
+ * @author Emmanouil Krasanakis
+ */
+package mklab.JGNN.nn.optimizers.compression;
@@ -7,7 +7,7 @@ import mklab.JGNN.core.Matrix;
 import mklab.JGNN.nn.NNOperation;
 import mklab.JGNN.core.Tensor;
 import mklab.JGNN.core.matrix.DenseMatrix;
-import mklab.JGNN.core.tensor.DenseTensor;
+import mklab.JGNN.core.util.Reductions;
 
 
 /**
@@ -30,24 +30,12 @@ public class Max extends NNOperation {
 	protected Tensor forward(List<Tensor> inputs) {
 		if(inputs.size()!=1)
 			throw new IllegalArgumentException();
-		if(colMode && inputs.get(0) instanceof Matrix) {
+		if(inputs.get(0) instanceof Matrix) {
 			Matrix matrix = (Matrix) inputs.get(0);
-			Tensor ret = new DenseMatrix(1, matrix.getCols());
-			for(Entry<Long, Long> entry : matrix.getNonZeroEntries()) {
-				long row = entry.getKey();
-				long col = entry.getValue();
-				ret.put(col, Math.max(ret.get(col), matrix.get(row, col)));
-			}
-			return ret;
-		}
-		else if(!colMode && inputs.get(0) instanceof Matrix) {
-			Matrix matrix = (Matrix) inputs.get(0);
-			Tensor ret = new DenseMatrix(matrix.getRows(), 1);
-			for(Entry<Long, Long> entry : matrix.getNonZeroEntries()) {
-				long row = entry.getKey();
-				long col = entry.getValue();
-				ret.put(row, Math.max(ret.get(row), matrix.get(row, col)));
-			}
+			double[] maxs = Reductions.max(matrix, !colMode, 0);
+			Tensor ret = colMode?new DenseMatrix(1, matrix.getCols()):new DenseMatrix(matrix.getRows(), 1);
+			for(int i=0;i<maxs.length;i++)
+				ret.put(i, maxs[i]);
 			return ret;
 		}
 		else {
@@ -59,25 +47,29 @@ public class Max extends NNOperation {
 	}
 	@Override
 	protected Tensor partial(int inputId, List<Tensor> inputs, Tensor output, Tensor error) {
-		if(colMode && inputs.get(0) instanceof Matrix) {
+		if(inputs.get(0) instanceof Matrix) {
 			Matrix matrix = (Matrix) inputs.get(0);
 			Matrix ret = (Matrix) matrix.zeroCopy();
-			for(Entry<Long, Long> entry : matrix.getNonZeroEntries()) {
-				long row = entry.getKey();
-				long col = entry.getValue();
-				if(matrix.get(row, col) == output.get(col))
-					ret.put(col, col, ret.get(row, col)+error.get(col));
+			double[] values = Reductions.getDenseValues(matrix);
+			double[] retValues = Reductions.getDenseValues(ret);
+			if(values!=null && retValues!=null) {
+				int rows = (int) matrix.getRows();
+				int cols = (int) matrix.getCols();
+				for(int col=0;col<cols;col++) 
+					for(int row=0;row<rows;row++) {
+						int pos = row+col*rows;
+						long reduced = colMode?col:row;
+						if(values[pos] == output.get(reduced))
+							retValues[pos] = error.get(reduced);
+					}
+				return ret;
 			}
-			return ret;
-		}
-		else if(!colMode && inputs.get(0) instanceof Matrix) {
-			Matrix matrix = (Matrix) inputs.get(0);
-			Matrix ret = (Matrix) matrix.zeroCopy();
 			for(Entry<Long, Long> entry : matrix.getNonZeroEntries()) {
 				long row = entry.getKey();
 				long col = entry.getValue();
-				if(matrix.get(row, col) == output.get(row))
-					ret.put(row, col, ret.get(row, col)+error.get(row));
+				long reduced = colMode?col:row;
+				if(matrix.get(row, col) == output.get(reduced))
+					ret.put(row, col, error.get(reduced));
 			}
 			return ret;
 		}
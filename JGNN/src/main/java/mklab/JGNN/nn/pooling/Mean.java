@@ -2,12 +2,11 @@ package mklab.JGNN.nn.pooling;
 
 import java.util.List;
 
-import java.util.Map.Entry;
-
 import mklab.JGNN.core.Matrix;
 import mklab.JGNN.nn.NNOperation;
 import mklab.JGNN.core.Tensor;
 import mklab.JGNN.core.tensor.DenseTensor;
+import mklab.JGNN.core.util.Reductions;
 
 /**
  * Implements a {@link NNOperation} that performs row-wise or column-wise
@@ -29,25 +28,9 @@ public class Mean extends NNOperation {
 	public Tensor forward(List<Tensor> inputs) {
 		if(inputs.size()!=1)
 			throw new IllegalArgumentException();
-		if(colMode && inputs.get(0) instanceof Matrix) {
-			Matrix matrix = (Matrix) inputs.get(0);
-			Tensor ret = new DenseTensor(matrix.getCols());
-			for(Entry<Long, Long> entry : matrix.getNonZeroEntries()) {
-				long row = entry.getKey();
-				long col = entry.getValue();
-				ret.put(col, ret.get(col) + matrix.get(row, col)/matrix.getRows());
-			}
-			return ret;
-		}
-		else if(!colMode && inputs.get(0) instanceof Matrix) {
+		if(inputs.get(0) instanceof Matrix) {
 			Matrix matrix = (Matrix) inputs.get(0);
-			Tensor ret = new DenseTensor(matrix.getRows());
-			for(Entry<Long, Long> entry : matrix.getNonZeroEntries()) {
-				long row = entry.getKey();
-				long col = entry.getValue();
-				ret.put(row, ret.get(row) + matrix.get(row, col)/matrix.getCols());
-			}
-			return ret;
+			return new DenseTensor(Reductions.sum(matrix, !colMode)).selfMultiply(1./(colMode?matrix.getRows():matrix.getCols()));
 		}
 		else {
 			double sum = 0;
@@ -58,25 +41,9 @@ public class Mean extends NNOperation {
 	}
 	@Override
 	protected Tensor partial(int inputId, List<Tensor> inputs, Tensor output, Tensor error) {
-		if(colMode && inputs.get(0) instanceof Matrix) {
-			Matrix matrix = (Matrix) inputs.get(0);
-			Matrix ret = (Matrix) matrix.zeroCopy();
-			for(Entry<Long, Long> entry : matrix.getNonZeroEntries()) {
-				long row = entry.getKey();
-				long col = entry.getValue();
-				ret.put(col, col, ret.get(row, col)+error.get(col)/matrix.getRows());
-			}
-			return ret;
-		}
-		else if(!colMode && inputs.get(0) instanceof Matrix) {
+		if(inputs.get(0) instanceof Matrix) {
 			Matrix matrix = (Matrix) inputs.get(0);
-			Matrix ret = (Matrix) matrix.zeroCopy();
-			for(Entry<Long, Long> entry : matrix.getNonZeroEntries()) {
-				long row = entry.getKey();
-				long col = entry.getValue();
-				ret.put(row, col, ret.get(row, col)+error.get(row)/matrix.getCols());
-			}
-			return ret;
+			return Reductions.broadcast(matrix, error, !colMode, 1./(colMode?matrix.getRows():matrix.getCols()));
 		}
 		else {
 			double errorValue = error.toDouble();
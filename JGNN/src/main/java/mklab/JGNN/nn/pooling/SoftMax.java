@@ -5,6 +5,7 @@ import java.util.List;
 import mklab.JGNN.core.Matrix;
 import mklab.JGNN.nn.NNOperation;
 import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.util.Reductions;
 
 /**
  * Implements a {@link NNOperation} that performs row-wise or column-wise
@@ -21,10 +22,24 @@ public class SoftMax extends NNOperation {
 		super();
 		this.colMode = colMode;
 	}
+	/**
+	 * Checks whether matrix inputs are normalized independently on each of their
+	 * rows (this corresponds to the <code>dim: "row"</code> argument of parsed
+	 * expressions), in which case each output row depends only on the same input row.
+	 * @return A <code>boolean</code> value.
+	 */
+	public boolean isRowWise() {
+		return colMode;
+	}
 	@Override
 	protected Tensor forward(List<Tensor> inputs) {
 		if(inputs.size()!=1)
 			throw new IllegalArgumentException();
+		if(inputs.get(0) instanceof Matrix) {
+			Matrix ret = Reductions.softmax(inputs.get(0).cast(Matrix.class), colMode);
+			if(ret!=null)
+				return ret;
+		}
 		if(colMode && inputs.get(0) instanceof Matrix) {
 			Matrix matrix = inputs.get(0).cast(Matrix.class);
 			Matrix ret = matrix.zeroCopy().cast(Matrix.class);
@@ -67,7 +82,7 @@ public class SoftMax extends NNOperation {
 			Tensor ret = inputs.get(0).zeroCopy();
 			double max = Double.NEGATIVE_INFINITY;
 			for(long i=0;i<ret.size();i++) 
-				max = Math.max(max, ret.get(i));
+				max = Math.max(max, inputs.get(0).get(i));
 			double sum = 0;
 			for(long i=0;i<ret.size();i++) {
 				double element = Math.exp(inputs.get(0).get(i)-max);
@@ -118,6 +133,11 @@ public class SoftMax extends NNOperation {
 	}
 	@Override
 	protected Tensor partial(int inputId, List<Tensor> inputs, Tensor output, Tensor error) {
+		if(inputs.get(0) instanceof Matrix && output instanceof Matrix && error instanceof Matrix) {
+			Matrix ret = Reductions.softmaxGradient((Matrix) output, (Matrix) error, colMode);
+			if(ret!=null)
+				return ret;
+		}
 		if(colMode && inputs.get(0) instanceof Matrix) {
 			Matrix matrix = (Matrix) output;
 			Matrix errorMatrix = (Matrix) error;
@@ -0,0 +1,92 @@
+package mklab.JGNN.adhoc;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.tensor.DenseTensor;
+
+public class BatchPrefetcherTest {
+	private static List<BatchData> batch(int batch, int size) {
+		Tensor input = new DenseTensor(size).setToOnes().selfMultiply(batch);
+		return Arrays.asList(new BatchData(Arrays.asList(input), Arrays.asList(input.copy())));
+	}
+
+	private static boolean collected(WeakReference<?> reference) throws InterruptedException {
+		for (int attempt = 0; attempt < 100 && reference.get() != null; attempt++) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		return reference.get() == null;
+	}
+
+	@Test
+	public void testBatchesAreTakenByIdentifier() {
+		BatchPrefetcher prefetcher = new BatchPrefetcher(2, 3);
+		try {
+			for (int epoch = 0; epoch < 2; epoch++) {
+				prefetcher.startEpoch(batch -> batch(batch, 4), 6);
+				for (int batch : new int[] { 1, 0, 2, 5, 3, 4 })
+					Assert.assertEquals(batch, prefetcher.take(batch).get(0).getInputs().get(0).get(3), 0);
+			}
+		} finally {
+			prefetcher.close();
+		}
+	}
+
+	@Test
+	public void testConsumedBatchesBecomeUnreachable() throws InterruptedException {
+		BatchPrefetcher prefetcher = new BatchPrefetcher(1, 1);
+		List<WeakReference<List<BatchData>>> produced = new ArrayList<WeakReference<List<BatchData>>>();
+		try {
+			prefetcher.startEpoch(batch -> {
+				List<BatchData> data = batch(batch, 1 << 16);
+				synchronized (produced) {
+					produced.add(new WeakReference<List<BatchData>>(data));
+				}
+				return data;
+			}, 3);
+			Assert.assertEquals(0, prefetcher.take(0).get(0).getInputs().get(0).get(0), 0);
+			Assert.assertEquals(1, prefetcher.take(1).get(0).getInputs().get(0).get(0), 0);
+			synchronized (produced) {
+				Assert.assertTrue(collected(produced.get(0)));
+				Assert.assertTrue(collected(produced.get(1)));
+			}
+		} finally {
+			prefetcher.close();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRetakingBatchShouldThrow() {
+		BatchPrefetcher prefetcher = new BatchPrefetcher(2, 1);
+		try {
+			prefetcher.startEpoch(batch -> batch(batch, 1), 3);
+			prefetcher.take(0);
+			prefetcher.take(0);
+		} finally {
+			prefetcher.close();
+		}
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testProducerExceptionShouldPropagate() {
+		BatchPrefetcher prefetcher = new BatchPrefetcher(2, 2);
+		try {
+			prefetcher.startEpoch(batch -> {
+				if (batch == 1)
+					throw new UnsupportedOperationException();
+				return batch(batch, 1);
+			}, 3);
+			prefetcher.take(0);
+			prefetcher.take(1);
+		} finally {
+			prefetcher.close();
+		}
+	}
+}
@@ -0,0 +1,206 @@
+package mklab.JGNN.adhoc;
+
+import java.io.DataInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import mklab.JGNN.adhoc.train.SampleClassification;
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.Slice;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.matrix.DenseMatrix;
+import mklab.JGNN.nn.Model;
+import mklab.JGNN.nn.inputs.Parameter;
+import mklab.JGNN.nn.loss.CategoricalCrossEntropy;
+import mklab.JGNN.nn.optimizers.Adam;
+
+public class CheckpointManagerTest {
+	private static Model model(int features) {
+		Model model = new ModelBuilder().var("x").config("features", features).config("classes", 2)
+				.operation("yhat = softmax(x@matrix(features, classes)+vector(classes), dim: 'row')").out("yhat")
+				.getModel();
+		for (Parameter parameter : model.getParameters()) {
+			Tensor value = parameter.get();
+			for (long i = 0; i < value.size(); i++)
+				value.put(i, Math.cos(i * 0.9 + value.size()) * 0.1);
+		}
+		return model;
+	}
+
+	private static ModelTraining training(int epochs, CheckpointManager checkpoints) {
+		Matrix features = new DenseMatrix(40, 4);
+		Matrix labels = new DenseMatrix(40, 2);
+		for (long row = 0; row < 40; row++) {
+			for (long col = 0; col < 4; col++)
+				features.put(row, col, Math.sin(row * 0.7 + col));
+			labels.put(row, row % 2, 1);
+		}
+		return new SampleClassification().setFeatures(features).setOutputs(labels)
+				.setTrainingSamples(new Slice(0, 32)).setValidationSamples(new Slice(32, 40)).setEpochs(epochs)
+				.setNumBatches(4).setPatience(3).setOptimizer(new Adam(0.01)).setLoss(new CategoricalCrossEntropy())
+				.setCheckpointManager(checkpoints);
+	}
+
+	private static double[][] values(Model model) {
+		List<Parameter> parameters = model.getParameters();
+		double[][] ret = new double[parameters.size()][];
+		for (int i = 0; i < ret.length; i++)
+			ret[i] = parameters.get(i).get().toArray();
+		return ret;
+	}
+
+	private static void assertSameValues(double[][] expected, double[][] obtained) {
+		Assert.assertEquals(expected.length, obtained.length);
+		for (int i = 0; i < expected.length; i++)
+			Assert.assertArrayEquals(expected[i], obtained[i], 0);
+	}
+
+	private static int writtenEpoch(Path path) throws Exception {
+		try (DataInputStream in = new DataInputStream(Files.newInputStream(path))) {
+			in.readInt();
+			in.readInt();
+			return in.readInt();
+		}
+	}
+
+	@Test
+	public void testResumedTrainingMatchesUninterruptedTraining() throws Exception {
+		Path path = Files.createTempFile("jgnn", ".checkpoint");
+		Files.delete(path);
+		try {
+			for (int interruption : new int[] { 2, 5 }) {
+				CheckpointManager uninterrupted = new CheckpointManager();
+				Model expected = training(12, uninterrupted).train(model(4));
+
+				training(interruption, new CheckpointManager(path)).train(model(4));
+				Assert.assertEquals(interruption - 1, writtenEpoch(path));
+				CheckpointManager resumed = new CheckpointManager(path);
+				Model obtained = training(12, resumed).train(model(4));
+
+				Assert.assertEquals(uninterrupted.getEpoch(), resumed.getEpoch());
+				Assert.assertEquals(uninterrupted.getPatience(), resumed.getPatience());
+				Assert.assertEquals(uninterrupted.getMinLoss(), resumed.getMinLoss(), 0);
+				assertSameValues(values(expected), values(obtained));
+				Files.delete(path);
+			}
+		} finally {
+			Files.deleteIfExists(path);
+		}
+	}
+
+	@Test
+	public void testRoundTripRestoresParametersProgressAndMoments() throws Exception {
+		Path path = Files.createTempFile("jgnn", ".checkpoint");
+		try {
+			Model model = model(4);
+			Adam adam = new Adam(0.1);
+			CheckpointManager checkpoints = new CheckpointManager(path).setResume(false);
+			Assert.assertFalse(checkpoints.start(model, adam, 10));
+			for (Parameter parameter : model.getParameters())
+				adam.update(parameter.get(), parameter.get().copy().setToOnes());
+			checkpoints.improve(0.5);
+			double[][] best = values(model);
+			for (Parameter parameter : model.getParameters())
+				adam.update(parameter.get(), parameter.get().copy().setToOnes());
+			double[][] current = values(model);
+			checkpoints.endEpoch(3, 0.5, 7);
+			checkpoints.finish();
+			assertSameValues(best, values(model));
+
+			Model loaded = model(4);
+			Adam loadedAdam = new Adam(0.1);
+			CheckpointManager loadedCheckpoints = new CheckpointManager(path);
+			Assert.assertTrue(loadedCheckpoints.start(loaded, loadedAdam, 10));
+			Assert.assertEquals(3, loadedCheckpoints.getEpoch());
+			Assert.assertEquals(0.5, loadedCheckpoints.getMinLoss(), 0);
+			Assert.assertEquals(7, loadedCheckpoints.getPatience());
+			assertSameValues(current, values(loaded));
+			for (int i = 0; i < model.getParameters().size(); i++) {
+				Tensor[] state = adam.getState(model.getParameters().get(i).get());
+				Tensor[] loadedState = loadedAdam.getState(loaded.getParameters().get(i).get());
+				for (int j = 0; j < state.length; j++)
+					Assert.assertArrayEquals(state[j].toArray(), loadedState[j].toArray(), 0);
+			}
+			loadedCheckpoints.finish();
+			assertSameValues(best, values(loaded));
+		} finally {
+			Files.deleteIfExists(path);
+		}
+	}
+
+	@Test
+	public void testCorruptCheckpointsDoNotAlterTheModel() throws Exception {
+		Path path = Files.createTempFile("jgnn", ".checkpoint");
+		try {
+			Model trained = training(3, new CheckpointManager(path)).train(model(4));
+			Assert.assertNotEquals(values(model(4))[0][0], values(trained)[0][0], 0);
+			byte[] bytes = Files.readAllBytes(path);
+
+			Files.write(path, Arrays.copyOf(bytes, bytes.length - 9));
+			Model truncated = model(4);
+			Adam adam = new Adam();
+			CheckpointManager checkpoints = new CheckpointManager(path);
+			Assert.assertFalse(checkpoints.start(truncated, adam, 3));
+			Assert.assertEquals(-1, checkpoints.getEpoch());
+			assertSameValues(values(model(4)), values(truncated));
+			for (Parameter parameter : truncated.getParameters())
+				Assert.assertNull(adam.getState(parameter.get()));
+			checkpoints.finish();
+			assertSameValues(values(model(4)), values(truncated));
+
+			Files.write(path, bytes);
+			Model mismatched = model(5);
+			try {
+				new CheckpointManager(path).start(mismatched, new Adam(), 3);
+				Assert.fail("Loading a checkpoint of differently sized parameters should throw");
+			} catch (IllegalArgumentException ex) {
+				assertSameValues(values(model(5)), values(mismatched));
+			}
+		} finally {
+			Files.deleteIfExists(path);
+		}
+	}
+
+	@Test
+	public void testWritesRespectIntervalAndPostponement() throws Exception {
+		Path path = Files.createTempFile("jgnn", ".checkpoint");
+		Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+		Files.delete(path);
+		try {
+			Model model = new ModelBuilder().var("x").config("size", 1 << 21).operation("y = x+vector(size)").out("y")
+					.getModel();
+			CheckpointManager checkpoints = new CheckpointManager(path).setInterval(3);
+			checkpoints.start(model, new Adam(), 10);
+			checkpoints.endEpoch(0, 1, 9);
+			checkpoints.endEpoch(1, 1, 8);
+			checkpoints.finish();
+			Assert.assertFalse(Files.exists(path));
+
+			// a stale temporary file is replaced and then renamed over the checkpoint
+			Files.write(temporary, new byte[] { 1, 2, 3 });
+			checkpoints = new CheckpointManager(path).setResume(false);
+			checkpoints.start(model, new Adam(), 10);
+			checkpoints.endEpoch(0, 1, 9);
+			// the large write is still in progress, so this checkpoint is postponed
+			// until finishing, which writes it after waiting for the first one
+			checkpoints.endEpoch(1, 1, 8);
+			checkpoints.finish();
+			Assert.assertEquals(1, writtenEpoch(path));
+			Assert.assertFalse(Files.exists(temporary));
+			Assert.assertEquals(5 * 4 + 8 + 1 + 4 + (1 << 21) * 8 + 1, Files.size(path));
+
+			checkpoints = new CheckpointManager(path);
+			Assert.assertTrue(checkpoints.start(model, new Adam(), 10));
+			Assert.assertEquals(1, checkpoints.getEpoch());
+			Assert.assertEquals(8, checkpoints.getPatience());
+		} finally {
+			Files.deleteIfExists(path);
+			Files.deleteIfExists(temporary);
+		}
+	}
+}
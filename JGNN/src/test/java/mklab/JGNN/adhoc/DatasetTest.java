@@ -0,0 +1,65 @@
+package mklab.JGNN.adhoc;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DatasetTest {
+	private static class ToyDataset extends Dataset {
+		public ToyDataset() throws IOException {
+			Path features = Files.createTempFile("jgnn", ".feats");
+			Path graph = Files.createTempFile("jgnn", ".graph");
+			try {
+				Files.write(features, Arrays.asList("a,1,0,x", "b,2,0,y", "c,3,1,x", "d,4,1,y", "e,5,0,x"));
+				Files.write(graph, Arrays.asList("a,b", "b,c", "c,d", "d,e", "a,e"));
+				loadFeatures(features.toString());
+				loadGraph(graph.toString());
+			} finally {
+				Files.delete(features);
+				Files.delete(graph);
+			}
+		}
+	}
+
+	private static void assertSameSamples(Dataset expected, Dataset obtained, String sample, String other) {
+		long expectedRow = expected.samples().getId(sample);
+		long obtainedRow = obtained.samples().getId(sample);
+		for (long col = 0; col < expected.features().getCols(); col++)
+			Assert.assertEquals(expected.features().get(expectedRow, col), obtained.features().get(obtainedRow, col), 0);
+		for (long col = 0; col < expected.labels().getCols(); col++)
+			Assert.assertEquals(expected.labels().get(expectedRow, col), obtained.labels().get(obtainedRow, col), 0);
+		Assert.assertEquals(expected.graph().get(expectedRow, expected.samples().getId(other)),
+				obtained.graph().get(obtainedRow, obtained.samples().getId(other)), 0);
+	}
+
+	@Test
+	public void testReorderKeepsSamplesMappedToTheirData() throws IOException {
+		Dataset original = new ToyDataset();
+		Dataset reordered = new ToyDataset().reorder(new long[] { 3, 0, 4, 1, 2 });
+		Assert.assertEquals("d", reordered.samples().get(0));
+		Assert.assertEquals("c", reordered.samples().get(4));
+		Assert.assertEquals(4, reordered.features().get(0, 0), 0);
+		String[] samples = { "a", "b", "c", "d", "e" };
+		for (String sample : samples)
+			for (String other : samples)
+				assertSameSamples(original, reordered, sample, other);
+	}
+
+	@Test
+	public void testReorderByGraphOrdering() throws IOException {
+		Dataset dataset = new ToyDataset();
+		dataset.reorder(new Graph(dataset.graph()).reverseCuthillMcKeeOrder());
+		Assert.assertEquals(5, dataset.samples().size());
+		Assert.assertEquals(1, dataset.graph().get(dataset.samples().getId("a"), dataset.samples().getId("e")), 0);
+		Assert.assertEquals(0, dataset.graph().get(dataset.samples().getId("a"), dataset.samples().getId("c")), 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testReorderWithInvalidOrderShouldThrow() throws IOException {
+		new ToyDataset().reorder(new long[] { 0, 1, 2 });
+	}
+}
@@ -0,0 +1,229 @@
+package mklab.JGNN.adhoc;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.matrix.DenseMatrix;
+import mklab.JGNN.core.matrix.SparseMatrix;
+import mklab.JGNN.core.tensor.DenseTensor;
+import mklab.JGNN.core.util.Reductions;
+
+public class GraphTest {
+	private static final int nodes = 50;
+
+	private static Matrix adjacency() {
+		Random random = new Random(7);
+		Matrix ret = new SparseMatrix(nodes, nodes);
+		for (long node = 0; node < nodes; node++) {
+			ret.put(node, (node + 1) % nodes, 1 + random.nextInt(3));
+			ret.put(node, random.nextInt(nodes), 1 + random.nextInt(3));
+		}
+		return ret;
+	}
+
+	private static Matrix features() {
+		Matrix ret = new DenseMatrix(nodes, 4);
+		for (long i = 0; i < ret.size(); i++)
+			ret.put(i, Math.sin(i * 0.37));
+		return ret;
+	}
+
+	private static void assertSame(Tensor expected, Tensor obtained) {
+		Assert.assertEquals(expected.size(), obtained.size());
+		for (long i = 0; i < expected.size(); i++)
+			Assert.assertEquals(expected.get(i), obtained.get(i), 1.E-12);
+	}
+
+	private static void assertSame(Matrix expected, Matrix obtained) {
+		Assert.assertEquals(expected.getRows(), obtained.getRows());
+		Assert.assertEquals(expected.getCols(), obtained.getCols());
+		for (long row = 0; row < expected.getRows(); row++)
+			for (long col = 0; col < expected.getCols(); col++)
+				Assert.assertEquals(expected.get(row, col), obtained.get(row, col), 1.E-12);
+	}
+
+	private static long[] shuffled(long n, long seed) {
+		long[] order = new long[(int) n];
+		for (int i = 0; i < order.length; i++)
+			order[i] = i;
+		Random random = new Random(seed);
+		for (int i = order.length - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			long swap = order[i];
+			order[i] = order[j];
+			order[j] = swap;
+		}
+		return order;
+	}
+
+	@Test
+	public void testConstructionAndDegrees() {
+		Matrix adjacency = adjacency();
+		Graph graph = new Graph(adjacency);
+		Assert.assertEquals(nodes, graph.getNumNodes());
+		assertSame(adjacency, graph.toMatrix());
+		Tensor outDegrees = new DenseTensor(nodes);
+		Tensor inDegrees = new DenseTensor(nodes);
+		for (long row = 0; row < nodes; row++)
+			for (long col = 0; col < nodes; col++) {
+				outDegrees.put(row, outDegrees.get(row) + adjacency.get(row, col));
+				inDegrees.put(col, inDegrees.get(col) + adjacency.get(row, col));
+			}
+		assertSame(outDegrees, graph.getOutDegrees());
+		assertSame(inDegrees, graph.getInDegrees());
+		Graph fromEdges = new Graph(3, new long[] { 0, 2, 0 }, new long[] { 1, 0, 2 }, new double[] { 1, 2, 3 });
+		Assert.assertEquals(3, fromEdges.getNumEdges());
+		Assert.assertEquals(3, fromEdges.toMatrix().get(0, 2), 0);
+		Assert.assertEquals(2, fromEdges.toMatrix().get(2, 0), 0);
+	}
+
+	@Test
+	public void testTransformationsMatchMatrices() {
+		Matrix adjacency = adjacency();
+		Graph graph = new Graph(adjacency);
+		assertSame(adjacency.transposed(), graph.transposed().toMatrix());
+		Matrix symmetrized = graph.symmetrized().toMatrix();
+		for (long row = 0; row < nodes; row++)
+			for (long col = 0; col < nodes; col++) {
+				Assert.assertEquals(symmetrized.get(row, col), symmetrized.get(col, row), 0);
+				if (adjacency.get(row, col) != 0)
+					Assert.assertNotEquals(0, symmetrized.get(row, col), 0);
+			}
+		Graph looped = graph.addSelfLoops(1);
+		for (long node = 0; node < nodes; node++)
+			Assert.assertEquals(adjacency.get(node, node) + 1, looped.toMatrix().get(node, node), 0);
+		assertSame(adjacency.copy().cast(Matrix.class).setToSymmetricNormalization(),
+				graph.symmetricNormalization().toMatrix());
+		assertSame(adjacency.copy().cast(Matrix.class).setToASymmetricNormalization(),
+				graph.asymmetricNormalization().toMatrix());
+		assertSame(new DenseTensor(nodes).setToOnes(), graph.randomWalkNormalization().getOutDegrees());
+	}
+
+	@Test
+	public void testMultiplyMatchesMatmul() {
+		Matrix adjacency = adjacency();
+		Matrix features = features();
+		Graph graph = new Graph(adjacency).symmetricNormalization();
+		assertSame(graph.toMatrix().matmul(features), graph.multiply(features));
+	}
+
+	@Test
+	public void testPermutedMultiplyMatchesOriginalProduct() {
+		Graph graph = new Graph(adjacency()).symmetricNormalization();
+		Matrix features = features();
+		long[] order = shuffled(nodes, 3);
+		Matrix permutedFeatures = new DenseMatrix(nodes, features.getCols());
+		for (int row = 0; row < nodes; row++)
+			for (long col = 0; col < features.getCols(); col++)
+				permutedFeatures.put(row, col, features.get(order[row], col));
+		Matrix permutedProduct = graph.permuted(order).multiply(permutedFeatures);
+		Matrix product = graph.multiply(features);
+		Matrix restored = new DenseMatrix(nodes, features.getCols());
+		for (int row = 0; row < nodes; row++)
+			for (long col = 0; col < features.getCols(); col++)
+				restored.put(order[row], col, permutedProduct.get(row, col));
+		assertSame(product, restored);
+		Assert.assertEquals(graph.getNumEdges(), graph.permuted(order).getNumEdges());
+	}
+
+	@Test
+	public void testParallelMatchesSerial() {
+		Matrix adjacency = adjacency();
+		Matrix features = features();
+		Graph serial = new Graph(adjacency).symmetrized().addSelfLoops(1).symmetricNormalization();
+		Matrix serialProduct = serial.personalizedPageRank(0.1, 3, 0).multiply(features);
+		long[] order = serial.reverseCuthillMcKeeOrder();
+		Matrix serialPermuted = serial.permuted(order).toMatrix();
+		long threshold = Reductions.parallelThreshold;
+		try {
+			Reductions.parallelThreshold = 1;
+			Graph parallel = new Graph(adjacency).symmetrized().addSelfLoops(1).symmetricNormalization();
+			assertSame(serial.toMatrix(), parallel.toMatrix());
+			assertSame(serial.getOutDegrees(), parallel.getOutDegrees());
+			assertSame(serialProduct, parallel.personalizedPageRank(0.1, 3, 0).multiply(features));
+			assertSame(serialPermuted, parallel.permuted(order).toMatrix());
+		} finally {
+			Reductions.parallelThreshold = threshold;
+		}
+	}
+
+	private static void assertPermutation(long[] order, long n) {
+		Assert.assertEquals(n, order.length);
+		boolean[] found = new boolean[(int) n];
+		for (long node : order) {
+			Assert.assertFalse(found[(int) node]);
+			found[(int) node] = true;
+		}
+	}
+
+	private static Graph shuffledBand(int width) {
+		long[] position = shuffled(nodes, 5);
+		Matrix adjacency = new SparseMatrix(nodes, nodes);
+		for (int node = 0; node < nodes; node++)
+			for (int neighbor = node + 1; neighbor <= node + width && neighbor < nodes; neighbor++) {
+				adjacency.put(position[node], position[neighbor], 1);
+				adjacency.put(position[neighbor], position[node], 1);
+			}
+		return new Graph(adjacency);
+	}
+
+	@Test
+	public void testOrderingsArePermutations() {
+		Graph graph = new Graph(adjacency());
+		assertPermutation(graph.reverseCuthillMcKeeOrder(), nodes);
+		assertPermutation(graph.degreeOrder(), nodes);
+		assertPermutation(graph.breadthFirstOrder(), nodes);
+		assertPermutation(graph.communityOrder(), nodes);
+		Graph disconnected = new Graph(6, new long[] { 0, 4 }, new long[] { 1, 5 });
+		assertPermutation(disconnected.reverseCuthillMcKeeOrder(), 6);
+		assertPermutation(disconnected.communityOrder(), 6);
+	}
+
+	@Test
+	public void testReorderingsImproveLocality() {
+		Graph graph = shuffledBand(2);
+		Graph reordered = graph.permuted(graph.reverseCuthillMcKeeOrder());
+		Assert.assertTrue(graph.getBandwidth() > 2);
+		Assert.assertTrue(reordered.getBandwidth() <= 2 * 2);
+		Assert.assertTrue(reordered.getAverageEdgeSpan() < graph.getAverageEdgeSpan());
+		Graph traversed = graph.permuted(graph.breadthFirstOrder());
+		Assert.assertTrue(traversed.getAverageEdgeSpan() < graph.getAverageEdgeSpan());
+	}
+
+	@Test
+	public void testDegreeOrderPlacesHubsFirst() {
+		Graph star = new Graph(5, new long[] { 3, 3, 3, 0 }, new long[] { 0, 1, 2, 4 });
+		long[] order = star.degreeOrder();
+		Assert.assertEquals(3, order[0]);
+		Assert.assertEquals(0, order[1]);
+		Assert.assertArrayEquals(new long[] { 3, 0, 1, 2, 4 }, order);
+	}
+
+	@Test
+	public void testCommunityOrderKeepsCliquesContiguous() {
+		Matrix adjacency = new SparseMatrix(8, 8);
+		long[][] cliques = { { 0, 2, 4, 6 }, { 1, 3, 5, 7 } };
+		for (long[] clique : cliques)
+			for (long u : clique)
+				for (long v : clique)
+					if (u != v)
+						adjacency.put(u, v, 1);
+		adjacency.put(6, 7, 0.1);
+		adjacency.put(7, 6, 0.1);
+		Assert.assertArrayEquals(new long[] { 0, 2, 4, 6, 1, 3, 5, 7 }, new Graph(adjacency).communityOrder());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRepeatedOrderingShouldThrow() {
+		new Graph(adjacency()).permuted(new long[nodes]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMultiplyMismatchShouldThrow() {
+		new Graph(adjacency()).multiply(new DenseMatrix(nodes + 1, 2));
+	}
+}
@@ -0,0 +1,134 @@
+package mklab.JGNN.adhoc;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import mklab.JGNN.core.util.Reductions;
+
+public class IdConverterTest {
+	@Test
+	public void testPermuteRenumbersIdentifiers() {
+		IdConverter converter = new IdConverter(Arrays.asList("a", 7L, 3, "d"));
+		long[] order = { 2, 0, 3, 1 };
+		converter.permute(order);
+		Assert.assertEquals(4, converter.size());
+		Assert.assertEquals(3, converter.get(0));
+		Assert.assertEquals("a", converter.get(1));
+		Assert.assertEquals("d", converter.get(2));
+		Assert.assertEquals(7L, converter.get(3));
+		for (long id = 0; id < converter.size(); id++)
+			Assert.assertEquals(id, converter.getId(converter.get(id)));
+		Assert.assertEquals(4, converter.getSlice().size());
+		Assert.assertEquals(4, converter.getOrCreateId("e"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRepeatedPermutationShouldThrow() {
+		new IdConverter(Arrays.asList("a", "b", "c")).permute(new long[] { 0, 1, 1 });
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testIncompletePermutationShouldThrow() {
+		new IdConverter(Arrays.asList("a", "b", "c")).permute(new long[] { 0, 1 });
+	}
+
+	@Test
+	public void testRegistersMixedObjects() {
+		IdConverter converter = new IdConverter();
+		Assert.assertEquals(0, converter.getOrCreateId("a"));
+		Assert.assertEquals(1, converter.getOrCreateId(1L));
+		Assert.assertEquals(2, converter.getOrCreateId(1));
+		Assert.assertEquals(3, converter.getOrCreateId("\u00e9\ud83d\ude00"));
+		Assert.assertEquals(4, converter.getOrCreateId(Arrays.asList(1, 2)));
+		Assert.assertEquals(0, converter.getOrCreateId("a"));
+		Assert.assertEquals(5, converter.size());
+		Assert.assertEquals(1L, converter.get(1));
+		Assert.assertEquals(1, converter.get(2));
+		Assert.assertEquals("\u00e9\ud83d\ude00", converter.get(3));
+		Assert.assertEquals(Arrays.asList(1, 2), converter.get(4));
+		Assert.assertNull(converter.get(5));
+		Assert.assertTrue(converter.contains(Arrays.asList(1, 2)));
+		Assert.assertFalse(converter.contains("b"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMissingIdShouldThrow() {
+		new IdConverter(Arrays.asList("a", "b")).getId("c");
+	}
+
+	@Test
+	public void testParallelBatchMatchesSerialRegistration() {
+		ArrayList<Object> objects = new ArrayList<Object>();
+		for (int i = 0; i < 1000; i++)
+			objects.add(i % 3 == 0 ? (Object) ("node" + i % 700) : (Object) (long) (i % 500));
+		IdConverter serial = new IdConverter();
+		for (Object object : objects)
+			serial.getOrCreateId(object);
+		long threshold = Reductions.parallelThreshold;
+		try {
+			Reductions.parallelThreshold = 1;
+			IdConverter parallel = new IdConverter();
+			long[] ids = parallel.getOrCreateIds(objects);
+			Assert.assertEquals(serial.size(), parallel.size());
+			for (int i = 0; i < objects.size(); i++)
+				Assert.assertEquals(serial.getId(objects.get(i)), ids[i]);
+		} finally {
+			Reductions.parallelThreshold = threshold;
+		}
+	}
+
+	@Test
+	public void testSaveLoadRoundTrip() throws Exception {
+		IdConverter converter = new IdConverter().setDimensionName("node", "label");
+		for (int i = 0; i < 100; i++)
+			converter.getOrCreateId(i % 2 == 0 ? "node" + i : (Object) (long) i);
+		converter.getOrCreateId(7);
+		Path path = Files.createTempFile("jgnn", ".ids");
+		try {
+			Assert.assertSame(converter, converter.save(path));
+			IdConverter loaded = IdConverter.load(path);
+			Assert.assertEquals(converter.size(), loaded.size());
+			Assert.assertEquals("node", loaded.nodeDimensionName);
+			Assert.assertEquals("label", loaded.featureDimensionName);
+			for (long id = 0; id < converter.size(); id++) {
+				Assert.assertEquals(converter.get(id), loaded.get(id));
+				Assert.assertEquals(id, loaded.getId(converter.get(id)));
+			}
+			Assert.assertEquals(converter.size(), loaded.getOrCreateId("new"));
+		} finally {
+			Files.delete(path);
+		}
+	}
+
+	@Test
+	public void testLoadRejectsOtherFiles() throws Exception {
+		Path path = Files.createTempFile("jgnn", ".ids");
+		try {
+			Files.write(path, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17 });
+			Assert.assertNull(IdConverter.load(path));
+		} finally {
+			Files.delete(path);
+		}
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testSavingOtherObjectsShouldThrow() throws Exception {
+		Path path = Files.createTempFile("jgnn", ".ids");
+		try {
+			IdConverter converter = new IdConverter(Arrays.asList("a", Arrays.asList(1)));
+			try {
+				converter.save(path);
+			} finally {
+				// the lock should have been released
+				Assert.assertEquals(2, converter.getOrCreateId("b"));
+			}
+		} finally {
+			Files.delete(path);
+		}
+	}
+}
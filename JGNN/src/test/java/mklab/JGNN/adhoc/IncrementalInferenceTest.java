@@ -0,0 +1,79 @@
+package mklab.JGNN.adhoc;
+
+import java.util.Map.Entry;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import mklab.JGNN.adhoc.parsers.FastBuilder;
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.empty.EmptyTensor;
+import mklab.JGNN.core.matrix.DenseMatrix;
+import mklab.JGNN.core.matrix.SparseMatrix;
+import mklab.JGNN.core.tensor.DenseTensor;
+import mklab.JGNN.nn.initializers.XavierNormal;
+
+public class IncrementalInferenceTest {
+	private static final int nodes = 40;
+
+	private static Matrix normalize(Matrix raw) {
+		return raw.copy().cast(Matrix.class).setMainDiagonal(1).setToSymmetricNormalization();
+	}
+
+	private static void link(Matrix raw, long u, long v, double value) {
+		raw.put(u, v, value);
+		raw.put(v, u, value);
+	}
+
+	private static void renormalize(IncrementalInference inference, Matrix current, Matrix rebuilt) {
+		for (Entry<Long, Long> entry : rebuilt.getNonZeroEntries())
+			if (current.get(entry.getKey(), entry.getValue()) != rebuilt.get(entry.getKey(), entry.getValue()))
+				inference.putEdge(entry.getKey(), entry.getValue(), rebuilt.get(entry.getKey(), entry.getValue()));
+		for (Entry<Long, Long> entry : current.getNonZeroEntries())
+			if (current.get(entry.getKey(), entry.getValue()) != 0 && rebuilt.get(entry.getKey(), entry.getValue()) == 0)
+				inference.removeEdge(entry.getKey(), entry.getValue());
+	}
+
+	private static void assertSame(Tensor expected, Tensor obtained) {
+		Assert.assertEquals(expected.size(), obtained.size());
+		for (long i = 0; i < expected.size(); i++)
+			Assert.assertEquals(expected.get(i), obtained.get(i), 1.E-12);
+	}
+
+	@Test
+	public void testEdgeAndFeatureUpdatesMatchFullRebuild() {
+		Matrix raw = new SparseMatrix(nodes, nodes);
+		for (long node = 0; node < nodes; node++) {
+			link(raw, node, (node + 1) % nodes, 1);
+			link(raw, node, (node * 7 + 3) % nodes, 1);
+		}
+		Matrix features = new DenseMatrix(nodes, 5);
+		features.setToRandom();
+		Matrix adjacency = normalize(raw);
+		ModelBuilder builder = new FastBuilder(adjacency, features).config("hidden", 8).config("classes", 3)
+				.layer("h{l+1}=relu(A@(h{l}@matrix(features, hidden))+vector(hidden))")
+				.layer("h{l+1}=A@(h{l}@matrix(hidden, classes))+vector(classes)").classify()
+				.autosize(new EmptyTensor(nodes));
+		builder.getModel().init(new XavierNormal());
+		Tensor ids = Tensor.fromRange(0, nodes).asColumn();
+		IncrementalInference inference = new IncrementalInference(builder);
+		assertSame(builder.getModel().predict(ids).get(0), inference.predict(ids).get(0));
+
+		link(raw, 3, 17, 1);
+		link(raw, 8, 25, 1);
+		Matrix rebuilt = normalize(raw);
+		renormalize(inference, adjacency, rebuilt);
+		assertSame(rebuilt, adjacency);
+		Tensor incremental = inference.predict(ids).get(0);
+		Assert.assertTrue(inference.getLastTouchedRows() < 6 * nodes);
+		assertSame(builder.getModel().predict(ids).get(0), incremental);
+
+		link(raw, 0, 1, 0);
+		rebuilt = normalize(raw);
+		renormalize(inference, adjacency, rebuilt);
+		inference.putFeatures(11, new DenseTensor(5).setToRandom());
+		assertSame(rebuilt, adjacency);
+		assertSame(builder.getModel().predict(ids).get(0), inference.predict(ids).get(0));
+	}
+}
@@ -0,0 +1,285 @@
+package mklab.JGNN.adhoc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.matrix.DenseMatrix;
+import mklab.JGNN.core.tensor.DenseTensor;
+import mklab.JGNN.nn.Loss;
+import mklab.JGNN.nn.Model;
+import mklab.JGNN.nn.inputs.Parameter;
+import mklab.JGNN.nn.loss.CategoricalCrossEntropy;
+import mklab.JGNN.nn.optimizers.Adam;
+
+public class ModelTrainingTest {
+	/**
+	 * Training without batches whose validation loss at each epoch is read from
+	 * a fixed sequence.
+	 */
+	private static class ScriptedTraining extends ModelTraining {
+		private final double[] losses;
+		private int epochsRun = 0;
+
+		public ScriptedTraining(double... losses) {
+			this.losses = losses;
+			setOptimizer(new Adam());
+			setEpochs(losses.length);
+			setLoss(new Loss() {
+				@Override
+				public double evaluate(Tensor output, Tensor desired) {
+					return desired.get(0);
+				}
+
+				@Override
+				public Tensor derivative(Tensor output, Tensor desired) {
+					return output.zeroCopy();
+				}
+			});
+		}
+
+		@Override
+		protected void onStartEpoch(int epoch) {
+			epochsRun++;
+		}
+
+		@Override
+		protected List<BatchData> getBatchData(int batch, int epoch) {
+			return new ArrayList<BatchData>();
+		}
+
+		@Override
+		protected List<BatchData> getValidationData(int epoch) {
+			Tensor input = new DenseTensor(1);
+			Tensor loss = new DenseTensor(new double[] { losses[epoch] });
+			return Arrays.asList(new BatchData(Arrays.asList(input), Arrays.asList(loss)));
+		}
+	}
+
+	private static int epochsRun(boolean asyncValidation, int patience, double... losses) {
+		ScriptedTraining training = new ScriptedTraining(losses);
+		training.setPatience(patience).setAsyncValidation(asyncValidation);
+		training.train(new ModelBuilder().var("x").operation("y = x+x").out("y").getModel());
+		return training.epochsRun;
+	}
+
+	@Test
+	public void testEarlyStoppingEpochs() {
+		// training stops after the epoch at which patience runs out
+		double[] losses = { 5, 4, 3, 3.5, 3.2, 3.1, 2, 1, 0 };
+		Assert.assertEquals(5, epochsRun(false, 3, losses));
+		Assert.assertEquals(6, epochsRun(false, 4, losses));
+		Assert.assertEquals(9, epochsRun(false, 6, losses));
+		Assert.assertEquals(1, epochsRun(false, 1, losses));
+	}
+
+	@Test
+	public void testEarlyStoppingEpochsWithAsyncValidation() {
+		// stopping is detected one epoch later
+		double[] losses = { 5, 4, 3, 3.5, 3.2, 3.1, 2, 1, 0 };
+		Assert.assertEquals(6, epochsRun(true, 3, losses));
+		Assert.assertEquals(7, epochsRun(true, 4, losses));
+		Assert.assertEquals(9, epochsRun(true, 6, losses));
+		Assert.assertEquals(2, epochsRun(true, 1, losses));
+	}
+
+	@Test
+	public void testEarlyStoppingWithoutImprovement() {
+		double[] losses = { Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN };
+		Assert.assertEquals(3, epochsRun(false, 3, losses));
+		Assert.assertEquals(4, epochsRun(true, 3, losses));
+	}
+
+	/**
+	 * Training on fixed batches of a linear classification problem, whose
+	 * validation loss improves at every epoch so that the final parameters are
+	 * those of the last epoch.
+	 */
+	private static class BatchTraining extends ModelTraining {
+		private static final int batchSize = 4;
+		private final Matrix features = new DenseMatrix(40, 3);
+		private final Matrix labels = new DenseMatrix(40, 2);
+		private final List<Integer> started = Collections.synchronizedList(new ArrayList<Integer>());
+		private int failingBatch = -1;
+		private double validationLoss = 0;
+
+		public BatchTraining(int epochs) {
+			for (long row = 0; row < features.getRows(); row++) {
+				for (long col = 0; col < features.getCols(); col++)
+					features.put(row, col, Math.sin(row * 0.3 + col));
+				labels.put(row, row % 3 == 0 ? 0 : 1, 1);
+			}
+			setOptimizer(new Adam(0.01));
+			setLoss(new CategoricalCrossEntropy());
+			setValidationLoss(new Loss() {
+				@Override
+				public double evaluate(Tensor output, Tensor desired) {
+					validationLoss -= 1;
+					return validationLoss;
+				}
+
+				@Override
+				public Tensor derivative(Tensor output, Tensor desired) {
+					return output.zeroCopy();
+				}
+			});
+			setEpochs(epochs);
+			setNumBatches((int) features.getRows() / batchSize);
+		}
+
+		@Override
+		protected void onStartEpoch(int epoch) {
+		}
+
+		@Override
+		protected List<BatchData> getBatchData(int batch, int epoch) {
+			started.add(batch);
+			if (batch == failingBatch)
+				throw new UnsupportedOperationException("Failing batch " + batch);
+			Matrix batchFeatures = new DenseMatrix(batchSize, features.getCols());
+			Matrix batchLabels = new DenseMatrix(batchSize, labels.getCols());
+			for (int i = 0; i < batchSize; i++) {
+				for (long col = 0; col < features.getCols(); col++)
+					batchFeatures.put(i, col, features.get(batch * batchSize + i, col));
+				for (long col = 0; col < labels.getCols(); col++)
+					batchLabels.put(i, col, labels.get(batch * batchSize + i, col));
+			}
+			return Arrays.asList(new BatchData(Arrays.asList(batchFeatures), Arrays.asList(batchLabels)));
+		}
+
+		@Override
+		protected List<BatchData> getValidationData(int epoch) {
+			return Arrays.asList(new BatchData(Arrays.asList(features), Arrays.asList(labels)));
+		}
+	}
+
+	private static Model linearModel() {
+		Model model = new ModelBuilder().var("x").config("features", 3).config("classes", 2)
+				.operation("yhat = softmax(x@matrix(features, classes)+vector(classes), dim: 'row')").out("yhat")
+				.getModel();
+		for (Parameter parameter : model.getParameters()) {
+			Tensor value = parameter.get();
+			for (long i = 0; i < value.size(); i++)
+				value.put(i, Math.cos(i * 0.9 + value.size()) * 0.1);
+		}
+		return model;
+	}
+
+	@Test
+	public void testSingleThreadHogwildMatchesSequentialStochasticGradientDescent() {
+		BatchTraining reference = new BatchTraining(3);
+		Model expected = linearModel();
+		Adam adam = new Adam(0.01);
+		for (int epoch = 0; epoch < 3; epoch++)
+			for (int batch = 0; batch < reference.numBatches; batch++) {
+				BatchData data = reference.getBatchData(batch, epoch).get(0);
+				expected.train(reference.loss, adam, data.getInputs(), data.getOutputs());
+			}
+		for (int maxStaleness : new int[] { 0, Integer.MAX_VALUE }) {
+			BatchTraining training = new BatchTraining(3);
+			training.setHogwild(1, maxStaleness);
+			Model obtained = training.train(linearModel());
+			for (int i = 0; i < expected.getParameters().size(); i++)
+				Assert.assertArrayEquals(expected.getParameters().get(i).get().toArray(),
+						obtained.getParameters().get(i).get().toArray(), 0);
+		}
+	}
+
+	@Test
+	public void testHogwildTrainsEveryBatchOncePerEpoch() {
+		BatchTraining training = new BatchTraining(4);
+		training.setHogwild(4, 2);
+		training.train(linearModel());
+		Assert.assertEquals(4 * training.numBatches, training.started.size());
+		int[] counts = new int[training.numBatches];
+		for (int batch : training.started)
+			counts[batch]++;
+		for (int count : counts)
+			Assert.assertEquals(4, count);
+	}
+
+	@Test
+	public void testHogwildWorkerExceptionStopsTraining() {
+		BatchTraining training = new BatchTraining(3);
+		training.failingBatch = 3;
+		training.setHogwild(4, 1);
+		try {
+			training.train(linearModel());
+			Assert.fail("The exception of the failing batch should propagate");
+		} catch (UnsupportedOperationException ex) {
+			Assert.assertEquals("Failing batch 3", ex.getMessage());
+		}
+		// no batch more than maxStaleness after the failing one starts, and later
+		// epochs never run
+		for (int batch : training.started)
+			Assert.assertTrue(batch <= 3 + 1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeStalenessShouldThrow() {
+		new BatchTraining(1).setHogwild(2, -1);
+	}
+
+	private static Thread nextInThread(ModelTraining.BatchSchedule schedule, AtomicInteger result) {
+		Thread thread = new Thread(() -> result.set(schedule.next()));
+		thread.start();
+		return thread;
+	}
+
+	@Test
+	public void testBatchScheduleHandsOutBatchesInOrder() {
+		ModelTraining.BatchSchedule schedule = new ModelTraining.BatchSchedule(5, Integer.MAX_VALUE);
+		for (int batch = 0; batch < 5; batch++)
+			Assert.assertEquals(batch, schedule.next());
+		Assert.assertEquals(-1, schedule.next());
+		Assert.assertEquals(-1, schedule.next());
+	}
+
+	@Test
+	public void testBatchScheduleBoundsStaleness() throws InterruptedException {
+		ModelTraining.BatchSchedule schedule = new ModelTraining.BatchSchedule(8, 2);
+		Assert.assertEquals(0, schedule.next());
+		Assert.assertEquals(1, schedule.next());
+		Assert.assertEquals(2, schedule.next());
+		AtomicInteger result = new AtomicInteger(-2);
+		Thread waiting = nextInThread(schedule, result);
+		waiting.join(100);
+		Assert.assertTrue(waiting.isAlive());
+		// concluding a later batch does not advance the lowest unfinished one
+		schedule.done(1);
+		waiting.join(100);
+		Assert.assertTrue(waiting.isAlive());
+		schedule.done(0);
+		waiting.join(1000);
+		Assert.assertEquals(3, result.get());
+		Assert.assertEquals(4, schedule.next());
+		waiting = nextInThread(schedule, result);
+		waiting.join(100);
+		Assert.assertTrue(waiting.isAlive());
+		schedule.done(2);
+		waiting.join(1000);
+		Assert.assertEquals(5, result.get());
+	}
+
+	@Test
+	public void testBatchScheduleAbortReleasesWaitingWorkers() throws InterruptedException {
+		ModelTraining.BatchSchedule schedule = new ModelTraining.BatchSchedule(4, 0);
+		Assert.assertEquals(0, schedule.next());
+		AtomicInteger result = new AtomicInteger(-2);
+		Thread waiting = nextInThread(schedule, result);
+		waiting.join(100);
+		Assert.assertTrue(waiting.isAlive());
+		schedule.abort(new RuntimeException());
+		waiting.join(1000);
+		Assert.assertEquals(-1, result.get());
+		schedule.done(0);
+		Assert.assertEquals(-1, schedule.next());
+	}
+}
@@ -0,0 +1,284 @@
+package mklab.JGNN.adhoc;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import mklab.JGNN.adhoc.parsers.FastBuilder;
+import mklab.JGNN.adhoc.parsers.Neuralang;
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.empty.EmptyTensor;
+import mklab.JGNN.core.matrix.DenseMatrix;
+import mklab.JGNN.core.matrix.SparseMatrix;
+
+public class OperationParserTest {
+	private static Matrix graph() {
+		Matrix ret = new SparseMatrix(10, 10);
+		for (long node = 0; node < 10; node++) {
+			ret.put(node, (node + 1) % 10, 1);
+			ret.put((node + 1) % 10, node, 1);
+		}
+		return ret;
+	}
+
+	private static Matrix features() {
+		return new DenseMatrix(10, 5);
+	}
+
+	private static ModelBuilder simple() {
+		return new ModelBuilder().var("x").var("y").config("n", 2);
+	}
+
+	@Test
+	public void testGCNRouting() {
+		ModelBuilder builder = new FastBuilder(graph(), features()).config("reg", 0.005).config("classes", 3)
+				.config("hidden", 4)
+				.function("gcnlayer", "(A,h){Adrop = dropout(A, 0.5); return Adrop@(h@matrix(?, hidden, reg))+vector(?);}")
+				.layer("h{l+1}=relu(gcnlayer(A, h{l}))").config("hidden", "classes")
+				.layer("h{l+1}=gcnlayer(A, h{l})").classify().autosize(new EmptyTensor(10));
+		Assert.assertEquals(
+				"_tmp1 = 0.5\n"
+				+ "_gcnlayer0_stack0_Adrop = dropout ( A , _tmp1 ) \n"
+				+ "_tmp2 = h0 @ _tmp3\n"
+				+ "_tmp4 = _gcnlayer0_stack0_Adrop @ _tmp2\n"
+				+ "_tmp0 = _tmp4 + _tmp5\n"
+				+ "h1 = relu _tmp0 \n"
+				+ "_tmp6 = 0.5\n"
+				+ "_gcnlayer1_stack0_Adrop = dropout ( A , _tmp6 ) \n"
+				+ "_tmp7 = h1 @ _tmp8\n"
+				+ "_tmp9 = _gcnlayer1_stack0_Adrop @ _tmp7\n"
+				+ "h2 = _tmp9 + _tmp10\n"
+				+ "h3 = h2 [ nodes ] \n"
+				+ "h4 = softmax ( h3 , dim: \"row\" ) \n",
+				builder.describe());
+	}
+
+	@Test
+	public void testGCNIIRoutingWithFutureConstants() {
+		ModelBuilder builder = new FastBuilder(graph(), features()).config("reg", 0.0005).config("classes", 3)
+				.config("hidden", 3).constant("I", Matrix.eye(3))
+				.layer("h{l+1}=relu(h{l}@matrix(features, hidden, reg)+vector(hidden))").rememberAs("0")
+				.constant("a", 0.1).futureConstants("b{l}", l -> 0.5 / (l + 1), 2)
+				.layerRepeat("ch{l}=b{l}*matrix(hidden, hidden)+(1-b{l})*I; h{l+1}=relu((1-a)*(dropout(A, 0.5)@h{l})+a*h{0})@ch{l}", 2)
+				.layer("h{l+1}=h{l}@matrix(hidden, classes)+vector(classes)").classify();
+		Assert.assertEquals(
+				"_tmp1 = h0 @ _tmp2\n"
+				+ "_tmp0 = _tmp1 + _tmp3\n"
+				+ "h1 = relu _tmp0 \n"
+				+ "_tmp5 = 1\n"
+				+ "_tmp6 = MINUS_ONE * b1\n"
+				+ "_tmp4 = _tmp5 + _tmp6\n"
+				+ "_tmp7 = b1 * _tmp8\n"
+				+ "_tmp9 = _tmp4 * I\n"
+				+ "ch1 = _tmp7 + _tmp9\n"
+				+ "_tmp12 = 1\n"
+				+ "_tmp13 = MINUS_ONE * a\n"
+				+ "_tmp11 = _tmp12 + _tmp13\n"
+				+ "_tmp15 = 0.5\n"
+				+ "_tmp16 = dropout ( A , _tmp15 ) \n"
+				+ "_tmp14 = _tmp16 @ h1\n"
+				+ "_tmp17 = _tmp11 * _tmp14\n"
+				+ "_tmp18 = a * h1\n"
+				+ "_tmp10 = _tmp17 + _tmp18\n"
+				+ "_tmp19 = relu _tmp10\n"
+				+ "h2 = _tmp19 @ ch1\n"
+				+ "_tmp21 = 1\n"
+				+ "_tmp22 = MINUS_ONE * b2\n"
+				+ "_tmp20 = _tmp21 + _tmp22\n"
+				+ "_tmp23 = b2 * _tmp24\n"
+				+ "_tmp25 = _tmp20 * I\n"
+				+ "ch2 = _tmp23 + _tmp25\n"
+				+ "_tmp28 = 1\n"
+				+ "_tmp29 = MINUS_ONE * a\n"
+				+ "_tmp27 = _tmp28 + _tmp29\n"
+				+ "_tmp31 = 0.5\n"
+				+ "_tmp32 = dropout ( A , _tmp31 ) \n"
+				+ "_tmp30 = _tmp32 @ h2\n"
+				+ "_tmp33 = _tmp27 * _tmp30\n"
+				+ "_tmp34 = a * h1\n"
+				+ "_tmp26 = _tmp33 + _tmp34\n"
+				+ "_tmp35 = relu _tmp26\n"
+				+ "h3 = _tmp35 @ ch2\n"
+				+ "_tmp36 = h3 @ _tmp37\n"
+				+ "h4 = _tmp36 + _tmp38\n"
+				+ "h5 = h4 [ nodes ] \n"
+				+ "h6 = softmax ( h5 , dim: \"row\" ) \n",
+				builder.describe());
+	}
+
+	@Test
+	public void testGATRouting() {
+		ModelBuilder builder = new FastBuilder(graph(), features()).config("reg", 0.005).config("classes", 3)
+				.config("hidden", 4).config("2hidden", 8)
+				.layer("h{l+1}=relu(h{l}@matrix(features, hidden, reg)+vector(hidden))")
+				.layer("h{l+1}=(L1(nexp(att(A, h{l})))@h{l} | h{l})@matrix(2hidden, hidden, reg)+vector(hidden)")
+				.layer("h{l+1}=(L1(nexp(att(A, h{l})))@h{l} | h{l})@matrix(2hidden, classes, reg)+vector(classes)")
+				.classify();
+		Assert.assertEquals(
+				"_tmp1 = h0 @ _tmp2\n"
+				+ "_tmp0 = _tmp1 + _tmp3\n"
+				+ "h1 = relu _tmp0 \n"
+				+ "_tmp6 = att ( A , h1 ) \n"
+				+ "_tmp5 = nexp _tmp6 \n"
+				+ "_tmp7 = L1 _tmp5\n"
+				+ "_tmp8 = h1 | h1\n"
+				+ "_tmp4 = _tmp7 @ _tmp8\n"
+				+ "_tmp9 = _tmp4 @ _tmp10\n"
+				+ "h2 = _tmp9 + _tmp11\n"
+				+ "_tmp14 = att ( A , h2 ) \n"
+				+ "_tmp13 = nexp _tmp14 \n"
+				+ "_tmp15 = L1 _tmp13\n"
+				+ "_tmp16 = h2 | h2\n"
+				+ "_tmp12 = _tmp15 @ _tmp16\n"
+				+ "_tmp17 = _tmp12 @ _tmp18\n"
+				+ "h3 = _tmp17 + _tmp19\n"
+				+ "h4 = h3 [ nodes ] \n"
+				+ "h5 = softmax ( h4 , dim: \"row\" ) \n",
+				builder.describe());
+	}
+
+	@Test
+	public void testAPPNPRouting() {
+		ModelBuilder builder = new FastBuilder(graph(), features()).config("reg", 0.005).config("hidden", 4)
+				.config("classes", 3).layer("h{l+1}=relu(h{l}@matrix(features, hidden, reg)+vector(hidden))")
+				.layer("h{l+1}=h{l}@matrix(hidden, classes)+vector(classes)").rememberAs("0").constant("a", 0.9)
+				.layerRepeat("h{l+1} = a*(dropout(A, 0.5)@h{l})+(1-a)*h{0}", 2).classify();
+		Assert.assertEquals(
+				"_tmp1 = h0 @ _tmp2\n"
+				+ "_tmp0 = _tmp1 + _tmp3\n"
+				+ "h1 = relu _tmp0 \n"
+				+ "_tmp4 = h1 @ _tmp5\n"
+				+ "h2 = _tmp4 + _tmp6\n"
+				+ "_tmp8 = 0.5\n"
+				+ "_tmp9 = dropout ( A , _tmp8 ) \n"
+				+ "_tmp7 = _tmp9 @ h2\n"
+				+ "_tmp11 = 1\n"
+				+ "_tmp12 = MINUS_ONE * a\n"
+				+ "_tmp10 = _tmp11 + _tmp12\n"
+				+ "_tmp13 = a * _tmp7\n"
+				+ "_tmp14 = _tmp10 * h2\n"
+				+ "h3 = _tmp13 + _tmp14\n"
+				+ "_tmp16 = 0.5\n"
+				+ "_tmp17 = dropout ( A , _tmp16 ) \n"
+				+ "_tmp15 = _tmp17 @ h3\n"
+				+ "_tmp19 = 1\n"
+				+ "_tmp20 = MINUS_ONE * a\n"
+				+ "_tmp18 = _tmp19 + _tmp20\n"
+				+ "_tmp21 = a * _tmp15\n"
+				+ "_tmp22 = _tmp18 * h2\n"
+				+ "h4 = _tmp21 + _tmp22\n"
+				+ "h5 = h4 [ nodes ] \n"
+				+ "h6 = softmax ( h5 , dim: \"row\" ) \n",
+				builder.describe());
+	}
+
+	@Test
+	public void testNeuralangRouting() {
+		String architectures = """
+				fn classify(nodes, h, epochs: !3000, patience: !100, lr: !0.01) {
+					return softmax(h[nodes], dim: "row");
+				}
+				fn gcnlayer(A, h, hidden: 16, reg: 0.005) {
+					return A@h@matrix(?, hidden, reg) + vector(hidden);
+				}
+				fn gcn(A, h, classes: extern) {
+					h = gcnlayer(A, h);
+					h = dropout(relu(h), 0.5);
+					return gcnlayer(A, h, hidden: classes);
+				}
+				""";
+		ModelBuilder builder = new Neuralang().parse(architectures).constant("A", graph()).constant("h", features())
+				.var("nodes").config("classes", 3).config("hidden", 5).out("classify(nodes, gcn(A,h))")
+				.autosize(new EmptyTensor(10));
+		Assert.assertEquals(
+				"_tmp2 = A @ h\n"
+				+ "_tmp1 = _tmp2 @ _tmp3\n"
+				+ "_gcn0_stack0_h = _tmp1 + _tmp4\n"
+				+ "_tmp5 = relu _gcn0_stack0_h \n"
+				+ "_tmp6 = 0.5\n"
+				+ "_gcn0_stack1_h = dropout ( _tmp5 , _tmp6 ) \n"
+				+ "_tmp8 = A @ _gcn0_stack1_h\n"
+				+ "_tmp7 = _tmp8 @ _tmp9\n"
+				+ "_tmp0 = _tmp7 + _tmp10\n"
+				+ "_tmp11 = _tmp0 [ nodes ] \n"
+				+ "_return = softmax ( _tmp11 , dim:\"row\" ) \n",
+				builder.describe());
+	}
+
+	@Test
+	public void testUnaryMinusAfterOperators() {
+		Assert.assertEquals("_tmp1 = x * MINUS_ONE\n" + "_tmp0 = _tmp1 * y\n" + "_tmp2 = MINUS_ONE * x\n"
+				+ "z = _tmp0 + _tmp2\n", simple().operation("z = x * -y + -x").out("z").describe());
+	}
+
+	@Test
+	public void testLegacyDimArgumentHint() {
+		try {
+			simple().operation("o = sum(x, row)");
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+			Assert.assertTrue(e.getMessage().startsWith("Component name row not declared."));
+			Assert.assertTrue(e.getMessage().contains("FIX: Consider replacing the `row` argument with `dim:\"row\"`"));
+		}
+		try {
+			simple().operation("o = softmax(x, col)");
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+			Assert.assertTrue(e.getMessage().contains("`dim:\"col\"`"));
+		}
+	}
+
+	@Test
+	public void testDeclaredNonDimArgumentShouldThrow() {
+		try {
+			simple().operation("o = sum(x, y)");
+			Assert.fail();
+		} catch (RuntimeException e) {
+			Assert.assertTrue(e.getMessage().startsWith("Second argument y"));
+		}
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void testInvalidDimShouldThrow() {
+		simple().operation("o = softmax(x, dim: 'diag')");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUndeclaredComponentShouldThrow() {
+		simple().operation("o = w + x");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testConfigurationInExpressionShouldThrow() {
+		simple().operation("o = n + x");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testImbalancedParenthesisShouldThrow() {
+		simple().operation("o = relu(x");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnexpectedParenthesisShouldThrow() {
+		simple().operation("o = x)");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMultipleEqualitiesShouldThrow() {
+		simple().operation("o = x = y");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMissingEqualityShouldThrow() {
+		simple().operation("x + y");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRepeatedOperatorShouldThrow() {
+		simple().operation("o = x + + y");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testReassignmentShouldThrow() {
+		simple().operation("x = y");
+	}
+}
@@ -0,0 +1,103 @@
+package mklab.JGNN.adhoc.distributed;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.tensor.DenseTensor;
+
+public class RingAllReduceTest {
+	private interface Worker {
+		void run(RingAllReduce ring) throws Exception;
+	}
+
+	/**
+	 * Runs the same code on all workers of an in-process ring, each in a thread
+	 * of its own, and rethrows the first encountered exception or assertion
+	 * error.
+	 */
+	private static void runRing(int numWorkers, Worker worker) throws Exception {
+		List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+		List<ServerSocket> reserved = new ArrayList<ServerSocket>();
+		for (int rank = 0; rank < numWorkers; rank++) {
+			ServerSocket socket = new ServerSocket(0);
+			reserved.add(socket);
+			addresses.add(new InetSocketAddress("localhost", socket.getLocalPort()));
+		}
+		for (ServerSocket socket : reserved)
+			socket.close();
+		Throwable[] failures = new Throwable[numWorkers];
+		Thread[] threads = new Thread[numWorkers];
+		for (int rank = 0; rank < numWorkers; rank++) {
+			int workerRank = rank;
+			threads[rank] = new Thread(() -> {
+				try (RingAllReduce ring = new RingAllReduce(workerRank, addresses)) {
+					worker.run(ring);
+				} catch (Throwable ex) {
+					failures[workerRank] = ex;
+				}
+			});
+			threads[rank].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+		for (Throwable failure : failures) {
+			if (failure instanceof Error)
+				throw (Error) failure;
+			if (failure != null)
+				throw (Exception) failure;
+		}
+	}
+
+	private static double[] values(int rank, int length) {
+		double[] ret = new double[length];
+		for (int i = 0; i < length; i++)
+			ret[i] = rank * 100 + i;
+		return ret;
+	}
+
+	@Test(timeout = 60000)
+	public void testAllReduceSumsAcrossWorkers() throws Exception {
+		int numWorkers = 3;
+		runRing(numWorkers, ring -> {
+			// lengths smaller than, equal to, and not divisible by the number of workers
+			for (int length : new int[] { 1, 2, 3, 10, 1001 }) {
+				double[] values = values(ring.getRank(), length);
+				ring.allReduce(values);
+				for (int i = 0; i < length; i++)
+					Assert.assertEquals(300 + numWorkers * i, values[i], 0);
+			}
+			Assert.assertEquals(1, ring.average(ring.getRank()), 0);
+			Assert.assertEquals(6, ring.getNumSteps());
+		});
+	}
+
+	@Test(timeout = 60000)
+	public void testBroadcastCopiesFirstWorker() throws Exception {
+		runRing(4, ring -> {
+			Tensor first = new DenseTensor(values(ring.getRank(), 7));
+			Tensor second = new DenseTensor(values(ring.getRank() + 1, 5));
+			ring.broadcast(Arrays.asList(first, second));
+			for (int i = 0; i < 7; i++)
+				Assert.assertEquals(i, first.get(i), 0);
+			for (int i = 0; i < 5; i++)
+				Assert.assertEquals(100 + i, second.get(i), 0);
+		});
+	}
+
+	@Test
+	public void testSingleWorkerKeepsValues() throws IOException {
+		try (RingAllReduce ring = new RingAllReduce(0, 1, 0)) {
+			double[] values = values(3, 4);
+			ring.allReduce(values);
+			Assert.assertArrayEquals(values(3, 4), values, 0);
+		}
+	}
+}
@@ -0,0 +1,160 @@
+package mklab.JGNN.adhoc.telemetry;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import mklab.JGNN.adhoc.ModelBuilder;
+import mklab.JGNN.adhoc.ModelTraining;
+import mklab.JGNN.adhoc.train.SampleClassification;
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.Slice;
+import mklab.JGNN.core.matrix.DenseMatrix;
+import mklab.JGNN.nn.Model;
+import mklab.JGNN.nn.initializers.XavierNormal;
+import mklab.JGNN.nn.loss.CategoricalCrossEntropy;
+import mklab.JGNN.nn.optimizers.Adam;
+
+public class TelemetryTest {
+	private static final int epochs = 3;
+	private static final int batches = 4;
+
+	private static class Recorder implements TrainingListener {
+		private final List<BatchMetrics> batchMetrics = Collections.synchronizedList(new ArrayList<BatchMetrics>());
+		private final List<EpochMetrics> epochMetrics = new ArrayList<EpochMetrics>();
+		private int ends = 0;
+
+		@Override
+		public void onBatch(BatchMetrics metrics) {
+			batchMetrics.add(metrics);
+		}
+
+		@Override
+		public void onEpoch(EpochMetrics metrics) {
+			epochMetrics.add(metrics);
+		}
+
+		@Override
+		public void onEndTraining() {
+			ends += 1;
+		}
+	}
+
+	private static void train(TrainingListener... listeners) {
+		Matrix features = new DenseMatrix(40, 4);
+		Matrix labels = new DenseMatrix(40, 2);
+		for (long row = 0; row < 40; row++) {
+			for (long col = 0; col < 4; col++)
+				features.put(row, col, Math.sin(row * 0.7 + col));
+			labels.put(row, row % 2, 1);
+		}
+		Model model = new ModelBuilder().var("x").config("features", 4).config("classes", 2)
+				.operation("yhat = softmax(x@matrix(features, classes)+vector(classes), dim: 'row')").out("yhat")
+				.getModel().init(new XavierNormal());
+		ModelTraining training = new SampleClassification().setFeatures(features).setOutputs(labels)
+				.setTrainingSamples(new Slice(0, 32)).setValidationSamples(new Slice(32, 40)).setEpochs(epochs)
+				.setNumBatches(batches).setPatience(100).setOptimizer(new Adam(0.01))
+				.setLoss(new CategoricalCrossEntropy());
+		for (TrainingListener listener : listeners)
+			training.addListener(listener);
+		training.train(model);
+	}
+
+	@Test
+	public void testListenerReceivesEpochsAndBatches() {
+		Recorder recorder = new Recorder();
+		train(recorder);
+		Assert.assertEquals(epochs * batches, recorder.batchMetrics.size());
+		Assert.assertEquals(epochs, recorder.epochMetrics.size());
+		Assert.assertEquals(1, recorder.ends);
+		long samples = 0;
+		for (BatchMetrics metrics : recorder.batchMetrics) {
+			Assert.assertTrue(metrics.getDataNanos() >= 0 && metrics.getForwardNanos() >= 0);
+			Assert.assertTrue(metrics.getBackwardNanos() >= 0 && metrics.getUpdateNanos() >= 0);
+			Assert.assertTrue(metrics.getTotalNanos() >= metrics.getForwardNanos());
+			samples += metrics.getSamples();
+		}
+		Assert.assertEquals(epochs * 32, samples);
+		for (int epoch = 0; epoch < epochs; epoch++) {
+			EpochMetrics metrics = recorder.epochMetrics.get(epoch);
+			Assert.assertEquals(epoch, metrics.getEpoch());
+			Assert.assertEquals(batches, metrics.getNumBatches());
+			Assert.assertEquals(32, metrics.getSamples());
+			Assert.assertTrue(metrics.getEpochNanos() > 0 && metrics.getValidationNanos() >= 0);
+			Assert.assertTrue(metrics.getBatchP50Nanos() <= metrics.getBatchP90Nanos());
+			Assert.assertTrue(metrics.getBatchP99Nanos() <= metrics.getBatchMaxNanos());
+			Assert.assertTrue(Double.isFinite(metrics.getValidationLoss()));
+		}
+	}
+
+	@Test
+	public void testWritersProduceCsvAndJsonLines() throws Exception {
+		Path csv = Files.createTempFile("jgnn", ".csv");
+		Path jsonl = Files.createTempFile("jgnn", ".jsonl");
+		try {
+			train(new TelemetryWriter(csv), new TelemetryWriter(jsonl));
+			List<String> csvLines = Files.readAllLines(csv);
+			Assert.assertEquals(epochs + 1, csvLines.size());
+			Assert.assertEquals(EpochMetrics.csvHeader(), csvLines.get(0));
+			int columns = csvLines.get(0).split(",").length;
+			for (int epoch = 0; epoch < epochs; epoch++) {
+				String[] values = csvLines.get(epoch + 1).split(",");
+				Assert.assertEquals(columns, values.length);
+				Assert.assertEquals(epoch, Integer.parseInt(values[0]));
+				Assert.assertEquals(batches, Integer.parseInt(values[1]));
+				for (String value : values)
+					Double.parseDouble(value);
+			}
+			int batchLines = 0;
+			int epochLines = 0;
+			for (String line : Files.readAllLines(jsonl)) {
+				Assert.assertTrue(line.startsWith("{") && line.endsWith("}"));
+				Assert.assertFalse(line.contains("NaN"));
+				if (line.startsWith("{\"type\": \"batch\""))
+					batchLines += 1;
+				else if (line.startsWith("{\"type\": \"epoch\""))
+					epochLines += 1;
+			}
+			Assert.assertEquals(epochs * batches, batchLines);
+			Assert.assertEquals(epochs, epochLines);
+		} finally {
+			Files.delete(csv);
+			Files.delete(jsonl);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testJsonExtensionShouldThrow() {
+		new TelemetryWriter(Path.of("telemetry.json"));
+	}
+
+	@Test
+	public void testMonitorIsExposedThroughJMX() throws Exception {
+		TrainingMonitor monitor = new TrainingMonitor().register("test");
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName("mklab.JGNN:type=TrainingMonitor,name=" + ObjectName.quote("test"));
+			Assert.assertEquals(-1, server.getAttribute(name, "Epoch"));
+			train(monitor);
+			Assert.assertEquals(epochs - 1, server.getAttribute(name, "Epoch"));
+			Assert.assertEquals((long) epochs * batches, server.getAttribute(name, "TotalBatches"));
+			Assert.assertEquals(false, server.getAttribute(name, "Training"));
+			Assert.assertTrue((Double) server.getAttribute(name, "EpochMillis") > 0);
+			Assert.assertTrue((Double) server.getAttribute(name, "SamplesPerSecond") > 0);
+			Assert.assertEquals(monitor.getLastEpochMetrics().getValidationLoss(), monitor.getValidationLoss(), 0);
+		} finally {
+			monitor.unregister();
+		}
+		Assert.assertFalse(ManagementFactory.getPlatformMBeanServer()
+				.isRegistered(new ObjectName("mklab.JGNN:type=TrainingMonitor,name=" + ObjectName.quote("test"))));
+	}
+}
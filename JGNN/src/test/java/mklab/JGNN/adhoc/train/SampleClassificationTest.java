@@ -0,0 +1,65 @@
+package mklab.JGNN.adhoc.train;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import mklab.JGNN.adhoc.BatchData;
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.Slice;
+import mklab.JGNN.core.matrix.DenseMatrix;
+
+public class SampleClassificationTest {
+	private static Matrix matrix(long rows, long cols, double offset) {
+		Matrix ret = new DenseMatrix(rows, cols);
+		for (long pos = 0; pos < ret.size(); pos++)
+			ret.put(pos, pos + offset);
+		return ret;
+	}
+
+	private static void assertRows(Matrix source, Slice rows, Matrix gathered) {
+		Assert.assertEquals(rows.size(), gathered.getRows());
+		for (int i = 0; i < rows.size(); i++)
+			for (long col = 0; col < source.getCols(); col++)
+				Assert.assertEquals(source.get(rows.get(i), col), gathered.get(i, col), 0);
+	}
+
+	@Test
+	public void testReusedBatchBuffersHoldEachBatch() {
+		Matrix features = matrix(30, 4, 0);
+		Matrix labels = matrix(30, 2, 1000);
+		Slice training = new Slice(0, 20).shuffle(1);
+		Slice validation = new Slice(20, 30);
+		SampleClassification classification = new SampleClassification().setFeatures(features).setOutputs(labels)
+				.setTrainingSamples(training).setValidationSamples(validation);
+		classification.setNumBatches(4);
+		Matrix previous = null;
+		for (int batch = 0; batch < 4; batch++) {
+			BatchData data = classification.getBatchData(batch, 0).get(0);
+			Slice rows = training.range(batch * 5, batch * 5 + 5);
+			Matrix batchFeatures = data.getInputs().get(0).cast(Matrix.class);
+			assertRows(features, rows, batchFeatures);
+			assertRows(labels, rows, data.getOutputs().get(0).cast(Matrix.class));
+			if (previous != null)
+				Assert.assertSame(previous, batchFeatures);
+			previous = batchFeatures;
+		}
+		for (int epoch = 0; epoch < 2; epoch++) {
+			BatchData data = classification.getValidationData(epoch).get(0);
+			assertRows(features, validation, data.getInputs().get(0).cast(Matrix.class));
+			assertRows(labels, validation, data.getOutputs().get(0).cast(Matrix.class));
+		}
+	}
+
+	@Test
+	public void testPrefetchedBatchesAreNotShared() {
+		Matrix features = matrix(30, 4, 0);
+		SampleClassification classification = new SampleClassification().setFeatures(features)
+				.setOutputs(matrix(30, 2, 1000)).setTrainingSamples(new Slice(0, 20))
+				.setValidationSamples(new Slice(20, 30));
+		classification.setNumBatches(2).setPrefetch(2);
+		Matrix first = classification.getBatchData(0, 0).get(0).getInputs().get(0).cast(Matrix.class);
+		Matrix second = classification.getBatchData(1, 0).get(0).getInputs().get(0).cast(Matrix.class);
+		Assert.assertNotSame(first, second);
+		assertRows(features, new Slice(0, 10), first);
+	}
+}
@@ -0,0 +1,105 @@
+package mklab.JGNN.core;
+
+import java.util.function.DoubleUnaryOperator;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import mklab.JGNN.core.tensor.DenseTensor;
+import mklab.JGNN.core.tensor.SparseTensor;
+import mklab.JGNN.core.util.Reductions;
+
+public class ExpressionTest {
+	private static Tensor tensor(int size, double offset) {
+		Tensor ret = new DenseTensor(size);
+		for (long i = 0; i < size; i++)
+			ret.put(i, Math.sin(i * 0.37 + offset) * 3);
+		return ret;
+	}
+
+	private static void assertElementWise(Tensor expected, Tensor obtained, double relativeTolerance) {
+		Assert.assertEquals(expected.size(), obtained.size());
+		for (long i = 0; i < expected.size(); i++)
+			Assert.assertEquals(expected.get(i), obtained.get(i), Math.abs(expected.get(i)) * relativeTolerance);
+	}
+
+	private static Tensor apply(Tensor tensor, DoubleUnaryOperator operator) {
+		Tensor ret = tensor.zeroCopy();
+		for (long i = 0; i < tensor.size(); i++)
+			ret.put(i, operator.applyAsDouble(tensor.get(i)));
+		return ret;
+	}
+
+	@Test
+	public void testArithmeticMatchesEagerOperations() {
+		// sizes that leave a scalar tail after vector lanes and span several blocks
+		for (int size : new int[] { 1, 7, 1001 }) {
+			Tensor a = tensor(size, 0);
+			Tensor b = tensor(size, 1);
+			assertElementWise(a.multiply(2).selfAdd(b).selfAbs().selfSqrt(),
+					a.lazy().multiply(2).add(b).abs().sqrt().evaluate(), 0);
+			assertElementWise(a.subtract(b).selfMultiply(b), a.lazy().subtract(b).multiply(b).evaluate(), 0);
+			assertElementWise(a.add(3).selfInverse(), a.lazy().add(3).inverse().evaluate(), 0);
+			assertElementWise(apply(a, x -> x / (x + 5)), a.lazy().divide(a.lazy().add(5)).evaluate(), 0);
+			assertElementWise(apply(a, x -> Math.min(Math.max(x, -1), 1)), a.lazy().max(-1).min(1).evaluate(), 0);
+			assertElementWise(a.negative(), a.lazy().negative().evaluate(), 0);
+		}
+	}
+
+	@Test
+	public void testTranscendentalsMatchScalarFunctions() {
+		Tensor a = tensor(1001, 0);
+		assertElementWise(apply(a, Math::exp), a.lazy().exp().evaluate(), 1.E-14);
+		assertElementWise(apply(a, Math::tanh), a.lazy().tanh().evaluate(), 1.E-14);
+		assertElementWise(apply(a, x -> Math.log(x + 4)), a.lazy().add(4).log().evaluate(), 1.E-14);
+		assertElementWise(apply(a, x -> 1 / (1 + Math.exp(-x))), a.lazy().sigmoid().evaluate(), 1.E-14);
+	}
+
+	@Test
+	public void testMaterializationMethodsAgree() {
+		Tensor a = tensor(1001, 0);
+		Expression expression = a.lazy().multiply(a).add(1);
+		Tensor evaluated = expression.evaluate();
+		Assert.assertEquals(evaluated.sum(), expression.sum(), 1.E-9);
+		for (long i = 0; i < a.size(); i += 97)
+			Assert.assertEquals(evaluated.get(i), expression.get(i), 0);
+	}
+
+	@Test
+	public void testInPlaceAssignment() {
+		Tensor a = tensor(1001, 0);
+		Tensor expected = a.multiply(a).selfAdd(a);
+		Assert.assertSame(a, a.lazy().multiply(a).add(a).assign(a));
+		assertElementWise(expected, a, 0);
+	}
+
+	@Test
+	public void testParallelEvaluationMatchesSerial() {
+		Tensor a = tensor(10000, 0);
+		Tensor serial = a.lazy().multiply(3).add(a.lazy().sqrt().abs()).evaluate();
+		long threshold = Reductions.parallelThreshold;
+		try {
+			Reductions.parallelThreshold = 1;
+			assertElementWise(serial, a.lazy().multiply(3).add(a.lazy().sqrt().abs()).evaluate(), 0);
+			Assert.assertEquals(a.sum(), a.lazy().sum(), 1.E-9);
+		} finally {
+			Reductions.parallelThreshold = threshold;
+		}
+	}
+
+	@Test
+	public void testSparseTensorsIncludeZeros() {
+		Tensor sparse = new SparseTensor(50);
+		sparse.put(3, 2);
+		Tensor result = sparse.lazy().add(1).evaluate();
+		Assert.assertTrue(result instanceof SparseTensor);
+		Assert.assertEquals(3, result.get(3), 0);
+		Assert.assertEquals(1, result.get(10), 0);
+		Assert.assertEquals(52, sparse.lazy().add(1).sum(), 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMismatchedSizes() {
+		tensor(5, 0).lazy().add(tensor(6, 0));
+	}
+}
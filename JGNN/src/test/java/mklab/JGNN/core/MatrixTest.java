@@ -11,11 +11,13 @@ import org.junit.Test;
 import mklab.JGNN.core.matrix.DenseMatrix;
 import mklab.JGNN.core.matrix.SparseMatrix;
 import mklab.JGNN.core.matrix.SparseSymmetric;
+import mklab.JGNN.core.matrix.VectorizedMatrix;
 import mklab.JGNN.core.matrix.WrapCols;
 import mklab.JGNN.core.matrix.WrapRows;
 import mklab.JGNN.core.tensor.DenseTensor;
 import mklab.JGNN.core.tensor.SparseTensor;
 import mklab.JGNN.core.util.Range2D;
+import mklab.JGNN.core.util.Reductions;
 
 public class MatrixTest {
 	public ArrayList<Matrix> allBaseMatrixTypes(long rows, long cols) {
@@ -159,4 +161,71 @@ public class MatrixTest {
 		range.next();
 		range.next();
 	}
+	public ArrayList<Matrix> allStoredMatrixTypes(long rows, long cols) {
+		ArrayList<Matrix> ret = new ArrayList<Matrix>();
+		ret.add(new DenseMatrix(rows ,cols));
+		ret.add(new VectorizedMatrix(rows ,cols));
+		ret.add(new SparseMatrix(rows ,cols));
+		return ret;
+	}
+	public static void fillNonZero(Matrix matrix) {
+		for(long row=0;row<matrix.getRows();row++)
+			for(long col=0;col<matrix.getCols();col++)
+				if((row+2*col)%3!=0)
+					matrix.put(row, col, row*10+col+1);
+	}
+	public static void assertGathered(Matrix source, long[] rows, Matrix gathered) {
+		Assert.assertEquals(rows.length, gathered.getRows());
+		Assert.assertEquals(source.getCols(), gathered.getCols());
+		for(int i=0;i<rows.length;i++)
+			for(long col=0;col<source.getCols();col++)
+				Assert.assertEquals(source.get(rows[i], col), gathered.get(i, col), 0);
+	}
+	@Test
+	public void testGatherRowsMatchesSource() {
+		long[] rows = {3, 0, 3, 7, 6};
+		for(Matrix matrix : allStoredMatrixTypes(8, 5)) {
+			fillNonZero(matrix);
+			Matrix gathered = matrix.gatherRows(new Slice(rows));
+			assertGathered(matrix, rows, gathered);
+			assertGathered(matrix, rows, matrix.gatherRows(new DenseTensor(new double[] {3, 0, 3, 7, 6})));
+			// gathered rows do not share entries with the source
+			gathered.put(0, 1, -1);
+			Assert.assertEquals(32, matrix.get(3, 1), 0);
+		}
+	}
+	@Test
+	public void testGatherRowsReusesDestination() {
+		for(Matrix matrix : allStoredMatrixTypes(8, 5)) {
+			fillNonZero(matrix);
+			Matrix destination = matrix.gatherRows(new Slice(new long[] {1, 2, 4}));
+			long[] rows = {5, 5, 0};
+			Matrix reused = matrix.gatherRows(new Slice(rows), destination);
+			Assert.assertSame(destination, reused);
+			assertGathered(matrix, rows, reused);
+			Matrix resized = matrix.gatherRows(new Slice(new long[] {1, 2}), reused);
+			Assert.assertNotSame(reused, resized);
+			assertGathered(matrix, new long[] {1, 2}, resized);
+		}
+	}
+	@Test
+	public void testParallelGatherRowsMatchesSerial() {
+		long threshold = Reductions.parallelThreshold;
+		try {
+			Reductions.parallelThreshold = 1;
+			Matrix matrix = new DenseMatrix(100, 40);
+			fillNonZero(matrix);
+			long[] rows = new long[70];
+			for(int i=0;i<rows.length;i++)
+				rows[i] = (i*37)%100;
+			assertGathered(matrix, rows, matrix.gatherRows(new Slice(rows)));
+		}
+		finally {
+			Reductions.parallelThreshold = threshold;
+		}
+	}
+	@Test(expected = IllegalArgumentException.class)
+	public void testGatherRowsOutOfBounds() {
+		new DenseMatrix(3, 2).gatherRows(new Slice(new long[] {3}));
+	}
 }
@@ -0,0 +1,33 @@
+package mklab.JGNN.core;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ThreadPoolTest {
+	@Test
+	public void testParallelForVisitsEachChunkOnce() {
+		AtomicIntegerArray visits = new AtomicIntegerArray(1000);
+		ThreadPool.getInstance().parallelFor(visits.length(), chunk -> visits.incrementAndGet(chunk));
+		for (int chunk = 0; chunk < visits.length(); chunk++)
+			Assert.assertEquals(1, visits.get(chunk));
+	}
+
+	@Test
+	public void testNestedParallelForConcludes() {
+		AtomicIntegerArray visits = new AtomicIntegerArray(64 * 64);
+		ThreadPool.getInstance().parallelFor(64,
+				outer -> ThreadPool.getInstance().parallelFor(64, inner -> visits.incrementAndGet(outer * 64 + inner)));
+		for (int chunk = 0; chunk < visits.length(); chunk++)
+			Assert.assertEquals(1, visits.get(chunk));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testParallelForPropagatesExceptions() {
+		ThreadPool.getInstance().parallelFor(100, chunk -> {
+			if (chunk == 57)
+				throw new IllegalStateException();
+		});
+	}
+}
@@ -0,0 +1,37 @@
+package mklab.JGNN.core.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.matrix.DenseMatrix;
+import mklab.JGNN.core.matrix.SparseMatrix;
+
+public class ReductionsTest {
+	private static Matrix matrix(Matrix ret) {
+		for (long row = 0; row < ret.getRows(); row++)
+			for (long col = 0; col < ret.getCols(); col++)
+				if ((row + col) % 3 != 0)
+					ret.put(row, col, Math.sin(row * 0.3 + col));
+		return ret;
+	}
+
+	@Test
+	public void testParallelKernelsMatchSparseTraversal() {
+		long threshold = Reductions.parallelThreshold;
+		try {
+			Reductions.parallelThreshold = 1;
+			Matrix dense = matrix(new DenseMatrix(301, 17));
+			Matrix sparse = matrix(new SparseMatrix(301, 17));
+			for (boolean byRow : new boolean[] { true, false }) {
+				Assert.assertArrayEquals(Reductions.sum(sparse, byRow), Reductions.sum(dense, byRow), 1.E-9);
+				Matrix expected = Reductions.l1(sparse, byRow);
+				Matrix obtained = Reductions.l1(dense, byRow);
+				for (long pos = 0; pos < expected.size(); pos++)
+					Assert.assertEquals(expected.get(pos), obtained.get(pos), 1.E-9);
+			}
+		} finally {
+			Reductions.parallelThreshold = threshold;
+		}
+	}
+}
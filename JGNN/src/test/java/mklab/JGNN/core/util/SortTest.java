@@ -0,0 +1,97 @@
+package mklab.JGNN.core.util;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.matrix.DenseMatrix;
+
+public class SortTest {
+	private static Matrix values(long rows, int distinct, long seed) {
+		Random random = new Random(seed);
+		Matrix ret = new DenseMatrix(rows, 3);
+		for (long pos = 0; pos < ret.size(); pos++)
+			ret.put(pos, random.nextInt(distinct));
+		return ret;
+	}
+
+	private static long[] expectedTopK(Matrix values, long from, long to, int k) {
+		Long[] rows = new Long[(int) (to - from)];
+		for (int i = 0; i < rows.length; i++)
+			rows[i] = from + i;
+		// stable sort keeps input order among rows equal in all columns
+		Arrays.sort(rows, (row1, row2) -> {
+			for (long col = values.getCols() - 1; col >= 0; col--) {
+				int comparison = Double.compare(values.get(row2, col), values.get(row1, col));
+				if (comparison != 0)
+					return comparison;
+			}
+			return 0;
+		});
+		long[] ret = new long[Math.min(k, rows.length)];
+		for (int i = 0; i < ret.length; i++)
+			ret[i] = rows[i];
+		return ret;
+	}
+
+	@Test
+	public void testTopKMatchesStableDescendingSort() {
+		for (int distinct : new int[] { 2, 3, 100 }) {
+			Matrix values = values(40, distinct, distinct);
+			for (int k : new int[] { 0, 1, 5, 39, 40, 50 })
+				Assert.assertArrayEquals(expectedTopK(values, 0, 40, k), Sort.topK(values, 0, 40, k));
+		}
+	}
+
+	@Test
+	public void testTopKBreaksTiesOnPreviousColumnsThenInputOrder() {
+		Matrix values = new DenseMatrix(5, 3);
+		values.put(0, 0, 1).put(0, 1, 0).put(0, 2, 2);
+		values.put(1, 0, 0).put(1, 1, 1).put(1, 2, 2);
+		values.put(2, 0, 5).put(2, 1, 1).put(2, 2, 2);
+		values.put(3, 0, 1).put(3, 1, 0).put(3, 2, 2);
+		values.put(4, 0, 9).put(4, 1, 9).put(4, 2, 1);
+		Assert.assertArrayEquals(new long[] { 2, 1, 0, 3, 4 }, Sort.topK(values, 0, 5, 5));
+		Assert.assertArrayEquals(new long[] { 2, 1, 0 }, Sort.topK(values, 0, 5, 3));
+	}
+
+	@Test
+	public void testTopKSelectsWithinSegment() {
+		Matrix values = values(30, 4, 11);
+		long[] top = Sort.topK(values, 10, 20, 4);
+		Assert.assertArrayEquals(expectedTopK(values, 10, 20, 4), top);
+		for (long row : top)
+			Assert.assertTrue(row >= 10 && row < 20);
+		Assert.assertEquals(0, Sort.topK(values, 7, 7, 3).length);
+		Assert.assertArrayEquals(expectedTopK(values, 25, 30, 5), Sort.topK(values, 25, 30, 5));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvertedSegmentShouldThrow() {
+		Sort.topK(values(10, 3, 0), 6, 5, 1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeKShouldThrow() {
+		Sort.topK(values(10, 3, 0), 0, 10, -1);
+	}
+
+	@Test
+	public void testPoolingSortOutputsTopRows() {
+		Matrix values = values(12, 5, 3);
+		long[] expected = expectedTopK(values, 0, 12, 4);
+		double[] top = new mklab.JGNN.nn.pooling.Sort(4).run(values).toArray();
+		Assert.assertEquals(expected.length, top.length);
+		for (int i = 0; i < top.length; i++)
+			Assert.assertEquals(expected[i], top[i], 0);
+		Assert.assertEquals(12, new mklab.JGNN.nn.pooling.Sort(12).run(values).size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testPoolingSortWithFewerRowsThanKShouldThrow() {
+		new mklab.JGNN.nn.pooling.Sort(13).run(values(12, 5, 3));
+	}
+}
@@ -0,0 +1,103 @@
+package mklab.JGNN.core.util;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.matrix.DenseMatrix;
+import mklab.JGNN.core.matrix.SparseMatrix;
+
+public class SparseProductsTest {
+	private static Matrix sparse(long rows, long cols, double density, long seed) {
+		Random random = new Random(seed);
+		Matrix ret = new SparseMatrix(rows, cols);
+		for (long row = 0; row < rows; row++)
+			for (long col = 0; col < cols; col++)
+				if (random.nextDouble() < density)
+					ret.put(row, col, random.nextGaussian());
+		return ret;
+	}
+
+	private static Matrix dense(Matrix matrix) {
+		Matrix ret = new DenseMatrix(matrix.getRows(), matrix.getCols());
+		for (long row = 0; row < matrix.getRows(); row++)
+			for (long col = 0; col < matrix.getCols(); col++)
+				ret.put(row, col, matrix.get(row, col));
+		return ret;
+	}
+
+	private static void assertSameElements(Matrix expected, Matrix obtained) {
+		Assert.assertEquals(expected.getRows(), obtained.getRows());
+		Assert.assertEquals(expected.getCols(), obtained.getCols());
+		for (long row = 0; row < expected.getRows(); row++)
+			for (long col = 0; col < expected.getCols(); col++)
+				Assert.assertEquals(expected.get(row, col), obtained.get(row, col), 1.E-12);
+	}
+
+	@Test
+	public void testProductMatchesDenseMultiplication() {
+		Matrix left = sparse(40, 30, 0.1, 1);
+		Matrix right = sparse(30, 50, 0.1, 2);
+		Matrix product = SparseProducts.multiply(left, right);
+		Assert.assertTrue(product instanceof SparseMatrix);
+		assertSameElements(dense(left).matmul(dense(right)), product);
+	}
+
+	@Test
+	public void testTransposedProductsMatchDenseMultiplication() {
+		Matrix left = sparse(30, 30, 0.05, 3);
+		Matrix right = sparse(30, 30, 0.05, 4);
+		for (boolean transposeLeft : new boolean[] { false, true })
+			for (boolean transposeRight : new boolean[] { false, true }) {
+				Matrix denseLeft = transposeLeft ? dense(left.transposed()) : dense(left);
+				Matrix denseRight = transposeRight ? dense(right.transposed()) : dense(right);
+				Matrix product = left.matmul(right, transposeLeft, transposeRight);
+				// sparse outputs of sparse operands are computed with Gustavson products
+				Assert.assertTrue(product instanceof SparseMatrix);
+				assertSameElements(denseLeft.matmul(denseRight), product);
+			}
+	}
+
+	@Test
+	public void testPrunedProductKeepsLargestElements() {
+		Matrix left = sparse(20, 20, 0.3, 6);
+		Matrix right = sparse(20, 20, 0.3, 7);
+		Matrix full = SparseProducts.multiply(left, right);
+		Matrix pruned = SparseProducts.multiply(left, right, 3, 0.1);
+		for (long row = 0; row < full.getRows(); row++) {
+			int kept = 0;
+			double smallestKept = Double.POSITIVE_INFINITY;
+			for (long col = 0; col < full.getCols(); col++)
+				if (pruned.get(row, col) != 0) {
+					Assert.assertEquals(full.get(row, col), pruned.get(row, col), 0);
+					smallestKept = Math.min(smallestKept, Math.abs(pruned.get(row, col)));
+					kept++;
+				}
+			Assert.assertTrue(kept <= 3);
+			for (long col = 0; col < full.getCols(); col++)
+				if (pruned.get(row, col) == 0 && Math.abs(full.get(row, col)) >= 0.1)
+					Assert.assertTrue(Math.abs(full.get(row, col)) <= smallestKept);
+		}
+	}
+
+	@Test
+	public void testParallelProductMatchesSerial() {
+		Matrix left = sparse(200, 100, 0.05, 8);
+		Matrix right = sparse(100, 150, 0.05, 9);
+		Matrix serial = SparseProducts.multiply(left, right);
+		long threshold = Reductions.parallelThreshold;
+		try {
+			Reductions.parallelThreshold = 1;
+			assertSameElements(serial, SparseProducts.multiply(left, right));
+		} finally {
+			Reductions.parallelThreshold = threshold;
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMismatchedSizes() {
+		SparseProducts.multiply(new SparseMatrix(3, 4), new SparseMatrix(3, 4));
+	}
+}
@@ -0,0 +1,86 @@
+package mklab.JGNN.core.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.matrix.DenseMatrix;
+import mklab.JGNN.core.matrix.SparseMatrix;
+
+public class ThresholdsTest {
+	@Test
+	public void testProfileRoundTrip() throws IOException {
+		long vectorizedSize = Thresholds.getVectorizedSize();
+		double sparseDensity = Thresholds.getSparseDensity();
+		long parallelThreshold = Reductions.parallelThreshold;
+		File profile = File.createTempFile("jgnn", ".properties");
+		try {
+			Thresholds.setVectorizedSize(1234);
+			Thresholds.setSparseDensity(0.125);
+			Reductions.parallelThreshold = 5678;
+			Assert.assertTrue(Thresholds.save(profile));
+			Thresholds.setVectorizedSize(vectorizedSize);
+			Thresholds.setSparseDensity(sparseDensity);
+			Reductions.parallelThreshold = parallelThreshold;
+			Assert.assertTrue(Thresholds.load(profile));
+			Assert.assertEquals(1234, Thresholds.getVectorizedSize());
+			Assert.assertEquals(0.125, Thresholds.getSparseDensity(), 0);
+			Assert.assertEquals(5678, Reductions.parallelThreshold);
+		} finally {
+			Thresholds.setVectorizedSize(vectorizedSize);
+			Thresholds.setSparseDensity(sparseDensity);
+			Reductions.parallelThreshold = parallelThreshold;
+			profile.delete();
+		}
+	}
+
+	@Test
+	public void testProfileOfOtherHostIsIgnored() throws IOException {
+		long vectorizedSize = Thresholds.getVectorizedSize();
+		File profile = File.createTempFile("jgnn", ".properties");
+		try {
+			Properties properties = new Properties();
+			properties.setProperty("host", "other");
+			properties.setProperty("vectorizedSize", "1");
+			properties.setProperty("sparseDensity", "1");
+			properties.setProperty("parallelThreshold", "1");
+			try (OutputStream output = new FileOutputStream(profile)) {
+				properties.store(output, null);
+			}
+			Assert.assertFalse(Thresholds.load(profile));
+			Assert.assertEquals(vectorizedSize, Thresholds.getVectorizedSize());
+		} finally {
+			profile.delete();
+		}
+	}
+
+	@Test
+	public void testExplicitThresholdsSelectKernels() {
+		Matrix left = new SparseMatrix(30, 30);
+		Matrix right = new SparseMatrix(30, 30);
+		for (long i = 0; i < 30; i++) {
+			left.put(i, (i * 7) % 30, i + 1);
+			right.put(i, (i * 11) % 30, 30 - i);
+		}
+		Matrix sparse = left.matmul(right, 2);
+		Matrix dense = left.matmul(right, 0);
+		Assert.assertTrue(sparse instanceof SparseMatrix);
+		Assert.assertEquals(null, Reductions.getDenseValues(sparse));
+		Assert.assertNotNull(Reductions.getDenseValues(dense));
+		for (long pos = 0; pos < sparse.size(); pos++)
+			Assert.assertEquals(dense.get(pos), sparse.get(pos), 0);
+
+		Matrix matrix = new DenseMatrix(300, 20);
+		matrix.setToRandom();
+		Assert.assertArrayEquals(Reductions.sum(matrix, true, Long.MAX_VALUE), Reductions.sum(matrix, true, 0),
+				1.E-12);
+		Assert.assertArrayEquals(Reductions.sum(matrix, false, Long.MAX_VALUE), Reductions.sum(matrix, false, 0),
+				1.E-12);
+	}
+}
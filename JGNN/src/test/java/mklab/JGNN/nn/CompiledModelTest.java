@@ -0,0 +1,123 @@
+package mklab.JGNN.nn;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import mklab.JGNN.adhoc.ModelBuilder;
+import mklab.JGNN.adhoc.parsers.FastBuilder;
+import mklab.JGNN.adhoc.parsers.LayeredBuilder;
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.matrix.DenseMatrix;
+import mklab.JGNN.core.matrix.SparseMatrix;
+import mklab.JGNN.nn.initializers.XavierNormal;
+
+public class CompiledModelTest {
+	private static Matrix features(long rows, long cols) {
+		Matrix ret = new DenseMatrix(rows, cols);
+		for (long i = 0; i < ret.size(); i++)
+			ret.put(i, Math.sin(i * 0.37));
+		return ret;
+	}
+
+	private static Model perceptron() {
+		return new LayeredBuilder().config("features", 6).config("hidden", 8).config("classes", 3)
+				.layer("h{l+1}=relu(h{l}@matrix(features, hidden)+vector(hidden))")
+				.layer("h{l+1}=tanh(h{l}@matrix(hidden, hidden)) + h{l}")
+				.layer("h{l+1}=softmax(h{l}@matrix(hidden, classes)+vector(classes), dim: 'row')").out("h{l}")
+				.autosize(new DenseMatrix(20, 6)).getModel().init(new XavierNormal());
+	}
+
+	private static void assertSame(Tensor expected, Tensor obtained) {
+		Assert.assertEquals(expected.size(), obtained.size());
+		for (long i = 0; i < expected.size(); i++)
+			Assert.assertEquals(expected.get(i), obtained.get(i), 1.E-12);
+	}
+
+	@Test
+	public void testCompiledPredictionsMatchModel() {
+		Model model = perceptron();
+		Matrix features = features(20, 6);
+		CompiledModel compiled = model.compile(features);
+		Assert.assertFalse(compiled.isInterpreted());
+		assertSame(model.predict(features).get(0), compiled.predict(features).get(0));
+		Matrix other = features(20, 6).selfMultiply(-2).cast(Matrix.class);
+		assertSame(model.predict(other).get(0), compiled.predict(other).get(0));
+	}
+
+	@Test
+	public void testCompiledGraphPredictionsMatchModel() {
+		Matrix adjacency = new SparseMatrix(15, 15);
+		for (long node = 0; node < 15; node++) {
+			adjacency.put(node, (node + 1) % 15, 0.5);
+			adjacency.put((node + 1) % 15, node, 0.5);
+		}
+		ModelBuilder builder = new FastBuilder(adjacency, features(15, 4)).config("hidden", 5).config("classes", 2)
+				.layer("h{l+1}=relu(A@(h{l}@matrix(features, hidden))+vector(hidden))")
+				.layer("h{l+1}=A@(h{l}@matrix(hidden, classes))+vector(classes)").classify()
+				.autosize(Tensor.fromRange(0, 15).asColumn());
+		Model model = builder.getModel().init(new XavierNormal());
+		Tensor nodes = Tensor.fromRange(0, 15).asColumn();
+		CompiledModel compiled = model.compile(nodes);
+		assertSame(model.predict(nodes).get(0), compiled.predict(nodes).get(0));
+	}
+
+	@Test
+	public void testInterpretedOperationsMatchModel() {
+		Model model = new ModelBuilder().var("x").operation("y = exp(x) + x").out("y").getModel();
+		Matrix features = features(4, 3);
+		CompiledModel compiled = model.compile(features);
+		Assert.assertTrue(compiled.isInterpreted());
+		assertSame(model.predict(features).get(0), compiled.predict(features).get(0));
+	}
+
+	@Test
+	public void testSaveLoadRoundTrip() throws Exception {
+		Model model = perceptron();
+		Matrix features = features(20, 6);
+		CompiledModel compiled = model.compile(features);
+		Path path = Files.createTempFile("jgnn", ".compiled");
+		try {
+			Assert.assertSame(compiled, compiled.save(path));
+			CompiledModel loaded = CompiledModel.load(path);
+			Assert.assertEquals(compiled.getSource(), loaded.getSource());
+			Tensor obtained = loaded.predict(features).get(0);
+			assertSame(model.predict(features).get(0), obtained);
+			Assert.assertEquals(20, obtained.cast(Matrix.class).getRows());
+			Assert.assertEquals(3, obtained.cast(Matrix.class).getCols());
+		} finally {
+			Files.delete(path);
+		}
+	}
+
+	@Test
+	public void testLoadRejectsOtherFiles() throws Exception {
+		Path path = Files.createTempFile("jgnn", ".compiled");
+		try {
+			Files.write(path, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+			Assert.assertNull(CompiledModel.load(path));
+		} finally {
+			Files.delete(path);
+		}
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testSavingInterpretedOperationsShouldThrow() throws Exception {
+		Model model = new ModelBuilder().var("x").operation("y = exp(x)").out("y").getModel();
+		Path path = Files.createTempFile("jgnn", ".compiled");
+		try {
+			model.compile(features(4, 3)).save(path);
+		} finally {
+			Files.delete(path);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMismatchedInputShouldThrow() {
+		Model model = perceptron();
+		model.compile(features(20, 6)).predict(features(10, 6));
+	}
+}
@@ -0,0 +1,91 @@
+package mklab.JGNN.nn;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import mklab.JGNN.adhoc.ModelBuilder;
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.matrix.DenseMatrix;
+import mklab.JGNN.nn.initializers.XavierNormal;
+import mklab.JGNN.nn.inputs.Parameter;
+import mklab.JGNN.nn.loss.CategoricalCrossEntropy;
+import mklab.JGNN.nn.optimizers.Adam;
+
+public class ModelTest {
+	private static Model createModel() {
+		return new ModelBuilder().var("x").config("features", 6).config("hidden", 8).config("classes", 3)
+				.operation("h1 = relu(x@matrix(features, hidden)+vector(hidden))")
+				.operation("h2 = relu(h1@matrix(hidden, hidden)+vector(hidden))")
+				.operation("h3 = tanh(h2@matrix(hidden, hidden)) + h1")
+				.operation("yhat = softmax(h3@matrix(hidden, classes)+vector(classes), dim: 'row')").out("yhat")
+				.getModel();
+	}
+
+	private static Model copyParameters(Model from, Model to) {
+		ArrayList<Parameter> source = from.getParameters();
+		ArrayList<Parameter> destination = to.getParameters();
+		Assert.assertEquals(source.size(), destination.size());
+		for (int i = 0; i < source.size(); i++)
+			destination.get(i).get().assign(source.get(i).get());
+		return to;
+	}
+
+	private static Matrix features() {
+		Matrix ret = new DenseMatrix(20, 6);
+		for (long i = 0; i < ret.size(); i++)
+			ret.put(i, Math.sin(i * 0.37));
+		return ret;
+	}
+
+	private static Matrix labels() {
+		Matrix ret = new DenseMatrix(20, 3);
+		for (long row = 0; row < ret.getRows(); row++)
+			ret.put(row, row % 3, 1);
+		return ret;
+	}
+
+	private static void train(Model model, Matrix features, Matrix labels) {
+		Adam optimizer = new Adam(0.01);
+		for (int epoch = 0; epoch < 20; epoch++)
+			model.train(new CategoricalCrossEntropy(), optimizer, Arrays.asList(features), Arrays.asList(labels));
+	}
+
+	private static void assertSameParameters(Model expected, Model obtained) {
+		ArrayList<Parameter> expectedParameters = expected.getParameters();
+		ArrayList<Parameter> obtainedParameters = obtained.getParameters();
+		for (int i = 0; i < expectedParameters.size(); i++) {
+			Tensor expectedValue = expectedParameters.get(i).get();
+			Tensor obtainedValue = obtainedParameters.get(i).get();
+			for (long pos = 0; pos < expectedValue.size(); pos++)
+				Assert.assertEquals(expectedValue.get(pos), obtainedValue.get(pos), 0);
+		}
+	}
+
+	@Test
+	public void testCheckpointingMatchesFullTraining() {
+		Model reference = createModel().init(new XavierNormal());
+		Model checkpointed = copyParameters(reference, createModel()).setCheckpoints();
+		Matrix features = features();
+		train(reference, features, labels());
+		train(checkpointed, features, labels());
+		assertSameParameters(reference, checkpointed);
+		Assert.assertSame(features, checkpointed.getInputs().get(0).getPrediction());
+	}
+
+	@Test
+	public void testBufferReuseMatchesTraining() {
+		Model reference = createModel().init(new XavierNormal());
+		Model reusing = copyParameters(reference, createModel()).setBufferReuse(true);
+		Matrix features = features();
+		train(reference, features, labels());
+		train(reusing, features, labels());
+		assertSameParameters(reference, reusing);
+		Matrix expected = features();
+		for (long pos = 0; pos < features.size(); pos++)
+			Assert.assertEquals(expected.get(pos), features.get(pos), 0);
+	}
+}
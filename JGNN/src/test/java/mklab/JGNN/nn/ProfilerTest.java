@@ -0,0 +1,94 @@
+package mklab.JGNN.nn;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import mklab.JGNN.adhoc.ModelBuilder;
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.matrix.DenseMatrix;
+import mklab.JGNN.core.tensor.DenseTensor;
+import mklab.JGNN.nn.initializers.XavierNormal;
+import mklab.JGNN.nn.loss.BinaryCrossEntropy;
+import mklab.JGNN.nn.optimizers.GradientDescent;
+
+public class ProfilerTest {
+	private static final int epochs = 2;
+	private static final int batches = 3;
+
+	private static Profiler profile() {
+		Model model = new ModelBuilder().var("x").config("features", 4).config("hidden", 3)
+				.operation("h = relu(x@matrix(features, hidden))").operation("y = sigmoid(h@matrix(hidden, 1))")
+				.out("y").getModel().init(new XavierNormal());
+		Profiler profiler = new Profiler();
+		model.setProfiler(profiler);
+		Matrix features = new DenseMatrix(5, 4).setToOnes().cast(Matrix.class);
+		Matrix labels = new DenseMatrix(5, 1).setToOnes().cast(Matrix.class);
+		for (int epoch = 0; epoch < epochs; epoch++) {
+			profiler.setEpoch(epoch);
+			for (int batch = 0; batch < batches; batch++)
+				model.train(new BinaryCrossEntropy(), new GradientDescent(0.1), Arrays.asList(features),
+						Arrays.asList(labels));
+		}
+		return profiler;
+	}
+
+	@Test
+	public void testCallCountsPerOperationAndEpoch() {
+		Profiler profiler = profile();
+		HashMap<String, Long> backwardCalls = new HashMap<String, Long>();
+		int computations = 0;
+		for (Profiler.Record record : profiler.getRecords()) {
+			Assert.assertTrue(record.getEpoch() >= 0 && record.getEpoch() < epochs);
+			Assert.assertTrue(record.getForwardNanos() >= 0 && record.getBackwardNanos() >= 0);
+			Assert.assertEquals(0, record.getBackwardCalls() % batches);
+			Long previous = backwardCalls.put(record.getName(), record.getBackwardCalls());
+			if (previous != null)
+				Assert.assertEquals((long) previous, record.getBackwardCalls());
+			String type = record.getOperation().getSimpleDescription();
+			if (type.equals("MatMul") || type.equals("Relu") || type.equals("Sigmoid")) {
+				Assert.assertEquals(batches, record.getForwardCalls());
+				Assert.assertTrue(record.getBackwardCalls() > 0);
+				computations += 1;
+			}
+		}
+		Assert.assertEquals(4 * epochs, computations);
+		Assert.assertTrue(profiler.getTotalNanos() > 0);
+	}
+
+	@Test
+	public void testExportsParse() {
+		Profiler profiler = profile();
+		List<Profiler.Record> records = profiler.getRecords();
+		String[] lines = profiler.toCSV().split("\n");
+		Assert.assertEquals(records.size() + 1, lines.length);
+		String[] header = lines[0].split(",");
+		Assert.assertEquals("forwardCalls", header[4]);
+		for (int i = 1; i < lines.length; i++) {
+			// the quoted operation name and shape may contain commas
+			String[] cols = lines[i].replaceAll("\"(\\\\.|[^\"\\\\])*\"", "\"\"").split(",");
+			Assert.assertEquals(header.length, cols.length);
+			Assert.assertEquals(records.get(i - 1).getEpoch(), Integer.parseInt(cols[2]));
+			Assert.assertEquals(records.get(i - 1).getForwardCalls(), Long.parseLong(cols[4]));
+			Assert.assertEquals(records.get(i - 1).getBackwardCalls(), Long.parseLong(cols[6]));
+			Double.parseDouble(cols[10]);
+		}
+		String json = profiler.toJSON();
+		Assert.assertTrue(json.startsWith("[") && json.endsWith("]"));
+		Assert.assertEquals(records.size(), json.split("\"forwardCalls\": ").length - 1);
+		Assert.assertFalse(json.contains("NaN"));
+	}
+
+	@Test
+	public void testUndefinedDensityExportsNull() {
+		Profiler profiler = new Profiler(false);
+		NNOperation operation = new mklab.JGNN.nn.activations.Relu();
+		profiler.recordForward(operation, 10, 0, new DenseTensor(0));
+		Assert.assertTrue(Double.isNaN(profiler.getRecords().get(0).getDensity()));
+		Assert.assertTrue(profiler.toJSON().contains("\"density\": null}"));
+		Assert.assertFalse(profiler.toJSON().contains("NaN"));
+	}
+}
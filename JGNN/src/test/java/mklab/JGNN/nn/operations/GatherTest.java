@@ -0,0 +1,82 @@
+package mklab.JGNN.nn.operations;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.matrix.DenseMatrix;
+import mklab.JGNN.core.matrix.RowSparseMatrix;
+import mklab.JGNN.core.tensor.DenseTensor;
+import mklab.JGNN.nn.inputs.Parameter;
+import mklab.JGNN.nn.inputs.Variable;
+
+public class GatherTest {
+	private static Matrix table() {
+		Matrix ret = new DenseMatrix(6, 3);
+		for (long pos = 0; pos < ret.size(); pos++)
+			ret.put(pos, pos * 0.5 - 2);
+		return ret;
+	}
+
+	@Test
+	public void testForwardCopiesRows() {
+		Matrix table = table();
+		Tensor index = new DenseTensor(new double[] { 4, 1, 4 });
+		Matrix gathered = new Gather().run(index, table).cast(Matrix.class);
+		Assert.assertEquals(3, gathered.getRows());
+		for (int i = 0; i < index.size(); i++)
+			for (long col = 0; col < table.getCols(); col++)
+				Assert.assertEquals(table.get((long) index.get(i), col), gathered.get(i, col), 0);
+	}
+
+	@Test
+	public void testParameterDerivativeStoresGatheredRows() {
+		Matrix table = table();
+		Gather gather = new Gather();
+		gather.addInput(new Variable()).addInput(new Parameter(table));
+		Tensor index = new DenseTensor(new double[] { 4, 1, 4 });
+		Matrix error = new DenseMatrix(3, 3).setToOnes().cast(Matrix.class);
+		error.put(2, 2, 5);
+		Tensor output = gather.run(index, table);
+		Matrix derivative = gather.partial(1, Arrays.asList(index, table), output, error).cast(Matrix.class);
+		Assert.assertTrue(derivative instanceof RowSparseMatrix);
+		Assert.assertEquals(2, ((RowSparseMatrix) derivative).getNumStoredRows());
+		Matrix expected = new DenseMatrix(6, 3);
+		for (int i = 0; i < index.size(); i++)
+			for (long col = 0; col < 3; col++)
+				expected.put((long) index.get(i), col, expected.get((long) index.get(i), col) + error.get(i, col));
+		for (long row = 0; row < 6; row++)
+			for (long col = 0; col < 3; col++)
+				Assert.assertEquals(expected.get(row, col), derivative.get(row, col), 0);
+	}
+
+	@Test
+	public void testConcurrentRowSparseReadsStayConsistent() throws InterruptedException {
+		RowSparseMatrix matrix = new RowSparseMatrix(64, 4);
+		for (long row = 0; row < 64; row += 2)
+			for (long col = 0; col < 4; col++)
+				matrix.put(row, col, row + 1);
+		AtomicInteger mismatches = new AtomicInteger();
+		Thread[] readers = new Thread[4];
+		for (int thread = 0; thread < readers.length; thread++) {
+			long offset = thread;
+			readers[thread] = new Thread(() -> {
+				for (int repetition = 0; repetition < 2000; repetition++)
+					for (long row = 0; row < 64; row++) {
+						long shifted = (row + offset) % 64;
+						double expected = shifted % 2 == 0 ? shifted + 1 : 0;
+						if (matrix.get(shifted, repetition % 4) != expected)
+							mismatches.incrementAndGet();
+					}
+			});
+			readers[thread].start();
+		}
+		for (Thread reader : readers)
+			reader.join();
+		Assert.assertEquals(0, mismatches.get());
+	}
+}
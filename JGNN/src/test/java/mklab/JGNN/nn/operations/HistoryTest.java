@@ -0,0 +1,88 @@
+package mklab.JGNN.nn.operations;
+
+import java.util.Arrays;
+import java.util.Map.Entry;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.matrix.DenseMatrix;
+import mklab.JGNN.core.tensor.DenseTensor;
+
+public class HistoryTest {
+	private static Matrix batch(double value, int rows) {
+		Matrix ret = new DenseMatrix(rows, 3);
+		ret.setToOnes().selfMultiply(value);
+		return ret;
+	}
+
+	private static Matrix push(History history, double value, double... nodes) {
+		return history.run(batch(value, nodes.length), new DenseTensor(nodes)).cast(Matrix.class);
+	}
+
+	@Test
+	public void testViewOverlaysBatchOnHistory() {
+		History history = new History(100);
+		push(history, 1, 0, 1, 2);
+		Matrix view = push(history, 2, 2, 3);
+		Assert.assertEquals(100, view.getRows());
+		Assert.assertEquals(1, view.get(0, 0), 1.E-6);
+		Assert.assertEquals(2, view.get(2, 1), 1.E-6);
+		Assert.assertEquals(2, view.get(3, 2), 1.E-6);
+		Assert.assertEquals(0, view.get(50, 0), 0);
+		Assert.assertEquals(4, history.getNumStored());
+		long entries = 0;
+		for (Entry<Long, Long> entry : view.getNonZeroEntries()) {
+			Assert.assertTrue(entry.getKey() < 4);
+			entries += 1;
+		}
+		Assert.assertEquals(4 * 3, entries);
+	}
+
+	@Test
+	public void testStaleRowsAreEvictedOnPush() {
+		History history = new History(1000, 2);
+		for (int batch = 0; batch < 50; batch++)
+			push(history, batch, batch * 10, batch * 10 + 1, batch * 10 + 2);
+		Assert.assertEquals(3 * 3, history.getNumStored());
+		Matrix view = push(history, -1, 0);
+		Assert.assertEquals(-1, view.get(0, 0), 1.E-6);
+		Assert.assertEquals(0, view.get(470, 0), 0);
+		Assert.assertEquals(49, view.get(490, 0), 1.E-6);
+		Assert.assertEquals(0, history.evictStale());
+	}
+
+	@Test
+	public void testGradientsFlowToBatchRows() {
+		History history = new History(10);
+		Matrix fresh = batch(1, 2);
+		Tensor nodes = new DenseTensor(new double[] { 4, 7 });
+		Matrix error = new DenseMatrix(10, 3);
+		error.put(7, 1, 5);
+		error.put(3, 1, 9);
+		Matrix derivative = history.partial(0, Arrays.asList(fresh, nodes), null, error).cast(Matrix.class);
+		Assert.assertEquals(5, derivative.get(1, 1), 0);
+		Assert.assertEquals(5, derivative.sum(), 0);
+	}
+
+	@Test
+	public void testViewsReadEvictedAndReplacedRowsSafely() {
+		History history = new History(10, 1);
+		push(history, 1, 0, 1);
+		Matrix view = push(history, 2, 2);
+		Assert.assertEquals(1, view.get(0, 0), 1.E-6);
+		push(history, 3, 3);
+		Assert.assertEquals(0, view.get(0, 0), 0);
+		Assert.assertEquals(2, view.get(2, 0), 1.E-6);
+		push(history, 4, 0);
+		Assert.assertEquals(4, view.get(0, 1), 1.E-6);
+		long entries = 0;
+		for (Entry<Long, Long> entry : view.getNonZeroEntries()) {
+			Assert.assertNotEquals(1L, (long) entry.getKey());
+			entries += 1;
+		}
+		Assert.assertEquals(3 * 3, entries);
+	}
+}
@@ -0,0 +1,70 @@
+package mklab.JGNN.nn.optimizers;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.tensor.DenseTensor;
+import mklab.JGNN.core.util.Reductions;
+
+public class AdamTest {
+	private static Tensor gradient(int size, int step) {
+		Tensor ret = new DenseTensor(size);
+		for (long i = 0; i < size; i++)
+			ret.put(i, Math.sin(i * 0.37 + step) * (step + 1));
+		return ret;
+	}
+
+	/**
+	 * Performs Adam steps with the tensor operations and order of operations that
+	 * the optimizer used before fusing them into expressions.
+	 */
+	private static Tensor eagerSteps(int size, int steps, double learningRate, double b1, double b2, double epsilon) {
+		Tensor value = new DenseTensor(size).setToOnes();
+		Tensor m = value.zeroCopy();
+		Tensor v = value.zeroCopy();
+		double b1t = 1;
+		double b2t = 1;
+		for (int step = 0; step < steps; step++) {
+			Tensor gradient = gradient(size, step);
+			b1t *= b1;
+			b2t *= b2;
+			m.selfMultiply(b1).selfAdd(gradient.multiply(1 - b1));
+			v.selfMultiply(b2).selfAdd(gradient.multiply(gradient).selfMultiply(1 - b2));
+			Tensor mHat = m.multiply(1. / (1 - b1t));
+			Tensor vHat = v.multiply(1. / (1 - b2t));
+			value.selfAdd(mHat.selfMultiply(-learningRate).selfMultiply(vHat.selfAdd(epsilon).selfSqrt().selfInverse()));
+		}
+		return value;
+	}
+
+	private static Tensor adamSteps(int size, int steps) {
+		Adam adam = new Adam(false, 0.01, 0.9, 0.999, 1.E-8);
+		Tensor value = new DenseTensor(size).setToOnes();
+		for (int step = 0; step < steps; step++)
+			adam.update(value, gradient(size, step));
+		return value;
+	}
+
+	private static void assertIdentical(Tensor expected, Tensor obtained) {
+		for (long i = 0; i < expected.size(); i++)
+			Assert.assertEquals(expected.get(i), obtained.get(i), 0);
+	}
+
+	@Test
+	public void testFusedUpdateMatchesEagerUpdate() {
+		for (int size : new int[] { 1, 7, 1001 })
+			assertIdentical(eagerSteps(size, 10, 0.01, 0.9, 0.999, 1.E-8), adamSteps(size, 10));
+	}
+
+	@Test
+	public void testParallelUpdateMatchesEagerUpdate() {
+		long threshold = Reductions.parallelThreshold;
+		try {
+			Reductions.parallelThreshold = 1;
+			assertIdentical(eagerSteps(5000, 10, 0.01, 0.9, 0.999, 1.E-8), adamSteps(5000, 10));
+		} finally {
+			Reductions.parallelThreshold = threshold;
+		}
+	}
+}
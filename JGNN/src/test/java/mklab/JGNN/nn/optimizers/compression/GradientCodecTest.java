@@ -0,0 +1,161 @@
+package mklab.JGNN.nn.optimizers.compression;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.tensor.DenseTensor;
+import mklab.JGNN.nn.Optimizer;
+import mklab.JGNN.nn.optimizers.BatchOptimizer;
+
+public class GradientCodecTest {
+	private static double[] values(int length) {
+		double[] ret = new double[length];
+		for (int i = 0; i < length; i++)
+			ret[i] = Math.sin(i * 1.7) * (i + 1);
+		return ret;
+	}
+
+	/**
+	 * Encodes a range of an array and decodes it into a copy of a destination
+	 * array, checking that the codec's byte bound holds.
+	 */
+	private static double[] roundTrip(GradientCodec codec, double[] values, int from, int to, double[] destination,
+			boolean add) {
+		ByteBuffer buffer = ByteBuffer.allocate(codec.getMaxEncodedBytes(to - from));
+		codec.encode(values, from, to, buffer);
+		buffer.flip();
+		double[] ret = destination.clone();
+		codec.decode(buffer, ret, from, to, add);
+		Assert.assertFalse(buffer.hasRemaining());
+		return ret;
+	}
+
+	@Test
+	public void testTopKKeepsLargestEntriesExactly() {
+		double[] values = new double[30];
+		for (int i = 0; i < values.length; i++)
+			values[i] = (i % 2 == 0 ? 1 : -1) * (i * 7 % 30) * 0.25; // exactly representable as floats
+		double[] destination = new double[values.length];
+		Arrays.fill(destination, 100);
+		double[] decoded = roundTrip(new TopKCodec(0.25), values, 5, 25, destination, false);
+		int kept = 0;
+		double smallestKept = Double.POSITIVE_INFINITY;
+		double largestDropped = 0;
+		for (int i = 5; i < 25; i++)
+			if (decoded[i] != 0) {
+				Assert.assertEquals(values[i], decoded[i], 0);
+				smallestKept = Math.min(smallestKept, Math.abs(values[i]));
+				kept++;
+			} else
+				largestDropped = Math.max(largestDropped, Math.abs(values[i]));
+		Assert.assertEquals(5, kept);
+		Assert.assertTrue(smallestKept >= largestDropped);
+		for (int i = 0; i < 5; i++)
+			Assert.assertEquals(100, decoded[i], 0);
+		for (int i = 25; i < values.length; i++)
+			Assert.assertEquals(100, decoded[i], 0);
+		double[] added = roundTrip(new TopKCodec(0.25), values, 5, 25, destination, true);
+		for (int i = 5; i < 25; i++)
+			Assert.assertEquals(100 + decoded[i], added[i], 0);
+	}
+
+	@Test
+	public void testTopKKeepsTiesUpToK() {
+		double[] values = { 1, -1, 1, -1, 1, -1, 1, -1 };
+		double[] decoded = roundTrip(new TopKCodec(0.5), values, 0, values.length, new double[values.length], false);
+		int kept = 0;
+		for (int i = 0; i < values.length; i++)
+			if (decoded[i] != 0) {
+				Assert.assertEquals(values[i], decoded[i], 0);
+				kept++;
+			}
+		Assert.assertEquals(4, kept);
+	}
+
+	@Test
+	public void testFloat16ErrorIsBounded() {
+		double[] values = values(200);
+		double[] decoded = roundTrip(new Float16Codec(), values, 0, values.length, new double[values.length], false);
+		for (int i = 0; i < values.length; i++)
+			// 11 significant bits with rounding to nearest
+			Assert.assertEquals(values[i], decoded[i], Math.abs(values[i]) * 0x1p-11 + 0x1p-24);
+		double[] extreme = { 1.E6, -1.E6, 1.E-9, 65504, -0.0 };
+		decoded = roundTrip(new Float16Codec(), extreme, 0, extreme.length, new double[extreme.length], false);
+		Assert.assertArrayEquals(new double[] { 65504, -65504, 0, 65504, 0 }, decoded, 0);
+	}
+
+	@Test
+	public void testSignPreservesSigns() {
+		double[] values = values(21);
+		double scale = 0;
+		for (double value : values)
+			scale += Math.abs(value);
+		scale /= values.length;
+		double[] decoded = roundTrip(new SignCodec(), values, 0, values.length, new double[values.length], false);
+		for (int i = 0; i < values.length; i++)
+			Assert.assertEquals(values[i] >= 0 ? scale : -scale, decoded[i], 1.E-5 * scale);
+	}
+
+	/**
+	 * Sums the derivatives that a batch optimizer with a codec passes to its base
+	 * optimizer over repeated identical gradients, and returns the largest
+	 * difference from the sum of the original gradients.
+	 */
+	private static double accumulatedError(GradientCodec codec, boolean errorFeedback, double[] gradient, int steps) {
+		double[] sums = new double[gradient.length];
+		Optimizer capture = new Optimizer() {
+			@Override
+			public void update(Tensor value, Tensor derivative) {
+				for (int i = 0; i < sums.length; i++)
+					sums[i] += derivative.get(i);
+			}
+		};
+		BatchOptimizer optimizer = new BatchOptimizer(capture, 1).setCompression(codec, errorFeedback);
+		Tensor value = new DenseTensor(gradient.length);
+		for (int step = 0; step < steps; step++)
+			optimizer.update(value, new DenseTensor(gradient));
+		double error = 0;
+		for (int i = 0; i < sums.length; i++)
+			error = Math.max(error, Math.abs(sums[i] - steps * gradient[i]));
+		return error;
+	}
+
+	@Test
+	public void testErrorFeedbackBoundsAccumulatedError() {
+		double[] gradient = { 3, -1, 0.5, -0.25, 2, 0.01 };
+		Assert.assertTrue(accumulatedError(new SignCodec(), false, gradient, 1000) > 100);
+		Assert.assertTrue(accumulatedError(new SignCodec(), true, gradient, 1000) < 10);
+		Assert.assertTrue(accumulatedError(new TopKCodec(0.2), false, gradient, 1000) > 100);
+		Assert.assertTrue(accumulatedError(new TopKCodec(0.2), true, gradient, 1000) < 10);
+	}
+
+	@Test
+	public void testRepeatedCompressionMatchesSeparateRoundTrips() {
+		for (GradientCodec codec : new GradientCodec[] { new TopKCodec(0.3), new Float16Codec(), new SignCodec() }) {
+			double[][] received = new double[2][];
+			Tensor first = new DenseTensor(7);
+			Tensor second = new DenseTensor(12);
+			Optimizer capture = new Optimizer() {
+				@Override
+				public void update(Tensor value, Tensor derivative) {
+					received[value == first ? 0 : 1] = derivative.toArray();
+				}
+			};
+			BatchOptimizer optimizer = new BatchOptimizer(capture, 1).setCompression(codec, false);
+			for (int step = 0; step < 5; step++)
+				for (Tensor value : new Tensor[] { first, second }) {
+					double[] gradient = values((int) value.size());
+					for (int i = 0; i < gradient.length; i++)
+						gradient[i] *= Math.cos(step * 2.3 + i);
+					optimizer.update(value, new DenseTensor(gradient));
+					double[] expected = roundTrip(codec, gradient, 0, gradient.length, new double[gradient.length],
+							false);
+					Assert.assertArrayEquals(expected, received[value == first ? 0 : 1], 0);
+				}
+		}
+	}
+}